@@ -18,11 +18,14 @@
 
 package org.jboss.msc._private;
 
+import java.io.File;
+
 import org.jboss.logging.Logger;
 import org.jboss.logging.annotations.Cause;
 import org.jboss.logging.annotations.LogMessage;
 import org.jboss.logging.annotations.Message;
 import org.jboss.logging.annotations.MessageLogger;
+import org.jboss.msc.problem.Problem;
 import org.jboss.msc.service.CircularDependencyException;
 import org.jboss.msc.service.DuplicateServiceException;
 import org.jboss.msc.service.ServiceName;
@@ -31,6 +34,7 @@ import org.jboss.msc.txn.InvalidTransactionStateException;
 import static org.jboss.logging.Logger.Level.ERROR;
 import static org.jboss.logging.Logger.Level.FATAL;
 import static org.jboss.logging.Logger.Level.INFO;
+import static org.jboss.logging.Logger.Level.WARN;
 
 /**
  * MSC2 logging utilities.
@@ -127,6 +131,36 @@ public interface MSCLogger {
     @Message(id = 21, value = "Transaction post commit completion listener failed")
     void postCommitCompletionListenerFailed(@Cause Throwable cause);
 
+    @Message(id = 22, value = "Service %s was modified by concurrent transaction")
+    String concurrentlyModifiedService(ServiceName serviceName);
+
+    @Message(id = 23, value = "Stop of service %s was abandoned at shutdown deadline")
+    String serviceStopAbandoned(ServiceName serviceName);
+
+    @Message(id = 24, value = "Service %s did not complete its start within %d ms")
+    String serviceStartOverdue(ServiceName serviceName, long timeout);
+
+    @Message(id = 25, value = "Service %s did not complete its stop within %d ms")
+    String serviceStopOverdue(ServiceName serviceName, long timeout);
+
+    @Message(id = 26, value = "Dry run transaction cannot be committed, it must be rolled back")
+    String dryRunNotCommittable();
+
+    @Message(id = 27, value = "Service %s failed to start in place of running service, running service was kept")
+    String serviceHandoffFailed(ServiceName serviceName);
+
+    @LogMessage(level = WARN)
+    @Message(id = 28, value = "Failed to write boot profile %s")
+    void bootProfileWriteFailed(@Cause Throwable cause, File file);
+
+    @LogMessage(level = WARN)
+    @Message(id = 29, value = "Demand of on access dependency %s reported %s problem: %s")
+    void onAccessDemandProblem(@Cause Throwable cause, ServiceName dependencyName, Problem.Severity severity, String message);
+
+    @LogMessage(level = WARN)
+    @Message(id = 30, value = "Failed to read boot profile %s, previous timings are ignored")
+    void bootProfileReadFailed(@Cause Throwable cause, File file);
+
     // jump to 100...
 
     @Message(id = 101, value = "Parameter %s is null")
@@ -243,6 +277,27 @@ public interface MSCLogger {
     @Message(id = 138, value = "Cannot restart removed service")
     IllegalStateException cannotRestartRemovedService();
 
+    @Message(id = 139, value = "Timed out waiting for dependency %s to start")
+    IllegalStateException dependencyStartTimedOut(ServiceName dependencyName);
+
+    @Message(id = 140, value = "Service registry is out of transaction scope")
+    IllegalArgumentException registryOutOfTransactionScope();
+
+    @Message(id = 141, value = "Service %s is being modified by concurrent transaction")
+    IllegalStateException cannotModifyConcurrentlyModifiedService(ServiceName serviceName);
+
+    @Message(id = 142, value = "Cannot place demand on dependency %s")
+    IllegalStateException cannotDemandDependency(@Cause Throwable cause, ServiceName dependencyName);
+
+    @Message(id = 143, value = "Dry run transaction cannot remove or replace services")
+    IllegalStateException dryRunCannotRemoveOrReplace();
+
+    @Message(id = 144, value = "Cannot wait for dependency %s to start in transaction executor thread")
+    IllegalStateException cannotWaitForDependencyInTask(ServiceName dependencyName);
+
+    @Message(id = 145, value = "Cannot wait for dependency %s to start in thread holding running updating transaction")
+    IllegalStateException cannotWaitForDependencyHoldingTransaction(ServiceName dependencyName);
+
     /*
      * Location nesting types.
      */
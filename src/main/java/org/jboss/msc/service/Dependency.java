@@ -18,6 +18,8 @@
 
 package org.jboss.msc.service;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * A dependency. Every service that needs to access a dependency value should use this class.
@@ -32,10 +34,30 @@ public interface Dependency<T> {
 
     /**
      * Gets the current value. This method guarantees to return injected value if service have been properly
-     * installed to the container.
+     * installed to the container. If this is an {@link DependencyFlag#ON_ACCESS on access} dependency that is not
+     * started yet, it is demanded and {@code null} is returned, this method never waits for it to come up.
+     * Use {@link #get(long, TimeUnit)} to wait.
      *
      * @return the value associated with this object
+     * @throws IllegalStateException if on access dependency could not be demanded
      */
-    T get();
+    T get() throws IllegalStateException;
+
+    /**
+     * Gets the current value, waiting at most the given time for an {@link DependencyFlag#ON_ACCESS on access}
+     * dependency to start. Waiting is refused in threads the dependency start would wait for: threads running a task
+     * of a transaction, for example service start or stop, and threads holding a running updating transaction, that
+     * is threads that last modified or prepared updating transaction not being committed yet. Use {@link #get()}
+     * there, the dependency is demanded without waiting.
+     *
+     * @param timeout the maximum time to wait
+     * @param unit the time unit of the {@code timeout} argument
+     * @return the value associated with this object
+     * @throws InterruptedException if the current thread was interrupted while waiting
+     * @throws TimeoutException if on access dependency did not start before the timeout elapsed
+     * @throws IllegalStateException if on access dependency could not be demanded, or if it is not started and
+     * current thread runs a transaction task or holds a running updating transaction
+     */
+    T get(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException;
 
 }
@@ -44,6 +44,12 @@ public enum DependencyFlag {
      * Do not place a demand on this dependency. Overrides default mode behavior.
      */
     UNDEMANDED,
+    /**
+     * Do not place a demand on this dependency nor wait for it to start. The dependency is demanded the first time
+     * its value is accessed, only {@link Dependency#get(long, java.util.concurrent.TimeUnit)} waits until it is
+     * started. The dependent is not stopped when this dependency stops.
+     */
+    ON_ACCESS,
     ;
 
     /**
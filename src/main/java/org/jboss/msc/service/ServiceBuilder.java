@@ -50,6 +50,16 @@ public interface ServiceBuilder<T> {
      */
     ServiceBuilder<T> setMode(ServiceMode mode) throws IllegalStateException;
 
+    /**
+     * Marks the service as expendable. Expendable service is stopped like any other service, but when its container is
+     * shut down with deadline, its stop is not waited for at all, see {@link ServiceContainer#shutdown(org.jboss.msc.txn.UpdateTransaction, long, java.util.concurrent.TimeUnit, org.jboss.msc.util.Listener)}.
+     *
+     * @param expendable whether the service is expendable
+     * @return a reference to this object
+     * @throws IllegalStateException if {@link #install()} has been called.
+     */
+    ServiceBuilder<T> setExpendable(boolean expendable) throws IllegalStateException;
+
     /**
      * Sets the service instance..
      * 
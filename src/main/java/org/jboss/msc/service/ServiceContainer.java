@@ -22,6 +22,8 @@ import org.jboss.msc.txn.InvalidTransactionStateException;
 import org.jboss.msc.txn.UpdateTransaction;
 import org.jboss.msc.util.Listener;
 
+import java.util.concurrent.TimeUnit;
+
 /**
  * A service container. Implementations of this interface are thread safe.
  *
@@ -49,8 +51,9 @@ public interface ServiceContainer {
      * is not the same as the one associated with this service container.
      * @throws org.jboss.msc.txn.InvalidTransactionStateException if transaction is not active.
      * @throws IllegalArgumentException if transaction was created by different transaction controller than this container
+     * @throws IllegalStateException if transaction is dry run
      */
-    void shutdown(UpdateTransaction transaction) throws IllegalArgumentException, InvalidTransactionStateException;
+    void shutdown(UpdateTransaction transaction) throws IllegalArgumentException, IllegalStateException, InvalidTransactionStateException;
 
     /**
      * Shuts down the container, removing all registries and their services.
@@ -62,7 +65,27 @@ public interface ServiceContainer {
      * is not the same as the one associated with this service container.
      * @throws org.jboss.msc.txn.InvalidTransactionStateException if transaction is not active.
      * @throws IllegalArgumentException if transaction was created by different transaction controller than this container
+     * @throws IllegalStateException if transaction is dry run
+     */
+    void shutdown(UpdateTransaction transaction, Listener<ServiceContainer> completionListener) throws IllegalArgumentException, IllegalStateException, InvalidTransactionStateException;
+
+    /**
+     * Shuts down the container within a deadline, removing all registries and their services. Every service is
+     * stopped, but stops of {@link ServiceBuilder#setExpendable(boolean) expendable} services are not waited for.
+     * Once the deadline passes, services still waiting for their dependents are stopped right away and stops not
+     * completed yet are abandoned. Every stop abandoned at deadline is reported as a warning in the transaction
+     * report.
+     *
+     * @param transaction the transaction
+     * @param timeout the maximum time to wait for services to stop
+     * @param unit the time unit of <code>timeout</code>
+     * @param completionListener called when operation is finished
+     * @throws java.lang.IllegalArgumentException if <code>transaction</code> or <code>unit</code> is null,
+     * if <code>timeout</code> is negative or if transaction controller associated with <code>transaction</code>
+     * is not the same as the one associated with this service container.
+     * @throws org.jboss.msc.txn.InvalidTransactionStateException if transaction is not active.
+     * @throws IllegalStateException if transaction is dry run
      */
-    void shutdown(UpdateTransaction transaction, Listener<ServiceContainer> completionListener) throws IllegalArgumentException, InvalidTransactionStateException;
+    void shutdown(UpdateTransaction transaction, long timeout, TimeUnit unit, Listener<ServiceContainer> completionListener) throws IllegalArgumentException, IllegalStateException, InvalidTransactionStateException;
 
 }
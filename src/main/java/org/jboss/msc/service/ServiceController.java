@@ -19,6 +19,7 @@
 package org.jboss.msc.service;
 
 import org.jboss.msc.txn.InvalidTransactionStateException;
+import org.jboss.msc.txn.ReadTransaction;
 import org.jboss.msc.txn.UpdateTransaction;
 import org.jboss.msc.util.Listener;
 
@@ -32,6 +33,19 @@ import org.jboss.msc.util.Listener;
  */
 public interface ServiceController<T> {
 
+    /**
+     * A service state.
+     */
+    enum State {
+        DOWN,
+        STARTING,
+        UP,
+        FAILED,
+        STOPPING,
+        REMOVING,
+        REMOVED,
+    }
+
     /**
      * Disables a service, causing this service to stop if it is {@code UP}.
      *
@@ -93,8 +107,9 @@ public interface ServiceController<T> {
      * or if transaction controller associated with <code>transaction</code>
      * is not the same as the one associated with this service controller.
      * @throws org.jboss.msc.txn.InvalidTransactionStateException if transaction is not active.
+     * @throws IllegalStateException if transaction is dry run
      */
-    void remove(UpdateTransaction transaction) throws IllegalArgumentException, InvalidTransactionStateException;
+    void remove(UpdateTransaction transaction) throws IllegalArgumentException, IllegalStateException, InvalidTransactionStateException;
 
     /**
      * Removes this service.<p>
@@ -106,8 +121,9 @@ public interface ServiceController<T> {
      * or if transaction controller associated with <code>transaction</code>
      * is not the same as the one associated with this service controller.
      * @throws org.jboss.msc.txn.InvalidTransactionStateException if transaction is not active.
+     * @throws IllegalStateException if transaction is dry run
      */
-    void remove(UpdateTransaction transaction, Listener<ServiceController<T>> completionListener) throws IllegalArgumentException, InvalidTransactionStateException;
+    void remove(UpdateTransaction transaction, Listener<ServiceController<T>> completionListener) throws IllegalArgumentException, IllegalStateException, InvalidTransactionStateException;
 
     /**
      * Restarts this service.
@@ -165,7 +181,7 @@ public interface ServiceController<T> {
      * @param transaction the transaction
      * @param newService the new service to be published
      * @throws java.lang.IllegalArgumentException if any method parameter is <code>null</code>
-     * @throws IllegalStateException if controller was removed
+     * @throws IllegalStateException if controller was removed or if transaction is dry run
      * @throws org.jboss.msc.txn.InvalidTransactionStateException if transaction is not active.
      */
     void replace(UpdateTransaction transaction, Service<T> newService) throws IllegalArgumentException, IllegalStateException, InvalidTransactionStateException;
@@ -177,7 +193,7 @@ public interface ServiceController<T> {
      * @param newService the new service to be published
      * @param completionListener called when operation is finished
      * @throws java.lang.IllegalArgumentException if any method parameter is <code>null</code>
-     * @throws IllegalStateException if controller was removed
+     * @throws IllegalStateException if controller was removed or if transaction is dry run
      * @throws org.jboss.msc.txn.InvalidTransactionStateException if transaction is not active.
      */
     void replace(UpdateTransaction transaction, Service<T> newService, Listener<ServiceController<T>> completionListener) throws IllegalArgumentException, IllegalStateException, InvalidTransactionStateException;
@@ -191,7 +207,7 @@ public interface ServiceController<T> {
      * @return true if successful. False return indicates that
      * the actual service value was not equal to the expected oldService value.
      * @throws java.lang.IllegalArgumentException if any method parameter is <code>null</code>
-     * @throws IllegalStateException if controller was removed
+     * @throws IllegalStateException if controller was removed or if transaction is dry run
      * @throws org.jboss.msc.txn.InvalidTransactionStateException if transaction is not active.
      */
     boolean replace(UpdateTransaction transaction, Service<T> oldService, Service<T> newService) throws IllegalArgumentException, IllegalStateException, InvalidTransactionStateException;
@@ -206,15 +222,63 @@ public interface ServiceController<T> {
      * @return true if successful. False return indicates that
      * the actual service value was not equal to the expected oldService value.
      * @throws java.lang.IllegalArgumentException if any method parameter is <code>null</code>
-     * @throws IllegalStateException if controller was removed
+     * @throws IllegalStateException if controller was removed or if transaction is dry run
      * @throws org.jboss.msc.txn.InvalidTransactionStateException if transaction is not active.
      */
     boolean replace(UpdateTransaction transaction, Service<T> oldService, Service<T> newService, Listener<ServiceController<T>> completionListener) throws IllegalArgumentException, IllegalStateException, InvalidTransactionStateException;
 
+    /**
+     * Replaces {@code service} by a new service without stopping dependents. If the service is up, the new service
+     * is started first, then it is published together with its value and finally the old service is stopped, so that
+     * dependents never see the service go down. If the new service fails to start, the old service keeps running and
+     * the failure is reported as a problem of the transaction. New service cannot install child services while
+     * starting. If the service is not up, this method behaves like {@link #replace(UpdateTransaction, Service)}.
+     *
+     * @param transaction the transaction
+     * @param newService the new service to be published
+     * @throws java.lang.IllegalArgumentException if any method parameter is <code>null</code>
+     * @throws IllegalStateException if controller was removed or if transaction is dry run
+     * @throws org.jboss.msc.txn.InvalidTransactionStateException if transaction is not active.
+     */
+    void replaceInPlace(UpdateTransaction transaction, Service<T> newService) throws IllegalArgumentException, IllegalStateException, InvalidTransactionStateException;
+
+    /**
+     * Replaces {@code service} by a new service without stopping dependents, as
+     * {@link #replaceInPlace(UpdateTransaction, Service)} does.
+     *
+     * @param transaction the transaction
+     * @param newService the new service to be published
+     * @param completionListener called when operation is finished
+     * @throws java.lang.IllegalArgumentException if any method parameter is <code>null</code>
+     * @throws IllegalStateException if controller was removed or if transaction is dry run
+     * @throws org.jboss.msc.txn.InvalidTransactionStateException if transaction is not active.
+     */
+    void replaceInPlace(UpdateTransaction transaction, Service<T> newService, Listener<ServiceController<T>> completionListener) throws IllegalArgumentException, IllegalStateException, InvalidTransactionStateException;
+
     /**
      * Gets associated service.
      * @return service
      */
     Service<T> getService();
 
+    /**
+     * Gets the service state visible to {@code transaction}. Read-only transactions see the state committed by the
+     * last updating transaction before they were created, updating transactions see the current state.
+     *
+     * @param transaction the transaction
+     * @return service state, {@code REMOVED} if service was not installed at that point
+     * @throws java.lang.IllegalArgumentException if <code>transaction</code> is null or was not created by MSC
+     */
+    State getState(ReadTransaction transaction) throws IllegalArgumentException;
+
+    /**
+     * Gets the service value visible to {@code transaction}. Read-only transactions see the value committed by the
+     * last updating transaction before they were created, updating transactions see the current value.
+     *
+     * @param transaction the transaction
+     * @return service value, or {@code null} if service was not {@code UP} at that point
+     * @throws java.lang.IllegalArgumentException if <code>transaction</code> is null or was not created by MSC
+     */
+    T getValue(ReadTransaction transaction) throws IllegalArgumentException;
+
 }
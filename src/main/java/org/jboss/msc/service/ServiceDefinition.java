@@ -0,0 +1,238 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2014 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.msc.service;
+
+import static org.jboss.msc._private.MSCLogger.SERVICE;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Desired state of a service: its name, aliases, dependencies, mode, expendability and service. Unlike {@link ServiceBuilder},
+ * definitions are not bound to any transaction, so that the set of definitions of a deployment can be compared
+ * against installed services and only the difference applied.
+ *
+ * @param <T> the service type
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opalka</a>
+ */
+public final class ServiceDefinition<T> {
+
+    private final ServiceName name;
+    private final Service<T> service;
+    private final Set<ServiceName> aliases = new LinkedHashSet<>();
+    private final List<DependencyDefinition> dependencies = new ArrayList<>();
+    private ServiceMode mode = ServiceMode.ACTIVE;
+    private boolean expendable;
+
+    private ServiceDefinition(final ServiceName name, final Service<T> service) {
+        this.name = name;
+        this.service = service;
+    }
+
+    /**
+     * Creates a service definition.
+     *
+     * @param name the service name
+     * @param service the service, or {@code null} for a service without value
+     * @param <T> the service type
+     * @return the service definition
+     * @throws IllegalArgumentException if {@code name} is null
+     */
+    public static <T> ServiceDefinition<T> of(final ServiceName name, final Service<T> service) throws IllegalArgumentException {
+        if (name == null) {
+            throw SERVICE.methodParameterIsNull("name");
+        }
+        return new ServiceDefinition<>(name, service);
+    }
+
+    /**
+     * Adds aliases of the service.
+     *
+     * @param aliases the aliases
+     * @return this definition
+     * @throws IllegalArgumentException if {@code aliases} or any of them is null
+     */
+    public ServiceDefinition<T> addAliases(final ServiceName... aliases) throws IllegalArgumentException {
+        if (aliases == null) {
+            throw SERVICE.methodParameterIsNull("aliases");
+        }
+        for (final ServiceName alias : aliases) {
+            if (alias == null) {
+                throw SERVICE.methodParameterIsNull("alias");
+            }
+            if (!alias.equals(name)) this.aliases.add(alias);
+        }
+        return this;
+    }
+
+    /**
+     * Adds a dependency on service of the same registry.
+     *
+     * @param name the dependency name
+     * @param flags the dependency flags
+     * @return this definition
+     * @throws IllegalArgumentException if {@code name} is null
+     */
+    public ServiceDefinition<T> addDependency(final ServiceName name, final DependencyFlag... flags) throws IllegalArgumentException {
+        return addDependency(null, name, flags);
+    }
+
+    /**
+     * Adds a dependency on service of the given registry.
+     *
+     * @param registry the dependency registry, or {@code null} for the registry the service is installed into
+     * @param name the dependency name
+     * @param flags the dependency flags
+     * @return this definition
+     * @throws IllegalArgumentException if {@code name} is null
+     */
+    public ServiceDefinition<T> addDependency(final ServiceRegistry registry, final ServiceName name, final DependencyFlag... flags) throws IllegalArgumentException {
+        if (name == null) {
+            throw SERVICE.methodParameterIsNull("name");
+        }
+        dependencies.add(new DependencyDefinition(registry, name, flags != null ? flags.clone() : new DependencyFlag[0]));
+        return this;
+    }
+
+    /**
+     * Sets the service mode.
+     *
+     * @param mode the service mode
+     * @return this definition
+     * @throws IllegalArgumentException if {@code mode} is null
+     */
+    public ServiceDefinition<T> setMode(final ServiceMode mode) throws IllegalArgumentException {
+        if (mode == null) {
+            throw SERVICE.methodParameterIsNull("mode");
+        }
+        this.mode = mode;
+        return this;
+    }
+
+    /**
+     * Marks the service as expendable, see {@link ServiceBuilder#setExpendable(boolean)}.
+     *
+     * @param expendable whether the service is expendable
+     * @return this definition
+     */
+    public ServiceDefinition<T> setExpendable(final boolean expendable) {
+        this.expendable = expendable;
+        return this;
+    }
+
+    /**
+     * Gets the service name.
+     *
+     * @return the service name
+     */
+    public ServiceName getName() {
+        return name;
+    }
+
+    /**
+     * Gets the service.
+     *
+     * @return the service, or {@code null} for a service without value
+     */
+    public Service<T> getService() {
+        return service;
+    }
+
+    /**
+     * Gets the aliases.
+     *
+     * @return the aliases
+     */
+    public Set<ServiceName> getAliases() {
+        return Collections.unmodifiableSet(aliases);
+    }
+
+    /**
+     * Gets the dependencies.
+     *
+     * @return the dependencies
+     */
+    public List<DependencyDefinition> getDependencies() {
+        return Collections.unmodifiableList(dependencies);
+    }
+
+    /**
+     * Gets the service mode.
+     *
+     * @return the service mode
+     */
+    public ServiceMode getMode() {
+        return mode;
+    }
+
+    /**
+     * Indicates whether the service is expendable.
+     *
+     * @return {@code true} if stop of the service may be abandoned at container shutdown deadline
+     */
+    public boolean isExpendable() {
+        return expendable;
+    }
+
+    /**
+     * Desired dependency of a service.
+     */
+    public static final class DependencyDefinition {
+
+        private final ServiceRegistry registry;
+        private final ServiceName name;
+        private final DependencyFlag[] flags;
+
+        private DependencyDefinition(final ServiceRegistry registry, final ServiceName name, final DependencyFlag[] flags) {
+            this.registry = registry;
+            this.name = name;
+            this.flags = flags;
+        }
+
+        /**
+         * Gets the dependency registry.
+         *
+         * @return the registry, or {@code null} for the registry the service is installed into
+         */
+        public ServiceRegistry getRegistry() {
+            return registry;
+        }
+
+        /**
+         * Gets the dependency name.
+         *
+         * @return the dependency name
+         */
+        public ServiceName getName() {
+            return name;
+        }
+
+        /**
+         * Gets the dependency flags.
+         *
+         * @return the dependency flags
+         */
+        public DependencyFlag[] getFlags() {
+            return flags.clone();
+        }
+    }
+}
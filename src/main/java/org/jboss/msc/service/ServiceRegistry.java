@@ -19,9 +19,12 @@
 package org.jboss.msc.service;
 
 import org.jboss.msc.txn.InvalidTransactionStateException;
+import org.jboss.msc.txn.ReadTransaction;
 import org.jboss.msc.txn.UpdateTransaction;
 import org.jboss.msc.util.Listener;
 
+import java.util.Set;
+
 /**
  * A service registry. Implementations of this interface are thread safe.
  *
@@ -50,6 +53,41 @@ public interface ServiceRegistry {
      */
     <T> ServiceController<T> getService(ServiceName serviceName);
 
+    /**
+     * Gets a service controller visible to {@code transaction}, returning {@code null} if it is not found.
+     * Read-only transactions see the registry as committed by the last updating transaction before they were
+     * created and never wait for running updating transaction, updating transactions see the current registry.
+     *
+     * @param transaction the transaction
+     * @param serviceName the service name
+     * @param <T> service controller value type
+     * @return the service controller corresponding to {@code serviceName}, or {@code null} if it is not found
+     */
+    <T> ServiceController<T> getService(ReadTransaction transaction, ServiceName serviceName);
+
+    /**
+     * Gets names of services required by installed services, that are not installed in this registry as visible to
+     * {@code transaction}. Services depending on them cannot start and transaction installing them cannot be
+     * committed. Read-only transactions see the registry as committed by the last updating transaction before they
+     * were created, updating transactions see the current registry. The returned set is a read-only snapshot.
+     *
+     * @param transaction the transaction
+     * @return the names of missing services
+     * @throws IllegalArgumentException if <code>transaction</code> is null
+     */
+    Set<ServiceName> getMissingServices(ReadTransaction transaction) throws IllegalArgumentException;
+
+    /**
+     * Gets names of services blocked on missing service with given name, i.e. installed services requiring it, as
+     * visible to {@code transaction}.
+     *
+     * @param transaction the transaction
+     * @param missingServiceName the missing service name
+     * @return the names of blocked services, empty if service is not missing
+     * @throws IllegalArgumentException if <code>transaction</code> or <code>missingServiceName</code> is null
+     */
+    Set<ServiceName> getBlockedServices(ReadTransaction transaction, ServiceName missingServiceName) throws IllegalArgumentException;
+
     /**
      * Disables this registry and all its services, causing {@code UP} services to stop.
      *
@@ -85,8 +123,9 @@ public interface ServiceRegistry {
      * is not the same as the one associated with this service registry.
      * @throws org.jboss.msc.txn.InvalidTransactionStateException if transaction is not active.
      * @throws IllegalArgumentException if transaction was created by different transaction controller than this registry
+     * @throws IllegalStateException if transaction is dry run
      */
-    void remove(UpdateTransaction transaction) throws IllegalArgumentException, InvalidTransactionStateException;
+    void remove(UpdateTransaction transaction) throws IllegalArgumentException, IllegalStateException, InvalidTransactionStateException;
 
     /**
      * Removes this registry from the container.
@@ -98,7 +137,8 @@ public interface ServiceRegistry {
      * is not the same as the one associated with this service registry.
      * @throws org.jboss.msc.txn.InvalidTransactionStateException if transaction is not active.
      * @throws IllegalArgumentException if transaction was created by different transaction controller than this registry
+     * @throws IllegalStateException if transaction is dry run
      */
-    void remove(UpdateTransaction transaction, Listener<ServiceRegistry> completionListener) throws IllegalArgumentException, InvalidTransactionStateException;
+    void remove(UpdateTransaction transaction, Listener<ServiceRegistry> completionListener) throws IllegalArgumentException, IllegalStateException, InvalidTransactionStateException;
 
 }
@@ -30,6 +30,7 @@ import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static java.lang.Thread.holdsLock;
 
@@ -71,8 +72,11 @@ abstract class AbstractTransaction extends SimpleAttachable implements Transacti
     private static final int T_RESTARTING_to_COMMITTED = 4;
     private static final int T_PREPARED_to_COMMITTING  = 5;
     private static final int T_COMMITTING_to_COMMITTED = 6;
+    private static final AtomicLong nextId = new AtomicLong();
     final TransactionController txnController;
     final Executor taskExecutor;
+    // unique for the life time of the JVM, identifies the transaction in diagnostics
+    final long id = nextId.incrementAndGet();
     private final Problem.Severity maxSeverity = Problem.Severity.WARNING;
     private final long startTime = System.nanoTime();
     private final ProblemReport report = new ProblemReport();
@@ -214,6 +218,7 @@ abstract class AbstractTransaction extends SimpleAttachable implements Transacti
     private int transition(int state) {
         assert holdsLock(lock);
         for (;;) {
+            final int previousState = state;
             int t = getTransition(state);
             switch (t) {
                 case T_NONE: return state;
@@ -224,11 +229,11 @@ abstract class AbstractTransaction extends SimpleAttachable implements Transacti
                     } else {
                         state = newState(STATE_PREPARING, state);
                     }
-                    continue;
+                    break;
                 }
                 case T_PREPARING_to_PREPARED: {
                     state = newState(STATE_PREPARED, state | FLAG_DO_PREPARE);
-                    continue;
+                    break;
                 }
                 case T_PREPARED_to_RESTARTING: {
                     if (postRestartListeners.size() > 0) {
@@ -237,11 +242,11 @@ abstract class AbstractTransaction extends SimpleAttachable implements Transacti
                     } else {
                         state = newState(STATE_RESTARTING, state);
                     }
-                    continue;
+                    break;
                 }
                 case T_RESTARTING_to_COMMITTED: {
                     state = newState(STATE_COMMITTED, state | FLAG_DO_RESTART);
-                    continue;
+                    break;
                 }
                 case T_PREPARED_to_COMMITTING: {
                     if (postCommitListeners.size() > 0) {
@@ -250,14 +255,27 @@ abstract class AbstractTransaction extends SimpleAttachable implements Transacti
                     } else {
                         state = newState(STATE_COMMITTING, state);
                     }
-                    continue;
+                    break;
                 }
                 case T_COMMITTING_to_COMMITTED: {
                     state = newState(STATE_COMMITTED, state | FLAG_DO_COMMIT | FLAG_DO_CLEAN_UP);
-                    continue;
+                    break;
                 }
                 default: throw new IllegalStateException();
             }
+            FlightRecorderEvents.transactionPhase(this, previousState, state, startTime);
+        }
+    }
+
+    static String stateName(final int state) {
+        switch (stateOf(state)) {
+            case STATE_ACTIVE: return "ACTIVE";
+            case STATE_PREPARING: return "PREPARING";
+            case STATE_PREPARED: return "PREPARED";
+            case STATE_RESTARTING: return "RESTARTING";
+            case STATE_COMMITTING: return "COMMITTING";
+            case STATE_COMMITTED: return "COMMITTED";
+            default: throw new IllegalStateException();
         }
     }
 
@@ -300,11 +318,15 @@ abstract class AbstractTransaction extends SimpleAttachable implements Transacti
 
     private final Runnable cleanUpTask = new Runnable() {
         public void run() {
-            txnController.unregister();
+            txnController.unregister((BasicReadTransaction) AbstractTransaction.this);
         }
     };
 
     private void executeTasks(final int state) {
+        if (Bits.allAreSet(state, FLAG_DO_CLEAN_UP) && wrappingTxn instanceof UpdateTransaction) {
+            // committed changes must be visible to read-only transactions before anybody is notified
+            txnController.publish(this);
+        }
         final boolean userThread = Bits.allAreSet(state, FLAG_USER_THREAD);
         if (userThread) {
             if (Bits.anyAreSet(state, LISTENERS_MASK)) {
@@ -18,6 +18,7 @@
 
 package org.jboss.msc.txn;
 
+import java.util.Set;
 import java.util.concurrent.Executor;
 
 /**
@@ -26,6 +27,19 @@ import java.util.concurrent.Executor;
  */
 final class BasicReadTransaction extends AbstractTransaction implements ReadTransaction {
 
+    // the registry version this transaction reads, -1 if none; guarded by TransactionController lock
+    volatile long readVersion = -1;
+    // whether this transaction is running as updating transaction; guarded by TransactionController lock
+    boolean updating;
+    // registries updating transaction asked for, null if all of them
+    Set<ServiceRegistryImpl> declaredScope;
+    // registries updating transaction may modify once running, null if all of them
+    volatile Set<ServiceRegistryImpl> scope;
+    // whether updating transaction runs alongside other optimistic transactions, conflicts are detected at prepare
+    boolean optimistic;
+    // thread that last modified running updating transaction, null once it is being committed or released
+    volatile Thread holder;
+
     BasicReadTransaction(final TransactionController controller, final Executor taskExecutor) {
         super(controller, taskExecutor);
         setWrappingTransaction(this);
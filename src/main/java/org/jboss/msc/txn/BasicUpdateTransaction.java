@@ -45,6 +45,7 @@ final class BasicUpdateTransaction implements UpdateTransaction {
             if (invalidated) throw MSCLogger.TXN.invalidatedUpdateTransaction();
             updated = true;
         }
+        delegate.holder = Thread.currentThread();
     }
 
     boolean isModified() {
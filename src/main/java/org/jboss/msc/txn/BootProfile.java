@@ -0,0 +1,380 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2014 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.msc.txn;
+
+import static org.jboss.msc._private.MSCLogger.ROOT;
+import static org.jboss.msc._private.MSCLogger.TXN;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.msc.service.ServiceName;
+import org.jboss.msc.util.AttachmentKey;
+
+/**
+ * Start timings of a previous boot, used to start slow services and their prerequisites early.
+ * <p>
+ * Once attached to an update transaction, the profile records how long each started service took to start and writes
+ * the timings to its file when the transaction commits. Timings read from the file at attach time prioritize the tasks
+ * of the transaction: every task is queued in front of the transaction executor and each executor thread runs the
+ * queued task of highest priority. Service start tasks are prioritized by the chain duration recorded for the service,
+ * its start duration plus the longest chain of start durations through its dependents, so that slow services and
+ * the services they wait for start before services nobody waits for. Chains are computed at commit over the installed
+ * dependency graph, so that the next boot knows them before dependents are installed. Other tasks go first, they are
+ * short and they make further services startable. Priorities only matter when the executor has more tasks than
+ * threads. The file is replaced atomically, and a file that cannot be read is ignored as if previous boot didn't
+ * record any timings.
+ * <p>
+ * Usage:
+ * <pre>
+ * final BootProfile profile = BootProfile.attach(txn, new File("boot.profile"));
+ * // install services, prepare and commit txn, the profile file is written at commit
+ * </pre>
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opalka</a>
+ */
+public final class BootProfile {
+
+    private static final AttachmentKey<BootProfile> KEY = AttachmentKey.create();
+    private static final int MAGIC = 0x4d534250;
+    private static final int VERSION = 1;
+
+    private final File file;
+    private final Map<ServiceName, Timing> previousTimings;
+    private final Map<ServiceControllerImpl<?>, Long> startTimes = new ConcurrentHashMap<>();
+    private final Map<ServiceControllerImpl<?>, Long> recordedDurations = new ConcurrentHashMap<>();
+    private final Map<ServiceName, Long> recordedDurationsByName = new ConcurrentHashMap<>();
+    private final PriorityBlockingQueue<QueuedTask> queue = new PriorityBlockingQueue<>();
+    private final AtomicLong sequence = new AtomicLong();
+    // every executed drain runs exactly one queued task, the one of highest priority at that moment
+    private final Runnable drain = new Runnable() {
+        @Override
+        public void run() {
+            final QueuedTask task = queue.poll();
+            if (task != null) task.command.run();
+        }
+    };
+
+    private BootProfile(final File file, final Map<ServiceName, Timing> previousTimings) {
+        this.file = file;
+        this.previousTimings = previousTimings;
+    }
+
+    /**
+     * Attaches a boot profile to the given transaction. Timings of previous boot are read from the file if it exists,
+     * a file that cannot be read or doesn't contain boot profile is logged and ignored. Only services started after
+     * this method returns are recorded and only tasks created after this method returns are prioritized.
+     *
+     * @param txn  the update transaction
+     * @param file the profile file
+     * @return the profile associated with {@code txn}
+     * @throws IllegalArgumentException if any parameter is null
+     */
+    public static BootProfile attach(final UpdateTransaction txn, final File file) throws IllegalArgumentException {
+        if (txn == null) {
+            throw TXN.methodParameterIsNull("txn");
+        }
+        if (file == null) {
+            throw TXN.methodParameterIsNull("file");
+        }
+        Map<ServiceName, Timing> previousTimings = Collections.emptyMap();
+        if (file.exists()) {
+            try {
+                previousTimings = readFrom(file);
+            } catch (final IOException | IllegalArgumentException e) {
+                // truncated or foreign file, boot as if there was no profile
+                ROOT.bootProfileReadFailed(e, file);
+            }
+        }
+        final BootProfile profile = new BootProfile(file, previousTimings);
+        final BootProfile appearing = txn.putAttachmentIfAbsent(KEY, profile);
+        if (appearing != null) return appearing;
+        txn.addPostCommit(new Action() {
+            @Override
+            public void handleEvent(final ActionContext ctx) {
+                try {
+                    profile.write();
+                } catch (final IOException e) {
+                    ROOT.bootProfileWriteFailed(e, file);
+                } finally {
+                    ctx.complete();
+                }
+            }
+        });
+        return profile;
+    }
+
+    private static Map<ServiceName, Timing> readFrom(final File file) throws IOException {
+        try (final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a boot profile: " + file);
+            }
+            final int size = in.readInt();
+            if (size < 0 || size > file.length()) {
+                throw new IOException("Not a boot profile: " + file);
+            }
+            final Map<ServiceName, Timing> timings = new HashMap<>(size * 2);
+            for (int i = 0; i < size; i++) {
+                final int partCount = in.readInt();
+                if (partCount < 1 || partCount > file.length()) {
+                    throw new IOException("Not a boot profile: " + file);
+                }
+                final String[] parts = new String[partCount];
+                for (int j = 0; j < parts.length; j++) parts[j] = in.readUTF();
+                timings.put(ServiceName.of(parts), new Timing(in.readLong(), in.readLong()));
+            }
+            return timings;
+        }
+    }
+
+    private void write() throws IOException {
+        // services not started by this boot keep their previous timings
+        final Map<ServiceName, Timing> timings = new HashMap<>(previousTimings);
+        final Map<ServiceControllerImpl<?>, Long> chains = new IdentityHashMap<>();
+        for (final Map.Entry<ServiceControllerImpl<?>, Long> entry : recordedDurations.entrySet()) {
+            timings.put(entry.getKey().getServiceName(), new Timing(entry.getValue(), chainOf(entry.getKey(), chains)));
+        }
+        // readers never see partially written profile, the complete file replaces the previous one
+        final File tmpFile = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+        boolean moved = false;
+        try {
+            writeTo(tmpFile, timings);
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            moved = true;
+        } finally {
+            if (!moved) tmpFile.delete();
+        }
+    }
+
+    private static void writeTo(final File file, final Map<ServiceName, Timing> timings) throws IOException {
+        try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(timings.size());
+            for (final Map.Entry<ServiceName, Timing> entry : timings.entrySet()) {
+                final String[] parts = entry.getKey().toArray();
+                out.writeInt(parts.length);
+                for (final String part : parts) out.writeUTF(part);
+                out.writeLong(entry.getValue().duration);
+                out.writeLong(entry.getValue().chain);
+            }
+        }
+    }
+
+    /**
+     * Computes the start duration of the service plus the longest chain of start durations through its dependents.
+     */
+    private long chainOf(final ServiceControllerImpl<?> root, final Map<ServiceControllerImpl<?>, Long> chains) {
+        final Map<ServiceControllerImpl<?>, Boolean> expanded = new IdentityHashMap<>();
+        final ArrayDeque<ServiceControllerImpl<?>> stack = new ArrayDeque<>();
+        final List<ServiceControllerImpl<?>> dependents = new ArrayList<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            final ServiceControllerImpl<?> current = stack.peek();
+            if (chains.containsKey(current)) {
+                stack.pop();
+                continue;
+            }
+            collectDependents(current, dependents);
+            if (expanded.put(current, Boolean.TRUE) == null) {
+                // first visit, dependents are computed before this service is visited again
+                for (final ServiceControllerImpl<?> dependent : dependents) {
+                    if (!chains.containsKey(dependent) && !expanded.containsKey(dependent)) stack.push(dependent);
+                }
+            } else {
+                long longestChain = 0L;
+                for (final ServiceControllerImpl<?> dependent : dependents) {
+                    final Long chain = chains.get(dependent);
+                    if (chain != null && chain > longestChain) longestChain = chain;
+                }
+                chains.put(current, longestChain + durationOf(current));
+                stack.pop();
+            }
+            dependents.clear();
+        }
+        return chains.get(root);
+    }
+
+    private long durationOf(final ServiceControllerImpl<?> controller) {
+        final Long duration = recordedDurations.get(controller);
+        if (duration != null) return duration;
+        final Timing timing = previousTimings.get(controller.getServiceName());
+        return timing != null ? timing.duration : 0L;
+    }
+
+    private static void collectDependents(final ServiceControllerImpl<?> controller, final List<ServiceControllerImpl<?>> dependents) {
+        collectDependents(controller.getPrimaryRegistration(), dependents);
+        for (final Registration aliasRegistration : controller.getAliasRegistrations()) {
+            collectDependents(aliasRegistration, dependents);
+        }
+    }
+
+    private static void collectDependents(final Registration registration, final List<ServiceControllerImpl<?>> dependents) {
+        synchronized (registration) {
+            for (final DependencyImpl<?> incomingDependency : registration.incomingDependencies) {
+                if (incomingDependency.dependent != null) dependents.add(incomingDependency.dependent);
+            }
+        }
+    }
+
+    static void serviceStarting(final ServiceControllerImpl<?> controller, final Transaction txn) {
+        final BootProfile profile = txn.getAttachment(KEY);
+        if (profile != null) {
+            profile.startTimes.put(controller, System.nanoTime());
+        }
+    }
+
+    static void serviceStarted(final ServiceControllerImpl<?> controller, final Transaction txn, final boolean failed) {
+        final BootProfile profile = txn.getAttachment(KEY);
+        if (profile != null) {
+            // failed start is not recorded, previous timing of the service is kept
+            final Long startTime = profile.startTimes.remove(controller);
+            if (startTime != null && !failed) {
+                final long duration = System.nanoTime() - startTime;
+                profile.recordedDurations.put(controller, duration);
+                profile.recordedDurationsByName.put(controller.getServiceName(), duration);
+            }
+        }
+    }
+
+    /**
+     * Executes the task command, in priority order if the transaction has a boot profile.
+     *
+     * @param txn        the transaction
+     * @param executable the task executable
+     * @param command    the command executing the task
+     */
+    static void execute(final AbstractTransaction txn, final Executable<?> executable, final Runnable command) {
+        final BootProfile profile = txn.getAttachment(KEY);
+        if (profile == null) {
+            txn.safeExecute(command);
+            return;
+        }
+        long priority = Long.MAX_VALUE;
+        if (executable instanceof StartServiceTask) {
+            final Timing timing = profile.previousTimings.get(((StartServiceTask<?>) executable).getServiceController().getServiceName());
+            priority = timing != null ? timing.chain : 0L;
+        }
+        profile.queue.add(new QueuedTask(command, priority, profile.sequence.getAndIncrement()));
+        txn.safeExecute(profile.drain);
+    }
+
+    /**
+     * Returns the start duration of the service recorded by previous boot.
+     *
+     * @param serviceName the service name
+     * @param unit        the time unit
+     * @return the start duration, or {@code -1} if previous boot didn't start the service
+     * @throws IllegalArgumentException if any parameter is null
+     */
+    public long getPreviousDuration(final ServiceName serviceName, final TimeUnit unit) throws IllegalArgumentException {
+        validate(serviceName, unit);
+        final Timing timing = previousTimings.get(serviceName);
+        return timing != null ? unit.convert(timing.duration, TimeUnit.NANOSECONDS) : -1L;
+    }
+
+    /**
+     * Returns the chain duration of the service recorded by previous boot, the start duration of the service plus the
+     * longest chain of start durations through its dependents. Services with longer chains are started first.
+     *
+     * @param serviceName the service name
+     * @param unit        the time unit
+     * @return the chain duration, or {@code -1} if previous boot didn't start the service
+     * @throws IllegalArgumentException if any parameter is null
+     */
+    public long getPreviousChainDuration(final ServiceName serviceName, final TimeUnit unit) throws IllegalArgumentException {
+        validate(serviceName, unit);
+        final Timing timing = previousTimings.get(serviceName);
+        return timing != null ? unit.convert(timing.chain, TimeUnit.NANOSECONDS) : -1L;
+    }
+
+    /**
+     * Returns the start duration of the service recorded by this boot.
+     *
+     * @param serviceName the service name
+     * @param unit        the time unit
+     * @return the start duration, or {@code -1} if the service didn't complete its start
+     * @throws IllegalArgumentException if any parameter is null
+     */
+    public long getRecordedDuration(final ServiceName serviceName, final TimeUnit unit) throws IllegalArgumentException {
+        validate(serviceName, unit);
+        final Long duration = recordedDurationsByName.get(serviceName);
+        return duration != null ? unit.convert(duration, TimeUnit.NANOSECONDS) : -1L;
+    }
+
+    private static void validate(final ServiceName serviceName, final TimeUnit unit) {
+        if (serviceName == null) {
+            throw TXN.methodParameterIsNull("serviceName");
+        }
+        if (unit == null) {
+            throw TXN.methodParameterIsNull("unit");
+        }
+    }
+
+    private static final class Timing {
+
+        // both in nanoseconds
+        private final long duration;
+        private final long chain;
+
+        private Timing(final long duration, final long chain) {
+            this.duration = duration;
+            this.chain = chain;
+        }
+    }
+
+    private static final class QueuedTask implements Comparable<QueuedTask> {
+
+        private final Runnable command;
+        private final long priority;
+        private final long sequence;
+
+        private QueuedTask(final Runnable command, final long priority, final long sequence) {
+            this.command = command;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(final QueuedTask other) {
+            // higher priority first, equal priorities in submission order
+            if (priority != other.priority) return priority > other.priority ? -1 : 1;
+            return sequence < other.sequence ? -1 : sequence > other.sequence ? 1 : 0;
+        }
+    }
+}
@@ -0,0 +1,523 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2014 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.msc.txn;
+
+import static org.jboss.msc._private.MSCLogger.SERVICE;
+import static org.jboss.msc._private.MSCLogger.TXN;
+import static org.jboss.msc.txn.Helper.validateScope;
+import static org.jboss.msc.txn.Helper.validateTransaction;
+import static org.jboss.msc.txn.Helper.validateDependencyWrite;
+import static org.jboss.msc.txn.Helper.validateWrites;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jboss.msc.service.CircularDependencyException;
+import org.jboss.msc.service.DuplicateServiceException;
+import org.jboss.msc.service.Service;
+import org.jboss.msc.service.ServiceController;
+import org.jboss.msc.service.ServiceDefinition;
+import org.jboss.msc.service.ServiceDefinition.DependencyDefinition;
+import org.jboss.msc.service.ServiceMode;
+import org.jboss.msc.service.ServiceName;
+import org.jboss.msc.service.ServiceRegistry;
+
+/**
+ * Precompiled dependency topology of a service graph known ahead of time. Compiling assigns dense ids to service
+ * names, proves the graph is free of cycles and orders services topologically, dependencies first. The topology is
+ * kept as compressed sparse row arrays of ids and can be stored in a local file, so that the next boot reads it back
+ * instead of compiling it again.
+ * <p>
+ * Installing a compiled graph allocates all registrations up front and resolves dependencies by id, without
+ * per-service dependency maps, and skips cycle detection of every installed service. Cycle detection still runs
+ * if services installed before already depend on services of the graph. Dependencies of compiled graph are resolved
+ * in the registry the graph is installed into.
+ * <p>
+ * Usage:
+ * <pre>
+ * CompiledServiceGraph graph = file.exists() ? CompiledServiceGraph.readFrom(file) : null;
+ * if (graph == null || !graph.matches(definitions)) {
+ *     graph = CompiledServiceGraph.compile(definitions);
+ *     graph.writeTo(file);
+ * }
+ * graph.install(txn, registry, definitions);
+ * </pre>
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opalka</a>
+ */
+public final class CompiledServiceGraph {
+
+    private static final int MAGIC = 0x4d534347;
+    private static final int VERSION = 2;
+    private static final ServiceMode[] MODES = ServiceMode.values();
+
+    // dense id to name, defined services come first in topological order, then aliases and external dependencies
+    private final ServiceName[] names;
+    private final int serviceCount;
+    private final byte[] modes;
+    private final boolean[] expendable;
+    private final int[] aliasOffsets;
+    private final int[] aliasIds;
+    private final int[] dependencyOffsets;
+    private final int[] dependencyIds;
+    private final byte[] dependencyFlags;
+
+    private CompiledServiceGraph(final ServiceName[] names, final int serviceCount, final byte[] modes, final boolean[] expendable, final int[] aliasOffsets,
+            final int[] aliasIds, final int[] dependencyOffsets, final int[] dependencyIds, final byte[] dependencyFlags) {
+        this.names = names;
+        this.serviceCount = serviceCount;
+        this.modes = modes;
+        this.expendable = expendable;
+        this.aliasOffsets = aliasOffsets;
+        this.aliasIds = aliasIds;
+        this.dependencyOffsets = dependencyOffsets;
+        this.dependencyIds = dependencyIds;
+        this.dependencyFlags = dependencyFlags;
+    }
+
+    /**
+     * Compiles the service definitions.
+     *
+     * @param definitions the service definitions
+     * @return the compiled graph
+     * @throws IllegalArgumentException if {@code definitions} or any of them is null, if service names or aliases
+     *                                  collide or if any dependency has explicit registry
+     * @throws CircularDependencyException if definitions contain dependency cycle
+     */
+    public static CompiledServiceGraph compile(final Collection<? extends ServiceDefinition<?>> definitions) throws IllegalArgumentException, CircularDependencyException {
+        if (definitions == null) {
+            throw TXN.methodParameterIsNull("definitions");
+        }
+        final ServiceDefinition<?>[] defined = definitions.toArray(new ServiceDefinition<?>[definitions.size()]);
+        final int count = defined.length;
+        // names and aliases to defining service index
+        final Map<ServiceName, Integer> owners = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            if (defined[i] == null) {
+                throw TXN.methodParameterIsNull("definition");
+            }
+            if (owners.put(defined[i].getName(), i) != null) {
+                throw TXN.methodParameterIsInvalid("definitions");
+            }
+            for (final ServiceName alias : defined[i].getAliases()) {
+                if (owners.put(alias, i) != null) {
+                    throw TXN.methodParameterIsInvalid("definitions");
+                }
+            }
+        }
+        // edges from dependency to dependent, within the graph
+        final int[] unsatisfied = new int[count];
+        final List<List<Integer>> dependents = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) dependents.add(new ArrayList<Integer>());
+        for (int i = 0; i < count; i++) {
+            for (final DependencyDefinition dependency : defined[i].getDependencies()) {
+                if (dependency.getRegistry() != null) {
+                    throw TXN.methodParameterIsInvalid("definitions");
+                }
+                final Integer owner = owners.get(dependency.getName());
+                if (owner != null) {
+                    dependents.get(owner).add(i);
+                    unsatisfied[i]++;
+                }
+            }
+        }
+        final int[] order = new int[count];
+        final int[] ids = new int[count];
+        int ordered = 0;
+        final ArrayDeque<Integer> ready = new ArrayDeque<>();
+        for (int i = 0; i < count; i++) {
+            if (unsatisfied[i] == 0) ready.add(i);
+        }
+        while (!ready.isEmpty()) {
+            final int index = ready.poll();
+            ids[index] = ordered;
+            order[ordered++] = index;
+            for (final int dependent : dependents.get(index)) {
+                if (--unsatisfied[dependent] == 0) ready.add(dependent);
+            }
+        }
+        if (ordered < count) {
+            throw cycleDetected(defined, owners, unsatisfied);
+        }
+        // assign ids to the rest of names
+        final List<ServiceName> names = new ArrayList<>(count);
+        final Map<ServiceName, Integer> nameIds = new HashMap<>();
+        for (int id = 0; id < count; id++) {
+            names.add(defined[order[id]].getName());
+            nameIds.put(defined[order[id]].getName(), id);
+        }
+        final byte[] modes = new byte[count];
+        final boolean[] expendable = new boolean[count];
+        final int[] aliasOffsets = new int[count + 1];
+        final int[] dependencyOffsets = new int[count + 1];
+        final List<Integer> aliasIds = new ArrayList<>();
+        final List<Integer> dependencyIds = new ArrayList<>();
+        final List<Byte> dependencyFlags = new ArrayList<>();
+        for (int id = 0; id < count; id++) {
+            final ServiceDefinition<?> definition = defined[order[id]];
+            modes[id] = (byte) definition.getMode().ordinal();
+            expendable[id] = definition.isExpendable();
+            for (final ServiceName alias : definition.getAliases()) {
+                aliasIds.add(idOf(alias, names, nameIds));
+            }
+            aliasOffsets[id + 1] = aliasIds.size();
+            for (final DependencyDefinition dependency : definition.getDependencies()) {
+                dependencyIds.add(idOf(dependency.getName(), names, nameIds));
+                dependencyFlags.add(DependencyImpl.flagsOf(dependency.getFlags()));
+            }
+            dependencyOffsets[id + 1] = dependencyIds.size();
+        }
+        final byte[] flags = new byte[dependencyFlags.size()];
+        for (int i = 0; i < flags.length; i++) flags[i] = dependencyFlags.get(i);
+        return new CompiledServiceGraph(names.toArray(new ServiceName[names.size()]), count, modes, expendable, aliasOffsets,
+                toArray(aliasIds), dependencyOffsets, toArray(dependencyIds), flags);
+    }
+
+    private static int idOf(final ServiceName name, final List<ServiceName> names, final Map<ServiceName, Integer> nameIds) {
+        Integer id = nameIds.get(name);
+        if (id == null) {
+            id = names.size();
+            names.add(name);
+            nameIds.put(name, id);
+        }
+        return id;
+    }
+
+    private static int[] toArray(final List<Integer> list) {
+        final int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) array[i] = list.get(i);
+        return array;
+    }
+
+    private static CircularDependencyException cycleDetected(final ServiceDefinition<?>[] defined, final Map<ServiceName, Integer> owners, final int[] unsatisfied) {
+        // every service left unordered waits for another one left unordered, walk them until one repeats
+        int index = 0;
+        while (unsatisfied[index] == 0) index++;
+        final int[] visitedAt = new int[defined.length];
+        Arrays.fill(visitedAt, -1);
+        final List<ServiceName> path = new ArrayList<>();
+        while (visitedAt[index] < 0) {
+            visitedAt[index] = path.size();
+            path.add(defined[index].getName());
+            for (final DependencyDefinition dependency : defined[index].getDependencies()) {
+                final Integer owner = owners.get(dependency.getName());
+                if (owner != null && unsatisfied[owner] > 0) {
+                    index = owner;
+                    break;
+                }
+            }
+        }
+        final List<ServiceName> cycle = new ArrayList<>(path.subList(visitedAt[index], path.size()));
+        cycle.add(defined[index].getName());
+        return SERVICE.cycleDetected(defined[index].getName(), cycle);
+    }
+
+    /**
+     * Reads compiled graph from the file.
+     *
+     * @param file the file written by {@link #writeTo(File)}
+     * @return the compiled graph
+     * @throws IllegalArgumentException if {@code file} is null
+     * @throws IOException if the file cannot be read or it doesn't contain compiled graph
+     */
+    public static CompiledServiceGraph readFrom(final File file) throws IllegalArgumentException, IOException {
+        if (file == null) {
+            throw TXN.methodParameterIsNull("file");
+        }
+        // every array element takes at least one byte of the file
+        final long limit = file.length();
+        try (final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a compiled service graph: " + file);
+            }
+            final ServiceName[] names = new ServiceName[readCount(in, 0, limit, file)];
+            final Set<ServiceName> distinctNames = new HashSet<>(names.length * 2);
+            for (int i = 0; i < names.length; i++) {
+                final String[] parts = new String[readCount(in, 1, limit, file)];
+                for (int j = 0; j < parts.length; j++) parts[j] = in.readUTF();
+                try {
+                    names[i] = ServiceName.of(parts);
+                } catch (final IllegalArgumentException e) {
+                    throw new IOException("Corrupted compiled service graph: " + file, e);
+                }
+                if (!distinctNames.add(names[i])) throw corrupted(file);
+            }
+            final int serviceCount = readCount(in, 0, names.length, file);
+            final byte[] modes = new byte[serviceCount];
+            in.readFully(modes);
+            for (final byte mode : modes) {
+                if (mode < 0 || mode >= MODES.length) throw corrupted(file);
+            }
+            final boolean[] expendable = new boolean[serviceCount];
+            for (int id = 0; id < serviceCount; id++) expendable[id] = in.readBoolean();
+            final int[] aliasOffsets = readInts(in, serviceCount + 1);
+            final int[] aliasIds = readInts(in, readCount(in, 0, limit, file));
+            final int[] dependencyOffsets = readInts(in, serviceCount + 1);
+            final int[] dependencyIds = readInts(in, readCount(in, 0, limit, file));
+            final byte[] dependencyFlags = new byte[dependencyIds.length];
+            in.readFully(dependencyFlags);
+            validateOffsets(aliasOffsets, aliasIds.length, file);
+            validateOffsets(dependencyOffsets, dependencyIds.length, file);
+            // aliases follow defined services and every alias belongs to single service
+            final int[] aliasOwners = new int[names.length];
+            Arrays.fill(aliasOwners, -1);
+            for (int id = 0; id < serviceCount; id++) {
+                for (int i = aliasOffsets[id]; i < aliasOffsets[id + 1]; i++) {
+                    if (aliasIds[i] < serviceCount || aliasIds[i] >= names.length || aliasOwners[aliasIds[i]] >= 0) throw corrupted(file);
+                    aliasOwners[aliasIds[i]] = id;
+                }
+            }
+            // services of the graph depend only on services preceding them, installing skips cycle detection
+            for (int id = 0; id < serviceCount; id++) {
+                for (int i = dependencyOffsets[id]; i < dependencyOffsets[id + 1]; i++) {
+                    final int dependencyId = dependencyIds[i];
+                    if (dependencyId < 0 || dependencyId >= names.length) throw corrupted(file);
+                    final int owner = dependencyId < serviceCount ? dependencyId : aliasOwners[dependencyId];
+                    if (owner >= id) throw corrupted(file);
+                }
+            }
+            return new CompiledServiceGraph(names, serviceCount, modes, expendable, aliasOffsets, aliasIds, dependencyOffsets, dependencyIds, dependencyFlags);
+        }
+    }
+
+    private static int readCount(final DataInputStream in, final int min, final long max, final File file) throws IOException {
+        final int count = in.readInt();
+        if (count < min || count > max) throw corrupted(file);
+        return count;
+    }
+
+    private static void validateOffsets(final int[] offsets, final int length, final File file) throws IOException {
+        if (offsets[0] != 0 || offsets[offsets.length - 1] != length) throw corrupted(file);
+        for (int i = 1; i < offsets.length; i++) {
+            if (offsets[i] < offsets[i - 1]) throw corrupted(file);
+        }
+    }
+
+    private static IOException corrupted(final File file) {
+        return new IOException("Corrupted compiled service graph: " + file);
+    }
+
+    private static int[] readInts(final DataInputStream in, final int length) throws IOException {
+        final int[] ints = new int[length];
+        for (int i = 0; i < length; i++) ints[i] = in.readInt();
+        return ints;
+    }
+
+    /**
+     * Writes this compiled graph to the file.
+     *
+     * @param file the file
+     * @throws IllegalArgumentException if {@code file} is null
+     * @throws IOException if the file cannot be written
+     */
+    public void writeTo(final File file) throws IllegalArgumentException, IOException {
+        if (file == null) {
+            throw TXN.methodParameterIsNull("file");
+        }
+        try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(names.length);
+            for (final ServiceName name : names) {
+                final String[] parts = name.toArray();
+                out.writeInt(parts.length);
+                for (final String part : parts) out.writeUTF(part);
+            }
+            out.writeInt(serviceCount);
+            out.write(modes);
+            for (final boolean serviceExpendable : expendable) out.writeBoolean(serviceExpendable);
+            writeInts(out, aliasOffsets);
+            out.writeInt(aliasIds.length);
+            writeInts(out, aliasIds);
+            writeInts(out, dependencyOffsets);
+            out.writeInt(dependencyIds.length);
+            writeInts(out, dependencyIds);
+            out.write(dependencyFlags);
+        }
+    }
+
+    private static void writeInts(final DataOutputStream out, final int[] ints) throws IOException {
+        for (final int i : ints) out.writeInt(i);
+    }
+
+    /**
+     * Returns names of compiled services in topological order, every service follows the services it depends on.
+     *
+     * @return the service names
+     */
+    public List<ServiceName> getTopologicalOrder() {
+        return Collections.unmodifiableList(Arrays.asList(names).subList(0, serviceCount));
+    }
+
+    /**
+     * Indicates if this graph was compiled from the same definitions. Services may differ, names, aliases,
+     * dependencies, modes and expendability must be the same.
+     *
+     * @param definitions the service definitions
+     * @return {@code true} if this graph can install the definitions
+     * @throws IllegalArgumentException if {@code definitions} is null
+     */
+    public boolean matches(final Collection<? extends ServiceDefinition<?>> definitions) throws IllegalArgumentException {
+        return definitionsById(definitions) != null;
+    }
+
+    private ServiceDefinition<?>[] definitionsById(final Collection<? extends ServiceDefinition<?>> definitions) {
+        if (definitions == null) {
+            throw TXN.methodParameterIsNull("definitions");
+        }
+        if (definitions.size() != serviceCount) return null;
+        final Map<ServiceName, ServiceDefinition<?>> byName = new HashMap<>(serviceCount * 2);
+        for (final ServiceDefinition<?> definition : definitions) {
+            if (definition == null || byName.put(definition.getName(), definition) != null) return null;
+        }
+        final ServiceDefinition<?>[] byId = new ServiceDefinition<?>[serviceCount];
+        for (int id = 0; id < serviceCount; id++) {
+            final ServiceDefinition<?> definition = byName.get(names[id]);
+            if (definition == null || definition.getMode().ordinal() != modes[id] || definition.isExpendable() != expendable[id]) return null;
+            if (definition.getAliases().size() != aliasOffsets[id + 1] - aliasOffsets[id]) return null;
+            int i = aliasOffsets[id];
+            for (final ServiceName alias : definition.getAliases()) {
+                if (!names[aliasIds[i++]].equals(alias)) return null;
+            }
+            final List<DependencyDefinition> dependencies = definition.getDependencies();
+            if (dependencies.size() != dependencyOffsets[id + 1] - dependencyOffsets[id]) return null;
+            i = dependencyOffsets[id];
+            for (final DependencyDefinition dependency : dependencies) {
+                if (dependency.getRegistry() != null || !names[dependencyIds[i]].equals(dependency.getName())
+                        || dependencyFlags[i] != DependencyImpl.flagsOf(dependency.getFlags())) return null;
+                i++;
+            }
+            byId[id] = definition;
+        }
+        return byId;
+    }
+
+    /**
+     * Installs the services of compiled graph into the registry, in topological order.
+     *
+     * @param txn the update transaction
+     * @param registry the service registry
+     * @param definitions the service definitions this graph was compiled from
+     * @return the installed service controllers, in topological order
+     * @throws IllegalArgumentException if any parameter is null, if {@code txn} was created by different transaction
+     *                                  controller than the registry or if this graph doesn't
+     *                                  {@link #matches(Collection) match} the definitions
+     * @throws DuplicateServiceException if any service is already installed, no service is installed then
+     * @throws CircularDependencyException if services installed before close dependency cycle with the graph, no
+     *                                     service is installed then
+     * @throws InvalidTransactionStateException if transaction is not active
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public List<ServiceController<?>> install(final UpdateTransaction txn, final ServiceRegistry registry, final Collection<? extends ServiceDefinition<?>> definitions)
+            throws IllegalArgumentException, DuplicateServiceException, CircularDependencyException, InvalidTransactionStateException {
+        if (registry == null) {
+            throw TXN.methodParameterIsNull("registry");
+        }
+        final ServiceRegistryImpl registryImpl = (ServiceRegistryImpl) registry;
+        validateTransaction(txn, registryImpl.getTransactionController());
+        final ServiceDefinition<?>[] byId = definitionsById(definitions);
+        if (byId == null) {
+            throw TXN.methodParameterIsInvalid("definitions");
+        }
+        validateScope(txn, registryImpl);
+        final TransactionHoldHandle handle = txn.acquireHoldHandle();
+        final Registration[] registrations = new Registration[names.length];
+        try {
+            boolean detectCycles = false;
+            for (int id = 0; id < names.length; id++) {
+                registrations[id] = registryImpl.getOrCreateRegistration(names[id]);
+            }
+            // services and aliases, dependencies are claimed once they are known
+            final List<Registration> written = new ArrayList<>(serviceCount + aliasIds.length);
+            written.addAll(Arrays.asList(registrations).subList(0, serviceCount));
+            for (final int aliasId : aliasIds) written.add(registrations[aliasId]);
+            validateWrites(txn, written);
+            // services installed before may depend on the graph, only those can close a cycle
+            for (int id = 0; id < serviceCount && !detectCycles; id++) {
+                detectCycles = hasIncomingDependencies(registrations[id]);
+                for (int i = aliasOffsets[id]; i < aliasOffsets[id + 1] && !detectCycles; i++) {
+                    detectCycles = hasIncomingDependencies(registrations[aliasIds[i]]);
+                }
+            }
+            // associate all controllers with their registrations first, so that nothing is installed if any fails
+            final ServiceControllerImpl<?>[] controllers = new ServiceControllerImpl<?>[serviceCount];
+            int begun = 0;
+            try {
+                for (int id = 0; id < serviceCount; id++) {
+                    final Registration[] aliasRegistrations = new Registration[aliasOffsets[id + 1] - aliasOffsets[id]];
+                    for (int i = 0; i < aliasRegistrations.length; i++) {
+                        aliasRegistrations[i] = registrations[aliasIds[aliasOffsets[id] + i]];
+                    }
+                    final DependencyImpl<?>[] dependencies = new DependencyImpl<?>[dependencyOffsets[id + 1] - dependencyOffsets[id]];
+                    for (int i = 0; i < dependencies.length; i++) {
+                        final int edge = dependencyOffsets[id] + i;
+                        dependencies[i] = new DependencyImpl<>(dependencyFlags[edge]);
+                        dependencies[i].setDependencyRegistration(registrations[dependencyIds[edge]]);
+                        validateDependencyWrite(txn, dependencies[i]);
+                    }
+                    controllers[id] = new ServiceControllerImpl(registrations[id], aliasRegistrations, (Service) byId[id].getService(), MODES[modes[id]], expendable[id], dependencies);
+                    controllers[id].beginInstallation(detectCycles);
+                    begun++;
+                }
+            } finally {
+                if (begun < serviceCount) {
+                    while (begun > 0) controllers[--begun].abandonInstallation();
+                }
+            }
+            for (final ServiceControllerImpl<?> controller : controllers) {
+                try {
+                    controller.completeInstallation(txn);
+                } catch (Throwable t) {
+                    controller.clear(txn);
+                    throw t;
+                }
+                UndoJournal.installed(txn, controller);
+            }
+            return Arrays.<ServiceController<?>>asList(controllers);
+        } finally {
+            for (final Registration registration : registrations) {
+                if (registration != null) registration.release();
+            }
+            handle.release();
+        }
+    }
+
+    private static boolean hasIncomingDependencies(final Registration registration) {
+        synchronized (registration) {
+            return !registration.incomingDependencies.isEmpty();
+        }
+    }
+}
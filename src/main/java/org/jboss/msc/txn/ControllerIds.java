@@ -0,0 +1,55 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2014 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.msc.txn;
+
+import java.util.Arrays;
+
+/**
+ * Allocates dense ids of installed service controllers. Ids of removed controllers are reused, so that ids stay
+ * below the count of installed controllers plus the count of controllers removed since the peak.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opalka</a>
+ */
+final class ControllerIds {
+
+    private int[] free = new int[16];
+    private int freeCount;
+    private int next;
+
+    synchronized int acquire() {
+        return freeCount > 0 ? free[--freeCount] : next++;
+    }
+
+    synchronized void release(final int id) {
+        if (freeCount == free.length) {
+            free = Arrays.copyOf(free, freeCount * 2);
+        }
+        free[freeCount++] = id;
+    }
+
+    /**
+     * Returns the upper bound of allocated ids.
+     *
+     * @return the count of ids ever allocated
+     */
+    synchronized int bound() {
+        return next;
+    }
+
+}
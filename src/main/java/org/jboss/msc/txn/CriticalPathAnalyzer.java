@@ -0,0 +1,347 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.msc.txn;
+
+import static org.jboss.msc._private.MSCLogger.TXN;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.msc.service.ServiceName;
+import org.jboss.msc.util.AttachmentKey;
+
+/**
+ * Records service start timings of an update transaction and computes its critical path.
+ * <p>
+ * For every service started by the transaction the analyzer records the moment it became startable (its last
+ * unsatisfied dependency was satisfied), the moment its start began and the moment its start completed.
+ * The critical path is the chain of services, following dependency edges backwards from the service that completed
+ * last, in which every service was waiting for the dependency that completed latest. Those are the services
+ * worth optimizing (or making lazy) to shorten the transaction.
+ * <p>
+ * Usage:
+ * <pre>
+ * final CriticalPathAnalyzer analyzer = CriticalPathAnalyzer.attach(txn);
+ * // install services, prepare and commit txn
+ * System.out.println(analyzer.getReport());
+ * analyzer.writeTrace(new File("boot-trace.json"));
+ * </pre>
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opalka</a>
+ */
+public final class CriticalPathAnalyzer {
+
+    private static final AttachmentKey<CriticalPathAnalyzer> KEY = AttachmentKey.create();
+
+    private final long baseTime = System.nanoTime();
+    private final Map<ServiceControllerImpl<?>, ServiceTiming> timings = new ConcurrentHashMap<>();
+
+    private CriticalPathAnalyzer() {
+    }
+
+    /**
+     * Attaches an analyzer to the given transaction. Only services started after this method returns are recorded.
+     *
+     * @param txn the update transaction to analyze
+     * @return the analyzer associated with {@code txn}
+     * @throws IllegalArgumentException if {@code txn} is null
+     */
+    public static CriticalPathAnalyzer attach(final UpdateTransaction txn) throws IllegalArgumentException {
+        if (txn == null) {
+            throw TXN.methodParameterIsNull("txn");
+        }
+        final CriticalPathAnalyzer analyzer = new CriticalPathAnalyzer();
+        final CriticalPathAnalyzer appearing = txn.putAttachmentIfAbsent(KEY, analyzer);
+        return appearing != null ? appearing : analyzer;
+    }
+
+    static void serviceStartable(final ServiceControllerImpl<?> controller, final Transaction txn) {
+        final CriticalPathAnalyzer analyzer = txn.getAttachment(KEY);
+        if (analyzer != null) {
+            analyzer.timings.put(controller, new ServiceTiming(controller.getServiceName(), System.nanoTime() - analyzer.baseTime));
+        }
+    }
+
+    static void serviceStarting(final ServiceControllerImpl<?> controller, final Transaction txn) {
+        final CriticalPathAnalyzer analyzer = txn.getAttachment(KEY);
+        if (analyzer != null) {
+            final ServiceTiming timing = analyzer.timings.get(controller);
+            if (timing != null) {
+                timing.startTime = System.nanoTime() - analyzer.baseTime;
+                timing.threadId = Thread.currentThread().getId();
+            }
+        }
+    }
+
+    static void serviceStarted(final ServiceControllerImpl<?> controller, final Transaction txn, final boolean failed) {
+        final CriticalPathAnalyzer analyzer = txn.getAttachment(KEY);
+        if (analyzer != null) {
+            final ServiceTiming timing = analyzer.timings.get(controller);
+            if (timing != null) {
+                timing.completeTime = System.nanoTime() - analyzer.baseTime;
+                timing.failed = failed;
+            }
+        }
+    }
+
+    /**
+     * Returns timings of all services that completed their start, ordered by start duration (the slowest first).
+     *
+     * @return ranked service timings
+     */
+    public List<ServiceTiming> getTimings() {
+        final List<ServiceTiming> retVal = new ArrayList<>();
+        for (final ServiceTiming timing : timings.values()) {
+            if (timing.isCompleted()) retVal.add(timing);
+        }
+        Collections.sort(retVal, BY_DURATION);
+        return retVal;
+    }
+
+    /**
+     * Returns the critical path, ordered from its first service (the one with no started dependencies) to the service
+     * that completed last.
+     *
+     * @return the critical path, empty if no service was started
+     */
+    public List<ServiceTiming> getCriticalPath() {
+        ServiceControllerImpl<?> current = null;
+        ServiceTiming currentTiming = null;
+        for (final Map.Entry<ServiceControllerImpl<?>, ServiceTiming> entry : timings.entrySet()) {
+            final ServiceTiming timing = entry.getValue();
+            if (timing.isCompleted() && (currentTiming == null || timing.completeTime > currentTiming.completeTime)) {
+                current = entry.getKey();
+                currentTiming = timing;
+            }
+        }
+        final List<ServiceTiming> path = new ArrayList<>();
+        final Map<ServiceControllerImpl<?>, Boolean> visited = new IdentityHashMap<>();
+        while (current != null && visited.put(current, Boolean.TRUE) == null) {
+            path.add(currentTiming);
+            ServiceControllerImpl<?> predecessor = null;
+            ServiceTiming predecessorTiming = null;
+            for (final DependencyImpl<?> dependency : current.getDependencies()) {
+                final Registration registration = dependency.getDependencyRegistration();
+                final ServiceControllerImpl<?> dependencyController = registration != null ? registration.getController() : null;
+                if (dependencyController == null) continue;
+                final ServiceTiming timing = timings.get(dependencyController);
+                if (timing != null && timing.isCompleted() && timing.completeTime <= currentTiming.startableTime
+                        && (predecessorTiming == null || timing.completeTime > predecessorTiming.completeTime)) {
+                    predecessor = dependencyController;
+                    predecessorTiming = timing;
+                }
+            }
+            current = predecessor;
+            currentTiming = predecessorTiming;
+        }
+        Collections.reverse(path);
+        return path;
+    }
+
+    /**
+     * Returns a human readable report. It lists the critical path ranked by the time each of its services contributed,
+     * followed by all recorded services ranked by start duration.
+     *
+     * @return the report
+     */
+    public String getReport() {
+        final List<ServiceTiming> path = getCriticalPath();
+        final List<ServiceTiming> rankedPath = new ArrayList<>(path);
+        Collections.sort(rankedPath, BY_CONTRIBUTION);
+        final StringBuilder sb = new StringBuilder();
+        final long total = path.isEmpty() ? 0 : path.get(path.size() - 1).completeTime - path.get(0).startableTime;
+        sb.append("Critical path (").append(path.size()).append(" services, ").append(toMillis(total)).append(" ms):\n");
+        for (final ServiceTiming timing : rankedPath) {
+            appendTiming(sb, timing);
+        }
+        final List<ServiceTiming> all = getTimings();
+        sb.append("All started services (").append(all.size()).append("):\n");
+        for (final ServiceTiming timing : all) {
+            appendTiming(sb, timing);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Writes recorded timings as Chrome trace-event JSON (loadable by {@code chrome://tracing} and compatible viewers).
+     * Services on the critical path are assigned the {@code critical} category.
+     *
+     * @param file the file to write to
+     * @throws IOException if writing fails
+     */
+    public void writeTrace(final File file) throws IOException {
+        if (file == null) {
+            throw TXN.methodParameterIsNull("file");
+        }
+        final Map<ServiceTiming, Boolean> critical = new IdentityHashMap<>();
+        for (final ServiceTiming timing : getCriticalPath()) {
+            critical.put(timing, Boolean.TRUE);
+        }
+        try (final Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            writer.write("{\"traceEvents\":[");
+            boolean first = true;
+            for (final ServiceTiming timing : getTimings()) {
+                if (!first) writer.write(',');
+                first = false;
+                writer.write("\n{\"name\":\"");
+                writeEscaped(writer, timing.getServiceName().getCanonicalName());
+                writer.write("\",\"cat\":\"");
+                writer.write(critical.containsKey(timing) ? "critical" : "start");
+                writer.write("\",\"ph\":\"X\",\"pid\":1,\"tid\":");
+                writer.write(Long.toString(timing.threadId));
+                writer.write(",\"ts\":");
+                writer.write(Long.toString(timing.startTime / 1000L));
+                writer.write(",\"dur\":");
+                writer.write(Long.toString((timing.completeTime - timing.startTime) / 1000L));
+                writer.write(",\"args\":{\"waitUs\":");
+                writer.write(Long.toString((timing.startTime - timing.startableTime) / 1000L));
+                writer.write(",\"failed\":");
+                writer.write(Boolean.toString(timing.failed));
+                writer.write("}}");
+            }
+            writer.write("\n],\"displayTimeUnit\":\"ms\"}\n");
+        }
+    }
+
+    private static void appendTiming(final StringBuilder sb, final ServiceTiming timing) {
+        sb.append("  ").append(timing.getServiceName()).append(": start ").append(toMillis(timing.completeTime - timing.startTime));
+        sb.append(" ms, waited ").append(toMillis(timing.startTime - timing.startableTime)).append(" ms");
+        if (timing.failed) sb.append(" (failed)");
+        sb.append('\n');
+    }
+
+    private static String toMillis(final long nanos) {
+        return String.format("%.3f", nanos / 1000000.0);
+    }
+
+    private static void writeEscaped(final Writer writer, final String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                writer.write('\\');
+                writer.write(c);
+            } else if (c < 0x20) {
+                writer.write(String.format("\\u%04x", (int) c));
+            } else {
+                writer.write(c);
+            }
+        }
+    }
+
+    private static final Comparator<ServiceTiming> BY_DURATION = new Comparator<ServiceTiming>() {
+        @Override
+        public int compare(final ServiceTiming o1, final ServiceTiming o2) {
+            return Long.compare(o2.completeTime - o2.startTime, o1.completeTime - o1.startTime);
+        }
+    };
+
+    private static final Comparator<ServiceTiming> BY_CONTRIBUTION = new Comparator<ServiceTiming>() {
+        @Override
+        public int compare(final ServiceTiming o1, final ServiceTiming o2) {
+            return Long.compare(o2.completeTime - o2.startableTime, o1.completeTime - o1.startableTime);
+        }
+    };
+
+    /**
+     * Start timings of a single service. All times are relative to the moment the analyzer was attached.
+     */
+    public static final class ServiceTiming {
+
+        private final ServiceName serviceName;
+        private final long startableTime;
+        private volatile long startTime = -1L;
+        private volatile long completeTime = -1L;
+        private volatile long threadId;
+        private volatile boolean failed;
+
+        private ServiceTiming(final ServiceName serviceName, final long startableTime) {
+            this.serviceName = serviceName;
+            this.startableTime = startableTime;
+        }
+
+        private boolean isCompleted() {
+            return startTime >= 0L && completeTime >= 0L;
+        }
+
+        /**
+         * Returns the service name.
+         *
+         * @return the service name
+         */
+        public ServiceName getServiceName() {
+            return serviceName;
+        }
+
+        /**
+         * Returns the time at which the service became startable.
+         *
+         * @param unit the time unit
+         * @return the startable time
+         */
+        public long getStartableTime(final TimeUnit unit) {
+            return unit.convert(startableTime, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * Returns the time at which service start began.
+         *
+         * @param unit the time unit
+         * @return the start time
+         */
+        public long getStartTime(final TimeUnit unit) {
+            return unit.convert(startTime, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * Returns the time at which service start completed.
+         *
+         * @param unit the time unit
+         * @return the completion time
+         */
+        public long getCompleteTime(final TimeUnit unit) {
+            return unit.convert(completeTime, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * Returns whether service start failed.
+         *
+         * @return {@code true} if the service failed to start
+         */
+        public boolean isFailed() {
+            return failed;
+        }
+
+        @Override
+        public String toString() {
+            return serviceName.toString();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2014 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.msc.txn;
+
+import java.util.ArrayDeque;
+
+import static org.jboss.msc.txn.Helper.getAbstractTransaction;
+
+/**
+ * Task that propagates demand (or its removal) through the dependencies of services.
+ * <p>
+ * Propagation is driven by a work list of services whose dependencies have to be (un)demanded, so arbitrarily deep
+ * {@code ON_DEMAND} chains are walked without recursion. Whenever the work list grows beyond {@link #FORK_THRESHOLD}
+ * half of it is handed over to a new task, so that wide dependency graphs are processed in parallel by the
+ * transaction executor.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opalka</a>
+ */
+final class DemandPropagationTask implements Executable<Void> {
+
+    private static final int FORK_THRESHOLD = 64;
+
+    /**
+     * Demands {@code controller}, propagating the demand to its dependencies if needed.
+     *
+     * @param controller  the demanded service, may be {@code null}
+     * @param transaction the active transaction
+     */
+    static void demand(final ServiceControllerImpl<?> controller, final Transaction transaction) {
+        if (controller != null && controller.demand(transaction)) {
+            demandDependencies(controller, transaction);
+        }
+    }
+
+    /**
+     * Undemands {@code controller}, propagating the removal of demand to its dependencies if needed.
+     *
+     * @param controller  the undemanded service, may be {@code null}
+     * @param transaction the active transaction
+     */
+    static void undemand(final ServiceControllerImpl<?> controller, final Transaction transaction) {
+        if (controller != null && controller.undemand(transaction)) {
+            undemandDependencies(controller, transaction);
+        }
+    }
+
+    /**
+     * Demands the dependencies of {@code controller}.
+     *
+     * @param controller  the dependent service
+     * @param transaction the active transaction
+     */
+    static void demandDependencies(final ServiceControllerImpl<?> controller, final Transaction transaction) {
+        new DemandPropagationTask(controller, true, transaction).propagate();
+    }
+
+    /**
+     * Undemands the dependencies of {@code controller}.
+     *
+     * @param controller  the dependent service
+     * @param transaction the active transaction
+     */
+    static void undemandDependencies(final ServiceControllerImpl<?> controller, final Transaction transaction) {
+        new DemandPropagationTask(controller, false, transaction).propagate();
+    }
+
+    private final ArrayDeque<ServiceControllerImpl<?>> workList;
+    private final boolean demand;
+    private final Transaction transaction;
+
+    private DemandPropagationTask(final ServiceControllerImpl<?> controller, final boolean demand, final Transaction transaction) {
+        this.workList = new ArrayDeque<>();
+        this.workList.add(controller);
+        this.demand = demand;
+        this.transaction = transaction;
+    }
+
+    private DemandPropagationTask(final ArrayDeque<ServiceControllerImpl<?>> workList, final boolean demand, final Transaction transaction) {
+        this.workList = workList;
+        this.demand = demand;
+        this.transaction = transaction;
+    }
+
+    @Override
+    public void execute(final ExecuteContext<Void> context) {
+        try {
+            propagate();
+        } finally {
+            context.complete();
+        }
+    }
+
+    private void propagate() {
+        ServiceControllerImpl<?> controller;
+        while ((controller = workList.pollLast()) != null) {
+            for (final DependencyImpl<?> dependency : controller.getDependencies()) {
+                final ServiceControllerImpl<?> dependencyController = demand ? dependency.demand() : dependency.undemand();
+                if (dependencyController == null) continue;
+                if (demand ? dependencyController.demand(transaction) : dependencyController.undemand(transaction)) {
+                    workList.add(dependencyController);
+                }
+            }
+            if (workList.size() > FORK_THRESHOLD) {
+                fork();
+            }
+        }
+    }
+
+    private void fork() {
+        final ArrayDeque<ServiceControllerImpl<?>> forked = new ArrayDeque<>();
+        for (int i = workList.size() / 2; i > 0; i--) {
+            forked.add(workList.pollFirst());
+        }
+        final TaskFactory taskFactory = getAbstractTransaction(transaction).getTaskFactory();
+        taskFactory.newTask(new DemandPropagationTask(forked, demand, transaction)).release();
+    }
+
+}
@@ -0,0 +1,214 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2014 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.msc.txn;
+
+import static org.jboss.msc._private.MSCLogger.TXN;
+import static org.jboss.msc.txn.Helper.getReadVersion;
+import static org.jboss.msc.txn.Helper.recordRead;
+import static org.jboss.msc.txn.Helper.validateTransaction;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+import org.jboss.msc.service.ServiceController;
+
+/**
+ * Queries over the service dependency graph, for example to find out which services stop once a service is disabled
+ * or replaced. {@link org.jboss.msc.service.DependencyFlag#ON_ACCESS On access} dependencies are not followed, as
+ * they neither stop their dependents nor have to be up before their dependents start.
+ * <p>
+ * Installed controllers have dense ids, so that a query marks visited services in a bit set and runs in time
+ * proportional to the part of the graph it reaches. Updating transactions query the current dependency graph and
+ * the result is kept in reachability index of the container until the graph changes, so that repeated queries
+ * answer in constant time. Read-only transactions resolve services from the version they read, dependents
+ * removed since that version are not seen.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opalka</a>
+ */
+public final class DependencyGraph {
+
+    private DependencyGraph() {
+    }
+
+    /**
+     * Returns services depending on the given service, directly or transitively. These are the services stopped once
+     * the given service stops.
+     *
+     * @param txn        the transaction
+     * @param controller the service controller
+     * @return the transitive dependents, in breadth first order
+     * @throws IllegalArgumentException if any parameter is null or if {@code txn} was created by different
+     *                                  transaction controller than the service
+     * @throws InvalidTransactionStateException if transaction is not active
+     */
+    public static List<ServiceController<?>> getTransitiveDependents(final ReadTransaction txn, final ServiceController<?> controller) throws IllegalArgumentException, InvalidTransactionStateException {
+        return Collections.<ServiceController<?>>unmodifiableList(reach(txn, controller, true));
+    }
+
+    /**
+     * Returns the count of services depending on the given service, directly or transitively.
+     *
+     * @param txn        the transaction
+     * @param controller the service controller
+     * @return the count of transitive dependents
+     * @throws IllegalArgumentException if any parameter is null or if {@code txn} was created by different
+     *                                  transaction controller than the service
+     * @throws InvalidTransactionStateException if transaction is not active
+     */
+    public static int getTransitiveDependentCount(final ReadTransaction txn, final ServiceController<?> controller) throws IllegalArgumentException, InvalidTransactionStateException {
+        return reach(txn, controller, true).size();
+    }
+
+    /**
+     * Returns services the given service depends on, directly or transitively. These are the services that must be up
+     * before the given service starts.
+     *
+     * @param txn        the transaction
+     * @param controller the service controller
+     * @return the transitive dependencies, in breadth first order
+     * @throws IllegalArgumentException if any parameter is null or if {@code txn} was created by different
+     *                                  transaction controller than the service
+     * @throws InvalidTransactionStateException if transaction is not active
+     */
+    public static List<ServiceController<?>> getTransitiveDependencies(final ReadTransaction txn, final ServiceController<?> controller) throws IllegalArgumentException, InvalidTransactionStateException {
+        return Collections.<ServiceController<?>>unmodifiableList(reach(txn, controller, false));
+    }
+
+    /**
+     * Returns the count of services the given service depends on, directly or transitively.
+     *
+     * @param txn        the transaction
+     * @param controller the service controller
+     * @return the count of transitive dependencies
+     * @throws IllegalArgumentException if any parameter is null or if {@code txn} was created by different
+     *                                  transaction controller than the service
+     * @throws InvalidTransactionStateException if transaction is not active
+     */
+    public static int getTransitiveDependencyCount(final ReadTransaction txn, final ServiceController<?> controller) throws IllegalArgumentException, InvalidTransactionStateException {
+        return reach(txn, controller, false).size();
+    }
+
+    private static List<ServiceControllerImpl<?>> reach(final ReadTransaction txn, final ServiceController<?> controller, final boolean dependents) {
+        if (controller == null) {
+            throw TXN.methodParameterIsNull("controller");
+        }
+        final ServiceControllerImpl<?> root = (ServiceControllerImpl<?>) controller;
+        final ServiceContainerImpl container = root.getPrimaryRegistration().registry.container;
+        validateTransaction(txn, container.getTransactionController());
+        final long readVersion = getReadVersion(txn);
+        if (readVersion >= 0) {
+            if (controllerOf(txn, readVersion, root.getPrimaryRegistration()) != root) return Collections.emptyList();
+            return traverse(txn, readVersion, container, root, dependents);
+        }
+        final ReachabilityIndex index = container.reachabilityIndex;
+        ReachabilityIndex.Reach reach = index.get(root, dependents);
+        if (reach == null) {
+            final long graphVersion = index.getGraphVersion();
+            reach = new ReachabilityIndex.Reach(graphVersion, traverse(txn, readVersion, container, root, dependents));
+            index.put(root, dependents, reach);
+        } else if (OptimisticFootprint.get(txn) != null) {
+            // optimistic transaction must record the reads the traversal would have made
+            recordReads(txn, root, reach.reached, dependents);
+        }
+        return reach.reached;
+    }
+
+    private static List<ServiceControllerImpl<?>> traverse(final ReadTransaction txn, final long readVersion, final ServiceContainerImpl container, final ServiceControllerImpl<?> root, final boolean dependents) {
+        final int rootId = root.getId();
+        if (rootId < 0) return Collections.emptyList();
+        final BitSet visited = new BitSet(container.controllerIds.bound());
+        visited.set(rootId);
+        // the result doubles as breadth first queue
+        final List<ServiceControllerImpl<?>> reached = new ArrayList<>();
+        final List<DependencyImpl<?>> incomingDependencies = new ArrayList<>();
+        ServiceControllerImpl<?> current = root;
+        int head = 0;
+        while (current != null) {
+            if (dependents) {
+                collectIncomingDependencies(txn, current.getPrimaryRegistration(), incomingDependencies);
+                for (final Registration aliasRegistration : current.getAliasRegistrations()) {
+                    collectIncomingDependencies(txn, aliasRegistration, incomingDependencies);
+                }
+                for (final DependencyImpl<?> incomingDependency : incomingDependencies) {
+                    if (incomingDependency.isOnAccess()) continue;
+                    final ServiceControllerImpl<?> dependent = incomingDependency.dependent;
+                    // dependent installed after read version
+                    if (dependent == null || readVersion >= 0 && controllerOf(txn, readVersion, dependent.getPrimaryRegistration()) != dependent) continue;
+                    visit(dependent, visited, reached);
+                }
+                incomingDependencies.clear();
+            } else {
+                for (final DependencyImpl<?> dependency : current.dependencies) {
+                    if (dependency.isOnAccess()) continue;
+                    visit(controllerOf(txn, readVersion, dependency.getDependencyRegistration()), visited, reached);
+                }
+            }
+            current = head < reached.size() ? reached.get(head++) : null;
+        }
+        return Collections.unmodifiableList(reached);
+    }
+
+    private static ServiceControllerImpl<?> controllerOf(final ReadTransaction txn, final long readVersion, final Registration registration) {
+        if (readVersion < 0) {
+            recordRead(txn, registration);
+            return registration.getController();
+        }
+        final RegistrationVersion committed = registration.getVersion(readVersion);
+        return committed != null ? committed.controller : null;
+    }
+
+    private static void collectIncomingDependencies(final ReadTransaction txn, final Registration registration, final List<DependencyImpl<?>> incomingDependencies) {
+        recordRead(txn, registration);
+        synchronized (registration) {
+            incomingDependencies.addAll(registration.incomingDependencies);
+        }
+    }
+
+    private static void recordReads(final ReadTransaction txn, final ServiceControllerImpl<?> root, final List<ServiceControllerImpl<?>> reached, final boolean dependents) {
+        recordReads(txn, root, dependents);
+        for (final ServiceControllerImpl<?> controller : reached) {
+            recordReads(txn, controller, dependents);
+        }
+    }
+
+    private static void recordReads(final ReadTransaction txn, final ServiceControllerImpl<?> controller, final boolean dependents) {
+        if (dependents) {
+            recordRead(txn, controller.getPrimaryRegistration());
+            for (final Registration aliasRegistration : controller.getAliasRegistrations()) {
+                recordRead(txn, aliasRegistration);
+            }
+        } else {
+            for (final DependencyImpl<?> dependency : controller.dependencies) {
+                if (!dependency.isOnAccess()) recordRead(txn, dependency.getDependencyRegistration());
+            }
+        }
+    }
+
+    private static void visit(final ServiceControllerImpl<?> controller, final BitSet visited, final List<ServiceControllerImpl<?>> reached) {
+        if (controller == null) return;
+        final int id = controller.getId();
+        // controller being removed concurrently
+        if (id < 0 || visited.get(id)) return;
+        visited.set(id);
+        reached.add(controller);
+    }
+
+}
@@ -23,9 +23,18 @@ import org.jboss.msc.problem.Problem;
 import org.jboss.msc.problem.ProblemReport;
 import org.jboss.msc.service.Dependency;
 import org.jboss.msc.service.DependencyFlag;
+import org.jboss.msc.service.ServiceController;
 import org.jboss.msc.problem.Problem.Severity;
+import org.jboss.msc.util.Listener;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import static org.jboss.msc._private.MSCLogger.SERVICE;
+import static org.jboss.msc.txn.Helper.getAbstractTransaction;
 
 /**
  * Dependency implementation.
@@ -42,6 +51,8 @@ class DependencyImpl<T> implements Dependency<T> {
     private static final byte UNREQUIRED_FLAG = (byte)(1 << DependencyFlag.UNREQUIRED.ordinal());
     private static final byte DEMANDED_FLAG   = (byte)(1 << DependencyFlag.DEMANDED.ordinal());
     private static final byte UNDEMANDED_FLAG = (byte)(1 << DependencyFlag.UNDEMANDED.ordinal());
+    private static final byte ON_ACCESS_FLAG  = (byte)(1 << DependencyFlag.ON_ACCESS.ordinal());
+    private static final byte NO_DEMAND_FLAGS = (byte)(DEMANDED_FLAG | UNDEMANDED_FLAG | ON_ACCESS_FLAG);
 
     /**
      * Dependency flags.
@@ -55,6 +66,14 @@ class DependencyImpl<T> implements Dependency<T> {
      * The incoming dependency.
      */
     protected volatile ServiceControllerImpl<?> dependent;
+    /**
+     * The executor used to start on access dependency outside of dependent's lifecycle.
+     */
+    private volatile Executor executor;
+    /**
+     * Indicates if on access dependency has been demanded. Guarded by {@code this}.
+     */
+    private boolean accessDemanded;
 
     /**
      * Creates a simple dependency to {@code dependencyRegistration}.
@@ -62,21 +81,60 @@ class DependencyImpl<T> implements Dependency<T> {
      * @param flags dependency flags
      */
     protected DependencyImpl(final DependencyFlag... flags) {
-        byte translatedFlags = 0;
-        for (final DependencyFlag flag : flags) {
-            if (flag != null) {
-                translatedFlags |= (1 << flag.ordinal());
-            }
-        }
+        this(flagsOf(flags));
+    }
+
+    /**
+     * Creates a simple dependency from translated flags.
+     *
+     * @param translatedFlags dependency flags bit set
+     */
+    DependencyImpl(final byte translatedFlags) {
         if (Bits.allAreSet(translatedFlags, UNDEMANDED_FLAG | DEMANDED_FLAG)) {
             throw SERVICE.mutuallyExclusiveFlags(DependencyFlag.DEMANDED.toString(), DependencyFlag.UNDEMANDED.toString());
         }
+        if (Bits.allAreSet(translatedFlags, ON_ACCESS_FLAG | DEMANDED_FLAG)) {
+            throw SERVICE.mutuallyExclusiveFlags(DependencyFlag.DEMANDED.toString(), DependencyFlag.ON_ACCESS.toString());
+        }
         if (Bits.allAreSet(translatedFlags, REQUIRED_FLAG | UNREQUIRED_FLAG)) {
             throw SERVICE.mutuallyExclusiveFlags(DependencyFlag.REQUIRED.toString(), DependencyFlag.UNREQUIRED.toString());
         }
         this.flags = translatedFlags;
     }
 
+    /**
+     * Translates dependency flags to the flags bit set.
+     *
+     * @param flags dependency flags, may be {@code null}
+     * @return the flags bit set
+     */
+    static byte flagsOf(final DependencyFlag... flags) {
+        byte translatedFlags = 0;
+        if (flags == null) return translatedFlags;
+        for (final DependencyFlag flag : flags) {
+            if (flag != null) {
+                translatedFlags |= (1 << flag.ordinal());
+            }
+        }
+        return translatedFlags;
+    }
+
+    /**
+     * Returns the flags bit set of this dependency.
+     */
+    final byte getFlags() {
+        return flags;
+    }
+
+    /**
+     * Indicates if this is the implicit dependency of child service on its parent.
+     *
+     * @return {@code true} if this is a parent dependency
+     */
+    boolean isParent() {
+        return false;
+    }
+
     final void setDependencyRegistration(final Registration dependencyRegistration) {
         this.dependencyRegistration = dependencyRegistration;
     }
@@ -85,7 +143,117 @@ class DependencyImpl<T> implements Dependency<T> {
         if (dependencyRegistration == null) return null;
         @SuppressWarnings("unchecked")
         ServiceControllerImpl<T> dependencyController = (ServiceControllerImpl<T>) dependencyRegistration.getController();
-        return dependencyController == null ? null : dependencyController.getValue();
+        if (dependencyController == null) return null;
+        if (Bits.allAreSet(flags, ON_ACCESS_FLAG) && dependencyController.getState() != ServiceControllerImpl.STATE_UP) {
+            demandOnAccess();
+            return null;
+        }
+        return dependencyController.getValue();
+    }
+
+    public T get(final long timeout, final TimeUnit unit) throws InterruptedException, TimeoutException {
+        if (unit == null) {
+            throw SERVICE.methodParameterIsNull("unit");
+        }
+        if (dependencyRegistration == null) return null;
+        @SuppressWarnings("unchecked")
+        ServiceControllerImpl<T> dependencyController = (ServiceControllerImpl<T>) dependencyRegistration.getController();
+        if (dependencyController == null) return null;
+        if (Bits.allAreSet(flags, ON_ACCESS_FLAG) && dependencyController.getState() != ServiceControllerImpl.STATE_UP) {
+            // waiting would occupy the thread the dependency start may need
+            if (TaskControllerImpl.currentTransaction() != null) {
+                throw SERVICE.cannotWaitForDependencyInTask(dependencyRegistration.getServiceName());
+            }
+            // demand would be placed by transaction admitted only once current thread is done
+            if (dependencyRegistration.getTransactionController().holdsUpdateTransaction()) {
+                throw SERVICE.cannotWaitForDependencyHoldingTransaction(dependencyRegistration.getServiceName());
+            }
+            final CountDownLatch latch = new CountDownLatch(1);
+            dependencyController.awaitStart(new Listener<ServiceController<T>>() {
+                @Override
+                public void handleEvent(final ServiceController<T> result) {
+                    latch.countDown();
+                }
+            });
+            demandOnAccess();
+            if (!latch.await(timeout, unit)) {
+                throw new TimeoutException(SERVICE.dependencyStartTimedOut(dependencyRegistration.getServiceName()).getMessage());
+            }
+        }
+        return dependencyController.getValue();
+    }
+
+    /**
+     * Places demand on this on access dependency, the first time it is accessed. The demand joins the transaction
+     * running on current thread, unless it is optimistic transaction that cannot claim the dependency, or the start
+     * transaction of the dependent, so that the access never waits for
+     * another transaction to be admitted. Otherwise a new update transaction is created asynchronously for that
+     * purpose and problems it reports are logged.
+     *
+     * @throws IllegalStateException if new update transaction could not be created
+     */
+    private void demandOnAccess() {
+        final ServiceControllerImpl<?> dependent;
+        synchronized (this) {
+            dependent = this.dependent;
+            if (accessDemanded || dependent == null) return;
+            accessDemanded = true;
+        }
+        final TransactionController txnController = dependencyRegistration.getTransactionController();
+        final AbstractTransaction currentTransaction = TaskControllerImpl.currentTransaction();
+        if (currentTransaction != null && currentTransaction.txnController == txnController && currentTransaction.wrappingTxn instanceof UpdateTransaction
+                && Helper.tryWrite(currentTransaction.wrappingTxn, dependencyRegistration)) {
+            DemandPropagationTask.demand(dependencyRegistration.addDemand(), currentTransaction.wrappingTxn);
+            return;
+        }
+        final Transaction startTransaction = dependent.getStartTransaction();
+        if (startTransaction != null) {
+            DemandPropagationTask.demand(dependencyRegistration.addDemand(), startTransaction);
+            return;
+        }
+        final Runnable newTransaction = new Runnable() {
+            @Override
+            public void run() {
+                txnController.newUpdateTransaction(executor, new Listener<UpdateTransaction>() {
+                    @Override
+                    public void handleEvent(final UpdateTransaction txn) {
+                        try {
+                            DemandPropagationTask.demand(dependencyRegistration.addDemand(), txn);
+                        } finally {
+                            txnController.prepare(txn, new Listener<UpdateTransaction>() {
+                                @Override
+                                public void handleEvent(final UpdateTransaction txn) {
+                                    txnController.commit(txn, new Listener<UpdateTransaction>() {
+                                        @Override
+                                        public void handleEvent(final UpdateTransaction txn) {
+                                            logProblems(txn.getReport());
+                                        }
+                                    });
+                                }
+                            });
+                        }
+                    }
+                });
+            }
+        };
+        try {
+            // the executor of the dependent installation may have been shut down meanwhile, find out before
+            // the transaction is admitted
+            executor.execute(newTransaction);
+        } catch (final RejectedExecutionException e) {
+            synchronized (this) {
+                accessDemanded = false;
+            }
+            throw SERVICE.cannotDemandDependency(e, dependencyRegistration.getServiceName());
+        }
+    }
+
+    private void logProblems(final ProblemReport report) {
+        for (final Problem problem : report) {
+            if (problem.getSeverity() != Severity.INFO) {
+                MSCLogger.SERVICE.onAccessDemandProblem(problem.getCause(), dependencyRegistration.getServiceName(), problem.getSeverity(), problem.getMessage());
+            }
+        }
     }
 
     /**
@@ -96,10 +264,13 @@ class DependencyImpl<T> implements Dependency<T> {
      * @param transaction  the active transaction
      */
     void setDependent(final ServiceControllerImpl<?> dependent, final Transaction transaction) {
+        if (Bits.allAreSet(flags, ON_ACCESS_FLAG)) {
+            executor = getAbstractTransaction(transaction).getExecutor();
+        }
         this.dependent = dependent;
         dependencyRegistration.addIncomingDependency(transaction, this);
         if (Bits.allAreSet(flags, DEMANDED_FLAG)) {
-            dependencyRegistration.addDemand(transaction);
+            DemandPropagationTask.demand(dependencyRegistration.addDemand(), transaction);
         }
     }
 
@@ -111,9 +282,44 @@ class DependencyImpl<T> implements Dependency<T> {
     void clearDependent(final Transaction transaction) {
         dependencyRegistration.removeIncomingDependency(this);
         if (Bits.allAreSet(flags, DEMANDED_FLAG)) {
-            dependencyRegistration.removeDemand(transaction);
+            DemandPropagationTask.undemand(dependencyRegistration.removeDemand(), transaction);
+        }
+        final boolean undemand;
+        synchronized (this) {
+            undemand = accessDemanded;
+            accessDemanded = false;
+            this.dependent = null;
         }
-        this.dependent = null;
+        if (undemand) {
+            DemandPropagationTask.undemand(dependencyRegistration.removeDemand(), transaction);
+        }
+    }
+
+    /**
+     * Indicates if this dependency is required, so that its dependent cannot be installed without it.
+     *
+     * @return {@code true} if this is a required dependency
+     */
+    boolean isRequired() {
+        return Bits.allAreClear(flags, UNREQUIRED_FLAG);
+    }
+
+    /**
+     * Indicates if this dependency is started on access, so it is not waited for by its dependent.
+     *
+     * @return {@code true} if this is an on access dependency
+     */
+    boolean isOnAccess() {
+        return Bits.allAreSet(flags, ON_ACCESS_FLAG);
+    }
+
+    /**
+     * Indicates if demand of the dependent is propagated to this dependency.
+     *
+     * @return {@code true} unless this dependency is undemanded or started on access
+     */
+    boolean propagatesDemand() {
+        return Bits.allAreClear(flags, UNDEMANDED_FLAG | ON_ACCESS_FLAG);
     }
 
     /**
@@ -128,23 +334,25 @@ class DependencyImpl<T> implements Dependency<T> {
     /**
      * Demands this dependency to be satisfied.
      * 
-     * @param transaction the active transaction
+     * @return the dependency controller that has to be demanded, or {@code null} if there is none
      */
-    void demand(Transaction transaction) {
-        if (Bits.allAreClear(flags, DEMANDED_FLAG | UNDEMANDED_FLAG)) {
-            dependencyRegistration.addDemand(transaction);
+    ServiceControllerImpl<?> demand() {
+        if (Bits.allAreClear(flags, NO_DEMAND_FLAGS)) {
+            return dependencyRegistration.addDemand();
         }
+        return null;
     }
 
     /**
      * Removes demand for this dependency to be satisfied.
      * 
-     * @param transaction the active transaction
+     * @return the dependency controller that has to be undemanded, or {@code null} if there is none
      */
-    void undemand(Transaction transaction) {
-        if (Bits.allAreClear(flags, DEMANDED_FLAG | UNDEMANDED_FLAG)) {
-            dependencyRegistration.removeDemand(transaction);
+    ServiceControllerImpl<?> undemand() {
+        if (Bits.allAreClear(flags, NO_DEMAND_FLAGS)) {
+            return dependencyRegistration.removeDemand();
         }
+        return null;
     }
 
     /**
@@ -153,6 +361,7 @@ class DependencyImpl<T> implements Dependency<T> {
      * @param transaction   the active transaction
      */
     void dependencyUp(final Transaction transaction) {
+        if (Bits.allAreSet(flags, ON_ACCESS_FLAG)) return;
         dependent.dependencySatisfied(transaction);
     }
 
@@ -162,6 +371,7 @@ class DependencyImpl<T> implements Dependency<T> {
      * @param transaction    the active transaction
      */
     void dependencyDown(final Transaction transaction) {
+        if (Bits.allAreSet(flags, ON_ACCESS_FLAG)) return;
         dependent.dependencyUnsatisfied(transaction);
     }
 
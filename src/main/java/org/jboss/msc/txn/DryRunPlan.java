@@ -0,0 +1,267 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2014 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.msc.txn;
+
+import static org.jboss.msc._private.MSCLogger.TXN;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.msc._private.MSCLogger;
+import org.jboss.msc.problem.Problem;
+import org.jboss.msc.problem.ProblemReport;
+import org.jboss.msc.service.ServiceName;
+import org.jboss.msc.util.AttachmentKey;
+
+/**
+ * The plan of a dry run updating transaction. Dry run transactions perform every service state transition their
+ * modifications cause, but services are neither started nor stopped: start and stop tasks complete right away and
+ * are recorded as plan steps instead. Transitions are simulated on a copy of the controller states seen only by the
+ * dry run transaction and its successors, the running system keeps the states and values of its services and
+ * observers registered by other transactions are not notified. Services keep running, so the transaction must never
+ * be committed and it cannot remove or replace services, registries or the container. Once prepared it reports an
+ * error, so that {@link TransactionController#canCommit(Transaction)} returns {@code false}, and it is expected to
+ * be rolled back via {@link TransactionController#rollback(UpdateTransaction, org.jboss.msc.util.Listener)}.
+ * The rolling back transaction is dry run too, it reverts the simulated transitions and can be committed.
+ * <p>
+ * Usage:
+ * <pre>
+ * txnController.newDryRunUpdateTransaction(executor, createListener);
+ * // modify services, prepare txn
+ * for (final DryRunPlan.Step step : DryRunPlan.of(txn).getSteps()) {
+ *     System.out.println(step);
+ * }
+ * // roll back txn, prepare and commit the rolling back transaction
+ * </pre>
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opalka</a>
+ */
+public final class DryRunPlan implements PrepareCompletionListener {
+
+    private static final AttachmentKey<DryRunPlan> KEY = AttachmentKey.create();
+
+    private final ProblemReport report;
+    private final boolean committable;
+    private final List<Step> steps = new ArrayList<>();
+    // simulated state words of controllers, shared with successor transactions
+    private final ConcurrentMap<ServiceControllerImpl<?>, AtomicLong> states;
+
+    private DryRunPlan(final ProblemReport report, final boolean committable, final ConcurrentMap<ServiceControllerImpl<?>, AtomicLong> states) {
+        this.report = report;
+        this.committable = committable;
+        this.states = states;
+    }
+
+    /**
+     * Makes the transaction dry run.
+     *
+     * @param txn the updating transaction
+     */
+    static void track(final AbstractTransaction txn) {
+        track(txn, false, new ConcurrentHashMap<ServiceControllerImpl<?>, AtomicLong>());
+    }
+
+    private static void track(final AbstractTransaction txn, final boolean committable, final ConcurrentMap<ServiceControllerImpl<?>, AtomicLong> states) {
+        final DryRunPlan plan = new DryRunPlan(txn.getReport(), committable, states);
+        txn.putAttachment(KEY, plan);
+        txn.addListener(plan);
+    }
+
+    /**
+     * Makes the successor of restarted dry run transaction dry run too. Successor reverting the simulated transitions
+     * can be committed, successor keeping them cannot.
+     *
+     * @param from the restarted transaction
+     * @param to the successor transaction
+     * @param revert whether successor reverts the changes of restarted transaction
+     */
+    static void transfer(final AbstractTransaction from, final AbstractTransaction to, final boolean revert) {
+        final DryRunPlan previous = from.getAttachment(KEY);
+        if (previous == null) return;
+        track(to, revert, previous.states);
+    }
+
+    /**
+     * Gets the plan of the transaction.
+     *
+     * @param txn the transaction
+     * @return the plan, or {@code null} if transaction is not dry run
+     */
+    static DryRunPlan get(final Transaction txn) {
+        return txn.getAttachment(KEY);
+    }
+
+    /**
+     * Returns the plan of the given dry run transaction.
+     *
+     * @param txn the dry run updating transaction
+     * @return the plan
+     * @throws IllegalArgumentException if {@code txn} is null or if it is not dry run
+     */
+    public static DryRunPlan of(final UpdateTransaction txn) throws IllegalArgumentException {
+        if (txn == null) {
+            throw TXN.methodParameterIsNull("txn");
+        }
+        final DryRunPlan plan = get(txn);
+        if (plan == null) {
+            throw TXN.methodParameterIsInvalid("txn");
+        }
+        return plan;
+    }
+
+    /**
+     * Records the step if the transaction is dry run.
+     *
+     * @param txn the transaction
+     * @param controller the service controller
+     * @param action the step action
+     */
+    static void record(final Transaction txn, final ServiceControllerImpl<?> controller, final Action action) {
+        final DryRunPlan plan = get(txn);
+        if (plan == null) return;
+        synchronized (plan) {
+            plan.steps.add(new Step(controller.getServiceName(), action));
+        }
+    }
+
+    /**
+     * Gets the simulated state word of the controller. Simulation starts from the state of the running system.
+     *
+     * @param controller the service controller
+     * @param liveState the state word of the running system
+     * @return the simulated state word
+     */
+    long getState(final ServiceControllerImpl<?> controller, final long liveState) {
+        return shadow(controller, liveState).get();
+    }
+
+    /**
+     * Sets the simulated state word of the controller if it has the expected value.
+     *
+     * @param controller the service controller
+     * @param expect the expected state word
+     * @param update the new state word
+     * @return {@code true} if successful
+     */
+    boolean compareAndSetState(final ServiceControllerImpl<?> controller, final long expect, final long update) {
+        return shadow(controller, expect).compareAndSet(expect, update);
+    }
+
+    private AtomicLong shadow(final ServiceControllerImpl<?> controller, final long liveState) {
+        AtomicLong shadow = states.get(controller);
+        if (shadow == null) {
+            final AtomicLong appearing = states.putIfAbsent(controller, shadow = new AtomicLong(liveState));
+            if (appearing != null) shadow = appearing;
+        }
+        return shadow;
+    }
+
+    @Override
+    public void transactionPrepared() {
+        if (!committable) {
+            report.addProblem(new Problem(Problem.Severity.ERROR, MSCLogger.ROOT.dryRunNotCommittable()));
+        }
+    }
+
+    /**
+     * Returns the steps in the order the transitions were performed.
+     *
+     * @return the plan steps
+     */
+    public synchronized List<Step> getSteps() {
+        return Collections.unmodifiableList(new ArrayList<>(steps));
+    }
+
+    /**
+     * Returns the count of steps performing the given action.
+     *
+     * @param action the action
+     * @return the count of steps
+     * @throws IllegalArgumentException if {@code action} is null
+     */
+    public synchronized int getCount(final Action action) throws IllegalArgumentException {
+        if (action == null) {
+            throw TXN.methodParameterIsNull("action");
+        }
+        int count = 0;
+        for (final Step step : steps) {
+            if (step.action == action) count++;
+        }
+        return count;
+    }
+
+    /**
+     * The action a service would go through.
+     */
+    public enum Action {
+        /**
+         * The service would be started.
+         */
+        START,
+        /**
+         * The service would be stopped, or a failed service would be brought down.
+         */
+        STOP,
+        /**
+         * The service would be removed.
+         */
+        REMOVE
+    }
+
+    /**
+     * A single transition of the plan.
+     */
+    public static final class Step {
+
+        private final ServiceName serviceName;
+        private final Action action;
+
+        private Step(final ServiceName serviceName, final Action action) {
+            this.serviceName = serviceName;
+            this.action = action;
+        }
+
+        /**
+         * Returns the name of the service.
+         *
+         * @return the service name
+         */
+        public ServiceName getServiceName() {
+            return serviceName;
+        }
+
+        /**
+         * Returns the action the service would go through.
+         *
+         * @return the action
+         */
+        public Action getAction() {
+            return action;
+        }
+
+        @Override
+        public String toString() {
+            return action + " " + serviceName;
+        }
+    }
+}
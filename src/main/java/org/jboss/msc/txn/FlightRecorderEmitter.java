@@ -0,0 +1,187 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.msc.txn;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Java Flight Recorder event types of MSC and the code emitting them. Only {@link FlightRecorderEvents} calls this
+ * class, once it detected JFR, so that platforms without JFR never link it.
+ * <p>
+ * Enablement is checked on the event type before an event is allocated.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opalka</a>
+ */
+final class FlightRecorderEmitter {
+
+    private static final EventType TRANSACTION_PHASE = EventType.getEventType(TransactionPhaseEvent.class);
+    private static final EventType TASK = EventType.getEventType(TaskEvent.class);
+    private static final EventType SERVICE_STATE = EventType.getEventType(ServiceStateEvent.class);
+    private static final EventType SERVICE_HANDOFF = EventType.getEventType(ServiceHandoffEvent.class);
+    private static final EventType ADMISSION_WAIT = EventType.getEventType(AdmissionWaitEvent.class);
+
+    private FlightRecorderEmitter() {
+        // forbidden instantiation
+    }
+
+    static void transactionPhase(final AbstractTransaction txn, final int from, final int to, final long startTime) {
+        if (!TRANSACTION_PHASE.isEnabled()) return;
+        final TransactionPhaseEvent event = new TransactionPhaseEvent();
+        event.transactionId = txn.id;
+        event.update = txn.wrappingTxn instanceof UpdateTransaction;
+        event.from = AbstractTransaction.stateName(from);
+        event.to = AbstractTransaction.stateName(to);
+        event.age = System.nanoTime() - startTime;
+        event.commit();
+    }
+
+    static Object taskStarted(final AbstractTransaction txn, final Executable<?> executable) {
+        if (!TASK.isEnabled()) return null;
+        final TaskEvent event = new TaskEvent();
+        event.transactionId = txn.id;
+        event.task = executable.getClass().getSimpleName();
+        event.begin();
+        return event;
+    }
+
+    static void taskCompleted(final Object taskEvent) {
+        final TaskEvent event = (TaskEvent) taskEvent;
+        event.end();
+        event.commit();
+    }
+
+    static void serviceStateChanged(final ServiceControllerImpl<?> controller, final byte from, final byte to) {
+        if (!SERVICE_STATE.isEnabled()) return;
+        final ServiceStateEvent event = new ServiceStateEvent();
+        event.service = controller.getServiceName().getCanonicalName();
+        event.from = ServiceControllerImpl.stateName(from);
+        event.to = ServiceControllerImpl.stateName(to);
+        event.commit();
+    }
+
+    static Object handoffStarted(final ServiceControllerImpl<?> controller) {
+        if (!SERVICE_HANDOFF.isEnabled()) return null;
+        final ServiceHandoffEvent event = new ServiceHandoffEvent();
+        event.service = controller.getServiceName().getCanonicalName();
+        event.begin();
+        return event;
+    }
+
+    static void handoffCompleted(final Object handoffEvent, final boolean failed) {
+        final ServiceHandoffEvent event = (ServiceHandoffEvent) handoffEvent;
+        event.end();
+        event.failed = failed;
+        event.commit();
+    }
+
+    static Object admissionQueued(final Transaction txn) {
+        if (!ADMISSION_WAIT.isEnabled()) return null;
+        final AdmissionWaitEvent event = new AdmissionWaitEvent();
+        event.update = txn instanceof UpdateTransaction;
+        event.begin();
+        return event;
+    }
+
+    static void admissionGranted(final Object admissionEvent, final Transaction txn) {
+        final AdmissionWaitEvent event = (AdmissionWaitEvent) admissionEvent;
+        event.end();
+        event.transactionId = unwrap(txn).id;
+        event.commit();
+    }
+
+    private static AbstractTransaction unwrap(final Transaction txn) {
+        return txn instanceof BasicUpdateTransaction ? ((BasicUpdateTransaction) txn).getDelegate() : (AbstractTransaction) txn;
+    }
+
+    @Name("org.jboss.msc.TransactionPhase")
+    @Label("Transaction Phase")
+    @Description("Transaction state machine transition")
+    @Category({"JBoss MSC", "Transaction"})
+    @StackTrace(false)
+    static final class TransactionPhaseEvent extends Event {
+        @Label("Transaction Id")
+        long transactionId;
+        @Label("Update Transaction")
+        boolean update;
+        @Label("From")
+        String from;
+        @Label("To")
+        String to;
+        @Label("Transaction Age")
+        @Timespan
+        long age;
+    }
+
+    @Name("org.jboss.msc.Task")
+    @Label("Transaction Task")
+    @Description("Transaction task execution, from execute to complete")
+    @Category({"JBoss MSC", "Transaction"})
+    @StackTrace(false)
+    static final class TaskEvent extends Event {
+        @Label("Transaction Id")
+        long transactionId;
+        @Label("Task")
+        String task;
+    }
+
+    @Name("org.jboss.msc.ServiceState")
+    @Label("Service State Change")
+    @Description("Service controller state change")
+    @Category({"JBoss MSC", "Service"})
+    @StackTrace(false)
+    static final class ServiceStateEvent extends Event {
+        @Label("Service")
+        String service;
+        @Label("From")
+        String from;
+        @Label("To")
+        String to;
+    }
+
+    @Name("org.jboss.msc.ServiceHandoff")
+    @Label("Service Handoff")
+    @Description("Start of the service replacing running service in place")
+    @Category({"JBoss MSC", "Service"})
+    @StackTrace(false)
+    static final class ServiceHandoffEvent extends Event {
+        @Label("Service")
+        String service;
+        @Label("Failed")
+        boolean failed;
+    }
+
+    @Name("org.jboss.msc.AdmissionWait")
+    @Label("Transaction Admission Wait")
+    @Description("Time a created transaction waited before it was admitted by the transaction controller")
+    @Category({"JBoss MSC", "Transaction"})
+    @StackTrace(false)
+    static final class AdmissionWaitEvent extends Event {
+        @Label("Transaction Id")
+        long transactionId;
+        @Label("Update Transaction")
+        boolean update;
+    }
+}
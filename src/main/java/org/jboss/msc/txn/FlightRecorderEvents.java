@@ -0,0 +1,81 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.msc.txn;
+
+/**
+ * Java Flight Recorder events emitted by MSC.
+ * <p>
+ * Every method first checks whether JFR is present on the running platform and then whether the particular event
+ * type is enabled in any running recording. When JFR is absent or the event is disabled no event object is allocated
+ * and the call reduces to a couple of branches.
+ * <p>
+ * This class doesn't link against JFR. Events and the code emitting them live in {@link FlightRecorderEmitter},
+ * which is only loaded once JFR was detected.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opalka</a>
+ */
+final class FlightRecorderEvents {
+
+    private static final boolean AVAILABLE = isAvailable();
+
+    private FlightRecorderEvents() {
+        // forbidden instantiation
+    }
+
+    private static boolean isAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event", false, FlightRecorderEvents.class.getClassLoader());
+            return true;
+        } catch (Throwable ignored) {
+            return false;
+        }
+    }
+
+    static void transactionPhase(final AbstractTransaction txn, final int from, final int to, final long startTime) {
+        if (AVAILABLE) FlightRecorderEmitter.transactionPhase(txn, from, to, startTime);
+    }
+
+    static Object taskStarted(final AbstractTransaction txn, final Executable<?> executable) {
+        return AVAILABLE ? FlightRecorderEmitter.taskStarted(txn, executable) : null;
+    }
+
+    static void taskCompleted(final Object taskEvent) {
+        if (taskEvent != null) FlightRecorderEmitter.taskCompleted(taskEvent);
+    }
+
+    static void serviceStateChanged(final ServiceControllerImpl<?> controller, final byte from, final byte to) {
+        if (AVAILABLE) FlightRecorderEmitter.serviceStateChanged(controller, from, to);
+    }
+
+    static Object handoffStarted(final ServiceControllerImpl<?> controller) {
+        return AVAILABLE ? FlightRecorderEmitter.handoffStarted(controller) : null;
+    }
+
+    static void handoffCompleted(final Object handoffEvent, final boolean failed) {
+        if (handoffEvent != null) FlightRecorderEmitter.handoffCompleted(handoffEvent, failed);
+    }
+
+    static Object admissionQueued(final Transaction txn) {
+        return AVAILABLE ? FlightRecorderEmitter.admissionQueued(txn) : null;
+    }
+
+    static void admissionGranted(final Object admissionEvent, final Transaction txn) {
+        if (admissionEvent != null) FlightRecorderEmitter.admissionGranted(admissionEvent, txn);
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2014 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.msc.txn;
+
+import org.jboss.msc._private.MSCLogger;
+import org.jboss.msc.problem.Problem;
+import org.jboss.msc.problem.ProblemReport;
+import org.jboss.msc.util.Listener;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Merges updates submitted while an updating transaction waits for admission into single physical transaction,
+ * so that bursts of small updates share one prepare and commit.
+ * <p>
+ * Only updates submitted with the same executor are merged, updates submitted with another executor form their
+ * own group.
+ * <p>
+ * Every update gets its own slice of the problem report: problems reported by tasks created while the update
+ * modified the transaction (or by tasks created by them) are attributed to that update, problems that cannot be
+ * attributed are included in every slice. Tasks carry their slice, the thread local slice only hands it over to
+ * tasks created synchronously by running task or by service lifecycle context completed in another thread.
+ * <p>
+ * If the merged transaction cannot be committed, it is rolled back. Updates whose slice reports problems preventing
+ * the commit complete with their slice without committing their work, the other updates are retried in a new group.
+ * If the problems cannot be attributed to any update, every update completes without committing its work.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opalka</a>
+ */
+final class GroupCommit {
+
+    private static final int MAX_GROUP_SIZE = 256;
+    private static final ThreadLocal<ProblemReport> currentSlice = new ThreadLocal<>();
+
+    private final TransactionController txnController;
+    private final Object lock = new Object();
+    // groups waiting for transaction admission by their executors, they accept new updates
+    private final Map<Executor, Group> forming = new IdentityHashMap<>();
+
+    GroupCommit(final TransactionController txnController) {
+        this.txnController = txnController;
+    }
+
+    /**
+     * Gets the problem report slice of the update modifying the transaction in current thread.
+     *
+     * @return problem report slice, or {@code null} if not known
+     */
+    static ProblemReport currentSlice() {
+        return currentSlice.get();
+    }
+
+    /**
+     * Sets the problem report slice of the update modifying the transaction in current thread.
+     *
+     * @param slice the new slice, may be {@code null}
+     * @return the previous slice
+     */
+    static ProblemReport setCurrentSlice(final ProblemReport slice) {
+        final ProblemReport previous = currentSlice.get();
+        if (slice == null) {
+            currentSlice.remove();
+        } else {
+            currentSlice.set(slice);
+        }
+        return previous;
+    }
+
+    void submit(final Executor executor, final Listener<? super UpdateTransaction> work, final Listener<? super ProblemReport> completionListener) {
+        final Update update = new Update(work, completionListener);
+        final Group group;
+        synchronized (lock) {
+            final Group formingGroup = forming.get(executor);
+            if (formingGroup != null && formingGroup.updates.size() < MAX_GROUP_SIZE) {
+                formingGroup.updates.add(update);
+                return;
+            }
+            group = new Group(executor);
+            forming.put(executor, group);
+            group.updates.add(update);
+        }
+        group.start();
+    }
+
+    private static void safeCallListener(final Listener<? super ProblemReport> listener, final ProblemReport report) {
+        try {
+            listener.handleEvent(report);
+        } catch (final Throwable t) {
+            MSCLogger.ROOT.listenerFailed(t, listener);
+        }
+    }
+
+    private static final class Update {
+        private final Listener<? super UpdateTransaction> work;
+        private final Listener<? super ProblemReport> completionListener;
+        private final ProblemReport slice = new ProblemReport();
+
+        private Update(final Listener<? super UpdateTransaction> work, final Listener<? super ProblemReport> completionListener) {
+            this.work = work;
+            this.completionListener = completionListener;
+        }
+
+        private boolean failed() {
+            return slice.getMaxSeverity().compareTo(Problem.Severity.WARNING) > 0;
+        }
+    }
+
+    private final class Group implements Listener<UpdateTransaction> {
+        private final Executor executor;
+        private final List<Update> updates = new ArrayList<>();
+
+        private Group(final Executor executor) {
+            this.executor = executor;
+        }
+
+        private void start() {
+            txnController.newUpdateTransaction(executor, this);
+        }
+
+        @Override
+        public void handleEvent(final UpdateTransaction txn) {
+            synchronized (lock) {
+                // transaction admitted, no more updates are accepted
+                if (forming.get(executor) == this) forming.remove(executor);
+            }
+            final ProblemReport report = txn.getReport();
+            for (final Update update : updates) {
+                final ProblemReport previous = setCurrentSlice(update.slice);
+                try {
+                    update.work.handleEvent(txn);
+                } catch (final Throwable t) {
+                    final Problem problem = new Problem(Problem.Severity.CRITICAL, t);
+                    update.slice.addProblem(problem);
+                    report.addProblem(problem);
+                } finally {
+                    setCurrentSlice(previous);
+                }
+            }
+            txnController.prepare(txn, new Listener<UpdateTransaction>() {
+                @Override
+                public void handleEvent(final UpdateTransaction txn) {
+                    if (txnController.canCommit(txn)) {
+                        txnController.commit(txn, new Listener<UpdateTransaction>() {
+                            @Override
+                            public void handleEvent(final UpdateTransaction txn) {
+                                completed(updates, unattributedProblems(txn.getReport()));
+                            }
+                        });
+                    } else {
+                        rollback(txn);
+                    }
+                }
+            });
+        }
+
+        /**
+         * Reverts the work of every update, then completes the failed updates and retries the other ones.
+         */
+        private void rollback(final UpdateTransaction txn) {
+            final List<Problem> unattributed = unattributedProblems(txn.getReport());
+            txnController.rollback(txn, new Listener<UpdateTransaction>() {
+                @Override
+                public void handleEvent(final UpdateTransaction rollbackTxn) {
+                    txnController.prepare(rollbackTxn, new Listener<UpdateTransaction>() {
+                        @Override
+                        public void handleEvent(final UpdateTransaction rollbackTxn) {
+                            txnController.commit(rollbackTxn, new Listener<UpdateTransaction>() {
+                                @Override
+                                public void handleEvent(final UpdateTransaction rollbackTxn) {
+                                    // problems reverting the work are reported to updates that didn't commit
+                                    unattributed.addAll(rollbackTxn.getReport().getProblems());
+                                    rolledBack(unattributed);
+                                }
+                            });
+                        }
+                    });
+                }
+            });
+        }
+
+        private void rolledBack(final List<Problem> unattributed) {
+            final List<Update> failed = new ArrayList<>(), retried = new ArrayList<>();
+            for (final Update update : updates) {
+                (update.failed() ? failed : retried).add(update);
+            }
+            if (failed.isEmpty()) {
+                // failure of the group cannot be attributed to any update
+                completed(updates, unattributed);
+                return;
+            }
+            completed(failed, unattributed);
+            if (retried.isEmpty()) return;
+            final Group group = new Group(executor);
+            for (final Update update : retried) {
+                // retried update starts with empty slice, problems of reverted work no longer apply
+                group.updates.add(new Update(update.work, update.completionListener));
+            }
+            group.start();
+        }
+
+        private void completed(final List<Update> updates, final List<Problem> unattributed) {
+            for (final Update update : updates) {
+                for (final Problem problem : unattributed) {
+                    update.slice.addProblem(problem);
+                }
+                safeCallListener(update.completionListener, update.slice);
+            }
+        }
+
+        private List<Problem> unattributedProblems(final ProblemReport report) {
+            final Map<Problem, Boolean> attributed = new IdentityHashMap<>();
+            for (final Update update : updates) {
+                for (final Problem problem : update.slice) {
+                    attributed.put(problem, Boolean.TRUE);
+                }
+            }
+            final List<Problem> unattributed = new ArrayList<>();
+            for (final Problem problem : report) {
+                if (!attributed.containsKey(problem)) unattributed.add(problem);
+            }
+            return unattributed;
+        }
+    }
+}
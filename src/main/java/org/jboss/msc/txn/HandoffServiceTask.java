@@ -0,0 +1,319 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2014 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.msc.txn;
+
+import static org.jboss.msc.txn.Helper.getAbstractTransaction;
+import static org.jboss.msc.txn.Helper.setTCCL;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.msc._private.MSCLogger;
+import org.jboss.msc.problem.Problem;
+import org.jboss.msc.problem.Problem.Severity;
+import org.jboss.msc.problem.ProblemReport;
+import org.jboss.msc.service.Service;
+import org.jboss.msc.service.ServiceContext;
+import org.jboss.msc.service.ServiceController;
+import org.jboss.msc.service.StartContext;
+import org.jboss.msc.service.StopContext;
+import org.jboss.msc.util.Listener;
+
+/**
+ * Task that replaces running service in place. The new service is started first, then it is swapped into the
+ * controller together with its value, and finally the old service is stopped. The controller stays UP all the
+ * time, so that dependents keep running. If the new service fails to start, the old one keeps running. If the
+ * controller stopped while the new service was starting, the new service is stopped again and the replacement
+ * falls back to regular replace. Start of the new service is profiled and watched the same way as regular starts,
+ * stops of the handed off services are watched the same way as regular stops.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opalka</a>
+ */
+final class HandoffServiceTask<T> implements Executable<Void>, ServiceTask {
+
+    /**
+     * Creates a handoff service task.
+     *
+     * @param serviceController the running service controller
+     * @param oldService        the running service
+     * @param newService        the service to run in place of {@code oldService}
+     * @param listener          the completion listener, or {@code null}
+     * @param transaction       the active transaction
+     */
+    static <T> void create(final ServiceControllerImpl<T> serviceController, final Service<T> oldService, final Service<T> newService, final Listener<ServiceController<T>> listener, final Transaction transaction) {
+        final TaskFactory taskFactory = getAbstractTransaction(transaction).getTaskFactory();
+        taskFactory.newTask(new HandoffServiceTask<>(serviceController, oldService, newService, listener, (UpdateTransaction) transaction)).release();
+    }
+
+    private final ServiceControllerImpl<T> serviceController;
+    private final Service<T> oldService;
+    private final Service<T> newService;
+    private final Listener<ServiceController<T>> listener;
+    private final UpdateTransaction transaction;
+    private final long handoffTime = System.nanoTime();
+
+    private HandoffServiceTask(final ServiceControllerImpl<T> serviceController, final Service<T> oldService, final Service<T> newService, final Listener<ServiceController<T>> listener, final UpdateTransaction transaction) {
+        this.serviceController = serviceController;
+        this.oldService = oldService;
+        this.newService = newService;
+        this.listener = listener;
+        this.transaction = transaction;
+    }
+
+    @Override
+    public ServiceControllerImpl<?> getServiceController() {
+        return serviceController;
+    }
+
+    @Override
+    public void execute(final ExecuteContext<Void> context) {
+        if (newService == null) {
+            // nothing to start, value of running service is kept
+            handedOff(serviceController.getValue(), context);
+            return;
+        }
+        CriticalPathAnalyzer.serviceStartable(serviceController, transaction);
+        CriticalPathAnalyzer.serviceStarting(serviceController, transaction);
+        BootProfile.serviceStarting(serviceController, transaction);
+        final HandoffStartContext startContext = new HandoffStartContext(context);
+        LifecycleWatchdog.watch(startContext, transaction);
+        newService.start(startContext);
+    }
+
+    private void handedOff(final T result, final ExecuteContext<Void> context) {
+        if (!serviceController.handoff(oldService, newService, result, transaction)) {
+            // controller stopped meanwhile, new service has to go through regular replace
+            if (newService != null) {
+                stop(newService, context);
+            } else {
+                fallBack(context);
+            }
+            return;
+        }
+        if (oldService != null) {
+            stop(oldService, context);
+        } else {
+            done(context);
+        }
+    }
+
+    private void stop(final Service<T> service, final ExecuteContext<Void> context) {
+        final HandoffStopContext stopContext = new HandoffStopContext(context, service);
+        LifecycleWatchdog.watch(stopContext, transaction);
+        service.stop(stopContext);
+    }
+
+    private void fallBack(final ExecuteContext<Void> context) {
+        try {
+            serviceController.replace(transaction, newService, listener);
+        } catch (final RuntimeException e) {
+            context.addProblem(e);
+            if (listener != null) serviceController.safeCallListener(listener);
+        } finally {
+            context.complete();
+        }
+    }
+
+    private void done(final ExecuteContext<Void> context) {
+        if (listener != null) serviceController.safeCallListener(listener);
+        context.complete();
+    }
+
+    private abstract class HandoffContext extends LifecycleWatchdog.Entry {
+
+        final ExecuteContext<Void> context;
+        // lifecycle call may complete in another thread, tasks it creates belong to the grouped update of this task
+        final ProblemReport slice = GroupCommit.currentSlice();
+
+        private HandoffContext(final ExecuteContext<Void> context) {
+            this.context = context;
+        }
+
+        public void addProblem(final Problem reason) {
+            if (reason == null) {
+                throw MSCLogger.SERVICE.methodParameterIsNull("reason");
+            }
+            context.addProblem(reason);
+        }
+
+        public void addProblem(final Severity severity, final String message) {
+            if (severity == null) {
+                throw MSCLogger.SERVICE.methodParameterIsNull("severity");
+            }
+            if (message == null) {
+                throw MSCLogger.SERVICE.methodParameterIsNull("message");
+            }
+            context.addProblem(severity, message);
+        }
+
+        public void addProblem(final Severity severity, final String message, final Throwable cause) {
+            if (severity == null) {
+                throw MSCLogger.SERVICE.methodParameterIsNull("severity");
+            }
+            if (message == null) {
+                throw MSCLogger.SERVICE.methodParameterIsNull("message");
+            }
+            if (cause == null) {
+                throw MSCLogger.SERVICE.methodParameterIsNull("cause");
+            }
+            context.addProblem(severity, message, cause);
+        }
+
+        public void addProblem(final String message, final Throwable cause) {
+            if (message == null) {
+                throw MSCLogger.SERVICE.methodParameterIsNull("message");
+            }
+            if (cause == null) {
+                throw MSCLogger.SERVICE.methodParameterIsNull("cause");
+            }
+            context.addProblem(message, cause);
+        }
+
+        public void addProblem(final String message) {
+            if (message == null) {
+                throw MSCLogger.SERVICE.methodParameterIsNull("message");
+            }
+            context.addProblem(message);
+        }
+
+        public void addProblem(final Throwable cause) {
+            if (cause == null) {
+                throw MSCLogger.SERVICE.methodParameterIsNull("cause");
+            }
+            context.addProblem(cause);
+        }
+
+        public long getElapsedTime() {
+            return System.nanoTime() - handoffTime;
+        }
+
+        public ServiceController<?> getController() {
+            return serviceController;
+        }
+
+        public void execute(final Runnable command) {
+            final ClassLoader contextClassLoader = setTCCL(command.getClass().getClassLoader());
+            try {
+                command.run();
+            } finally {
+                setTCCL(contextClassLoader);
+            }
+        }
+    }
+
+    private final class HandoffStartContext extends HandoffContext implements StartContext<T> {
+
+        private final Object handoffEvent = FlightRecorderEvents.handoffStarted(serviceController);
+
+        private HandoffStartContext(final ExecuteContext<Void> context) {
+            super(context);
+        }
+
+        @Override
+        public void complete(final T result) {
+            // start may have been failed by watchdog meanwhile
+            if (!markDone()) return;
+            final ProblemReport previousSlice = GroupCommit.setCurrentSlice(slice);
+            try {
+                started(false);
+                handedOff(result, context);
+            } finally {
+                GroupCommit.setCurrentSlice(previousSlice);
+            }
+        }
+
+        @Override
+        public void complete() {
+            complete(null);
+        }
+
+        @Override
+        public void fail() {
+            if (!markDone()) return;
+            failed();
+        }
+
+        private void started(final boolean failed) {
+            CriticalPathAnalyzer.serviceStarted(serviceController, transaction, failed);
+            BootProfile.serviceStarted(serviceController, transaction, failed);
+            FlightRecorderEvents.handoffCompleted(handoffEvent, failed);
+        }
+
+        private void failed() {
+            final ProblemReport previousSlice = GroupCommit.setCurrentSlice(slice);
+            try {
+                started(true);
+                // old service keeps running
+                context.addProblem(new Problem(Severity.WARNING, MSCLogger.SERVICE.serviceHandoffFailed(serviceController.getServiceName())));
+                done(context);
+            } finally {
+                GroupCommit.setCurrentSlice(previousSlice);
+            }
+        }
+
+        @Override
+        void overdue(final long timeoutNanos, final boolean failAfterTimeout) {
+            final String message = MSCLogger.SERVICE.serviceStartOverdue(serviceController.getServiceName(), TimeUnit.NANOSECONDS.toMillis(timeoutNanos));
+            getAbstractTransaction(transaction).getReport().addProblem(new Problem(Severity.WARNING, message));
+            if (failAfterTimeout && markTerminated()) failed();
+        }
+
+        @Override
+        public ServiceContext getChildContext() {
+            // controller is not starting, children would be bound to the old service
+            throw MSCLogger.SERVICE.lifecycleContextNotValid();
+        }
+    }
+
+    private final class HandoffStopContext extends HandoffContext implements StopContext {
+
+        private final Service<T> stoppingService;
+
+        private HandoffStopContext(final ExecuteContext<Void> context, final Service<T> stoppingService) {
+            super(context);
+            this.stoppingService = stoppingService;
+        }
+
+        @Override
+        public void complete() {
+            // stop may have been completed by watchdog meanwhile
+            if (!markDone()) return;
+            stopped();
+        }
+
+        private void stopped() {
+            final ProblemReport previousSlice = GroupCommit.setCurrentSlice(slice);
+            try {
+                if (stoppingService == oldService) {
+                    done(context);
+                } else {
+                    fallBack(context);
+                }
+            } finally {
+                GroupCommit.setCurrentSlice(previousSlice);
+            }
+        }
+
+        @Override
+        void overdue(final long timeoutNanos, final boolean failAfterTimeout) {
+            final String message = MSCLogger.SERVICE.serviceStopOverdue(serviceController.getServiceName(), TimeUnit.NANOSECONDS.toMillis(timeoutNanos));
+            getAbstractTransaction(transaction).getReport().addProblem(new Problem(Severity.WARNING, message));
+            if (failAfterTimeout && markTerminated()) stopped();
+        }
+    }
+}
@@ -21,6 +21,9 @@ package org.jboss.msc.txn;
 import org.jboss.msc.service.ServiceRegistry;
 
 import java.security.AccessController;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
 
 import static org.jboss.msc._private.MSCLogger.TXN;
 
@@ -79,6 +82,116 @@ final class Helper {
         throw TXN.illegalTransaction();
     }
 
+    /**
+     * Gets the registry version read by the transaction.
+     *
+     * @param transaction the transaction
+     * @return the version, or {@code -1} if transaction reads current state
+     */
+    static long getReadVersion(final ReadTransaction transaction) {
+        final AbstractTransaction abstractTxn = getAbstractTransaction(transaction);
+        return transaction instanceof UpdateTransaction ? -1 : ((BasicReadTransaction) abstractTxn).readVersion;
+    }
+
+    /**
+     * Ensures the transaction is allowed to modify the registry.
+     *
+     * @param transaction the updating transaction
+     * @param registry the modified registry
+     * @throws IllegalArgumentException if registry is out of transaction scope
+     */
+    static void validateScope(final Transaction transaction, final ServiceRegistryImpl registry) throws IllegalArgumentException {
+        final Set<ServiceRegistryImpl> scope = ((BasicReadTransaction) getAbstractTransaction(transaction)).scope;
+        if (scope != null && !scope.contains(registry)) {
+            throw TXN.registryOutOfTransactionScope();
+        }
+    }
+
+    /**
+     * Claims the registration and registrations its modification cascades to for writing if the transaction is
+     * optimistic.
+     *
+     * @param transaction the updating transaction
+     * @param registration the modified registration
+     * @throws IllegalStateException if any of them is being modified by another optimistic transaction
+     */
+    static void validateWrite(final Transaction transaction, final Registration registration) throws IllegalStateException {
+        validateWrites(transaction, Collections.singleton(registration));
+    }
+
+    /**
+     * Claims the registrations and registrations their modification cascades to for writing if the transaction is
+     * optimistic.
+     *
+     * @param transaction the updating transaction
+     * @param registrations the modified registrations
+     * @throws IllegalStateException if any of them is being modified by another optimistic transaction
+     */
+    static void validateWrites(final Transaction transaction, final Collection<Registration> registrations) throws IllegalStateException {
+        final OptimisticFootprint footprint = OptimisticFootprint.get(transaction);
+        if (footprint == null) return;
+        final Registration conflict = footprint.writeCascade(registrations, true);
+        if (conflict != null) {
+            throw TXN.cannotModifyConcurrentlyModifiedService(conflict.getServiceName());
+        }
+    }
+
+    /**
+     * Claims the dependency of installed service for writing if the transaction is optimistic and demand of the new
+     * service cascades to it. Other dependencies are only read, their modifications committed meanwhile are
+     * conflicts reported at prepare.
+     *
+     * @param transaction the updating transaction
+     * @param dependency the dependency of installed service
+     * @throws IllegalStateException if the dependency is being modified by another optimistic transaction
+     */
+    static void validateDependencyWrite(final Transaction transaction, final DependencyImpl<?> dependency) throws IllegalStateException {
+        if (OptimisticFootprint.cascadesTo(dependency)) {
+            validateWrite(transaction, dependency.getDependencyRegistration());
+        } else {
+            recordRead(transaction, dependency.getDependencyRegistration());
+        }
+    }
+
+    /**
+     * Claims the registration and registrations its modification cascades to for writing if the transaction is
+     * optimistic.
+     *
+     * @param transaction the updating transaction
+     * @param registration the modified registration
+     * @return {@code false} if any of them is being modified by another optimistic transaction
+     */
+    static boolean tryWrite(final Transaction transaction, final Registration registration) {
+        final OptimisticFootprint footprint = OptimisticFootprint.get(transaction);
+        return footprint == null || footprint.writeCascade(Collections.singleton(registration), false) == null;
+    }
+
+    /**
+     * Ensures the transaction is not dry run. Dry run transactions don't stop services, so they must not remove or
+     * replace them.
+     *
+     * @param transaction the updating transaction
+     * @throws IllegalStateException if transaction is dry run
+     */
+    static void validateNotDryRun(final Transaction transaction) throws IllegalStateException {
+        if (DryRunPlan.get(transaction) != null) {
+            throw TXN.dryRunCannotRemoveOrReplace();
+        }
+    }
+
+    /**
+     * Records the registration was read if the transaction is optimistic.
+     *
+     * @param transaction the transaction
+     * @param registration the read registration
+     */
+    static void recordRead(final Transaction transaction, final Registration registration) {
+        final OptimisticFootprint footprint = OptimisticFootprint.get(transaction);
+        if (footprint != null) {
+            footprint.read(registration);
+        }
+    }
+
     static void validateRegistry(final ServiceRegistry registry) {
         if (registry == null) {
             throw TXN.methodParameterIsNull("registry");
@@ -0,0 +1,300 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2014 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.msc.txn;
+
+import static org.jboss.msc._private.MSCLogger.TASK;
+import static org.jboss.msc._private.MSCLogger.TXN;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+import org.jboss.msc.util.AttachmentKey;
+
+/**
+ * Watches service starts and stops of an update transaction. A service which doesn't complete its start or stop
+ * within the timeout is reported as a warning in the transaction report and, if requested, its start is failed or
+ * its stop is considered completed, so that the transaction doesn't wait for it forever.
+ * <p>
+ * All watchdogs share single hashed timer wheel ticked by one daemon thread, which runs only while some lifecycle
+ * call is watched. Start and stop contexts are themselves the wheel entries and they are unlinked from their slot as
+ * soon as they complete, so watching a service allocates nothing and holds the slot monitor only briefly.
+ * <p>
+ * Usage:
+ * <pre>
+ * LifecycleWatchdog.attach(txn, 30, TimeUnit.SECONDS, true);
+ * // install services, prepare and commit txn
+ * </pre>
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opalka</a>
+ */
+public final class LifecycleWatchdog {
+
+    private static final AttachmentKey<LifecycleWatchdog> KEY = AttachmentKey.create();
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final int WHEEL_SIZE = 512;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    private static final long BASE_TIME = System.nanoTime();
+
+    private static final Slot[] wheel = new Slot[WHEEL_SIZE];
+    // the count of entries linked in the wheel
+    private static final AtomicInteger pendingEntries = new AtomicInteger();
+    private static final AtomicBoolean ticking = new AtomicBoolean();
+    // the last tick processed, accessed by ticking thread only
+    private static long processedTick = currentTick();
+
+    static {
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            wheel[i] = new Slot();
+        }
+    }
+
+    private final long timeoutNanos;
+    private final long timeoutTicks;
+    private final boolean failAfterTimeout;
+
+    private LifecycleWatchdog(final long timeoutNanos, final boolean failAfterTimeout) {
+        this.timeoutNanos = timeoutNanos;
+        this.timeoutTicks = Math.max(1, (timeoutNanos + TICK_NANOS - 1) / TICK_NANOS);
+        this.failAfterTimeout = failAfterTimeout;
+    }
+
+    /**
+     * Attaches a watchdog to the given transaction. Only service starts and stops initiated after this method returns
+     * are watched. If a watchdog is attached already, the attached one is returned.
+     *
+     * @param txn              the update transaction to watch
+     * @param timeout          the time service start or stop may take
+     * @param unit             the time unit of {@code timeout}
+     * @param failAfterTimeout {@code true} to fail overdue starts and complete overdue stops, {@code false} to only
+     *                         report them
+     * @return the watchdog associated with {@code txn}
+     * @throws IllegalArgumentException if {@code txn} or {@code unit} is null or if {@code timeout} is not positive
+     */
+    public static LifecycleWatchdog attach(final UpdateTransaction txn, final long timeout, final TimeUnit unit, final boolean failAfterTimeout) throws IllegalArgumentException {
+        if (txn == null) {
+            throw TXN.methodParameterIsNull("txn");
+        }
+        if (unit == null) {
+            throw TXN.methodParameterIsNull("unit");
+        }
+        if (timeout <= 0) {
+            throw TXN.methodParameterIsInvalid("timeout");
+        }
+        final LifecycleWatchdog watchdog = new LifecycleWatchdog(unit.toNanos(timeout), failAfterTimeout);
+        final LifecycleWatchdog appearing = txn.putAttachmentIfAbsent(KEY, watchdog);
+        return appearing != null ? appearing : watchdog;
+    }
+
+    /**
+     * Returns the time service start or stop may take.
+     *
+     * @param unit the time unit
+     * @return the timeout
+     */
+    public long getTimeout(final TimeUnit unit) {
+        return unit.convert(timeoutNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Indicates whether overdue service starts are failed and overdue service stops are completed.
+     *
+     * @return {@code true} if overdue lifecycle calls are terminated, {@code false} if they are only reported
+     */
+    public boolean isFailAfterTimeout() {
+        return failAfterTimeout;
+    }
+
+    /**
+     * Starts watching given lifecycle call if transaction has a watchdog attached.
+     *
+     * @param entry the lifecycle context
+     * @param txn   the active transaction
+     */
+    static void watch(final Entry entry, final Transaction txn) {
+        final LifecycleWatchdog watchdog = txn.getAttachment(KEY);
+        if (watchdog == null) return;
+        entry.deadlineTick = currentTick() + watchdog.timeoutTicks;
+        entry.watchdog = watchdog;
+        pendingEntries.incrementAndGet();
+        final Slot slot = wheel[(int) (entry.deadlineTick & WHEEL_MASK)];
+        synchronized (slot) {
+            slot.link(entry);
+        }
+        if (ticking.compareAndSet(false, true)) startTicking();
+    }
+
+    private static void unwatch(final Entry entry) {
+        if (entry.watchdog == null) return;
+        final Slot slot = wheel[(int) (entry.deadlineTick & WHEEL_MASK)];
+        synchronized (slot) {
+            // overdue entry is unlinked by the ticking thread
+            if (!slot.unlink(entry)) return;
+        }
+        pendingEntries.decrementAndGet();
+    }
+
+    private static long currentTick() {
+        return (System.nanoTime() - BASE_TIME) / TICK_NANOS;
+    }
+
+    private static void startTicking() {
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                tick();
+            }
+        }, "MSC lifecycle watchdog");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static void tick() {
+        while (true) {
+            LockSupport.parkNanos(TICK_NANOS);
+            final long currentTick = currentTick();
+            // single wheel round visits every slot, no need to catch up idle time tick by tick
+            if (currentTick - processedTick > WHEEL_SIZE) processedTick = currentTick - WHEEL_SIZE;
+            while (processedTick < currentTick) {
+                processedTick++;
+                final Slot slot = wheel[(int) (processedTick & WHEEL_MASK)];
+                Entry overdue = null;
+                synchronized (slot) {
+                    Entry entry = slot.head;
+                    while (entry != null) {
+                        final Entry next = entry.next;
+                        // entries with deadline more wheel rounds away stay in the slot
+                        if (entry.deadlineTick <= processedTick) {
+                            slot.unlink(entry);
+                            entry.next = overdue;
+                            overdue = entry;
+                        }
+                        entry = next;
+                    }
+                }
+                while (overdue != null) {
+                    final Entry next = overdue.next;
+                    overdue.next = null;
+                    pendingEntries.decrementAndGet();
+                    // service may have completed meanwhile
+                    if (!overdue.isDone()) try {
+                        overdue.overdue(overdue.watchdog.timeoutNanos, overdue.watchdog.failAfterTimeout);
+                    } catch (final Throwable t) {
+                        TXN.taskExecutionFailed(t, overdue);
+                    }
+                    overdue = next;
+                }
+            }
+            if (pendingEntries.get() == 0) {
+                ticking.set(false);
+                // entry may have been added after the check, keep ticking unless some other thread does
+                if (pendingEntries.get() == 0 || !ticking.compareAndSet(false, true)) return;
+            }
+        }
+    }
+
+    /**
+     * Watched service start or stop.
+     */
+    abstract static class Entry {
+
+        private static final AtomicIntegerFieldUpdater<Entry> doneUpdater = AtomicIntegerFieldUpdater.newUpdater(Entry.class, "done");
+        private static final int PENDING = 0;
+        private static final int COMPLETED = 1;
+        private static final int TERMINATED = 2;
+        private static final int TERMINATED_COMPLETED = 3;
+
+        private volatile int done;
+        // written before deadline tick is published
+        private volatile LifecycleWatchdog watchdog;
+        private long deadlineTick;
+        // guarded by slot monitor while linked
+        private Slot slot;
+        private Entry prev;
+        private Entry next;
+
+        /**
+         * Marks service start or stop completed by the service. Single completion racing with termination by the
+         * watchdog or by the shutdown deadline is ignored, any other repeated completion is an error.
+         *
+         * @return {@code true} if lifecycle call was not completed yet, {@code false} if it was terminated already
+         * @throws IllegalStateException if lifecycle call was completed already
+         */
+        final boolean markDone() throws IllegalStateException {
+            if (doneUpdater.compareAndSet(this, PENDING, COMPLETED)) {
+                unwatch(this);
+                return true;
+            }
+            if (doneUpdater.compareAndSet(this, TERMINATED, TERMINATED_COMPLETED)) return false;
+            throw TASK.taskCannotComplete();
+        }
+
+        /**
+         * Marks service start or stop terminated without waiting for the service.
+         *
+         * @return {@code true} if lifecycle call was not completed yet
+         */
+        final boolean markTerminated() {
+            if (!doneUpdater.compareAndSet(this, PENDING, TERMINATED)) return false;
+            unwatch(this);
+            return true;
+        }
+
+        final boolean isDone() {
+            return done != 0;
+        }
+
+        /**
+         * Called by the ticking thread once service start or stop is overdue.
+         *
+         * @param timeoutNanos     the timeout in nanoseconds
+         * @param failAfterTimeout whether to terminate the lifecycle call
+         */
+        abstract void overdue(long timeoutNanos, boolean failAfterTimeout);
+    }
+
+    /**
+     * Wheel slot, doubly linked list of entries guarded by the slot monitor.
+     */
+    private static final class Slot {
+
+        private Entry head;
+
+        private void link(final Entry entry) {
+            entry.slot = this;
+            entry.next = head;
+            if (head != null) head.prev = entry;
+            head = entry;
+        }
+
+        private boolean unlink(final Entry entry) {
+            if (entry.slot != this) return false;
+            if (entry.prev != null) entry.prev.next = entry.next;
+            else head = entry.next;
+            if (entry.next != null) entry.next.prev = entry.prev;
+            entry.slot = null;
+            entry.prev = null;
+            entry.next = null;
+            return true;
+        }
+    }
+
+}
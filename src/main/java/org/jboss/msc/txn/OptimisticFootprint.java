@@ -0,0 +1,226 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2014 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.msc.txn;
+
+import org.jboss.msc._private.MSCLogger;
+import org.jboss.msc.problem.Problem;
+import org.jboss.msc.problem.ProblemReport;
+import org.jboss.msc.service.ServiceMode;
+import org.jboss.msc.util.AttachmentKey;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Read and write sets of optimistic updating transaction.
+ * <p>
+ * Registrations written by optimistic transaction are claimed by it until it terminates, attempts of other optimistic
+ * transactions to write them are conflicts. Modifications cascade along dependencies, so a write claims the written
+ * registration and the registrations its modification cascades to, and fails before anything is modified if any of
+ * them is claimed. Everything else is left to prepare, when the footprint is validated: transaction conflicts if it
+ * attempted to write registration claimed by another transaction or if any registration it read or wrote was
+ * committed by another transaction since this one started. Conflicts are reported as errors, so that conflicting
+ * transaction cannot be committed and must be restarted.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opalka</a>
+ */
+final class OptimisticFootprint implements PrepareCompletionListener {
+
+    private static final AttachmentKey<OptimisticFootprint> FOOTPRINT = AttachmentKey.create();
+
+    /** The version committed when transaction started */
+    private final long startVersion;
+    private final ProblemReport report;
+    private final Set<Registration> readSet = newConcurrentSet();
+    private final Set<Registration> writeSet = newConcurrentSet();
+    private final Set<Registration> conflicts = newConcurrentSet();
+
+    private OptimisticFootprint(final long startVersion, final ProblemReport report) {
+        this.startVersion = startVersion;
+        this.report = report;
+    }
+
+    private static Set<Registration> newConcurrentSet() {
+        return Collections.newSetFromMap(new ConcurrentHashMap<Registration, Boolean>());
+    }
+
+    /**
+     * Starts tracking read and write sets of optimistic transaction.
+     *
+     * @param txn the optimistic transaction
+     * @param startVersion the version committed when transaction started
+     * @return the footprint
+     */
+    static OptimisticFootprint track(final AbstractTransaction txn, final long startVersion) {
+        final OptimisticFootprint footprint = new OptimisticFootprint(startVersion, txn.getReport());
+        txn.putAttachment(FOOTPRINT, footprint);
+        txn.addListener(footprint);
+        return footprint;
+    }
+
+    /**
+     * Gets the footprint of the transaction.
+     *
+     * @param txn the transaction
+     * @return the footprint, or {@code null} if transaction is not optimistic
+     */
+    static OptimisticFootprint get(final Transaction txn) {
+        return txn.getAttachment(FOOTPRINT);
+    }
+
+    /**
+     * Hands over the registrations written by restarted transaction to its successor, changes made by restarted
+     * transaction are committed by the successor. The successor reads the version committed when it started.
+     *
+     * @param from the restarted transaction
+     * @param to the successor transaction
+     * @param startVersion the version committed when successor started
+     */
+    static void transfer(final AbstractTransaction from, final AbstractTransaction to, final long startVersion) {
+        final OptimisticFootprint previous = from.removeAttachment(FOOTPRINT);
+        if (previous == null) return;
+        final OptimisticFootprint footprint = track(to, startVersion);
+        for (final Registration registration : previous.writeSet) {
+            registration.claim(previous, footprint);
+            footprint.writeSet.add(registration);
+        }
+    }
+
+    /**
+     * Releases the registrations claimed by terminated transaction.
+     *
+     * @param txn the terminated transaction
+     */
+    static void release(final AbstractTransaction txn) {
+        final OptimisticFootprint footprint = txn.removeAttachment(FOOTPRINT);
+        if (footprint == null) return;
+        for (final Registration registration : footprint.writeSet) {
+            registration.release(footprint);
+        }
+    }
+
+    void read(final Registration registration) {
+        readSet.add(registration);
+    }
+
+    /**
+     * Claims the registration for writing.
+     *
+     * @param registration the written registration
+     * @return {@code false} if registration is claimed by another optimistic transaction
+     */
+    boolean write(final Registration registration) {
+        if (writeSet.contains(registration)) return true;
+        if (!registration.claim(null, this)) {
+            conflicts.add(registration);
+            return false;
+        }
+        writeSet.add(registration);
+        return true;
+    }
+
+    /**
+     * Claims the registrations and the registrations their modification cascades to for writing. Starts and stops
+     * cascade to dependents waiting for the service and demand cascades to dependencies that are not active, so only
+     * those are claimed before anything is modified. Nothing is claimed if any registration is claimed by another
+     * optimistic transaction.
+     *
+     * @param registrations the written registrations
+     * @param recordConflict whether failed claim is a conflict reported at prepare
+     * @return {@code null} if claimed, otherwise the registration claimed by another optimistic transaction
+     */
+    Registration writeCascade(final Collection<Registration> registrations, final boolean recordConflict) {
+        final Set<Registration> visited = new IdentityHashSet<>();
+        final List<Registration> claimed = new ArrayList<>();
+        final ArrayDeque<Registration> pending = new ArrayDeque<>(registrations);
+        Registration registration;
+        while ((registration = pending.poll()) != null) {
+            if (!visited.add(registration)) continue;
+            if (!writeSet.contains(registration)) {
+                if (!registration.claim(null, this)) {
+                    for (final Registration claimedRegistration : claimed) {
+                        writeSet.remove(claimedRegistration);
+                        claimedRegistration.release(this);
+                    }
+                    if (recordConflict) conflicts.add(registration);
+                    return registration;
+                }
+                writeSet.add(registration);
+                claimed.add(registration);
+            }
+            final ServiceControllerImpl<?> controller = registration.getController();
+            if (controller != null) {
+                pending.add(controller.getPrimaryRegistration());
+                Collections.addAll(pending, controller.getAliasRegistrations());
+                for (final DependencyImpl<?> dependency : controller.getDependencies()) {
+                    if (cascadesTo(dependency)) pending.add(dependency.getDependencyRegistration());
+                }
+            }
+            synchronized (registration) {
+                for (final DependencyImpl<?> dependency : registration.incomingDependencies) {
+                    final ServiceControllerImpl<?> dependent = dependency.dependent;
+                    // on access dependents don't wait for this service
+                    if (dependent != null && !dependency.isOnAccess()) pending.add(dependent.getPrimaryRegistration());
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Indicates if modification of the dependent may cascade to the dependency. Demand is propagated only to
+     * dependencies that are not active, active services are started regardless of demand.
+     *
+     * @param dependency the dependency
+     * @return {@code true} if the dependency has to be claimed with its dependent
+     */
+    static boolean cascadesTo(final DependencyImpl<?> dependency) {
+        final Registration registration = dependency.getDependencyRegistration();
+        if (registration == null || !dependency.propagatesDemand()) return false;
+        final ServiceControllerImpl<?> controller = registration.getController();
+        return controller != null && controller.getMode() != ServiceMode.ACTIVE;
+    }
+
+    @Override
+    public void transactionPrepared() {
+        for (final Registration registration : conflicts) {
+            addConflict(registration);
+        }
+        for (final Registration registration : readSet) {
+            if (!conflicts.contains(registration) && registration.getCommittedVersion() > startVersion) {
+                addConflict(registration);
+            }
+        }
+        for (final Registration registration : writeSet) {
+            if (!readSet.contains(registration) && registration.getCommittedVersion() > startVersion) {
+                addConflict(registration);
+            }
+        }
+    }
+
+    private void addConflict(final Registration registration) {
+        report.addProblem(new Problem(Problem.Severity.ERROR, MSCLogger.ROOT.concurrentlyModifiedService(registration.getServiceName())));
+    }
+
+}
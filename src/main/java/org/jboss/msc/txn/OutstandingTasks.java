@@ -0,0 +1,223 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2014 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.msc.txn;
+
+import static org.jboss.msc._private.MSCLogger.TXN;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.msc.service.ServiceName;
+import org.jboss.msc.util.AttachmentKey;
+
+/**
+ * Registry of tasks of a transaction that were added but didn't complete yet. It helps to find out what a stalled
+ * transaction is waiting for.
+ * <p>
+ * Tracking a task costs one insertion to and one removal from a concurrent set. Tasks may also be tracked by
+ * sampling, in which case only every n-th task on average is tracked. Tasks added before the registry was attached
+ * are not tracked.
+ * <p>
+ * Usage:
+ * <pre>
+ * final OutstandingTasks outstandingTasks = OutstandingTasks.attach(txn);
+ * // install services, prepare txn
+ * // if prepare doesn't complete in time
+ * System.out.println(outstandingTasks.getReport());
+ * </pre>
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opalka</a>
+ */
+public final class OutstandingTasks {
+
+    private static final AttachmentKey<OutstandingTasks> KEY = AttachmentKey.create();
+
+    private final int samplingInterval;
+    private final Set<OutstandingTask> tasks = Collections.newSetFromMap(new ConcurrentHashMap<OutstandingTask, Boolean>());
+
+    private OutstandingTasks(final int samplingInterval) {
+        this.samplingInterval = samplingInterval;
+    }
+
+    /**
+     * Attaches a registry tracking all tasks to the given transaction. If a registry is attached already, the
+     * attached one is returned.
+     *
+     * @param txn the transaction to track
+     * @return the registry associated with {@code txn}
+     * @throws IllegalArgumentException if {@code txn} is null
+     */
+    public static OutstandingTasks attach(final Transaction txn) throws IllegalArgumentException {
+        return attach(txn, 1);
+    }
+
+    /**
+     * Attaches a registry tracking sampled tasks to the given transaction. If a registry is attached already, the
+     * attached one is returned.
+     *
+     * @param txn              the transaction to track
+     * @param samplingInterval track one of {@code samplingInterval} tasks on average, {@code 1} tracks all tasks
+     * @return the registry associated with {@code txn}
+     * @throws IllegalArgumentException if {@code txn} is null or if {@code samplingInterval} is not positive
+     */
+    public static OutstandingTasks attach(final Transaction txn, final int samplingInterval) throws IllegalArgumentException {
+        if (txn == null) {
+            throw TXN.methodParameterIsNull("txn");
+        }
+        if (samplingInterval < 1) {
+            throw TXN.methodParameterIsInvalid("samplingInterval");
+        }
+        final OutstandingTasks outstandingTasks = new OutstandingTasks(samplingInterval);
+        final OutstandingTasks appearing = txn.putAttachmentIfAbsent(KEY, outstandingTasks);
+        return appearing != null ? appearing : outstandingTasks;
+    }
+
+    /**
+     * Starts tracking added task if transaction has a registry attached and the task is sampled.
+     *
+     * @param txn        the transaction
+     * @param executable the task
+     * @return the tracked task or {@code null} if task is not tracked
+     */
+    static OutstandingTask taskAdded(final AbstractTransaction txn, final Executable<?> executable) {
+        final OutstandingTasks outstandingTasks = txn.getAttachment(KEY);
+        if (outstandingTasks == null) return null;
+        if (outstandingTasks.samplingInterval > 1 && ThreadLocalRandom.current().nextInt(outstandingTasks.samplingInterval) != 0) return null;
+        final OutstandingTask task = new OutstandingTask(outstandingTasks, executable);
+        outstandingTasks.tasks.add(task);
+        return task;
+    }
+
+    /**
+     * Returns the count of tracked tasks that didn't complete yet.
+     *
+     * @return the count of outstanding tasks
+     */
+    public int getCount() {
+        return tasks.size();
+    }
+
+    /**
+     * Returns tracked tasks that didn't complete yet, the oldest first.
+     *
+     * @return the outstanding tasks
+     */
+    public List<OutstandingTask> getOutstandingTasks() {
+        final List<OutstandingTask> result = new ArrayList<>(tasks);
+        Collections.sort(result, BY_AGE);
+        return result;
+    }
+
+    /**
+     * Returns a human readable report of tracked tasks that didn't complete yet, the oldest first.
+     *
+     * @return the report
+     */
+    public String getReport() {
+        final List<OutstandingTask> outstandingTasks = getOutstandingTasks();
+        final StringBuilder sb = new StringBuilder();
+        sb.append("Outstanding tasks (").append(outstandingTasks.size()).append("):\n");
+        final long now = System.nanoTime();
+        for (final OutstandingTask task : outstandingTasks) {
+            sb.append("  ").append(task).append(": added ").append(TimeUnit.NANOSECONDS.toMillis(now - task.addedTime)).append(" ms ago");
+            sb.append(task.executing ? ", executing" : ", waiting for execution").append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static final Comparator<OutstandingTask> BY_AGE = new Comparator<OutstandingTask>() {
+        @Override
+        public int compare(final OutstandingTask o1, final OutstandingTask o2) {
+            return Long.compare(o1.addedTime, o2.addedTime);
+        }
+    };
+
+    /**
+     * A task that was added to transaction but didn't complete yet.
+     */
+    public static final class OutstandingTask {
+
+        private final OutstandingTasks outstandingTasks;
+        private final Executable<?> executable;
+        private final long addedTime = System.nanoTime();
+        private volatile boolean executing;
+
+        private OutstandingTask(final OutstandingTasks outstandingTasks, final Executable<?> executable) {
+            this.outstandingTasks = outstandingTasks;
+            this.executable = executable;
+        }
+
+        void executionStarted() {
+            executing = true;
+        }
+
+        void completed() {
+            outstandingTasks.tasks.remove(this);
+        }
+
+        /**
+         * Returns the name of the task.
+         *
+         * @return the task name
+         */
+        public String getTaskName() {
+            return executable.getClass().getName();
+        }
+
+        /**
+         * Returns the name of the service the task operates on.
+         *
+         * @return the service name or {@code null} if the task doesn't operate on single service
+         */
+        public ServiceName getServiceName() {
+            return executable instanceof ServiceTask ? ((ServiceTask) executable).getServiceController().getServiceName() : null;
+        }
+
+        /**
+         * Returns the time elapsed since the task was added to transaction.
+         *
+         * @param unit the time unit
+         * @return the task age
+         */
+        public long getAge(final TimeUnit unit) {
+            return unit.convert(System.nanoTime() - addedTime, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * Returns whether the task execution started already.
+         *
+         * @return {@code true} if the task is executing, {@code false} if it waits for execution
+         */
+        public boolean isExecuting() {
+            return executing;
+        }
+
+        @Override
+        public String toString() {
+            final ServiceName serviceName = getServiceName();
+            return serviceName != null ? getTaskName() + " of " + serviceName : getTaskName();
+        }
+    }
+}
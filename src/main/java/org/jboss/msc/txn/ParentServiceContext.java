@@ -87,6 +87,11 @@ class ParentServiceContext extends ServiceContextImpl {
             super(DependencyFlag.UNREQUIRED);
         }
 
+        @Override
+        boolean isParent() {
+            return true;
+        }
+
         @Override
         public void dependencyDown(Transaction transaction) {
             dependent._remove(transaction, null);
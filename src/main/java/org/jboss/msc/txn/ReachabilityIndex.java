@@ -0,0 +1,96 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2014 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.msc.txn;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Index of services reachable from a service over the current dependency graph of a container. Reach of a service
+ * is computed by its first query and kept until the graph changes, so that repeated queries answer in constant time.
+ * Installation and removal of every service advances the graph version, reaches computed for older graph versions
+ * are never returned.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opalka</a>
+ */
+final class ReachabilityIndex {
+
+    private final AtomicLong graphVersion = new AtomicLong();
+    private final ConcurrentMap<ServiceControllerImpl<?>, Reach> dependents = new ConcurrentHashMap<>();
+    private final ConcurrentMap<ServiceControllerImpl<?>, Reach> dependencies = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the current graph version, reach computed from now on is stamped with it.
+     *
+     * @return the graph version
+     */
+    long getGraphVersion() {
+        return graphVersion.get();
+    }
+
+    /**
+     * Records the dependency graph has changed. Must be called once the change is visible to graph traversals.
+     */
+    void graphChanged() {
+        graphVersion.incrementAndGet();
+        // outdated reaches must not retain removed controllers
+        if (!dependents.isEmpty()) dependents.clear();
+        if (!dependencies.isEmpty()) dependencies.clear();
+    }
+
+    /**
+     * Gets the reach of the controller computed for current graph version.
+     *
+     * @param controller the service controller
+     * @param dependents whether to get transitive dependents or transitive dependencies
+     * @return the reach, or {@code null} if not computed for current graph version
+     */
+    Reach get(final ServiceControllerImpl<?> controller, final boolean dependents) {
+        final Reach reach = (dependents ? this.dependents : this.dependencies).get(controller);
+        return reach != null && reach.graphVersion == graphVersion.get() ? reach : null;
+    }
+
+    /**
+     * Keeps the reach of the controller.
+     *
+     * @param controller the service controller
+     * @param dependents whether reach contains transitive dependents or transitive dependencies
+     * @param reach the reach
+     */
+    void put(final ServiceControllerImpl<?> controller, final boolean dependents, final Reach reach) {
+        if (reach.graphVersion != graphVersion.get()) return;
+        (dependents ? this.dependents : this.dependencies).put(controller, reach);
+    }
+
+    /**
+     * Services reachable from a service.
+     */
+    static final class Reach {
+        final long graphVersion;
+        final List<ServiceControllerImpl<?>> reached;
+
+        Reach(final long graphVersion, final List<ServiceControllerImpl<?>> reached) {
+            this.graphVersion = graphVersion;
+            this.reached = reached;
+        }
+    }
+
+}
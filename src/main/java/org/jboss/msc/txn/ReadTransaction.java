@@ -21,9 +21,9 @@ package org.jboss.msc.txn;
 /**
  * <B>ReadTransaction</B>s don't modify MSC internal states.
  * There can be multiple <B>ReadTransaction</B>s running at the same time.
- * When at least one <B>ReadTransaction</B> is running then there never will be
- * <B>UpdateTransaction</B> associated with the same <B>TransactionController</B>
- * running concurrently.
+ * <B>ReadTransaction</B>s never wait for running <B>UpdateTransaction</B>. They see MSC
+ * state as committed by the last <B>UpdateTransaction</B> before they were created,
+ * changes committed afterwards are not visible to them.
  *
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
  * @author <a href="mailto:ropalka@redhat.com">Richard Opalka</a>
@@ -18,14 +18,20 @@
 
 package org.jboss.msc.txn;
 
-import static org.jboss.msc.txn.ServiceControllerImpl.STATE_UP;
-
 import org.jboss.msc.problem.ProblemReport;
 import org.jboss.msc.service.ServiceName;
 import org.jboss.msc.util.AttachmentKey;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static org.jboss.msc.txn.Helper.getAbstractTransaction;
@@ -40,6 +46,7 @@ import static org.jboss.msc.txn.Helper.getAbstractTransaction;
 final class Registration {
 
     private static final AttachmentKey<RequiredDependenciesCheck> REQUIRED_DEPENDENCIES_CHECK_TASK = AttachmentKey.create();
+    private static final AttachmentKey<Set<Registration>> MODIFIED_REGISTRATIONS = AttachmentKey.create();
 
     /** Registration name */
     private final ServiceName serviceName;
@@ -49,8 +56,26 @@ final class Registration {
     final AtomicReference<ServiceControllerImpl<?>> holderRef = new AtomicReference<>();
     /** Incoming dependencies */
     final Set<DependencyImpl<?>> incomingDependencies = new HashSet<>();
+    /** The count of incoming dependencies requiring this registration, modified under {@code this} */
+    private volatile int requiredIncomingDependencies;
+    /** Whether this registration is in registry index of missing services, guarded by {@code this} */
+    private boolean indexedAsMissing;
     /** State */
     private int state;
+    /** The newest committed version */
+    private volatile RegistrationVersion committedVersion;
+    /** Optimistic transaction writing this registration */
+    private OptimisticFootprint writer;
+    /** The count of services being installed using this registration, guarded by {@code this} */
+    private int reservations;
+    /** Whether this registration has been removed from its registry, guarded by {@code this} */
+    private boolean reclaimed;
+    /**
+     * The count of UP notifications minus the count of DOWN notifications sent to incoming dependencies, guarded by
+     * {@code this}. Controller publishes its new state before notifying, so notifications of a restarting service may
+     * arrive out of order and this count may be transiently off the controller state.
+     */
+    private int upNotifications;
 
     Registration(final ServiceName serviceName, final ServiceRegistryImpl registry) {
         this.serviceName = serviceName;
@@ -65,33 +90,234 @@ final class Registration {
         return holderRef.get();
     }
 
+    /**
+     * Records this registration has been modified by {@code transaction}, so that it gets published on commit.
+     *
+     * @param transaction the active transaction
+     */
+    void modified(final Transaction transaction) {
+        Set<Registration> modifiedRegistrations = transaction.getAttachment(MODIFIED_REGISTRATIONS);
+        if (modifiedRegistrations == null) {
+            modifiedRegistrations = Collections.newSetFromMap(new ConcurrentHashMap<Registration, Boolean>());
+            final Set<Registration> appearing = transaction.putAttachmentIfAbsent(MODIFIED_REGISTRATIONS, modifiedRegistrations);
+            if (appearing != null) {
+                modifiedRegistrations = appearing;
+            }
+        }
+        modifiedRegistrations.add(this);
+        final OptimisticFootprint footprint = OptimisticFootprint.get(transaction);
+        if (footprint != null) {
+            // cascade reaching registration claimed by another transaction is a conflict reported at prepare
+            footprint.write(this);
+        }
+    }
+
+    /**
+     * Claims this registration for writing by optimistic transaction.
+     *
+     * @param expected the expected current writer, {@code null} if none
+     * @param footprint the new writer
+     * @return {@code true} if claimed, {@code false} if claimed by another transaction
+     */
+    boolean claim(final OptimisticFootprint expected, final OptimisticFootprint footprint) {
+        synchronized (this) {
+            if (writer != expected) return false;
+            writer = footprint;
+            return true;
+        }
+    }
+
+    void release(final OptimisticFootprint footprint) {
+        synchronized (this) {
+            if (writer == footprint) writer = null;
+        }
+    }
+
+    static Set<Registration> getModifiedRegistrations(final Transaction transaction) {
+        return transaction.getAttachment(MODIFIED_REGISTRATIONS);
+    }
+
+    static void transferModifiedRegistrations(final Transaction from, final Transaction to) {
+        final Set<Registration> modifiedRegistrations = from.removeAttachment(MODIFIED_REGISTRATIONS);
+        if (modifiedRegistrations != null) {
+            to.putAttachment(MODIFIED_REGISTRATIONS, modifiedRegistrations);
+        }
+    }
+
+    /**
+     * Publishes the current state of this registration as a new committed version.
+     *
+     * @param version the version being committed
+     * @param oldestReadVersion the version of the oldest read transaction, older versions are reclaimed
+     */
+    void publish(final long version, final long oldestReadVersion) {
+        final RegistrationVersion published = new RegistrationVersion(version, holderRef.get(), committedVersion);
+        published.reclaim(oldestReadVersion);
+        committedVersion = published;
+    }
+
+    /**
+     * Gets the committed version visible to read transactions admitted with {@code version}.
+     *
+     * @param version the read version
+     * @return the visible version, or {@code null} if there is none
+     */
+    RegistrationVersion getVersion(final long version) {
+        final RegistrationVersion committedVersion = this.committedVersion;
+        return committedVersion != null ? committedVersion.find(version) : null;
+    }
+
+    /**
+     * Gets the version of the newest committed version.
+     *
+     * @return the version, or {@code 0} if never committed
+     */
+    long getCommittedVersion() {
+        final RegistrationVersion committedVersion = this.committedVersion;
+        return committedVersion != null ? committedVersion.version : 0;
+    }
+
     void clearController(final Transaction transaction) {
         installDependenciesValidateTask(transaction);
         synchronized (this) {
             holderRef.set(null);
+            updateMissingIndex();
+            reclaimIfUnreadable();
         }
     }
 
     <T> void addIncomingDependency(final Transaction transaction, final DependencyImpl<T> dependency) {
         installDependenciesValidateTask(transaction);
         synchronized (this) {
-            incomingDependencies.add(dependency);
-            final ServiceControllerImpl<?> controller = holderRef.get();
-            final boolean up = controller != null && controller.getState() == STATE_UP;
-            if (up) {
+            if (incomingDependencies.add(dependency)) {
+                registry.link(dependency.dependent.getPrimaryRegistration().registry);
+                if (dependency.isRequired()) requiredIncomingDependencies++;
+            }
+            updateMissingIndex();
+            // replay notifications sent so far, so that dependency ends up balanced with the other ones
+            for (int i = 0; i < upNotifications; i++) {
                 dependency.dependencyUp(transaction);
             }
+            for (int i = upNotifications; i < 0; i++) {
+                dependency.dependencyDown(transaction);
+            }
         }
     }
 
     void removeIncomingDependency(final DependencyImpl<?> dependency) {
         synchronized (this) {
-            incomingDependencies.remove(dependency);
+            if (incomingDependencies.remove(dependency)) {
+                registry.unlink(dependency.dependent.getPrimaryRegistration().registry);
+                if (dependency.isRequired()) requiredIncomingDependencies--;
+            }
+            updateMissingIndex();
+            reclaimIfUnreadable();
+        }
+    }
+
+    /**
+     * Reserves this registration for service installation, so that it cannot be reclaimed meanwhile.
+     *
+     * @return {@code false} if this registration has been reclaimed already
+     */
+    boolean reserve() {
+        synchronized (this) {
+            if (reclaimed) return false;
+            reservations++;
+            return true;
+        }
+    }
+
+    /**
+     * Releases the reservation, reclaiming this registration if installation left it orphaned.
+     */
+    void release() {
+        synchronized (this) {
+            reservations--;
+            reclaimIfUnreadable();
+        }
+    }
+
+    /**
+     * Indicates whether this registration is neither bound to a controller nor depended on.
+     */
+    boolean isOrphaned() {
+        synchronized (this) {
+            return holderRef.get() == null && incomingDependencies.isEmpty() && state == 0 && reservations == 0 && writer == null;
+        }
+    }
+
+    /**
+     * Removes orphaned registration from its registry. Registrations that will be needed again are recreated.
+     *
+     * @return {@code true} if reclaimed
+     */
+    boolean reclaim() {
+        synchronized (this) {
+            if (reclaimed) return true;
+            if (!isOrphaned()) return false;
+            reclaimed = true;
+            registry.registrationReclaimed(this);
+            return true;
+        }
+    }
+
+    /**
+     * Reclaims orphaned registration right away if no read-only transaction can see a controller in it. Otherwise
+     * it is reclaimed once its last committed version is visible to all read-only transactions, see
+     * {@link TransactionController#publish(AbstractTransaction)}.
+     */
+    private void reclaimIfUnreadable() {
+        assert Thread.holdsLock(this);
+        final RegistrationVersion committedVersion = this.committedVersion;
+        if (committedVersion == null || !committedVersion.hasController()) {
+            reclaim();
+        }
+    }
+
+    /**
+     * Indicates whether some incoming dependency requires this registration while no controller is installed.
+     */
+    boolean hasMissingRequiredDependencies() {
+        return requiredIncomingDependencies > 0 && holderRef.get() == null;
+    }
+
+    /**
+     * Adds this registration to or removes it from registry index of missing services. Must be called whenever
+     * controller is installed or cleared or when required incoming dependency is added or removed.
+     */
+    void updateMissingIndex() {
+        synchronized (this) {
+            final boolean missing = hasMissingRequiredDependencies();
+            if (missing == indexedAsMissing) return;
+            indexedAsMissing = missing;
+            if (missing) {
+                registry.missingServiceAdded(this);
+            } else {
+                registry.missingServiceRemoved(this);
+            }
         }
     }
 
+    /**
+     * Gets names of services requiring this registration.
+     */
+    Set<ServiceName> getRequiringServices() {
+        final Set<ServiceName> requiringServices = new HashSet<>();
+        synchronized (this) {
+            for (final DependencyImpl<?> dependency : incomingDependencies) {
+                final ServiceControllerImpl<?> dependent = dependency.dependent;
+                if (dependency.isRequired() && dependent != null) {
+                    requiringServices.add(dependent.getServiceName());
+                }
+            }
+        }
+        return requiringServices;
+    }
+
     void serviceUp(final Transaction transaction) {
         synchronized (this) {
+            upNotifications++;
             for (final DependencyImpl<?> incomingDependency: incomingDependencies) {
                 incomingDependency.dependencyUp(transaction);
             }
@@ -100,43 +326,34 @@ final class Registration {
 
     void serviceDown(final Transaction transaction) {
         synchronized (this) {
+            upNotifications--;
             for (DependencyImpl<?> incomingDependency: incomingDependencies) {
                 incomingDependency.dependencyDown(transaction);
             }
         }
     }
 
-    void addDemand(final Transaction transaction) {
-        final ServiceControllerImpl<?> controller;
-        synchronized (this) {
-            if (++ state > 1) return;
-            controller = holderRef.get();
-        }
-        if (controller != null) {
-            controller.demand(transaction);
-        }
-    }
-
-    void removeDemand(final Transaction transaction) {
-        final ServiceControllerImpl<?> controller;
+    /**
+     * Adds a demand to this registration.
+     *
+     * @return the controller to be demanded if this is the first demand, {@code null} otherwise
+     */
+    ServiceControllerImpl<?> addDemand() {
         synchronized (this) {
-            if (--state > 0) return;
-            controller = holderRef.get();
-        }
-        if (controller != null) {
-            controller.undemand(transaction);
+            if (++ state > 1) return null;
+            return holderRef.get();
         }
     }
 
-    void remove(final Transaction transaction) {
-        final ServiceControllerImpl<?> controller;
+    /**
+     * Removes a demand from this registration.
+     *
+     * @return the controller to be undemanded if this was the last demand, {@code null} otherwise
+     */
+    ServiceControllerImpl<?> removeDemand() {
         synchronized (this) {
-            controller = holderRef.get();
-        }
-        if (controller != null) {
-            controller._remove(transaction, null);
-        } else {
-            serviceRemoved();
+            if (--state > 0) return null;
+            return holderRef.get();
         }
     }
 
@@ -163,7 +380,7 @@ final class Registration {
     void installDependenciesValidateTask(final Transaction transaction) {
         RequiredDependenciesCheck task = transaction.getAttachment(REQUIRED_DEPENDENCIES_CHECK_TASK);
         if (task == null) {
-            task = new RequiredDependenciesCheck(transaction.getReport());
+            task = new RequiredDependenciesCheck(transaction.getReport(), getAbstractTransaction(transaction).getExecutor());
             final RequiredDependenciesCheck appearing = transaction.putAttachmentIfAbsent(REQUIRED_DEPENDENCIES_CHECK_TASK, task);
             if (appearing == null) {
                 getAbstractTransaction(transaction).addListener(task);
@@ -178,21 +395,31 @@ final class Registration {
         registry.serviceInstalled();
     }
 
-    void serviceRemoved() {
-        registry.serviceRemoved();
+    void serviceRemoved(final Transaction transaction) {
+        registry.serviceRemoved(transaction);
     }
 
     TransactionController getTransactionController() {
         return registry.getTransactionController();
     }
 
+    /**
+     * Validates required dependencies of registrations modified by transaction once it is prepared. Registrations
+     * with nothing missing are skipped, the rest is validated in chunks by the preparing thread and by helpers
+     * running on transaction executor.
+     */
     private static final class RequiredDependenciesCheck implements PrepareCompletionListener {
 
+        private static final int CHUNK_SIZE = 64;
+        private static final int MAX_HELPERS = Runtime.getRuntime().availableProcessors();
+
         private Set<Registration> registrations = new IdentityHashSet<>();
         private final ProblemReport report;
+        private final Executor executor;
 
-        RequiredDependenciesCheck(final ProblemReport report) {
+        RequiredDependenciesCheck(final ProblemReport report, final Executor executor) {
             this.report = report;
+            this.executor = executor;
         }
 
         void addRegistration(final Registration registration) {
@@ -208,6 +435,28 @@ final class Registration {
                 registrations = this.registrations;
                 this.registrations = new IdentityHashSet<>();
             }
+            final List<Registration> missing = new ArrayList<>();
+            for (final Registration registration : registrations) {
+                if (registration.hasMissingRequiredDependencies()) missing.add(registration);
+            }
+            if (missing.size() <= CHUNK_SIZE) {
+                validate(missing, report);
+                return;
+            }
+            final ChunkedValidation validation = new ChunkedValidation(missing, report);
+            final int helpers = Math.min(validation.chunks - 1, MAX_HELPERS);
+            try {
+                for (int i = 0; i < helpers; i++) {
+                    executor.execute(validation);
+                }
+            } catch (final RejectedExecutionException ignored) {
+                // remaining chunks are validated by preparing thread
+            }
+            validation.run();
+            validation.await();
+        }
+
+        private static void validate(final List<Registration> registrations, final ProblemReport report) {
             for (final Registration registration : registrations) {
                 synchronized (registration) {
                     for (final DependencyImpl<?> dependency : registration.incomingDependencies) {
@@ -217,4 +466,53 @@ final class Registration {
             }
         }
     }
+
+    private static final class ChunkedValidation implements Runnable {
+
+        private final List<Registration> registrations;
+        private final ProblemReport report;
+        private final int chunks;
+        private final AtomicInteger nextChunk = new AtomicInteger();
+        private final CountDownLatch validatedChunks;
+
+        private ChunkedValidation(final List<Registration> registrations, final ProblemReport report) {
+            this.registrations = registrations;
+            this.report = report;
+            this.chunks = (registrations.size() + RequiredDependenciesCheck.CHUNK_SIZE - 1) / RequiredDependenciesCheck.CHUNK_SIZE;
+            this.validatedChunks = new CountDownLatch(chunks);
+        }
+
+        @Override
+        public void run() {
+            int chunk;
+            while ((chunk = nextChunk.getAndIncrement()) < chunks) {
+                try {
+                    final int from = chunk * RequiredDependenciesCheck.CHUNK_SIZE;
+                    final int to = Math.min(from + RequiredDependenciesCheck.CHUNK_SIZE, registrations.size());
+                    RequiredDependenciesCheck.validate(registrations.subList(from, to), report);
+                } finally {
+                    validatedChunks.countDown();
+                }
+            }
+        }
+
+        /**
+         * Waits for chunks claimed by helpers, all the other chunks have been validated by the caller.
+         */
+        private void await() {
+            boolean interrupted = false;
+            try {
+                while (true) {
+                    try {
+                        validatedChunks.await();
+                        return;
+                    } catch (final InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            } finally {
+                if (interrupted) Thread.currentThread().interrupt();
+            }
+        }
+    }
 }
@@ -0,0 +1,103 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2014 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.msc.txn;
+
+import org.jboss.msc.service.Service;
+
+/**
+ * Committed version of a registration. Versions of a registration form a chain ordered from the newest to the oldest
+ * one, read transactions pick the newest version not newer than the version they were admitted with.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opalka</a>
+ */
+final class RegistrationVersion {
+
+    /**
+     * The version of the update transaction that committed this version.
+     */
+    final long version;
+    /**
+     * The controller installed at the registration, or {@code null} if there was none.
+     */
+    final ServiceControllerImpl<?> controller;
+    /**
+     * The controller state.
+     */
+    final byte state;
+    /**
+     * The service, or {@code null} if controller has none.
+     */
+    final Service<?> service;
+    /**
+     * The service value.
+     */
+    final Object value;
+    /**
+     * The previous version, {@code null} once no read transaction can see it.
+     */
+    volatile RegistrationVersion previous;
+
+    RegistrationVersion(final long version, final ServiceControllerImpl<?> controller, final RegistrationVersion previous) {
+        this.version = version;
+        this.controller = controller;
+        this.state = controller != null ? controller.getState() : ServiceControllerImpl.STATE_REMOVED;
+        this.service = controller != null ? controller.getService() : null;
+        this.value = controller != null ? controller.getValue() : null;
+        this.previous = previous;
+    }
+
+    /**
+     * Finds the version visible to read transactions admitted with {@code version}.
+     *
+     * @param version the read version
+     * @return the visible version or {@code null} if there is none
+     */
+    RegistrationVersion find(final long version) {
+        RegistrationVersion current = this;
+        while (current != null && current.version > version) {
+            current = current.previous;
+        }
+        return current;
+    }
+
+    /**
+     * Indicates whether any retained version has a controller installed.
+     *
+     * @return {@code true} if some read transaction may see a controller
+     */
+    boolean hasController() {
+        for (RegistrationVersion current = this; current != null; current = current.previous) {
+            if (current.controller != null) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Reclaims versions that cannot be read anymore.
+     *
+     * @param oldestReadVersion the version of the oldest read transaction
+     */
+    void reclaim(final long oldestReadVersion) {
+        final RegistrationVersion oldestVisible = find(oldestReadVersion);
+        if (oldestVisible != null) {
+            oldestVisible.previous = null;
+        }
+    }
+
+}
@@ -0,0 +1,427 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2014 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.msc.txn;
+
+import static org.jboss.msc._private.MSCLogger.TXN;
+import static org.jboss.msc.txn.Helper.getReadVersion;
+import static org.jboss.msc.txn.Helper.recordRead;
+import static org.jboss.msc.txn.Helper.validateTransaction;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.msc.problem.Problem;
+import org.jboss.msc.service.DependencyFlag;
+import org.jboss.msc.service.Service;
+import org.jboss.msc.service.ServiceBuilder;
+import org.jboss.msc.service.ServiceController;
+import org.jboss.msc.service.ServiceDefinition;
+import org.jboss.msc.service.ServiceDefinition.DependencyDefinition;
+import org.jboss.msc.service.ServiceName;
+import org.jboss.msc.service.ServiceRegistry;
+import org.jboss.msc.util.Listener;
+
+/**
+ * The difference between the desired service definitions of a registry and the services installed in it.
+ * Applying the difference touches only services that changed, so that redeploy of a registry where few services
+ * changed doesn't restart the rest:
+ * <UL>
+ * <LI>defined services not installed yet are installed</LI>
+ * <LI>installed services not defined anymore are removed</LI>
+ * <LI>installed services defined with different service only are replaced in place, their dependents keep running</LI>
+ * <LI>installed services defined with different aliases, dependencies, mode or expendability are removed and
+ * installed again</LI>
+ * </UL>
+ * The difference is computed from the registry version visible to the transaction. Child services are managed by
+ * their parents, they are removed only together with their parents. Services are installed once services holding
+ * their names or aliases, including child services of removed services, are removed. Installation failures are
+ * reported as errors of the transaction.
+ * <p>
+ * Usage:
+ * <pre>
+ * final RegistryDiff diff = RegistryDiff.compute(txn, registry, definitions);
+ * diff.apply(txn);
+ * // prepare and commit txn
+ * </pre>
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opalka</a>
+ */
+public final class RegistryDiff {
+
+    private final ServiceRegistryImpl registry;
+    private final List<ServiceDefinition<?>> installs = new ArrayList<>();
+    private final List<ServiceControllerImpl<?>> removals = new ArrayList<>();
+    private final Map<ServiceControllerImpl<?>, ServiceDefinition<?>> replacements = new IdentityHashMap<>();
+    private final Set<ServiceName> reinstalled = new LinkedHashSet<>();
+    // services holding names or aliases of installed services, that must be removed first
+    private final Map<ServiceDefinition<?>, Set<ServiceControllerImpl<?>>> blockers = new IdentityHashMap<>();
+    // child services of removed services among them
+    private final Set<ServiceControllerImpl<?>> removedChildren = newIdentitySet();
+    private int unchanged;
+
+    private RegistryDiff(final ServiceRegistryImpl registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Computes the difference between the desired service definitions and the services installed in the registry.
+     *
+     * @param txn the transaction
+     * @param registry the service registry
+     * @param definitions the desired service definitions
+     * @return the difference
+     * @throws IllegalArgumentException if any parameter is null, if {@code txn} was created by different transaction
+     *                                  controller than the registry, if two definitions share a name or an alias or
+     *                                  if defined name or alias is held by a child service of a kept service
+     * @throws InvalidTransactionStateException if transaction is not active
+     */
+    public static RegistryDiff compute(final ReadTransaction txn, final ServiceRegistry registry, final Collection<? extends ServiceDefinition<?>> definitions) throws IllegalArgumentException, InvalidTransactionStateException {
+        if (registry == null) {
+            throw TXN.methodParameterIsNull("registry");
+        }
+        if (definitions == null) {
+            throw TXN.methodParameterIsNull("definitions");
+        }
+        final ServiceRegistryImpl registryImpl = (ServiceRegistryImpl) registry;
+        validateTransaction(txn, registryImpl.getTransactionController());
+        final long readVersion = getReadVersion(txn);
+        final RegistryDiff diff = new RegistryDiff(registryImpl);
+        final Map<ServiceName, ServiceDefinition<?>> defined = new HashMap<>();
+        final Set<ServiceName> definedNames = new HashSet<>();
+        for (final ServiceDefinition<?> definition : definitions) {
+            if (definition == null) {
+                throw TXN.methodParameterIsNull("definition");
+            }
+            defined.put(definition.getName(), definition);
+            if (!definedNames.add(definition.getName())) {
+                throw TXN.methodParameterIsInvalid("definitions");
+            }
+            for (final ServiceName alias : definition.getAliases()) {
+                if (!definedNames.add(alias)) {
+                    throw TXN.methodParameterIsInvalid("definitions");
+                }
+            }
+        }
+        final Set<ServiceControllerImpl<?>> installed = newIdentitySet();
+        for (final Registration registration : registryImpl.getRegistrations()) {
+            final ServiceControllerImpl<?> controller = controllerOf(txn, readVersion, registration);
+            if (controller == null || controller.getPrimaryRegistration() != registration || parentOf(txn, readVersion, controller) != null) continue;
+            installed.add(controller);
+            final ServiceDefinition<?> definition = defined.get(registration.getServiceName());
+            // service is swapped by replace, committed version keeps the one visible to the transaction
+            final Service<?> service = readVersion < 0 ? controller.getService() : registration.getVersion(readVersion).service;
+            if (definition == null) {
+                diff.removals.add(controller);
+            } else if (!matches(registryImpl, controller, definition)) {
+                diff.removals.add(controller);
+                diff.installs.add(definition);
+                diff.reinstalled.add(definition.getName());
+            } else if (service != definition.getService()) {
+                diff.replacements.put(controller, definition);
+            } else {
+                diff.unchanged++;
+            }
+        }
+        for (final ServiceDefinition<?> definition : definitions) {
+            final ServiceControllerImpl<?> controller = holderOf(txn, readVersion, registryImpl, definition.getName());
+            if (controller == null || !installed.contains(controller) || !controller.getServiceName().equals(definition.getName())) {
+                diff.installs.add(definition);
+            }
+        }
+        final Set<ServiceControllerImpl<?>> removed = newIdentitySet();
+        removed.addAll(diff.removals);
+        for (final ServiceDefinition<?> definition : diff.installs) {
+            final Set<ServiceControllerImpl<?>> definitionBlockers = newIdentitySet();
+            diff.addBlocker(txn, readVersion, definition.getName(), removed, definitionBlockers);
+            for (final ServiceName alias : definition.getAliases()) {
+                diff.addBlocker(txn, readVersion, alias, removed, definitionBlockers);
+            }
+            if (!definitionBlockers.isEmpty()) diff.blockers.put(definition, definitionBlockers);
+        }
+        return diff;
+    }
+
+    /**
+     * Records the service holding given name must be removed before the service is installed. Only services removed
+     * by the difference and their child services may hold it.
+     */
+    private void addBlocker(final ReadTransaction txn, final long readVersion, final ServiceName name, final Set<ServiceControllerImpl<?>> removed, final Set<ServiceControllerImpl<?>> blockers) {
+        final ServiceControllerImpl<?> holder = holderOf(txn, readVersion, registry, name);
+        if (holder == null) return;
+        if (removed.contains(holder)) {
+            blockers.add(holder);
+            return;
+        }
+        ServiceControllerImpl<?> ancestor = holder;
+        do {
+            ancestor = parentOf(txn, readVersion, ancestor);
+        } while (ancestor != null && !removed.contains(ancestor));
+        if (ancestor == null) {
+            // name is held by a kept service or by a child of a kept service
+            throw TXN.methodParameterIsInvalid("definitions");
+        }
+        blockers.add(holder);
+        removedChildren.add(holder);
+    }
+
+    private static ServiceControllerImpl<?> holderOf(final ReadTransaction txn, final long readVersion, final ServiceRegistryImpl registry, final ServiceName name) {
+        final Registration registration = registry.getRegistration(name);
+        return registration != null ? controllerOf(txn, readVersion, registration) : null;
+    }
+
+    private static ServiceControllerImpl<?> controllerOf(final ReadTransaction txn, final long readVersion, final Registration registration) {
+        if (readVersion < 0) {
+            recordRead(txn, registration);
+            return registration.getController();
+        }
+        final RegistrationVersion committed = registration.getVersion(readVersion);
+        return committed != null ? committed.controller : null;
+    }
+
+    private static ServiceControllerImpl<?> parentOf(final ReadTransaction txn, final long readVersion, final ServiceControllerImpl<?> controller) {
+        for (final DependencyImpl<?> dependency : controller.dependencies) {
+            if (dependency.isParent()) return controllerOf(txn, readVersion, dependency.getDependencyRegistration());
+        }
+        return null;
+    }
+
+    private static Set<ServiceControllerImpl<?>> newIdentitySet() {
+        return Collections.newSetFromMap(new IdentityHashMap<ServiceControllerImpl<?>, Boolean>());
+    }
+
+    private static boolean matches(final ServiceRegistryImpl registry, final ServiceControllerImpl<?> controller, final ServiceDefinition<?> definition) {
+        if (controller.getMode() != definition.getMode() || controller.expendable != definition.isExpendable()) return false;
+        final Registration[] aliasRegistrations = controller.getAliasRegistrations();
+        final Set<ServiceName> aliases = new HashSet<>();
+        for (final Registration aliasRegistration : aliasRegistrations) {
+            aliases.add(aliasRegistration.getServiceName());
+        }
+        if (!aliases.equals(definition.getAliases())) return false;
+        final Set<DependencyKey> dependencies = new HashSet<>();
+        for (final DependencyImpl<?> dependency : controller.dependencies) {
+            final Registration dependencyRegistration = dependency.getDependencyRegistration();
+            dependencies.add(new DependencyKey(dependencyRegistration.registry, dependencyRegistration.getServiceName(), dependency.getFlags()));
+        }
+        final Set<DependencyKey> definedDependencies = new HashSet<>();
+        for (final DependencyDefinition dependency : definition.getDependencies()) {
+            final ServiceRegistry dependencyRegistry = dependency.getRegistry() != null ? dependency.getRegistry() : registry;
+            definedDependencies.add(new DependencyKey(dependencyRegistry, dependency.getName(), DependencyImpl.flagsOf(dependency.getFlags())));
+        }
+        return dependencies.equals(definedDependencies);
+    }
+
+    /**
+     * Gets names of services to be installed, including those installed again.
+     *
+     * @return the service names
+     */
+    public List<ServiceName> getInstalls() {
+        final List<ServiceName> names = new ArrayList<>();
+        for (final ServiceDefinition<?> definition : installs) {
+            names.add(definition.getName());
+        }
+        return names;
+    }
+
+    /**
+     * Gets names of services to be removed, including those installed again.
+     *
+     * @return the service names
+     */
+    public List<ServiceName> getRemovals() {
+        final List<ServiceName> names = new ArrayList<>();
+        for (final ServiceControllerImpl<?> controller : removals) {
+            names.add(controller.getServiceName());
+        }
+        return names;
+    }
+
+    /**
+     * Gets names of services to be removed and installed again, because their aliases, dependencies, mode or
+     * expendability changed.
+     *
+     * @return the service names
+     */
+    public Set<ServiceName> getReinstalls() {
+        return Collections.unmodifiableSet(reinstalled);
+    }
+
+    /**
+     * Gets names of services to be replaced in place.
+     *
+     * @return the service names
+     */
+    public List<ServiceName> getReplacements() {
+        final List<ServiceName> names = new ArrayList<>();
+        for (final ServiceControllerImpl<?> controller : replacements.keySet()) {
+            names.add(controller.getServiceName());
+        }
+        return names;
+    }
+
+    /**
+     * Gets the count of installed services that are defined the same way.
+     *
+     * @return the count of unchanged services
+     */
+    public int getUnchangedCount() {
+        return unchanged;
+    }
+
+    /**
+     * Indicates if the registry already matches the definitions.
+     *
+     * @return {@code true} if there is nothing to apply
+     */
+    public boolean isEmpty() {
+        return installs.isEmpty() && removals.isEmpty() && replacements.isEmpty();
+    }
+
+    /**
+     * Applies the difference. It is expected to be applied in the transaction it was computed in.
+     *
+     * @param txn the update transaction
+     * @throws IllegalArgumentException if {@code txn} is null or if it was created by different transaction controller
+     *                                  than the registry
+     * @throws InvalidTransactionStateException if transaction is not active
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public void apply(final UpdateTransaction txn) throws IllegalArgumentException, InvalidTransactionStateException {
+        validateTransaction(txn, registry.getTransactionController());
+        final Map<ServiceControllerImpl<?>, List<PendingInstall>> waiting = new IdentityHashMap<>();
+        final List<PendingInstall> ready = new ArrayList<>();
+        for (final ServiceDefinition<?> definition : installs) {
+            // services holding the name or aliases must be gone first
+            final Set<ServiceControllerImpl<?>> definitionBlockers = blockers.get(definition);
+            if (definitionBlockers == null) {
+                ready.add(new PendingInstall(definition, 0, txn));
+                continue;
+            }
+            final PendingInstall pendingInstall = new PendingInstall(definition, definitionBlockers.size(), txn);
+            for (final ServiceControllerImpl<?> blocker : definitionBlockers) {
+                List<PendingInstall> pendingInstalls = waiting.get(blocker);
+                if (pendingInstalls == null) waiting.put(blocker, pendingInstalls = new ArrayList<>());
+                pendingInstalls.add(pendingInstall);
+            }
+        }
+        // children are removed with their parents anyway, they are removed explicitly to learn when they are gone
+        for (final ServiceControllerImpl<?> child : removedChildren) {
+            remove(child, waiting.get(child), txn);
+        }
+        for (final ServiceControllerImpl<?> controller : removals) {
+            remove(controller, waiting.get(controller), txn);
+        }
+        for (final Map.Entry<ServiceControllerImpl<?>, ServiceDefinition<?>> replacement : replacements.entrySet()) {
+            ((ServiceControllerImpl) replacement.getKey()).replaceInPlace(txn, replacement.getValue().getService());
+        }
+        for (final PendingInstall pendingInstall : ready) {
+            pendingInstall.install();
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static void remove(final ServiceControllerImpl<?> controller, final List<PendingInstall> pendingInstalls, final UpdateTransaction txn) {
+        if (pendingInstalls == null) {
+            controller.remove(txn);
+            return;
+        }
+        ((ServiceControllerImpl) controller).remove(txn, new Listener<ServiceController<?>>() {
+            @Override
+            public void handleEvent(final ServiceController<?> result) {
+                for (final PendingInstall pendingInstall : pendingInstalls) {
+                    pendingInstall.blockerRemoved();
+                }
+            }
+        });
+    }
+
+    private final class PendingInstall {
+
+        private final ServiceDefinition<?> definition;
+        private final AtomicInteger blockers;
+        private final UpdateTransaction txn;
+
+        private PendingInstall(final ServiceDefinition<?> definition, final int blockers, final UpdateTransaction txn) {
+            this.definition = definition;
+            this.blockers = new AtomicInteger(blockers);
+            this.txn = txn;
+        }
+
+        private void blockerRemoved() {
+            if (blockers.decrementAndGet() == 0) install();
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private void install() {
+            try {
+                final ServiceBuilder builder = new ServiceContextImpl(txn).addService(registry, definition.getName());
+                builder.setMode(definition.getMode());
+                builder.setExpendable(definition.isExpendable());
+                final Service<?> service = definition.getService();
+                if (service != null) builder.setService(service);
+                if (!definition.getAliases().isEmpty()) {
+                    builder.addAliases(definition.getAliases().toArray(new ServiceName[definition.getAliases().size()]));
+                }
+                for (final DependencyDefinition dependency : definition.getDependencies()) {
+                    final ServiceRegistry dependencyRegistry = dependency.getRegistry() != null ? dependency.getRegistry() : registry;
+                    final DependencyFlag[] flags = dependency.getFlags();
+                    builder.addDependency(dependencyRegistry, dependency.getName(), flags);
+                }
+                builder.install();
+            } catch (final RuntimeException e) {
+                txn.getReport().addProblem(new Problem(Problem.Severity.ERROR, e));
+            }
+        }
+    }
+
+    private static final class DependencyKey {
+
+        private final ServiceRegistry registry;
+        private final ServiceName name;
+        private final byte flags;
+
+        private DependencyKey(final ServiceRegistry registry, final ServiceName name, final byte flags) {
+            this.registry = registry;
+            this.name = name;
+            this.flags = flags;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) return true;
+            if (!(o instanceof DependencyKey)) return false;
+            final DependencyKey other = (DependencyKey) o;
+            return registry == other.registry && flags == other.flags && name.equals(other.name);
+        }
+
+        @Override
+        public int hashCode() {
+            return (System.identityHashCode(registry) * 31 + name.hashCode()) * 31 + flags;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2014 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.msc.txn;
+
+import org.jboss.msc.service.ServiceController;
+import org.jboss.msc.util.Listener;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.jboss.msc.txn.Helper.getAbstractTransaction;
+
+/**
+ * Removes a set of services in reverse topological order: a service is removed once all its dependents from the
+ * set are removed. Services ready for removal are dispatched in chunks as transaction tasks, so that independent
+ * dependency chains are removed in parallel and no lock is held while removal fans out.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opalka</a>
+ */
+final class RemovalWaves {
+
+    private static final int CHUNK_SIZE = 64;
+
+    private final Transaction txn;
+    // the count of dependents from the set not removed yet, per service
+    private final Map<ServiceControllerImpl<?>, AtomicInteger> pendingDependents;
+
+    private RemovalWaves(final Transaction txn, final Map<ServiceControllerImpl<?>, AtomicInteger> pendingDependents) {
+        this.txn = txn;
+        this.pendingDependents = pendingDependents;
+    }
+
+    /**
+     * Removes services installed at given registrations.
+     *
+     * @param txn           the active transaction
+     * @param registrations the registrations
+     * @return the removal
+     */
+    static RemovalWaves execute(final Transaction txn, final Collection<Registration> registrations) {
+        final Map<ServiceControllerImpl<?>, AtomicInteger> pendingDependents = new IdentityHashMap<>();
+        for (final Registration registration : registrations) {
+            final ServiceControllerImpl<?> controller = registration.getController();
+            if (controller != null && !pendingDependents.containsKey(controller)) {
+                pendingDependents.put(controller, new AtomicInteger());
+            }
+        }
+        for (final ServiceControllerImpl<?> controller : pendingDependents.keySet()) {
+            for (final DependencyImpl<?> dependency : controller.dependencies) {
+                final AtomicInteger count = pendingDependents.get(dependency.getDependencyRegistration().getController());
+                if (count != null) count.incrementAndGet();
+            }
+        }
+        final List<ServiceControllerImpl<?>> firstWave = new ArrayList<>();
+        for (final Map.Entry<ServiceControllerImpl<?>, AtomicInteger> entry : pendingDependents.entrySet()) {
+            if (entry.getValue().get() == 0) firstWave.add(entry.getKey());
+        }
+        final RemovalWaves removalWaves = new RemovalWaves(txn, pendingDependents);
+        removalWaves.dispatch(firstWave);
+        return removalWaves;
+    }
+
+    /**
+     * Dispatches all services not dispatched yet, regardless of their dependents.
+     */
+    void dispatchRemaining() {
+        final List<ServiceControllerImpl<?>> remaining = new ArrayList<>();
+        for (final Map.Entry<ServiceControllerImpl<?>, AtomicInteger> entry : pendingDependents.entrySet()) {
+            // dispatched services have zero count already, removed dependents then decrement it below zero
+            if (entry.getValue().getAndSet(0) > 0) remaining.add(entry.getKey());
+        }
+        if (!remaining.isEmpty()) dispatch(remaining);
+    }
+
+    private void dispatch(final List<ServiceControllerImpl<?>> controllers) {
+        final TaskFactory taskFactory = getAbstractTransaction(txn).getTaskFactory();
+        for (int i = 0; i < controllers.size(); i += CHUNK_SIZE) {
+            final List<ServiceControllerImpl<?>> chunk = controllers.subList(i, Math.min(i + CHUNK_SIZE, controllers.size()));
+            taskFactory.newTask(new RemoveChunkTask(new ArrayList<>(chunk))).release();
+        }
+    }
+
+    /**
+     * Dispatches dependencies of removed service whose dependents from the set are all removed.
+     */
+    private void removed(final ServiceControllerImpl<?> controller) {
+        List<ServiceControllerImpl<?>> nextWave = null;
+        for (final DependencyImpl<?> dependency : controller.dependencies) {
+            final ServiceControllerImpl<?> dependencyController = dependency.getDependencyRegistration().getController();
+            final AtomicInteger count = dependencyController != null ? pendingDependents.get(dependencyController) : null;
+            if (count != null && count.decrementAndGet() == 0) {
+                if (nextWave == null) nextWave = new ArrayList<>();
+                nextWave.add(dependencyController);
+            }
+        }
+        if (nextWave != null) dispatch(nextWave);
+    }
+
+    private <T> void remove(final ServiceControllerImpl<T> controller) {
+        controller._remove(txn, new Listener<ServiceController<T>>() {
+            @Override
+            public void handleEvent(final ServiceController<T> result) {
+                removed(controller);
+            }
+        });
+    }
+
+    private final class RemoveChunkTask implements Executable<Void> {
+
+        private final List<ServiceControllerImpl<?>> controllers;
+
+        private RemoveChunkTask(final List<ServiceControllerImpl<?>> controllers) {
+            this.controllers = controllers;
+        }
+
+        @Override
+        public void execute(final ExecuteContext<Void> context) {
+            try {
+                for (final ServiceControllerImpl<?> controller : controllers) {
+                    remove(controller);
+                }
+            } finally {
+                context.complete();
+            }
+        }
+    }
+}
@@ -26,7 +26,7 @@ import static org.jboss.msc.txn.Helper.getAbstractTransaction;
  * @author <a href="mailto:frainone@redhat.com">Flavia Rainone</a>
  *
  */
-final class RemoveServiceTask implements Executable<Void> {
+final class RemoveServiceTask implements Executable<Void>, ServiceTask {
 
     /**
      * Creates a remove service task.
@@ -35,6 +35,7 @@ final class RemoveServiceTask implements Executable<Void> {
      * @param transaction        the active transaction
      */
     static <T> void create(ServiceControllerImpl<T> serviceController, Transaction transaction) {
+        DryRunPlan.record(transaction, serviceController, DryRunPlan.Action.REMOVE);
         final TaskFactory taskFactory = getAbstractTransaction(transaction).getTaskFactory();
         taskFactory.newTask(new RemoveServiceTask(serviceController, transaction)).release();
     }
@@ -47,6 +48,11 @@ final class RemoveServiceTask implements Executable<Void> {
         this.serviceController = serviceController;
     }
 
+    @Override
+    public ServiceControllerImpl<?> getServiceController() {
+        return serviceController;
+    }
+
     @Override
     public void execute(ExecuteContext<Void> context) {
         try {
@@ -30,11 +30,16 @@ import org.jboss.msc.service.ServiceMode;
 import org.jboss.msc.service.ServiceName;
 import org.jboss.msc.service.ServiceRegistry;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import static org.jboss.msc.txn.Helper.validateScope;
+import static org.jboss.msc.txn.Helper.validateDependencyWrite;
+import static org.jboss.msc.txn.Helper.validateWrite;
 import static org.jboss.msc.txn.Helper.validateTransaction;
 
 /**
@@ -65,6 +70,8 @@ final class ServiceBuilderImpl<T> implements ServiceBuilder<T> {
     private final UpdateTransaction transaction;
     // service mode
     private ServiceMode mode;
+    // whether stop of service may be abandoned at container shutdown
+    private boolean expendable;
     // is service builder installed?
     private boolean installed;
 
@@ -98,6 +105,16 @@ final class ServiceBuilderImpl<T> implements ServiceBuilder<T> {
         return this;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ServiceBuilder<T> setExpendable(final boolean expendable) {
+        checkAlreadyInstalled();
+        this.expendable = expendable;
+        return this;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -230,18 +247,27 @@ final class ServiceBuilderImpl<T> implements ServiceBuilder<T> {
         if (installed) {
             throw MSCLogger.SERVICE.cannotCallInstallTwice();
         }
+        validateScope(transaction, registry);
+        for (final DependencyKey key : dependencies.keySet()) {
+            validateScope(transaction, key.registry);
+        }
         final TransactionHoldHandle handle = transaction.acquireHoldHandle();
         installed = true;
+        final List<Registration> reservedRegistrations = new ArrayList<>();
         try {
             // create primary registration
             final Registration registration = registry.getOrCreateRegistration(name);
+            reservedRegistrations.add(registration);
+            validateWrite(transaction, registration);
 
             // create alias registrations
             final Registration[] aliasRegistrations = aliases.size() > 0 ? new Registration[aliases.size()] : NO_ALIASES;
             if (aliasRegistrations.length > 0) {
                 int i = 0;
                 for (final ServiceName alias : aliases) {
-                    aliasRegistrations[i++] = registry.getOrCreateRegistration(alias);
+                    aliasRegistrations[i] = registry.getOrCreateRegistration(alias);
+                    reservedRegistrations.add(aliasRegistrations[i]);
+                    validateWrite(transaction, aliasRegistrations[i++]);
                 }
             }
 
@@ -250,12 +276,15 @@ final class ServiceBuilderImpl<T> implements ServiceBuilder<T> {
             if (dependenciesArray.length > 0) {
                 dependencies.values().toArray(dependenciesArray);
                 for (final Map.Entry<DependencyKey, DependencyImpl<?>> e : dependencies.entrySet()) {
-                    e.getValue().setDependencyRegistration(e.getKey().registry.getOrCreateRegistration(e.getKey().name));
+                    final Registration dependencyRegistration = e.getKey().registry.getOrCreateRegistration(e.getKey().name);
+                    reservedRegistrations.add(dependencyRegistration);
+                    e.getValue().setDependencyRegistration(dependencyRegistration);
+                    validateDependencyWrite(transaction, e.getValue());
                 }
             }
 
             // create and install service controller
-            final ServiceControllerImpl<T> serviceController = new ServiceControllerImpl<>(registration, aliasRegistrations, service, mode, dependenciesArray);
+            final ServiceControllerImpl<T> serviceController = new ServiceControllerImpl<>(registration, aliasRegistrations, service, mode, expendable, dependenciesArray);
             serviceController.beginInstallation();
             try {
                 serviceController.completeInstallation(transaction);
@@ -263,8 +292,12 @@ final class ServiceBuilderImpl<T> implements ServiceBuilder<T> {
                 serviceController.clear(transaction);
                 throw t;
             }
+            UndoJournal.installed(transaction, serviceController);
             return serviceController;
         } finally {
+            for (final Registration reservedRegistration : reservedRegistrations) {
+                reservedRegistration.release();
+            }
             handle.release();
         }
     }
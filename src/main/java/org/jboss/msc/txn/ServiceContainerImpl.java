@@ -23,10 +23,16 @@ import org.jboss.msc.service.ServiceContainer;
 import org.jboss.msc.service.ServiceRegistry;
 import org.jboss.msc.util.Listener;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
+import static org.jboss.msc.txn.Helper.getAbstractTransaction;
 import static org.jboss.msc.txn.Helper.setModified;
+import static org.jboss.msc.txn.Helper.validateNotDryRun;
+import static org.jboss.msc.txn.Helper.validateScope;
 import static org.jboss.msc.txn.Helper.validateTransaction;
 
 /**
@@ -39,6 +45,8 @@ import static org.jboss.msc.txn.Helper.validateTransaction;
 final class ServiceContainerImpl implements ServiceContainer {
 
     private final TransactionController txnController;
+    final ControllerIds controllerIds = new ControllerIds();
+    final ReachabilityIndex reachabilityIndex = new ReachabilityIndex();
     private final Set<ServiceRegistryImpl> registries = new HashSet<>();
     private final Object lock = new Object();
     private boolean removing, removed;
@@ -60,6 +68,9 @@ final class ServiceContainerImpl implements ServiceContainer {
                 }
                 final ServiceRegistryImpl returnValue = new ServiceRegistryImpl(this);
                 registries.add(returnValue);
+                // nobody else can modify registry unknown to others
+                final Set<ServiceRegistryImpl> scope = ((BasicReadTransaction) getAbstractTransaction(txn)).scope;
+                if (scope != null) scope.add(returnValue);
                 return returnValue;
             }
         } finally {
@@ -67,29 +78,64 @@ final class ServiceContainerImpl implements ServiceContainer {
         }
     }
 
+    /**
+     * Gets the registries created by this container, removed ones included.
+     */
+    List<ServiceRegistryImpl> getRegistries() {
+        synchronized (lock) {
+            return new ArrayList<>(registries);
+        }
+    }
+
     TransactionController getTransactionController() {
         return txnController;
     }
 
     @Override
-    public void shutdown(final UpdateTransaction txn) throws IllegalArgumentException, InvalidTransactionStateException {
+    public void shutdown(final UpdateTransaction txn) throws IllegalArgumentException, IllegalStateException, InvalidTransactionStateException {
         shutdown(txn, null);
     }
 
     @Override
-    public void shutdown(final UpdateTransaction txn, final Listener<ServiceContainer> completionListener) throws IllegalArgumentException, InvalidTransactionStateException {
+    public void shutdown(final UpdateTransaction txn, final Listener<ServiceContainer> completionListener) throws IllegalArgumentException, IllegalStateException, InvalidTransactionStateException {
+        shutdown0(txn, -1, null, completionListener);
+    }
+
+    @Override
+    public void shutdown(final UpdateTransaction txn, final long timeout, final TimeUnit unit, final Listener<ServiceContainer> completionListener) throws IllegalArgumentException, IllegalStateException, InvalidTransactionStateException {
+        if (unit == null) {
+            throw MSCLogger.SERVICE.methodParameterIsNull("unit");
+        }
+        if (timeout < 0) {
+            throw MSCLogger.SERVICE.methodParameterIsInvalid("timeout");
+        }
+        shutdown0(txn, timeout, unit, completionListener);
+    }
+
+    private void shutdown0(final UpdateTransaction txn, final long timeout, final TimeUnit unit, final Listener<ServiceContainer> completionListener) {
         validateTransaction(txn, txnController);
+        validateNotDryRun(txn);
+        synchronized (lock) {
+            for (final ServiceRegistryImpl registry : registries) {
+                validateScope(txn, registry);
+            }
+        }
         final TransactionHoldHandle txnHoldHandle = txn.acquireHoldHandle();
         try {
             setModified(txn);
             while (true) {
+                final List<ServiceRegistryImpl> registries;
                 synchronized (lock) {
                     if (removed) break; // simulated goto for callback listener
                     if (completionListener != null)
                         removeObservers = new NotificationEntry(removeObservers, completionListener);
                     if (removing) return;
                     removing = true;
+                    registries = new ArrayList<>(this.registries);
+                    // registries pick the deadline up when they start removing their services
+                    if (unit != null && !registries.isEmpty()) ShutdownDeadline.arm(txn, timeout, unit);
                 }
+                // every registry removes its services in its own tasks
                 for (final ServiceRegistryImpl registry : registries) {
                     registry.remove(txn);
                 }
@@ -101,7 +147,7 @@ final class ServiceContainerImpl implements ServiceContainer {
         }
     }
 
-    void registryRemoved() {
+    void registryRemoved(final Transaction txn) {
         NotificationEntry removeObservers;
         synchronized (lock) {
             if (++removedRegistries != registries.size()) return;
@@ -109,6 +155,8 @@ final class ServiceContainerImpl implements ServiceContainer {
             removeObservers = this.removeObservers;
             this.removeObservers = null;
         }
+        // deadline no longer applies once shutdown completes
+        ShutdownDeadline.release(txn);
         while (removeObservers != null) {
             safeCallListener(removeObservers.completionListener);
             removeObservers = removeObservers.next;
@@ -29,9 +29,17 @@ import org.jboss.msc.service.StartContext;
 import org.jboss.msc.service.StopContext;
 import org.jboss.msc.util.Listener;
 
-import static java.lang.Thread.holdsLock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
 import static org.jboss.msc._private.MSCLogger.SERVICE;
+import static org.jboss.msc.txn.Helper.getReadVersion;
+import static org.jboss.msc.txn.Helper.recordRead;
 import static org.jboss.msc.txn.Helper.setModified;
+import static org.jboss.msc.txn.Helper.validateNotDryRun;
+import static org.jboss.msc.txn.Helper.validateScope;
+import static org.jboss.msc.txn.Helper.validateWrite;
 import static org.jboss.msc.txn.Helper.validateTransaction;
 
 /**
@@ -60,10 +68,24 @@ final class ServiceControllerImpl<T> implements ServiceController<T> {
     static final byte STATE_REMOVED    = (byte)0b00011100;
     static final byte STATE_MASK       = (byte)0b00011100;
     // controller flags
-    static final byte SERVICE_ENABLED  = (byte)0b00100000;
-    static final byte SERVICE_REMOVED  = (byte)0b01000000;
-    static final byte REGISTRY_ENABLED = (byte)0b10000000;
+    private static final long SERVICE_ENABLED  = 1L << 5;
+    private static final long SERVICE_REMOVED  = 1L << 6;
+    private static final long REGISTRY_ENABLED = 1L << 7;
+    private static final long SERVICE_REPLACED = 1L << 8;
+    // signed count of incoming dependencies demanding this service (bits 9 - 31)
+    private static final int DEMANDED_SHIFT    = 9;
+    private static final long DEMANDED_ONE     = 1L << DEMANDED_SHIFT;
+    private static final long DEMANDED_MASK    = Bits.longBitMask(DEMANDED_SHIFT, 31);
+    // signed count of unsatisfied dependencies (bits 32 - 63)
+    private static final int UNSATISFIED_SHIFT = 32;
+    private static final long UNSATISFIED_ONE  = 1L << UNSATISFIED_SHIFT;
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicLongFieldUpdater<ServiceControllerImpl> stateUpdater = AtomicLongFieldUpdater.newUpdater(ServiceControllerImpl.class, "state");
 
+    /**
+     * Guards observer lists and service replacement.
+     */
     private final Object lock = new Object();
 
     static final Service<Void> VOID_SERVICE = new Service<Void>() {
@@ -74,19 +96,19 @@ final class ServiceControllerImpl<T> implements ServiceController<T> {
     /**
      * The service itself.
      */
-    private Service<T> service;
+    private volatile Service<T> service;
     /**
      * The service that will replace current service.
      */
     private Service<T> replaceService;
     /**
-     * The primary registration of this service.
+     * The primary registration of this service, replaced only while removed controller is reattached.
      */
-    private final Registration primaryRegistration;
+    private volatile Registration primaryRegistration;
     /**
-     * The alias registrations of this service.
+     * The alias registrations of this service, replaced only while removed controller is reattached.
      */
-    private final Registration[] aliasRegistrations;
+    private volatile Registration[] aliasRegistrations;
     /**
      * The dependencies of this service.
      */
@@ -96,23 +118,30 @@ final class ServiceControllerImpl<T> implements ServiceController<T> {
      */
     private volatile T value;
     /**
-     * The controller state.
-     */
-    private volatile byte state = (byte)(STATE_DOWN | MODE_ACTIVE | SERVICE_ENABLED | REGISTRY_ENABLED);
-    /**
-     * The number of dependencies that are not satisfied.
+     * The controller state word. It packs service mode, controller state, controller flags, the count of incoming
+     * dependencies demanding this service and the count of unsatisfied dependencies, so that every change and the
+     * transition it causes is published with a single CAS.
      */
-    private int unsatisfiedDependencies;
-    /**
-     * Indicates if this service is demanded to start.
-     */
-    private int demandedByCount;
+    @SuppressWarnings("unused")
+    private volatile long state;
     /**
      * The system nanotime of the moment in which the last lifecycle change was
      * initiated.
      */
     @SuppressWarnings("VolatileLongOrDoubleField")
     volatile long lifecycleTime;
+    /**
+     * The transaction this service is being started in, {@code null} if service is not starting.
+     */
+    private volatile Transaction startTransaction;
+    /**
+     * Indicates whether stop of this service may be abandoned at deadline bounded container shutdown.
+     */
+    final boolean expendable;
+    /**
+     * The dense id of installed controller, {@code -1} if it is not installed.
+     */
+    private volatile int id = -1;
 
     private NotificationEntry<T> disableObservers;
     private NotificationEntry<T> enableObservers;
@@ -126,25 +155,28 @@ final class ServiceControllerImpl<T> implements ServiceController<T> {
      * @param aliasRegistrations  the alias registrations
      * @param service             the service itself
      * @param mode                the service mode
+     * @param expendable          whether stop of this service may be abandoned at container shutdown
      * @param dependencies        the service dependencies
      */
     @SuppressWarnings("unchecked")
     ServiceControllerImpl(final Registration primaryRegistration, final Registration[] aliasRegistrations,
-            final Service<T> service, final org.jboss.msc.service.ServiceMode mode, final DependencyImpl<?>[] dependencies) {
+            final Service<T> service, final org.jboss.msc.service.ServiceMode mode, final boolean expendable, final DependencyImpl<?>[] dependencies) {
         this.service = service != null ? service : (Service<T>)VOID_SERVICE;
-        setMode(mode);
         this.primaryRegistration = primaryRegistration;
         this.aliasRegistrations = aliasRegistrations;
         this.dependencies = dependencies;
-        this.unsatisfiedDependencies = dependencies.length;
+        this.expendable = expendable;
+        // default mode (if not provided) is ACTIVE
+        this.state = initialState(mode != null ? (byte)mode.ordinal() : MODE_ACTIVE, dependencies);
     }
 
-    private void setMode(final ServiceMode mode) {
-        if (mode != null) {
-            setMode((byte)mode.ordinal());
-        } else {
-            // default mode (if not provided) is ACTIVE
+    private static long initialState(final byte modeBits, final DependencyImpl<?>[] dependencies) {
+        // on access dependencies are not waited for
+        int unsatisfiedDependencies = 0;
+        for (final DependencyImpl<?> dependency : dependencies) {
+            if (!dependency.isOnAccess()) unsatisfiedDependencies++;
         }
+        return STATE_DOWN | modeBits | SERVICE_ENABLED | REGISTRY_ENABLED | (long)unsatisfiedDependencies << UNSATISFIED_SHIFT;
     }
 
     /**
@@ -154,6 +186,16 @@ final class ServiceControllerImpl<T> implements ServiceController<T> {
      * @throws CircularDependencyException if installation of this services creates a dependency cycle
      */
     void beginInstallation() throws DuplicateServiceException, CircularDependencyException {
+        beginInstallation(true);
+    }
+
+    /**
+     * Associates this controller with its registrations.
+     *
+     * @param detectCycles whether to check the controller doesn't close a dependency cycle, it may be skipped if
+     *                     cycle freedom was already proven
+     */
+    void beginInstallation(final boolean detectCycles) throws DuplicateServiceException, CircularDependencyException {
         // associate controller holder with primary registration
         if (!primaryRegistration.holderRef.compareAndSet(null, this)) {
             throw SERVICE.duplicateService(primaryRegistration.getServiceName());
@@ -167,55 +209,88 @@ final class ServiceControllerImpl<T> implements ServiceController<T> {
                     throw SERVICE.duplicateService(aliasRegistrations[i].getServiceName());
                 }
             }
-            CycleDetector.execute(this);
+            if (detectCycles) CycleDetector.execute(this);
             ok = true;
         } finally {
             if (!ok) {
                 // exception was thrown, cleanup
-                for (int i = 0; i < lastIndex; i++) {
+                for (int i = 0; i <= lastIndex; i++) {
                     aliasRegistrations[i].holderRef.set(null);
                 }
                 primaryRegistration.holderRef.set(null);
             }
+            primaryRegistration.updateMissingIndex();
+            for (final Registration aliasRegistration : aliasRegistrations) {
+                aliasRegistration.updateMissingIndex();
+            }
         }
     }
 
+    /**
+     * Dissociates this controller from its registrations, if installation begun successfully cannot be completed.
+     */
+    void abandonInstallation() {
+        for (final Registration aliasRegistration : aliasRegistrations) {
+            aliasRegistration.holderRef.compareAndSet(this, null);
+            aliasRegistration.updateMissingIndex();
+        }
+        primaryRegistration.holderRef.compareAndSet(this, null);
+        primaryRegistration.updateMissingIndex();
+    }
+
     /**
      * Completes service installation, enabling the service and installing it into registrations.
      *
      * @param txn transaction
      */
     void completeInstallation(final Transaction txn) {
+        id = primaryRegistration.registry.container.controllerIds.acquire();
         for (final DependencyImpl<?> dependency: dependencies) {
             dependency.setDependent(this, txn);
         }
+        primaryRegistration.registry.container.reachabilityIndex.graphChanged();
         primaryRegistration.serviceInstalled();
-        boolean demandDependencies;
-        synchronized (lock) {
-            if (!primaryRegistration.registry.isEnabled()) state &= ~REGISTRY_ENABLED;
-            demandDependencies = isMode(MODE_ACTIVE);
+        modified(txn);
+        if (!primaryRegistration.registry.isEnabled()) {
+            final DryRunPlan plan = DryRunPlan.get(txn);
+            long oldState;
+            do {
+                oldState = state(plan);
+            } while (!compareAndSetState(plan, oldState, oldState & ~REGISTRY_ENABLED));
         }
-        if (demandDependencies) {
-            demandDependencies(txn);
-        }
-        synchronized (lock) {
-            transition(txn);
+        if (isMode(MODE_ACTIVE)) {
+            DemandPropagationTask.demandDependencies(this, txn);
         }
+        transition(txn);
     }
 
     void clear(final Transaction txn) {
+        modified(txn);
         primaryRegistration.clearController(txn);
         for (Registration registration: aliasRegistrations) {
             registration.clearController(txn);
         }
-        final boolean undemand = isMode(MODE_ACTIVE);
+        if (isMode(MODE_ACTIVE)) {
+            DemandPropagationTask.undemandDependencies(this, txn);
+        }
         for (DependencyImpl<?> dependency: dependencies) {
-            if (undemand) {
-                dependency.undemand(txn);
-            }
             dependency.clearDependent(txn);
         }
-        primaryRegistration.serviceRemoved();
+        primaryRegistration.serviceRemoved(txn);
+        final ServiceContainerImpl container = primaryRegistration.registry.container;
+        final int id = this.id;
+        if (id >= 0) {
+            this.id = -1;
+            container.controllerIds.release(id);
+        }
+        container.reachabilityIndex.graphChanged();
+    }
+
+    private void modified(final Transaction txn) {
+        primaryRegistration.modified(txn);
+        for (Registration registration: aliasRegistrations) {
+            registration.modified(txn);
+        }
     }
 
     /**
@@ -225,6 +300,29 @@ final class ServiceControllerImpl<T> implements ServiceController<T> {
         return primaryRegistration;
     }
 
+    /**
+     * Gets the alias registrations.
+     */
+    Registration[] getAliasRegistrations() {
+        return aliasRegistrations;
+    }
+
+    /**
+     * Gets the dense id of this controller.
+     *
+     * @return the id or {@code -1} if controller is not installed
+     */
+    int getId() {
+        return id;
+    }
+
+    /**
+     * Gets the service mode.
+     */
+    org.jboss.msc.service.ServiceMode getMode() {
+        return org.jboss.msc.service.ServiceMode.values()[(int) (state & MODE_MASK)];
+    }
+
     /**
      * Gets the dependencies.
      */
@@ -236,15 +334,64 @@ final class ServiceControllerImpl<T> implements ServiceController<T> {
      * Gets the service.
      */
     public Service<T> getService() {
-        synchronized (lock) {
-            return service == VOID_SERVICE ? null : service;
-        }
+        final Service<T> service = this.service;
+        return service == VOID_SERVICE ? null : service;
     }
 
     T getValue() {
         return value;
     }
 
+    @Override
+    public State getState(final ReadTransaction txn) {
+        final long version = getReadVersion(txn);
+        if (version < 0) {
+            recordRead(txn, primaryRegistration);
+            return toState(stateOf(state(DryRunPlan.get(txn))));
+        }
+        final RegistrationVersion committed = primaryRegistration.getVersion(version);
+        return toState(committed != null && committed.controller == this ? committed.state : STATE_REMOVED);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T getValue(final ReadTransaction txn) {
+        final long version = getReadVersion(txn);
+        if (version < 0) {
+            recordRead(txn, primaryRegistration);
+            final DryRunPlan plan = DryRunPlan.get(txn);
+            // services stopped by simulation keep their value, it is hidden from dry run transaction
+            return plan == null || stateOf(state(plan)) == STATE_UP ? getValue() : null;
+        }
+        final RegistrationVersion committed = primaryRegistration.getVersion(version);
+        return committed != null && committed.controller == this ? (T) committed.value : null;
+    }
+
+    Transaction getStartTransaction() {
+        return startTransaction;
+    }
+
+    void setStartTransaction(final Transaction startTransaction) {
+        this.startTransaction = startTransaction;
+    }
+
+    /**
+     * Registers a listener to be notified once this service is {@code UP}, {@code FAILED} or {@code REMOVED}.
+     * The listener is called right away if service is already in one of these states.
+     *
+     * @param listener the listener
+     */
+    void awaitStart(final Listener<ServiceController<T>> listener) {
+        synchronized (lock) {
+            final byte state = getState();
+            if (state != STATE_UP && state != STATE_FAILED && state != STATE_REMOVED) {
+                this.enableObservers = new NotificationEntry<>(this.enableObservers, listener, false);
+                return; // don't call completion listener
+            }
+        }
+        safeCallListener(listener);
+    }
+
     void setValue(T value) {
         this.value = value;
     }
@@ -257,23 +404,31 @@ final class ServiceControllerImpl<T> implements ServiceController<T> {
     @Override
     public void disable(final UpdateTransaction txn, final Listener<ServiceController<T>> completionListener) throws IllegalArgumentException, IllegalStateException, InvalidTransactionStateException {
         validateTransaction(txn, primaryRegistration.getTransactionController());
+        validateScope(txn, primaryRegistration.registry);
+        validateWrite(txn, primaryRegistration);
         final TransactionHoldHandle txnHoldHandle = txn.acquireHoldHandle();
         try {
             setModified(txn);
-            synchronized (lock) {
-                while (true) {
-                    if (isServiceRemoved() || getState() == STATE_REMOVING || getState() == STATE_REMOVED) {
-                        throw MSCLogger.SERVICE.cannotDisableRemovedService();
-                    }
-                    if (!isServiceEnabled()) break;
-                    state &= ~SERVICE_ENABLED;
-                    if (!isRegistryEnabled()) break;
-                    transition(txn);
+            UndoJournal.modifying(txn, this);
+            final DryRunPlan plan = DryRunPlan.get(txn);
+            long oldState, midState, newState;
+            do {
+                oldState = state(plan);
+                if (isRemoved(oldState)) {
+                    throw MSCLogger.SERVICE.cannotDisableRemovedService();
+                }
+                if (Bits.allAreClear(oldState, SERVICE_ENABLED)) break;
+                midState = oldState & ~SERVICE_ENABLED;
+                newState = transition(midState);
+                if (compareAndSetState(plan, oldState, newState)) {
+                    transitioned(oldState, midState, newState, txn);
                     break;
                 }
-                if (completionListener == null) return;
-                if (getState() != STATE_DOWN) {
-                    this.disableObservers = new NotificationEntry<>(this.disableObservers, completionListener);
+            } while (true);
+            if (completionListener == null) return;
+            synchronized (lock) {
+                if (stateOf(state(plan)) != STATE_DOWN) {
+                    this.disableObservers = new NotificationEntry<>(this.disableObservers, completionListener, plan != null);
                     return; // don't call completion listener
                 }
             }
@@ -299,23 +454,32 @@ final class ServiceControllerImpl<T> implements ServiceController<T> {
     @Override
     public void enable(final UpdateTransaction txn, final Listener<ServiceController<T>> completionListener) throws IllegalArgumentException, IllegalStateException, InvalidTransactionStateException {
         validateTransaction(txn, primaryRegistration.getTransactionController());
+        validateScope(txn, primaryRegistration.registry);
+        validateWrite(txn, primaryRegistration);
         final TransactionHoldHandle txnHoldHandle = txn.acquireHoldHandle();
         try {
             setModified(txn);
-            synchronized (lock) {
-                while (true) {
-                    if (isServiceRemoved() || getState() == STATE_REMOVING || getState() == STATE_REMOVED) {
-                        throw MSCLogger.SERVICE.cannotEnableRemovedService();
-                    }
-                    if (isServiceEnabled()) break;
-                    state |= SERVICE_ENABLED;
-                    if (!isRegistryEnabled()) break;
-                    transition(txn);
+            UndoJournal.modifying(txn, this);
+            final DryRunPlan plan = DryRunPlan.get(txn);
+            long oldState, midState, newState;
+            do {
+                oldState = state(plan);
+                if (isRemoved(oldState)) {
+                    throw MSCLogger.SERVICE.cannotEnableRemovedService();
+                }
+                if (Bits.allAreSet(oldState, SERVICE_ENABLED)) break;
+                midState = oldState | SERVICE_ENABLED;
+                newState = transition(midState);
+                if (compareAndSetState(plan, oldState, newState)) {
+                    transitioned(oldState, midState, newState, txn);
                     break;
                 }
-                if (completionListener == null) return;
-                if (getState() != STATE_UP && getState() != STATE_FAILED) {
-                    this.enableObservers = new NotificationEntry<>(this.enableObservers, completionListener);
+            } while (true);
+            if (completionListener == null) return;
+            synchronized (lock) {
+                final byte state = stateOf(state(plan));
+                if (state != STATE_UP && state != STATE_FAILED) {
+                    this.enableObservers = new NotificationEntry<>(this.enableObservers, completionListener, plan != null);
                     return; // don't call completion listener
                 }
             }
@@ -325,39 +489,135 @@ final class ServiceControllerImpl<T> implements ServiceController<T> {
         }
     }
 
-    private boolean isServiceEnabled() {
-        assert holdsLock(lock);
+    boolean isEnabled() {
         return Bits.allAreSet(state, SERVICE_ENABLED);
     }
 
-    private boolean isServiceRemoved() {
-        assert holdsLock(lock);
-        return Bits.allAreSet(state, SERVICE_REMOVED);
+    /**
+     * Indicates if the service is enabled as seen by the transaction.
+     *
+     * @param txn the transaction
+     */
+    boolean isEnabled(final Transaction txn) {
+        return Bits.allAreSet(state(DryRunPlan.get(txn)), SERVICE_ENABLED);
+    }
+
+    boolean isRegistryEnabled() {
+        return Bits.allAreSet(state, REGISTRY_ENABLED);
+    }
+
+    /**
+     * Indicates whether the service is wanted to start, either because it is {@code ACTIVE} or because some dependent
+     * demands it.
+     *
+     * @return {@code true} if service is wanted to start
+     */
+    boolean isStartDemanded() {
+        final long state = this.state;
+        return isMode(state, MODE_ACTIVE) || demandedByCountOf(state) > 0;
+    }
+
+    boolean isRemoved() {
+        return isRemoved(state);
+    }
+
+    /**
+     * Indicates if the service is removed as seen by the transaction.
+     *
+     * @param txn the transaction
+     */
+    boolean isRemoved(final Transaction txn) {
+        return isRemoved(state(DryRunPlan.get(txn)));
+    }
+
+    private static boolean isRemoved(final long state) {
+        final byte controllerState = stateOf(state);
+        return Bits.allAreSet(state, SERVICE_REMOVED) || controllerState == STATE_REMOVING || controllerState == STATE_REMOVED;
     }
 
     void disableRegistry(final Transaction txn) {
-        synchronized (lock) {
-            if (isServiceRemoved()) return;
-            if (!isRegistryEnabled()) return;
-            state &= ~REGISTRY_ENABLED;
-            if (!isServiceEnabled()) return;
-            transition(txn);
-        }
+        final DryRunPlan plan = DryRunPlan.get(txn);
+        long oldState, midState, newState;
+        do {
+            oldState = state(plan);
+            if (Bits.allAreSet(oldState, SERVICE_REMOVED)) return;
+            if (Bits.allAreClear(oldState, REGISTRY_ENABLED)) return;
+            midState = oldState & ~REGISTRY_ENABLED;
+            newState = transition(midState);
+        } while (!compareAndSetState(plan, oldState, newState));
+        transitioned(oldState, midState, newState, txn);
     }
 
     void enableRegistry(final Transaction txn) {
-        synchronized (lock) {
-            if (isServiceRemoved()) return;
-            if (isRegistryEnabled()) return;
-            state |= REGISTRY_ENABLED;
-            if (!isServiceEnabled()) return;
-            transition(txn);
+        final DryRunPlan plan = DryRunPlan.get(txn);
+        long oldState, midState, newState;
+        do {
+            oldState = state(plan);
+            if (Bits.allAreSet(oldState, SERVICE_REMOVED)) return;
+            if (Bits.allAreSet(oldState, REGISTRY_ENABLED)) return;
+            midState = oldState | REGISTRY_ENABLED;
+            newState = transition(midState);
+        } while (!compareAndSetState(plan, oldState, newState));
+        transitioned(oldState, midState, newState, txn);
+    }
+
+    /**
+     * Attaches this removed controller to its registrations again, so that it runs the given service with the same
+     * mode and dependencies as before removal.
+     *
+     * @param txn the active transaction
+     * @param service the service to run
+     * @param enabled whether the controller is enabled
+     */
+    @SuppressWarnings("unchecked")
+    void reattach(final UpdateTransaction txn, final Service<T> service, final boolean enabled) {
+        final TransactionHoldHandle txnHoldHandle = txn.acquireHoldHandle();
+        final List<Registration> reservedRegistrations = new ArrayList<>();
+        try {
+            setModified(txn);
+            // registrations orphaned by removal may have been reclaimed meanwhile
+            primaryRegistration = reserve(primaryRegistration, reservedRegistrations);
+            final Registration[] aliasRegistrations = new Registration[this.aliasRegistrations.length];
+            for (int i = 0; i < aliasRegistrations.length; i++) {
+                aliasRegistrations[i] = reserve(this.aliasRegistrations[i], reservedRegistrations);
+            }
+            this.aliasRegistrations = aliasRegistrations;
+            for (final DependencyImpl<?> dependency : dependencies) {
+                dependency.setDependencyRegistration(reserve(dependency.getDependencyRegistration(), reservedRegistrations));
+            }
+            for (final Registration reservedRegistration : reservedRegistrations) {
+                validateWrite(txn, reservedRegistration);
+            }
+            final long removedState = state;
+            this.service = service != null ? service : (Service<T>) VOID_SERVICE;
+            // state is reset before registrations publish this controller
+            state = initialState((byte) (removedState & MODE_MASK), dependencies) & (enabled ? -1L : ~SERVICE_ENABLED);
+            try {
+                beginInstallation();
+            } catch (Throwable t) {
+                state = removedState;
+                throw t;
+            }
+            try {
+                completeInstallation(txn);
+            } catch (Throwable t) {
+                clear(txn);
+                state = removedState;
+                throw t;
+            }
+            UndoJournal.installed(txn, this);
+        } finally {
+            for (final Registration reservedRegistration : reservedRegistrations) {
+                reservedRegistration.release();
+            }
+            txnHoldHandle.release();
         }
     }
 
-    private boolean isRegistryEnabled() {
-        assert holdsLock(lock);
-        return Bits.allAreSet(state, REGISTRY_ENABLED);
+    private static Registration reserve(final Registration registration, final List<Registration> reservedRegistrations) {
+        final Registration reserved = registration.registry.getOrCreateRegistration(registration.getServiceName());
+        reservedRegistrations.add(reserved);
+        return reserved;
     }
 
     @Override
@@ -368,21 +628,29 @@ final class ServiceControllerImpl<T> implements ServiceController<T> {
     @Override
     public void retry(final UpdateTransaction txn, final Listener<ServiceController<T>> completionListener) throws IllegalArgumentException, IllegalStateException, InvalidTransactionStateException {
         validateTransaction(txn, primaryRegistration.getTransactionController());
+        validateScope(txn, primaryRegistration.registry);
+        validateWrite(txn, primaryRegistration);
         final TransactionHoldHandle txnHoldHandle = txn.acquireHoldHandle();
         try {
             setModified(txn);
+            final DryRunPlan plan = DryRunPlan.get(txn);
             synchronized (lock) {
-                if (isServiceRemoved() || getState() == STATE_REMOVING || getState() == STATE_REMOVED) {
-                    throw MSCLogger.SERVICE.cannotRetryRemovedService();
-                }
-                if (getState() != STATE_FAILED) {
-                    throw MSCLogger.SERVICE.serviceControllerNotInFailedState();
-                }
-                state &= ~SERVICE_ENABLED;
+                long oldState, midState, newState;
+                do {
+                    oldState = state(plan);
+                    if (isRemoved(oldState)) {
+                        throw MSCLogger.SERVICE.cannotRetryRemovedService();
+                    }
+                    if (stateOf(oldState) != STATE_FAILED) {
+                        throw MSCLogger.SERVICE.serviceControllerNotInFailedState();
+                    }
+                    midState = oldState & ~SERVICE_ENABLED;
+                    newState = transition(midState);
+                } while (!compareAndSetState(plan, oldState, newState));
                 if (completionListener != null) {
-                    this.enableObservers = new NotificationEntry<>(this.enableObservers, completionListener);
+                    this.enableObservers = new NotificationEntry<>(this.enableObservers, completionListener, plan != null);
                 }
-                transition(txn);
+                transitioned(oldState, midState, newState, txn);
             }
         } finally {
             txnHoldHandle.release();
@@ -396,16 +664,32 @@ final class ServiceControllerImpl<T> implements ServiceController<T> {
      * @param txn transaction
      */
     @Override
-    public void remove(final UpdateTransaction txn) throws IllegalArgumentException, InvalidTransactionStateException {
+    public void remove(final UpdateTransaction txn) throws IllegalArgumentException, IllegalStateException, InvalidTransactionStateException {
         remove(txn, null);
     }
 
     @Override
-    public void remove(final UpdateTransaction txn, final Listener<ServiceController<T>> completionListener) throws IllegalArgumentException, InvalidTransactionStateException {
+    public void remove(final UpdateTransaction txn, final Listener<ServiceController<T>> completionListener) throws IllegalArgumentException, IllegalStateException, InvalidTransactionStateException {
         validateTransaction(txn, primaryRegistration.getTransactionController());
+        validateNotDryRun(txn);
+        uninstall(txn, completionListener);
+    }
+
+    /**
+     * Removes this service installed by the transaction being reverted. Unlike
+     * {@link #remove(UpdateTransaction, Listener)} it is allowed in dry run transactions, as services installed by dry
+     * run were never started.
+     *
+     * @param txn the reverting transaction
+     * @param completionListener called when operation is finished
+     */
+    void uninstall(final UpdateTransaction txn, final Listener<ServiceController<T>> completionListener) throws IllegalArgumentException, InvalidTransactionStateException {
+        validateScope(txn, primaryRegistration.registry);
+        validateWrite(txn, primaryRegistration);
         final TransactionHoldHandle txnHoldHandle = txn.acquireHoldHandle();
         try {
             setModified(txn);
+            UndoJournal.modifying(txn, this);
             _remove(txn, completionListener);
         } finally {
             txnHoldHandle.release();
@@ -413,16 +697,22 @@ final class ServiceControllerImpl<T> implements ServiceController<T> {
     }
 
     void _remove(final Transaction txn, final Listener<ServiceController<T>> completionListener) throws IllegalArgumentException, InvalidTransactionStateException {
-        synchronized (lock) {
-            while (true) {
-                if (isServiceRemoved()) break;
-                state |= SERVICE_REMOVED;
-                transition(txn);
+        final DryRunPlan plan = DryRunPlan.get(txn);
+        long oldState, midState, newState;
+        do {
+            oldState = state(plan);
+            if (Bits.allAreSet(oldState, SERVICE_REMOVED)) break;
+            midState = oldState | SERVICE_REMOVED;
+            newState = transition(midState);
+            if (compareAndSetState(plan, oldState, newState)) {
+                transitioned(oldState, midState, newState, txn);
                 break;
             }
-            if (completionListener == null) return;
-            if (getState() != STATE_REMOVED) {
-                this.removeObservers = new NotificationEntry<>(this.removeObservers, completionListener);
+        } while (true);
+        if (completionListener == null) return;
+        synchronized (lock) {
+            if (stateOf(state(plan)) != STATE_REMOVED) {
+                this.removeObservers = new NotificationEntry<>(this.removeObservers, completionListener, plan != null);
                 return; // don't call completion listener
             }
         }
@@ -454,27 +744,52 @@ final class ServiceControllerImpl<T> implements ServiceController<T> {
     private boolean replace(final UpdateTransaction txn, final Service<T> oldService, final Service<T> newService, final Listener<ServiceController<T>> completionListener, final boolean validate)
             throws IllegalArgumentException, IllegalStateException, InvalidTransactionStateException {
         validateTransaction(txn, primaryRegistration.getTransactionController());
+        validateNotDryRun(txn);
+        validateScope(txn, primaryRegistration.registry);
+        validateWrite(txn, primaryRegistration);
         final TransactionHoldHandle txnHoldHandle = txn.acquireHoldHandle();
         try {
             setModified(txn);
+            UndoJournal.modifying(txn, this);
             synchronized (lock) {
-                if (isServiceRemoved() || getState() == STATE_REMOVING || getState() == STATE_REMOVED) {
+                // controller can reach DOWN state only via setServiceDown() that holds the lock
+                if (isRemoved(state)) {
                     throw MSCLogger.SERVICE.cannotReplaceRemovedService();
                 }
                 if (validate && service != oldService) {
                     return false;
                 }
                 if (oldService != newService) {
-                    if (getState() == STATE_DOWN) {
-                        service = newService != null ? newService : (Service<T>) VOID_SERVICE;
-                    } else {
-                        replaceService = newService != null ? newService : (Service<T>) VOID_SERVICE;
-                        if (completionListener != null) {
-                            this.replaceObservers = new NotificationEntry<>(this.replaceObservers, completionListener);
+                    final Service<T> replacement = newService != null ? newService : (Service<T>) VOID_SERVICE;
+                    long oldState, midState, newState;
+                    do {
+                        oldState = state;
+                        if (stateOf(oldState) == STATE_DOWN) {
+                            // claim DOWN state so that service cannot start while being swapped
+                            if (!stateUpdater.compareAndSet(this, oldState, oldState | SERVICE_REPLACED)) continue;
+                            service = replacement;
+                            do {
+                                oldState = state;
+                                midState = oldState & ~SERVICE_REPLACED;
+                                newState = transition(midState);
+                            } while (!stateUpdater.compareAndSet(this, oldState, newState));
+                            transitioned(oldState, midState, newState, txn);
+                            break;
                         }
-                        transition(txn);
-                        return true;
-                    }
+                        if (isRemoved(oldState)) {
+                            throw MSCLogger.SERVICE.cannotReplaceRemovedService();
+                        }
+                        midState = oldState | SERVICE_REPLACED;
+                        newState = transition(midState);
+                        if (stateUpdater.compareAndSet(this, oldState, newState)) {
+                            replaceService = replacement;
+                            if (completionListener != null) {
+                                this.replaceObservers = new NotificationEntry<>(this.replaceObservers, completionListener, false);
+                            }
+                            transitioned(oldState, midState, newState, txn);
+                            return true;
+                        }
+                    } while (true);
                 }
             }
             if (completionListener != null) safeCallListener(completionListener);
@@ -485,97 +800,136 @@ final class ServiceControllerImpl<T> implements ServiceController<T> {
     }
 
     @Override
-    public void restart(final UpdateTransaction txn) throws IllegalArgumentException, IllegalStateException, InvalidTransactionStateException {
-        restart(txn, null);
+    public void replaceInPlace(final UpdateTransaction txn, final Service<T> newService) throws IllegalArgumentException, IllegalStateException, InvalidTransactionStateException {
+        replaceInPlace(txn, newService, null);
     }
 
     @Override
-    public void restart(final UpdateTransaction txn, final Listener<ServiceController<T>> completionListener) throws IllegalArgumentException, IllegalStateException, InvalidTransactionStateException {
+    public void replaceInPlace(final UpdateTransaction txn, final Service<T> newService, final Listener<ServiceController<T>> completionListener) throws IllegalArgumentException, IllegalStateException, InvalidTransactionStateException {
         validateTransaction(txn, primaryRegistration.getTransactionController());
+        validateNotDryRun(txn);
+        validateScope(txn, primaryRegistration.registry);
+        validateWrite(txn, primaryRegistration);
         final TransactionHoldHandle txnHoldHandle = txn.acquireHoldHandle();
         try {
-            setModified(txn);
+            final Service<T> oldService;
+            final boolean running;
             synchronized (lock) {
-                if (isServiceRemoved() || getState() == STATE_REMOVING || getState() == STATE_REMOVED) {
-                    throw MSCLogger.SERVICE.cannotRestartRemovedService();
-                }
-                if (getState() != STATE_UP) {
-                    throw MSCLogger.SERVICE.serviceControllerNotInUpState();
-                }
-                state &= ~SERVICE_ENABLED;
-                if (completionListener != null) {
-                    this.enableObservers = new NotificationEntry<>(this.enableObservers, completionListener);
+                if (isRemoved(state)) {
+                    throw MSCLogger.SERVICE.cannotReplaceRemovedService();
                 }
-                transition(txn);
+                oldService = getService();
+                running = stateOf(state) == STATE_UP && replaceService == null;
+            }
+            if (!running || oldService == newService) {
+                // nothing is running that dependents could lose
+                replace(txn, null, newService, completionListener, false);
+                return;
             }
+            setModified(txn);
+            UndoJournal.modifying(txn, this);
+            HandoffServiceTask.create(this, oldService, newService, completionListener, txn);
         } finally {
             txnHoldHandle.release();
         }
     }
 
     /**
-     * Notifies this service that it is demanded by one of its incoming dependencies.
-     * 
-     * @param txn transaction
+     * Publishes started new service and its value in place of the running old service.
+     *
+     * @param oldService the running service
+     * @param newService the started service
+     * @param result the value of the started service
+     * @param txn the active transaction
+     * @return {@code false} if the controller is no longer running the old service
      */
-    void demand(final Transaction txn) {
-        final boolean propagate;
-        synchronized (lock) {
-            if (demandedByCount++ > 0) {
-                return;
-            }
-            propagate = !isMode(MODE_ACTIVE);
-        }
-        if (propagate) {
-            demandDependencies(txn);
-        }
+    @SuppressWarnings("unchecked")
+    boolean handoff(final Service<T> oldService, final Service<T> newService, final T result, final Transaction txn) {
         synchronized (lock) {
-            transition(txn);
+            if (stateOf(state) != STATE_UP || replaceService != null || getService() != oldService) return false;
+            service = newService != null ? newService : (Service<T>) VOID_SERVICE;
+            setValue(result);
         }
+        modified(txn);
+        return true;
     }
 
-    /**
-     * Demands this service's dependencies to start.
-     * 
-     * @param txn transaction
-     */
-    private void demandDependencies(final Transaction txn) {
-        for (DependencyImpl<?> dependency: dependencies) {
-            dependency.demand(txn);
+    @Override
+    public void restart(final UpdateTransaction txn) throws IllegalArgumentException, IllegalStateException, InvalidTransactionStateException {
+        restart(txn, null);
+    }
+
+    @Override
+    public void restart(final UpdateTransaction txn, final Listener<ServiceController<T>> completionListener) throws IllegalArgumentException, IllegalStateException, InvalidTransactionStateException {
+        validateTransaction(txn, primaryRegistration.getTransactionController());
+        validateScope(txn, primaryRegistration.registry);
+        validateWrite(txn, primaryRegistration);
+        final TransactionHoldHandle txnHoldHandle = txn.acquireHoldHandle();
+        try {
+            setModified(txn);
+            final DryRunPlan plan = DryRunPlan.get(txn);
+            synchronized (lock) {
+                long oldState, midState, newState;
+                do {
+                    oldState = state(plan);
+                    if (isRemoved(oldState)) {
+                        throw MSCLogger.SERVICE.cannotRestartRemovedService();
+                    }
+                    if (stateOf(oldState) != STATE_UP) {
+                        throw MSCLogger.SERVICE.serviceControllerNotInUpState();
+                    }
+                    midState = oldState & ~SERVICE_ENABLED;
+                    newState = transition(midState);
+                } while (!compareAndSetState(plan, oldState, newState));
+                if (completionListener != null) {
+                    this.enableObservers = new NotificationEntry<>(this.enableObservers, completionListener, plan != null);
+                }
+                transitioned(oldState, midState, newState, txn);
+            }
+        } finally {
+            txnHoldHandle.release();
         }
     }
 
     /**
-     * Notifies this service that it is no longer demanded by one of its incoming dependencies (invoked when incoming
-     * dependency is being disabled or removed).
+     * Notifies this service that it is demanded by one of its incoming dependencies. Demand is propagated to
+     * dependencies by {@link DemandPropagationTask}.
      * 
      * @param txn transaction
+     * @return {@code true} if this service's dependencies have to be demanded as well
      */
-    void undemand(final Transaction txn) {
-        final boolean propagate;
-        synchronized (lock) {
-            if (--demandedByCount > 0) {
-                return;
-            }
-            propagate = !isMode(MODE_ACTIVE);
-        }
-        if (propagate) {
-            undemandDependencies(txn);
-        }
-        synchronized (lock) {
-            transition(txn);
+    boolean demand(final Transaction txn) {
+        final DryRunPlan plan = DryRunPlan.get(txn);
+        long oldState;
+        do {
+            oldState = state(plan);
+        } while (!compareAndSetState(plan, oldState, addDemanded(oldState, DEMANDED_ONE)));
+        if (demandedByCountOf(oldState) > 0) {
+            return false;
         }
+        transition(txn);
+        return !isMode(oldState, MODE_ACTIVE);
     }
 
     /**
-     * Undemands this service's dependencies to start.
+     * Notifies this service that it is no longer demanded by one of its incoming dependencies (invoked when incoming
+     * dependency is being disabled or removed). Removal of demand is propagated to dependencies by
+     * {@link DemandPropagationTask}.
      * 
      * @param txn transaction
+     * @return {@code true} if this service's dependencies have to be undemanded as well
      */
-    private void undemandDependencies(final Transaction txn) {
-        for (DependencyImpl<?> dependency: dependencies) {
-            dependency.undemand(txn);
+    boolean undemand(final Transaction txn) {
+        final DryRunPlan plan = DryRunPlan.get(txn);
+        long oldState;
+        do {
+            oldState = state(plan);
+        } while (!compareAndSetState(plan, oldState, addDemanded(oldState, -DEMANDED_ONE)));
+        if (demandedByCountOf(oldState) > 1) {
+            return false;
         }
+        transition(txn);
+        return !isMode(oldState, MODE_ACTIVE);
     }
 
     public ServiceName getServiceName() {
@@ -583,87 +937,92 @@ final class ServiceControllerImpl<T> implements ServiceController<T> {
     }
 
     void dependencySatisfied(final Transaction txn) {
-        synchronized (lock) {
-            if (--unsatisfiedDependencies > 0) {
-                return;
-            }
-            transition(txn);
-        }
+        final DryRunPlan plan = DryRunPlan.get(txn);
+        long oldState, midState, newState;
+        do {
+            oldState = state(plan);
+            midState = oldState - UNSATISFIED_ONE;
+            newState = unsatisfiedDependenciesOf(midState) > 0 ? midState : transition(midState);
+        } while (!compareAndSetState(plan, oldState, newState));
+        transitioned(oldState, midState, newState, txn);
     }
 
     public void dependencyUnsatisfied(final Transaction txn) {
-        synchronized (lock) {
-            if (++unsatisfiedDependencies > 1) {
-               return;
-            }
-            transition(txn);
-        }
+        final DryRunPlan plan = DryRunPlan.get(txn);
+        long oldState, midState, newState;
+        do {
+            oldState = state(plan);
+            midState = oldState + UNSATISFIED_ONE;
+            newState = unsatisfiedDependenciesOf(midState) > 1 ? midState : transition(midState);
+        } while (!compareAndSetState(plan, oldState, newState));
+        transitioned(oldState, midState, newState, txn);
     }
 
     /* Transition related methods */
     @SuppressWarnings("unchecked")
     void setServiceUp(T result, final Transaction txn) {
-        setValue(result);
+        final DryRunPlan plan = DryRunPlan.get(txn);
+        // simulated start leaves the value of the service untouched
+        if (plan == null) setValue(result);
+        setState(STATE_UP, txn);
         NotificationEntry<T> enableObservers;
         synchronized (lock) {
-            setState(STATE_UP);
-            transition(txn);
             enableObservers = this.enableObservers;
-            this.enableObservers = null;
-        }
-        while (enableObservers != null) {
-            safeCallListener(enableObservers.completionListener);
-            enableObservers = (NotificationEntry<T>) enableObservers.next;
+            this.enableObservers = retained(enableObservers, plan != null);
         }
+        notifyObservers(enableObservers, plan != null);
     }
 
     @SuppressWarnings("unchecked")
     void setServiceFailed(final Transaction txn) {
         MSCLogger.FAIL.startFailed(getServiceName());
+        setState(STATE_FAILED, txn);
         NotificationEntry<T> enableObservers;
         synchronized (lock) {
-            setState(STATE_FAILED);
-            transition(txn);
             enableObservers = this.enableObservers;
-            this.enableObservers = null;
-        }
-        while (enableObservers != null) {
-            safeCallListener(enableObservers.completionListener);
-            enableObservers = (NotificationEntry<T>) enableObservers.next;
+            this.enableObservers = retained(enableObservers, false);
         }
+        notifyObservers(enableObservers, false);
     }
 
     @SuppressWarnings("unchecked")
     void setServiceDown(final Transaction txn) {
-        setValue(null);
+        final DryRunPlan plan = DryRunPlan.get(txn);
+        // simulated stop leaves the value of the service untouched
+        if (plan == null) setValue(null);
         NotificationEntry<T> disableObservers, replaceObservers = null;
         synchronized (lock) {
-            setState(STATE_DOWN);
-            transition(txn);
-            if (replaceService != null) {
+            // swap replaced service before the controller reaches DOWN state, it may be started right away
+            final boolean replaced = plan == null && replaceService != null;
+            if (replaced) {
                 service = replaceService;
                 replaceService = null;
                 replaceObservers = this.replaceObservers;
                 this.replaceObservers = null;
             }
+            long oldState, midState, newState;
+            do {
+                oldState = state(plan);
+                midState = withState(replaced ? oldState & ~SERVICE_REPLACED : oldState, STATE_DOWN);
+                newState = transition(midState);
+            } while (!compareAndSetState(plan, oldState, newState));
+            transitioned(oldState, midState, newState, txn);
             disableObservers = this.disableObservers;
-            this.disableObservers = null;
+            this.disableObservers = retained(disableObservers, plan != null);
         }
         while (replaceObservers != null) {
             safeCallListener(replaceObservers.completionListener);
             replaceObservers = (NotificationEntry<T>) replaceObservers.next;
         }
-        while (disableObservers != null) {
-            safeCallListener(disableObservers.completionListener);
-            disableObservers = (NotificationEntry<T>) disableObservers.next;
-        }
+        notifyObservers(disableObservers, plan != null);
     }
 
     @SuppressWarnings("unchecked")
     void setServiceRemoved(final Transaction txn) {
+        setState(STATE_REMOVED, txn);
+        // services removed by dry run transactions were installed by them, every observer is notified
         NotificationEntry<T> disableObservers, enableObservers, removeObservers;
         synchronized (lock) {
-            setState(STATE_REMOVED);
             disableObservers = this.disableObservers;
             this.disableObservers = null;
             enableObservers = this.enableObservers;
@@ -686,6 +1045,26 @@ final class ServiceControllerImpl<T> implements ServiceController<T> {
         }
     }
 
+    /**
+     * Returns the observers not notified by transition of the given kind of transaction. Simulated transitions of dry
+     * run transactions notify only observers registered by dry run transactions, the others are kept for real
+     * transitions and vice versa. Must be called holding the lock.
+     */
+    private static <T> NotificationEntry<T> retained(final NotificationEntry<T> observers, final boolean dryRun) {
+        NotificationEntry<T> retained = null;
+        for (NotificationEntry<T> entry = observers; entry != null; entry = (NotificationEntry<T>) entry.next) {
+            if (entry.dryRun != dryRun) retained = new NotificationEntry<>(retained, entry.completionListener, entry.dryRun);
+        }
+        return retained;
+    }
+
+    private void notifyObservers(NotificationEntry<T> observers, final boolean dryRun) {
+        while (observers != null) {
+            if (observers.dryRun == dryRun) safeCallListener(observers.completionListener);
+            observers = (NotificationEntry<T>) observers.next;
+        }
+    }
+
     void notifyServiceUp(final Transaction txn) {
         primaryRegistration.serviceUp(txn);
         for (Registration registration: aliasRegistrations) {
@@ -700,73 +1079,193 @@ final class ServiceControllerImpl<T> implements ServiceController<T> {
         }
     }
 
+    /**
+     * Performs any transition the current state calls for.
+     *
+     * @param txn transaction
+     */
     private void transition(final Transaction txn) {
-        assert holdsLock(lock);
-        final boolean removed = isServiceRemoved();
-        switch (getState()) {
+        final DryRunPlan plan = DryRunPlan.get(txn);
+        long oldState, newState;
+        do {
+            oldState = state(plan);
+            newState = transition(oldState);
+            if (newState == oldState) return;
+        } while (!compareAndSetState(plan, oldState, newState));
+        transitioned(oldState, oldState, newState, txn);
+    }
+
+    /**
+     * Computes the state the given state word transitions to. This method has no side effects, tasks implementing
+     * the transition are created by {@link #transitioned(long, long, long, Transaction)} once the new state was
+     * successfully published.
+     *
+     * @param state the state word
+     * @return the transitioned state word
+     */
+    private static long transition(final long state) {
+        switch (stateOf(state)) {
             case STATE_DOWN:
-                if (unsatisfiedDependencies == 0 && shouldStart()) {
-                    setState(STATE_STARTING);
-                    StartServiceTask.create(this, txn);
-                } else if (removed) {
-                    setState(STATE_REMOVING);
-                    RemoveServiceTask.create(this, txn);
+                if (unsatisfiedDependenciesOf(state) == 0 && shouldStart(state)) {
+                    return withState(state, STATE_STARTING);
+                } else if (Bits.allAreSet(state, SERVICE_REMOVED)) {
+                    return withState(state, STATE_REMOVING);
                 }
                 break;
             case STATE_UP:
-                if (unsatisfiedDependencies > 0 || shouldStop()) {
-                    lifecycleTime = System.nanoTime();
-                    setState(STATE_STOPPING);
-                    StopServiceTask.create(this, txn);
+            case STATE_FAILED:
+                if (unsatisfiedDependenciesOf(state) > 0 || shouldStop(state)) {
+                    return withState(state, STATE_STOPPING);
                 }
                 break;
-            case STATE_FAILED:
-                if (unsatisfiedDependencies > 0 || shouldStop()) {
-                    lifecycleTime = System.nanoTime();
-                    setState(STATE_STOPPING);
+        }
+        return state;
+    }
+
+    /**
+     * Creates the tasks implementing a published transition.
+     *
+     * @param oldState the state word replaced
+     * @param midState the state word before transition was computed
+     * @param newState the published state word
+     * @param txn transaction
+     */
+    private void transitioned(final long oldState, final long midState, final long newState, final Transaction txn) {
+        final byte fromState = stateOf(oldState);
+        final byte beforeTransition = stateOf(midState);
+        final byte toState = stateOf(newState);
+        if (fromState != toState) {
+            modified(txn);
+        }
+        if (fromState != beforeTransition) {
+            FlightRecorderEvents.serviceStateChanged(this, fromState, beforeTransition);
+        }
+        if (beforeTransition == toState) return;
+        FlightRecorderEvents.serviceStateChanged(this, beforeTransition, toState);
+        switch (toState) {
+            case STATE_STARTING:
+                CriticalPathAnalyzer.serviceStartable(this, txn);
+                StartServiceTask.create(this, txn);
+                break;
+            case STATE_REMOVING:
+                RemoveServiceTask.create(this, txn);
+                break;
+            case STATE_STOPPING:
+                if (DryRunPlan.get(txn) == null) lifecycleTime = System.nanoTime();
+                if (beforeTransition == STATE_UP) {
+                    StopServiceTask.create(this, txn);
+                } else {
                     StopFailedServiceTask.create(this, txn);
                 }
                 break;
         }
     }
 
-    private boolean shouldStart() {
-        return (isMode(MODE_ACTIVE) || demandedByCount > 0) && Bits.allAreSet(state, SERVICE_ENABLED | REGISTRY_ENABLED) && Bits.allAreClear(state, SERVICE_REMOVED);
+    private static boolean shouldStart(final long state) {
+        return (isMode(state, MODE_ACTIVE) || demandedByCountOf(state) > 0) && Bits.allAreSet(state, SERVICE_ENABLED | REGISTRY_ENABLED) && Bits.allAreClear(state, SERVICE_REMOVED | SERVICE_REPLACED);
     }
 
-    private boolean shouldStop() {
-        return (isMode(MODE_ON_DEMAND) && demandedByCount == 0) || !Bits.allAreSet(state, SERVICE_ENABLED | REGISTRY_ENABLED) || Bits.allAreSet(state, SERVICE_REMOVED) || replaceService != null;
+    private static boolean shouldStop(final long state) {
+        return (isMode(state, MODE_ON_DEMAND) && demandedByCountOf(state) == 0) || !Bits.allAreSet(state, SERVICE_ENABLED | REGISTRY_ENABLED) || Bits.anyAreSet(state, SERVICE_REMOVED | SERVICE_REPLACED);
     }
 
-    private void setMode(final byte mid) {
-        synchronized (lock) {
-            state = (byte) (mid & MODE_MASK | state & ~MODE_MASK);
-        }
+    private boolean isMode(final byte mode) {
+        return isMode(state, mode);
     }
 
-    private boolean isMode(final byte mode) {
-        synchronized (lock) {
-            return (state & MODE_MASK) == mode;
-        }
+    private static boolean isMode(final long state, final byte mode) {
+        return (state & MODE_MASK) == mode;
     }
 
-    private void setState(final byte newState) {
-        assert holdsLock(lock);
-        state = (byte) (newState & STATE_MASK | state & ~STATE_MASK);
+    private void setState(final byte newControllerState, final Transaction txn) {
+        final DryRunPlan plan = DryRunPlan.get(txn);
+        long oldState, midState, newState;
+        do {
+            oldState = state(plan);
+            midState = withState(oldState, newControllerState);
+            newState = transition(midState);
+        } while (!compareAndSetState(plan, oldState, newState));
+        transitioned(oldState, midState, newState, txn);
     }
 
-    byte getState() {
+    /**
+     * Gets the state word seen by the transaction. Dry run transactions transition their own copy of the state word,
+     * so that the running system never sees simulated transitions.
+     *
+     * @param plan the plan of dry run transaction, {@code null} if transaction is not dry run
+     * @return the state word
+     */
+    private long state(final DryRunPlan plan) {
+        return plan != null ? plan.getState(this, state) : state;
+    }
+
+    private boolean compareAndSetState(final DryRunPlan plan, final long expect, final long update) {
+        return plan != null ? plan.compareAndSetState(this, expect, update) : stateUpdater.compareAndSet(this, expect, update);
+    }
+
+    private static long withState(final long state, final byte controllerState) {
+        return state & ~STATE_MASK | controllerState & STATE_MASK;
+    }
+
+    private static byte stateOf(final long state) {
         return (byte)(state & STATE_MASK);
     }
 
+    private static int demandedByCountOf(final long state) {
+        // sign extend the 23 bits wide field
+        return (int)((state << 32) >> (32 + DEMANDED_SHIFT));
+    }
+
+    private static long addDemanded(final long state, final long delta) {
+        // keep the carry or borrow inside demanded count field
+        return ((state + delta) & DEMANDED_MASK) | (state & ~DEMANDED_MASK);
+    }
+
+    private static int unsatisfiedDependenciesOf(final long state) {
+        return (int)(state >> UNSATISFIED_SHIFT);
+    }
+
+    byte getState() {
+        return stateOf(state);
+    }
+
+    private static State toState(final byte state) {
+        switch (state & STATE_MASK) {
+            case STATE_DOWN: return State.DOWN;
+            case STATE_STARTING: return State.STARTING;
+            case STATE_UP: return State.UP;
+            case STATE_FAILED: return State.FAILED;
+            case STATE_STOPPING: return State.STOPPING;
+            case STATE_REMOVING: return State.REMOVING;
+            case STATE_REMOVED: return State.REMOVED;
+            default: throw new IllegalStateException();
+        }
+    }
+
+    static String stateName(final byte state) {
+        switch (state & STATE_MASK) {
+            case STATE_DOWN: return "DOWN";
+            case STATE_STARTING: return "STARTING";
+            case STATE_UP: return "UP";
+            case STATE_FAILED: return "FAILED";
+            case STATE_STOPPING: return "STOPPING";
+            case STATE_REMOVING: return "REMOVING";
+            case STATE_REMOVED: return "REMOVED";
+            default: throw new IllegalStateException();
+        }
+    }
+
     private static final class NotificationEntry<T> {
 
         private final NotificationEntry next;
         private final Listener<ServiceController<T>> completionListener;
+        /** Whether the observer was registered by dry run transaction */
+        private final boolean dryRun;
 
-        private NotificationEntry(final NotificationEntry next, final Listener<ServiceController<T>> listener) {
+        private NotificationEntry(final NotificationEntry next, final Listener<ServiceController<T>> listener, final boolean dryRun) {
             this.next = next;
             this.completionListener = listener;
+            this.dryRun = dryRun;
         }
 
     }
@@ -0,0 +1,291 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2014 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.msc.txn;
+
+import static org.jboss.msc._private.MSCLogger.TXN;
+import static org.jboss.msc.txn.Helper.getReadVersion;
+import static org.jboss.msc.txn.Helper.recordRead;
+import static org.jboss.msc.txn.Helper.validateTransaction;
+import static org.jboss.msc.txn.ServiceControllerImpl.STATE_FAILED;
+import static org.jboss.msc.txn.ServiceControllerImpl.STATE_REMOVED;
+import static org.jboss.msc.txn.ServiceControllerImpl.STATE_REMOVING;
+import static org.jboss.msc.txn.ServiceControllerImpl.STATE_STARTING;
+import static org.jboss.msc.txn.ServiceControllerImpl.STATE_UP;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jboss.msc.service.ServiceController;
+import org.jboss.msc.service.ServiceName;
+import org.jboss.msc.util.AttachmentKey;
+
+/**
+ * Explains why a service is not up. It walks service dependencies and returns the blocking frontier: the services
+ * that are not up for a reason of their own, rather than because some of their dependencies are not up.
+ * <p>
+ * Walks are memoized within the transaction, so explaining any number of services visits every service at most
+ * once. Services are seen in the state visible to the transaction at the moment they are first visited. Read-only
+ * transactions see committed service states, while enablement and demand are always read from the current state.
+ * <p>
+ * Usage:
+ * <pre>
+ * for (final ServiceExplainer.Blocker blocker : ServiceExplainer.explain(txn, controller)) {
+ *     System.out.println(blocker);
+ * }
+ * </pre>
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opalka</a>
+ */
+public final class ServiceExplainer {
+
+    private static final AttachmentKey<ServiceExplainer> KEY = AttachmentKey.create();
+
+    private final ReadTransaction txn;
+    private final long readVersion;
+    // blocking frontier per visited service, services being walked map to their partial frontier
+    private final Map<ServiceControllerImpl<?>, Set<Blocker>> frontiers = new IdentityHashMap<>();
+
+    private ServiceExplainer(final ReadTransaction txn) {
+        this.txn = txn;
+        this.readVersion = getReadVersion(txn);
+    }
+
+    /**
+     * Explains why the given service is not up.
+     *
+     * @param txn        the transaction
+     * @param controller the service controller
+     * @return the blocking frontier, empty if the service is up
+     * @throws IllegalArgumentException if any parameter is null or if {@code txn} was created by different
+     *                                  transaction controller than the service
+     * @throws InvalidTransactionStateException if transaction is not active
+     */
+    public static List<Blocker> explain(final ReadTransaction txn, final ServiceController<?> controller) throws IllegalArgumentException, InvalidTransactionStateException {
+        if (controller == null) {
+            throw TXN.methodParameterIsNull("controller");
+        }
+        final ServiceControllerImpl<?> controllerImpl = (ServiceControllerImpl<?>) controller;
+        validateTransaction(txn, controllerImpl.getPrimaryRegistration().registry.getTransactionController());
+        ServiceExplainer explainer = txn.getAttachment(KEY);
+        if (explainer == null) {
+            explainer = new ServiceExplainer(txn);
+            final ServiceExplainer appearing = txn.putAttachmentIfAbsent(KEY, explainer);
+            if (appearing != null) explainer = appearing;
+        }
+        return explainer.explain(controllerImpl);
+    }
+
+    private synchronized List<Blocker> explain(final ServiceControllerImpl<?> root) {
+        Set<Blocker> frontier = frontiers.get(root);
+        if (frontier == null) {
+            walk(root);
+            frontier = frontiers.get(root);
+        }
+        return Collections.unmodifiableList(new ArrayList<>(frontier));
+    }
+
+    /**
+     * Computes frontiers of the service and of all its transitive dependencies not visited yet, in post order.
+     */
+    private void walk(final ServiceControllerImpl<?> root) {
+        final Deque<Frame> stack = new ArrayDeque<>();
+        stack.push(new Frame(root));
+        while (!stack.isEmpty()) {
+            final Frame frame = stack.peek();
+            final ServiceControllerImpl<?> controller = frame.controller;
+            if (frame.frontier == null) {
+                final Set<Blocker> ownFrontier = ownFrontier(controller);
+                if (ownFrontier != null) {
+                    frontiers.put(controller, ownFrontier);
+                    stack.pop();
+                    continue;
+                }
+                frame.frontier = new LinkedHashSet<>();
+                // dependency cycle, if any, sees partial frontier
+                frontiers.put(controller, frame.frontier);
+            }
+            final DependencyImpl<?>[] dependencies = controller.dependencies;
+            Frame next = null;
+            while (next == null && frame.index < dependencies.length) {
+                final DependencyImpl<?> dependency = dependencies[frame.index];
+                // on access dependencies are not waited for
+                if (!dependency.isOnAccess()) {
+                    final Registration registration = dependency.getDependencyRegistration();
+                    final ServiceControllerImpl<?> dependencyController = controllerOf(registration);
+                    if (dependencyController == null) {
+                        frame.frontier.add(new Blocker(registration.getServiceName(), Reason.MISSING));
+                    } else {
+                        final Set<Blocker> dependencyFrontier = frontiers.get(dependencyController);
+                        if (dependencyFrontier == null) {
+                            next = new Frame(dependencyController);
+                            continue;
+                        }
+                        frame.frontier.addAll(dependencyFrontier);
+                    }
+                }
+                frame.index++;
+            }
+            if (next != null) {
+                stack.push(next);
+                continue;
+            }
+            if (frame.frontier.isEmpty()) {
+                // all dependencies are up, service is about to start
+                frame.frontier.add(new Blocker(controller.getServiceName(), Reason.TRANSITIONING));
+            }
+            stack.pop();
+        }
+    }
+
+    /**
+     * Returns the frontier of the service if it doesn't depend on its dependencies.
+     *
+     * @return the frontier or {@code null} if dependencies need to be walked
+     */
+    private Set<Blocker> ownFrontier(final ServiceControllerImpl<?> controller) {
+        final byte state = stateOf(controller);
+        final Reason reason;
+        if (state == STATE_UP) {
+            return Collections.emptySet();
+        } else if (state == STATE_FAILED) {
+            reason = Reason.FAILED;
+        } else if (state == STATE_REMOVING || state == STATE_REMOVED) {
+            reason = Reason.MISSING;
+        } else if (state == STATE_STARTING) {
+            reason = Reason.TRANSITIONING;
+        } else if (!controller.isEnabled() || !controller.isRegistryEnabled()) {
+            reason = Reason.DISABLED;
+        } else if (!controller.isStartDemanded()) {
+            reason = Reason.NOT_DEMANDED;
+        } else {
+            return null;
+        }
+        return Collections.singleton(new Blocker(controller.getServiceName(), reason));
+    }
+
+    private ServiceControllerImpl<?> controllerOf(final Registration registration) {
+        if (readVersion < 0) {
+            recordRead(txn, registration);
+            return registration.getController();
+        }
+        final RegistrationVersion committed = registration.getVersion(readVersion);
+        return committed != null ? committed.controller : null;
+    }
+
+    private byte stateOf(final ServiceControllerImpl<?> controller) {
+        if (readVersion < 0) {
+            return controller.getState();
+        }
+        final RegistrationVersion committed = controller.getPrimaryRegistration().getVersion(readVersion);
+        return committed != null && committed.controller == controller ? committed.state : STATE_REMOVED;
+    }
+
+    private static final class Frame {
+        private final ServiceControllerImpl<?> controller;
+        private Set<Blocker> frontier;
+        private int index;
+
+        private Frame(final ServiceControllerImpl<?> controller) {
+            this.controller = controller;
+        }
+    }
+
+    /**
+     * The reason a service blocks its dependents.
+     */
+    public enum Reason {
+        /**
+         * The service is not installed or is being removed.
+         */
+        MISSING,
+        /**
+         * The service failed to start.
+         */
+        FAILED,
+        /**
+         * The service or its registry is disabled.
+         */
+        DISABLED,
+        /**
+         * The service is not {@code ACTIVE} and no dependent demands it.
+         */
+        NOT_DEMANDED,
+        /**
+         * The service is starting, or it is about to start since all its dependencies are up.
+         */
+        TRANSITIONING
+    }
+
+    /**
+     * A service blocking its dependents from starting.
+     */
+    public static final class Blocker {
+
+        private final ServiceName serviceName;
+        private final Reason reason;
+
+        private Blocker(final ServiceName serviceName, final Reason reason) {
+            this.serviceName = serviceName;
+            this.reason = reason;
+        }
+
+        /**
+         * Returns the name of the blocking service.
+         *
+         * @return the service name
+         */
+        public ServiceName getServiceName() {
+            return serviceName;
+        }
+
+        /**
+         * Returns the reason the service blocks its dependents.
+         *
+         * @return the reason
+         */
+        public Reason getReason() {
+            return reason;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Blocker)) return false;
+            final Blocker other = (Blocker) o;
+            return reason == other.reason && serviceName.equals(other.serviceName);
+        }
+
+        @Override
+        public int hashCode() {
+            return serviceName.hashCode() * 31 + reason.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return serviceName + " (" + reason + ")";
+        }
+    }
+}
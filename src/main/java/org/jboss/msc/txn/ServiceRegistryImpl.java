@@ -25,12 +25,25 @@ import org.jboss.msc.service.ServiceNotFoundException;
 import org.jboss.msc.service.ServiceRegistry;
 import org.jboss.msc.util.Listener;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
 import static org.jboss.msc._private.MSCLogger.TXN;
 import static org.jboss.msc.txn.Helper.getAbstractTransaction;
+import static org.jboss.msc.txn.Helper.getReadVersion;
+import static org.jboss.msc.txn.Helper.recordRead;
 import static org.jboss.msc.txn.Helper.setModified;
+import static org.jboss.msc.txn.Helper.validateNotDryRun;
+import static org.jboss.msc.txn.Helper.validateScope;
+import static org.jboss.msc.txn.Helper.validateWrites;
 import static org.jboss.msc.txn.Helper.validateTransaction;
 
 /**
@@ -53,11 +66,33 @@ final class ServiceRegistryImpl implements ServiceRegistry {
     private final Object lock = new Object();
     // map of service registrations
     private final ConcurrentMap<ServiceName, Registration> registry = new ConcurrentHashMap<>();
+    // registries having dependencies from or to services of this registry, with count of such dependencies
+    private final ConcurrentMap<ServiceRegistryImpl, Integer> linkedRegistries = new ConcurrentHashMap<>();
+
+    // registrations required by installed services having no service installed
+    private final ConcurrentMap<ServiceName, Registration> missingServices = new ConcurrentHashMap<>();
 
     ServiceRegistryImpl(final ServiceContainerImpl container) {
         this.container = container;
     }
 
+    /**
+     * Gets the registrations of this registry, primary and alias ones.
+     */
+    Collection<Registration> getRegistrations() {
+        return registry.values();
+    }
+
+    /**
+     * Gets the registration.
+     *
+     * @param name the service name
+     * @return the registration or {@code null} if there is none
+     */
+    Registration getRegistration(final ServiceName name) {
+        return registry.get(name);
+    }
+
     /**
      * Gets a service, throwing an exception if it is not found.
      *
@@ -91,23 +126,208 @@ final class ServiceRegistryImpl implements ServiceRegistry {
         return (ServiceController<T>) registration.getController();
     }
 
+    /**
+     * Gets a service visible to {@code txn}, returning {@code null} if it is not found.
+     *
+     * @param txn the transaction
+     * @param serviceName the service name
+     * @return the service corresponding to {@code serviceName}, or {@code null} if it is not found
+     */
+    @SuppressWarnings("unchecked")
+    public <T> ServiceController<T> getService(final ReadTransaction txn, final ServiceName serviceName) {
+        if (txn == null) {
+            throw TXN.methodParameterIsNull("txn");
+        }
+        if (serviceName == null) {
+            throw TXN.methodParameterIsNull("serviceName");
+        }
+        final long version = getReadVersion(txn);
+        final Registration registration = registry.get(serviceName);
+        if (version < 0) {
+            if (registration != null) recordRead(txn, registration);
+            return getService(serviceName);
+        }
+        if (registration == null) {
+            return null;
+        }
+        final RegistrationVersion committed = registration.getVersion(version);
+        return committed != null ? (ServiceController<T>) committed.controller : null;
+    }
+
+    /**
+     * Gets names of services required by services installed in any registry, that are not installed in this
+     * registry as visible to {@code txn}. Updating transactions record reads of the missing registrations, read-only
+     * transactions compute the answer from their read version in time proportional to the installed services.
+     *
+     * @param txn the transaction
+     * @return the names of missing services
+     */
+    @Override
+    public Set<ServiceName> getMissingServices(final ReadTransaction txn) {
+        if (txn == null) {
+            throw TXN.methodParameterIsNull("txn");
+        }
+        final long version = getReadVersion(txn);
+        if (version < 0) {
+            final Set<ServiceName> missingServiceNames = new HashSet<>();
+            for (final Registration registration : missingServices.values()) {
+                recordRead(txn, registration);
+                missingServiceNames.add(registration.getServiceName());
+            }
+            return Collections.unmodifiableSet(missingServiceNames);
+        }
+        return Collections.unmodifiableSet(getBlockedServices(version, null).keySet());
+    }
+
+    /**
+     * Gets names of services blocked on missing service with given name, i.e. services requiring it, as visible to
+     * {@code txn}.
+     *
+     * @param txn the transaction
+     * @param missingServiceName the missing service name
+     * @return the names of blocked services, empty if service is not missing
+     */
+    @Override
+    public Set<ServiceName> getBlockedServices(final ReadTransaction txn, final ServiceName missingServiceName) {
+        if (txn == null) {
+            throw TXN.methodParameterIsNull("txn");
+        }
+        if (missingServiceName == null) {
+            throw TXN.methodParameterIsNull("missingServiceName");
+        }
+        final long version = getReadVersion(txn);
+        if (version < 0) {
+            final Registration registration = registry.get(missingServiceName);
+            if (registration == null) return Collections.emptySet();
+            recordRead(txn, registration);
+            return missingServices.containsKey(missingServiceName) ? Collections.unmodifiableSet(registration.getRequiringServices()) : Collections.<ServiceName>emptySet();
+        }
+        final Set<ServiceName> blockedServices = getBlockedServices(version, missingServiceName).get(missingServiceName);
+        return blockedServices != null ? Collections.unmodifiableSet(blockedServices) : Collections.<ServiceName>emptySet();
+    }
+
+    /**
+     * Gets names of services blocked on missing services of this registry, as committed at read version.
+     *
+     * @param version the read version
+     * @param missingServiceName the missing service name, or {@code null} for all missing services
+     * @return names of blocked services indexed by missing service names
+     */
+    private Map<ServiceName, Set<ServiceName>> getBlockedServices(final long version, final ServiceName missingServiceName) {
+        final Map<ServiceName, Set<ServiceName>> blockedServices = new HashMap<>();
+        for (final ServiceRegistryImpl registry : container.getRegistries()) {
+            for (final Registration registration : registry.getRegistrations()) {
+                final RegistrationVersion committed = registration.getVersion(version);
+                if (committed == null || committed.controller == null) continue;
+                final ServiceControllerImpl<?> dependent = committed.controller;
+                // aliases share the controller of primary registration
+                if (dependent.getPrimaryRegistration() != registration) continue;
+                for (final DependencyImpl<?> dependency : dependent.getDependencies()) {
+                    if (!dependency.isRequired()) continue;
+                    final Registration dependencyRegistration = dependency.getDependencyRegistration();
+                    if (dependencyRegistration.registry != this) continue;
+                    final ServiceName dependencyName = dependencyRegistration.getServiceName();
+                    if (missingServiceName != null && !missingServiceName.equals(dependencyName)) continue;
+                    final RegistrationVersion dependencyCommitted = dependencyRegistration.getVersion(version);
+                    if (dependencyCommitted != null && dependencyCommitted.controller != null) continue;
+                    Set<ServiceName> blocked = blockedServices.get(dependencyName);
+                    if (blocked == null) blockedServices.put(dependencyName, blocked = new HashSet<>());
+                    blocked.add(dependent.getServiceName());
+                }
+            }
+        }
+        return blockedServices;
+    }
+
+    void missingServiceAdded(final Registration registration) {
+        missingServices.put(registration.getServiceName(), registration);
+    }
+
+    void missingServiceRemoved(final Registration registration) {
+        missingServices.remove(registration.getServiceName());
+    }
+
+    /**
+     * Gets the registration, creating it if it doesn't exist. The registration is reserved, so that it cannot be
+     * reclaimed until {@link Registration#release()} is called.
+     *
+     * @param name the service name
+     * @return the reserved registration
+     */
     Registration getOrCreateRegistration(final ServiceName name) {
         synchronized (lock) {
             if (Bits.anyAreSet(state, REMOVED)) {
                 throw TXN.removedServiceRegistry();
             }
-            Registration registration = registry.get(name);
-            if (registration == null) {
-                registration = new Registration(name, this);
-                Registration appearing = registry.putIfAbsent(name, registration);
-                if (appearing != null) {
-                    registration = appearing;
+            while (true) {
+                Registration registration = registry.get(name);
+                if (registration == null) {
+                    registration = new Registration(name, this);
+                    Registration appearing = registry.putIfAbsent(name, registration);
+                    if (appearing != null) {
+                        registration = appearing;
+                    }
                 }
+                if (registration.reserve()) {
+                    return registration;
+                }
+                // reclaimed meanwhile
+                registry.remove(name, registration);
             }
-            return registration;
         }
     }
 
+    void registrationReclaimed(final Registration registration) {
+        registry.remove(registration.getServiceName(), registration);
+    }
+
+    int getRegistrationCount() {
+        return registry.size();
+    }
+
+    /**
+     * Links this registry with another one, updating transactions always modify linked registries together.
+     * Registries stay linked as long as any dependency between their services exists.
+     *
+     * @param other the registry having services this registry depends on or vice versa
+     */
+    void link(final ServiceRegistryImpl other) {
+        if (other == this) return;
+        addLink(other);
+        other.addLink(this);
+    }
+
+    /**
+     * Releases one link between this registry and another one, registries are unlinked once the last dependency
+     * between their services is removed.
+     *
+     * @param other the registry having services this registry depended on or vice versa
+     */
+    void unlink(final ServiceRegistryImpl other) {
+        if (other == this) return;
+        removeLink(other);
+        other.removeLink(this);
+    }
+
+    private void addLink(final ServiceRegistryImpl other) {
+        Integer count;
+        do {
+            count = linkedRegistries.get(other);
+        } while (count == null ? linkedRegistries.putIfAbsent(other, 1) != null : !linkedRegistries.replace(other, count, count + 1));
+    }
+
+    private void removeLink(final ServiceRegistryImpl other) {
+        Integer count;
+        do {
+            count = linkedRegistries.get(other);
+            if (count == null) return;
+        } while (count == 1 ? !linkedRegistries.remove(other, count) : !linkedRegistries.replace(other, count, count - 1));
+    }
+
+    Set<ServiceRegistryImpl> getLinkedRegistries() {
+        return linkedRegistries.keySet();
+    }
+
     TransactionController getTransactionController() {
         return container.getTransactionController();
     }
@@ -124,13 +344,16 @@ final class ServiceRegistryImpl implements ServiceRegistry {
     }
 
     @Override
-    public void remove(final UpdateTransaction txn) throws IllegalArgumentException, InvalidTransactionStateException {
+    public void remove(final UpdateTransaction txn) throws IllegalArgumentException, IllegalStateException, InvalidTransactionStateException {
         remove(txn, null);
     }
 
     @Override
-    public void remove(final UpdateTransaction txn, final Listener<ServiceRegistry> completionListener) throws IllegalArgumentException, InvalidTransactionStateException {
+    public void remove(final UpdateTransaction txn, final Listener<ServiceRegistry> completionListener) throws IllegalArgumentException, IllegalStateException, InvalidTransactionStateException {
         validateTransaction(txn, container.getTransactionController());
+        validateNotDryRun(txn);
+        validateScope(txn, this);
+        validateWrites(txn, registry.values());
         final TransactionHoldHandle txnHoldHandle = txn.acquireHoldHandle();
         try {
             setModified(txn);
@@ -145,7 +368,7 @@ final class ServiceRegistryImpl implements ServiceRegistry {
                         }
                         return; // don't call completion listener
                     }
-                    container.registryRemoved();
+                    container.registryRemoved(txn);
                 }
             }
             if (completionListener != null) safeCallListener(completionListener); // open call
@@ -157,6 +380,8 @@ final class ServiceRegistryImpl implements ServiceRegistry {
     @Override
     public void disable(final UpdateTransaction txn) throws IllegalArgumentException, InvalidTransactionStateException {
         validateTransaction(txn, container.getTransactionController());
+        validateScope(txn, this);
+        validateWrites(txn, registry.values());
         final TransactionHoldHandle txnHoldHandle = txn.acquireHoldHandle();
         try {
             setModified(txn);
@@ -182,6 +407,8 @@ final class ServiceRegistryImpl implements ServiceRegistry {
     @Override
     public void enable(final UpdateTransaction txn) throws IllegalArgumentException, InvalidTransactionStateException {
         validateTransaction(txn, container.getTransactionController());
+        validateScope(txn, this);
+        validateWrites(txn, registry.values());
         final TransactionHoldHandle txnHoldHandle = txn.acquireHoldHandle();
         try {
             setModified(txn);
@@ -209,12 +436,14 @@ final class ServiceRegistryImpl implements ServiceRegistry {
         @Override
         public void execute(final ExecuteContext<Void> context) {
             try {
+                final List<Registration> registrations;
                 synchronized (ServiceRegistryImpl.this.lock) {
-                    for (final Registration registration : registry.values()) {
-                        registration.remove(txn);
-                    }
+                    registrations = new ArrayList<>(registry.values());
                     registry.clear();
                 }
+                final RemovalWaves removalWaves = RemovalWaves.execute(txn, registrations);
+                final ShutdownDeadline deadline = ShutdownDeadline.get(txn);
+                if (deadline != null) deadline.removalStarted(removalWaves);
             } finally {
                 context.complete();
             }
@@ -235,7 +464,7 @@ final class ServiceRegistryImpl implements ServiceRegistry {
         }
     }
 
-    void serviceRemoved() {
+    void serviceRemoved(final Transaction txn) {
         NotificationEntry removeObservers;
         synchronized (lock) {
             if (--installedServices > 0) return;
@@ -246,7 +475,7 @@ final class ServiceRegistryImpl implements ServiceRegistry {
             safeCallListener(removeObservers.completionListener);
             removeObservers = removeObservers.next;
         }
-        container.registryRemoved();
+        container.registryRemoved(txn);
     }
 
     private static final class NotificationEntry {
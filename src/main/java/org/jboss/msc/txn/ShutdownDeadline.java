@@ -0,0 +1,164 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2014 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.msc.txn;
+
+import org.jboss.msc._private.MSCLogger;
+import org.jboss.msc.problem.Problem;
+import org.jboss.msc.problem.Problem.Severity;
+import org.jboss.msc.service.ServiceName;
+import org.jboss.msc.util.AttachmentKey;
+
+import java.util.Collections;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import static org.jboss.msc.txn.Helper.getAbstractTransaction;
+
+/**
+ * Deadline of container shutdown. Once it expires, services waiting for their dependents to be removed are
+ * dispatched right away and stops still in progress are abandoned, so that shutdown completes without waiting for
+ * them. Stops of expendable services are not waited for at all. The deadline belongs to the shutdown transaction, it is cancelled once the transaction
+ * is restarted or terminated.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opalka</a>
+ */
+final class ShutdownDeadline implements Runnable {
+
+    private static final AttachmentKey<ShutdownDeadline> DEADLINE = AttachmentKey.create();
+    private static final ScheduledThreadPoolExecutor timer;
+
+    static {
+        timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, "MSC shutdown deadline");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        timer.setRemoveOnCancelPolicy(true);
+        // don't keep idle thread around
+        timer.setKeepAliveTime(1, TimeUnit.SECONDS);
+        timer.allowCoreThreadTimeOut(true);
+    }
+
+    private final Transaction txn;
+    private final Set<Runnable> pendingStops = Collections.newSetFromMap(new ConcurrentHashMap<Runnable, Boolean>());
+    private final Queue<RemovalWaves> waves = new ConcurrentLinkedQueue<>();
+    private final ScheduledFuture<?> future;
+    private volatile boolean expired;
+
+    private ShutdownDeadline(final Transaction txn, final long timeout, final TimeUnit unit) {
+        this.txn = txn;
+        this.future = timer.schedule(this, timeout, unit);
+    }
+
+    /**
+     * Arms the deadline of shutdown running in given transaction.
+     *
+     * @param txn the shutdown transaction
+     * @param timeout the timeout
+     * @param unit the timeout unit
+     * @return the deadline
+     */
+    static ShutdownDeadline arm(final Transaction txn, final long timeout, final TimeUnit unit) {
+        final ShutdownDeadline deadline = new ShutdownDeadline(txn, timeout, unit);
+        txn.putAttachment(DEADLINE, deadline);
+        return deadline;
+    }
+
+    /**
+     * Returns the deadline of shutdown running in given transaction.
+     *
+     * @param txn the transaction
+     * @return the shutdown deadline or {@code null} if container is not being shut down with deadline in {@code txn}
+     */
+    static ShutdownDeadline get(final Transaction txn) {
+        return txn.getAttachment(DEADLINE);
+    }
+
+    /**
+     * Cancels the deadline of restarted or terminated transaction.
+     *
+     * @param txn the transaction
+     */
+    static void release(final Transaction txn) {
+        final ShutdownDeadline deadline = txn.removeAttachment(DEADLINE);
+        if (deadline != null) deadline.cancel();
+    }
+
+    /**
+     * Registers removal of registry services, remaining services are dispatched once deadline expires.
+     *
+     * @param removalWaves the registry services removal
+     */
+    void removalStarted(final RemovalWaves removalWaves) {
+        waves.add(removalWaves);
+        if (expired) removalWaves.dispatchRemaining();
+    }
+
+    /**
+     * Registers stop of service in progress, it is abandoned once deadline expires.
+     *
+     * @param abandon abandons the stop, must be idempotent
+     */
+    void stopStarted(final Runnable abandon) {
+        pendingStops.add(abandon);
+        if (expired) abandon.run();
+    }
+
+    void stopCompleted(final Runnable abandon) {
+        pendingStops.remove(abandon);
+    }
+
+    /**
+     * Reports service which stop was skipped or abandoned.
+     *
+     * @param serviceName the service name
+     */
+    void stopAbandoned(final ServiceName serviceName) {
+        getAbstractTransaction(txn).getReport().addProblem(new Problem(Severity.WARNING, MSCLogger.SERVICE.serviceStopAbandoned(serviceName)));
+    }
+
+    private void cancel() {
+        future.cancel(false);
+    }
+
+    @Override
+    public void run() {
+        expired = true;
+        try {
+            for (final RemovalWaves removalWaves : waves) {
+                removalWaves.dispatchRemaining();
+            }
+        } finally {
+            // abandoned stops keep transaction active until remaining services are dispatched
+            for (final Runnable abandon : pendingStops) {
+                abandon.run();
+            }
+        }
+    }
+
+}
@@ -24,12 +24,15 @@ import static org.jboss.msc.txn.ServiceControllerImpl.STATE_FAILED;
 
 import org.jboss.msc._private.MSCLogger;
 import org.jboss.msc.problem.Problem;
+import org.jboss.msc.problem.ProblemReport;
 import org.jboss.msc.service.Service;
 import org.jboss.msc.service.ServiceContext;
 import org.jboss.msc.service.ServiceController;
 import org.jboss.msc.service.StartContext;
 import org.jboss.msc.problem.Problem.Severity;
 
+import java.util.concurrent.TimeUnit;
+
 import static org.jboss.msc.txn.Helper.getAbstractTransaction;
 
 /**
@@ -38,7 +41,7 @@ import static org.jboss.msc.txn.Helper.getAbstractTransaction;
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
  * @author <a href="mailto:frainone@redhat.com">Flavia Rainone</a>
  */
-final class StartServiceTask<T> implements Executable<T> {
+final class StartServiceTask<T> implements Executable<T>, ServiceTask {
 
     /**
      * Creates a start service task.
@@ -47,6 +50,7 @@ final class StartServiceTask<T> implements Executable<T> {
      * @param transaction          the active transaction
      */
     static <T> void create(final ServiceControllerImpl<T> serviceController, final Transaction transaction) {
+        DryRunPlan.record(transaction, serviceController, DryRunPlan.Action.START);
         // start service
         final TaskFactory taskFactory = getAbstractTransaction(transaction).getTaskFactory();
         taskFactory.newTask(new StartServiceTask<>(serviceController, (UpdateTransaction)transaction)).release();
@@ -61,129 +65,188 @@ final class StartServiceTask<T> implements Executable<T> {
         this.transaction = transaction;
     }
 
+    @Override
+    public ServiceControllerImpl<?> getServiceController() {
+        return serviceController;
+    }
+
     /**
      * Perform the task.
      *
      * @param context context
      */
     @Override
+    @SuppressWarnings("unchecked")
     public void execute(final ExecuteContext<T> context) {
+        final DryRunPlan plan = DryRunPlan.get(transaction);
+        if (plan != null) {
+            // simulated start, service keeps running or stays down
+            serviceController.setServiceUp(null, transaction);
+            serviceController.notifyServiceUp(transaction);
+            context.complete(serviceController.getValue());
+            return;
+        }
+        CriticalPathAnalyzer.serviceStarting(serviceController, transaction);
+        BootProfile.serviceStarting(serviceController, transaction);
         final Service<T> service = serviceController.getService();
         if (service == null ){
+            CriticalPathAnalyzer.serviceStarted(serviceController, transaction, false);
+            BootProfile.serviceStarted(serviceController, transaction, false);
             serviceController.setServiceUp(null, transaction);
             context.complete(null);
             return;
         }
-        service.start(new StartContext<T>() {
-            @Override
-            public void complete(final T result) {
+        serviceController.setStartTransaction(transaction);
+        final StartContextImpl startContext = new StartContextImpl(context);
+        LifecycleWatchdog.watch(startContext, transaction);
+        service.start(startContext);
+    }
+
+    private final class StartContextImpl extends LifecycleWatchdog.Entry implements StartContext<T> {
+
+        private final ExecuteContext<T> context;
+        // start may complete in another thread, tasks it creates belong to the grouped update of this task
+        private final ProblemReport slice = GroupCommit.currentSlice();
+
+        private StartContextImpl(final ExecuteContext<T> context) {
+            this.context = context;
+        }
+
+        @Override
+        public void complete(final T result) {
+            // start may have been failed by watchdog meanwhile
+            if (!markDone()) return;
+            final ProblemReport previousSlice = GroupCommit.setCurrentSlice(slice);
+            try {
+                serviceController.setStartTransaction(null);
+                CriticalPathAnalyzer.serviceStarted(serviceController, transaction, false);
+                BootProfile.serviceStarted(serviceController, transaction, false);
                 serviceController.setServiceUp(result, transaction);
                 serviceController.notifyServiceUp(transaction);
-                context.complete(result);
+            } finally {
+                GroupCommit.setCurrentSlice(previousSlice);
             }
+            context.complete(result);
+        }
 
-            @Override
-            public void complete() {
-                serviceController.setServiceUp(null, transaction);
-                serviceController.notifyServiceUp(transaction);
-                context.complete();
-            }
+        @Override
+        public void complete() {
+            complete(null);
+        }
 
-            @Override
-            public void fail() {
+        @Override
+        public void fail() {
+            if (!markDone()) return;
+            failed();
+        }
+
+        private void failed() {
+            final ProblemReport previousSlice = GroupCommit.setCurrentSlice(slice);
+            try {
+                serviceController.setStartTransaction(null);
+                CriticalPathAnalyzer.serviceStarted(serviceController, transaction, true);
+                BootProfile.serviceStarted(serviceController, transaction, true);
                 serviceController.setServiceFailed(transaction);
-                context.complete();
+            } finally {
+                GroupCommit.setCurrentSlice(previousSlice);
             }
+            context.complete();
+        }
 
-            @Override
-            public void addProblem(final Problem reason) {
-                if (reason == null) {
-                    throw MSCLogger.SERVICE.methodParameterIsNull("reason");
-                }
-                context.addProblem(reason);
-            }
+        @Override
+        void overdue(final long timeoutNanos, final boolean failAfterTimeout) {
+            final String message = MSCLogger.SERVICE.serviceStartOverdue(serviceController.getServiceName(), TimeUnit.NANOSECONDS.toMillis(timeoutNanos));
+            getAbstractTransaction(transaction).getReport().addProblem(new Problem(Severity.WARNING, message));
+            if (failAfterTimeout && markTerminated()) failed();
+        }
 
-            @Override
-            public void addProblem(final Severity severity, final String message) {
-                if (severity == null) {
-                    throw MSCLogger.SERVICE.methodParameterIsNull("severity");
-                }
-                if (message == null) {
-                    throw MSCLogger.SERVICE.methodParameterIsNull("message");
-                }
-                context.addProblem(severity, message);
+        @Override
+        public void addProblem(final Problem reason) {
+            if (reason == null) {
+                throw MSCLogger.SERVICE.methodParameterIsNull("reason");
             }
+            context.addProblem(reason);
+        }
 
-            @Override
-            public void addProblem(final Severity severity, final String message, final Throwable cause) {
-                if (severity == null) {
-                    throw MSCLogger.SERVICE.methodParameterIsNull("severity");
-                }
-                if (message == null) {
-                    throw MSCLogger.SERVICE.methodParameterIsNull("message");
-                }
-                if (cause == null) {
-                    throw MSCLogger.SERVICE.methodParameterIsNull("cause");
-                }
-                context.addProblem(severity, message, cause);
+        @Override
+        public void addProblem(final Severity severity, final String message) {
+            if (severity == null) {
+                throw MSCLogger.SERVICE.methodParameterIsNull("severity");
             }
-
-            @Override
-            public void addProblem(final String message, final Throwable cause) {
-                if (message == null) {
-                    throw MSCLogger.SERVICE.methodParameterIsNull("message");
-                }
-                if (cause == null) {
-                    throw MSCLogger.SERVICE.methodParameterIsNull("cause");
-                }
-                context.addProblem(message, cause);
+            if (message == null) {
+                throw MSCLogger.SERVICE.methodParameterIsNull("message");
             }
+            context.addProblem(severity, message);
+        }
 
-            @Override
-            public void addProblem(final String message) {
-                if (message == null) {
-                    throw MSCLogger.SERVICE.methodParameterIsNull("message");
-                }
-                context.addProblem(message);
+        @Override
+        public void addProblem(final Severity severity, final String message, final Throwable cause) {
+            if (severity == null) {
+                throw MSCLogger.SERVICE.methodParameterIsNull("severity");
             }
-
-            @Override
-            public void addProblem(final Throwable cause) {
-                if (cause == null) {
-                    throw MSCLogger.SERVICE.methodParameterIsNull("cause");
-                }
-                context.addProblem(cause);
+            if (message == null) {
+                throw MSCLogger.SERVICE.methodParameterIsNull("message");
+            }
+            if (cause == null) {
+                throw MSCLogger.SERVICE.methodParameterIsNull("cause");
             }
+            context.addProblem(severity, message, cause);
+        }
 
-            @Override
-            public ServiceContext getChildContext() {
-                final byte state = serviceController.getState();
-                if (state == STATE_UP || state == STATE_FAILED) {
-                    throw MSCLogger.SERVICE.lifecycleContextNotValid();
-                }
-                if (childContext == null) {
-                    childContext = new ParentServiceContext(serviceController.getPrimaryRegistration(), transaction);
-                }
-                return childContext;
+        @Override
+        public void addProblem(final String message, final Throwable cause) {
+            if (message == null) {
+                throw MSCLogger.SERVICE.methodParameterIsNull("message");
             }
+            if (cause == null) {
+                throw MSCLogger.SERVICE.methodParameterIsNull("cause");
+            }
+            context.addProblem(message, cause);
+        }
 
-            public long getElapsedTime() {
-                return System.nanoTime() - serviceController.lifecycleTime;
+        @Override
+        public void addProblem(final String message) {
+            if (message == null) {
+                throw MSCLogger.SERVICE.methodParameterIsNull("message");
             }
+            context.addProblem(message);
+        }
 
-            public ServiceController<?> getController() {
-                return serviceController;
+        @Override
+        public void addProblem(final Throwable cause) {
+            if (cause == null) {
+                throw MSCLogger.SERVICE.methodParameterIsNull("cause");
             }
+            context.addProblem(cause);
+        }
 
-            public void execute(final Runnable command) {
-                final ClassLoader contextClassLoader = setTCCL(command.getClass().getClassLoader());
-                try {
-                    command.run();
-                } finally {
-                    setTCCL(contextClassLoader);
-                }
+        @Override
+        public ServiceContext getChildContext() {
+            final byte state = serviceController.getState();
+            if (state == STATE_UP || state == STATE_FAILED) {
+                throw MSCLogger.SERVICE.lifecycleContextNotValid();
+            }
+            if (childContext == null) {
+                childContext = new ParentServiceContext(serviceController.getPrimaryRegistration(), transaction);
             }
+            return childContext;
+        }
+
+        public long getElapsedTime() {
+            return System.nanoTime() - serviceController.lifecycleTime;
+        }
+
+        public ServiceController<?> getController() {
+            return serviceController;
+        }
 
-        });
+        public void execute(final Runnable command) {
+            final ClassLoader contextClassLoader = setTCCL(command.getClass().getClassLoader());
+            try {
+                command.run();
+            } finally {
+                setTCCL(contextClassLoader);
+            }
+        }
     }
 }
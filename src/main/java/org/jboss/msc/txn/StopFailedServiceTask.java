@@ -26,7 +26,7 @@ import static org.jboss.msc.txn.Helper.getAbstractTransaction;
  * @author <a href="mailto:frainone@redhat.com">Flavia Rainone</a>
  *
  */
-final class StopFailedServiceTask implements Executable<Void> {
+final class StopFailedServiceTask implements Executable<Void>, ServiceTask {
 
     /**
      * Creates stop failed service task.
@@ -35,6 +35,7 @@ final class StopFailedServiceTask implements Executable<Void> {
      * @param transaction     the transaction
      */
     static <T> void create(ServiceControllerImpl<T> service, Transaction transaction) {
+        DryRunPlan.record(transaction, service, DryRunPlan.Action.STOP);
         final TaskFactory taskFactory = getAbstractTransaction(transaction).getTaskFactory();
         taskFactory.newTask(new StopFailedServiceTask(service, transaction)).release();
     }
@@ -47,6 +48,11 @@ final class StopFailedServiceTask implements Executable<Void> {
         this.transaction = transaction;
     }
 
+    @Override
+    public ServiceControllerImpl<?> getServiceController() {
+        return serviceController;
+    }
+
     @Override
     public void execute(ExecuteContext<Void> context) {
         try {
@@ -22,11 +22,14 @@ import static org.jboss.msc.txn.Helper.setTCCL;
 
 import org.jboss.msc._private.MSCLogger;
 import org.jboss.msc.problem.Problem;
+import org.jboss.msc.problem.ProblemReport;
 import org.jboss.msc.service.Service;
 import org.jboss.msc.service.ServiceController;
 import org.jboss.msc.service.StopContext;
 import org.jboss.msc.problem.Problem.Severity;
 
+import java.util.concurrent.TimeUnit;
+
 import static org.jboss.msc.txn.Helper.getAbstractTransaction;
 
 /**
@@ -35,7 +38,7 @@ import static org.jboss.msc.txn.Helper.getAbstractTransaction;
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
  * @author <a href="mailto:frainone@redhat.com">Flavia Rainone</a>
  */
-final class StopServiceTask<T> implements Executable<Void> {
+final class StopServiceTask<T> implements Executable<Void>, ServiceTask {
 
     /**
      * Creates a stop service task.
@@ -44,6 +47,7 @@ final class StopServiceTask<T> implements Executable<Void> {
      * @param transaction        the active transaction
      */
     static <T> void create(ServiceControllerImpl<T> serviceController, Transaction transaction) {
+        DryRunPlan.record(transaction, serviceController, DryRunPlan.Action.STOP);
         final TaskFactory taskFactory = getAbstractTransaction(transaction).getTaskFactory();
         taskFactory.newTask(new StopServiceTask<>(serviceController, transaction)).release();
     }
@@ -56,7 +60,20 @@ final class StopServiceTask<T> implements Executable<Void> {
         this.transaction = transaction;
     }
 
+    @Override
+    public ServiceControllerImpl<?> getServiceController() {
+        return serviceController;
+    }
+
     public void execute(final ExecuteContext<Void> context) {
+        final DryRunPlan plan = DryRunPlan.get(transaction);
+        if (plan != null) {
+            // simulated stop, service keeps running
+            serviceController.setServiceDown(transaction);
+            serviceController.notifyServiceDown(transaction);
+            context.complete();
+            return;
+        }
         final Service<T> service = serviceController.getService();
         if (service == null) {
             serviceController.setServiceDown(transaction);
@@ -64,92 +81,157 @@ final class StopServiceTask<T> implements Executable<Void> {
             context.complete();
             return;
         }
-        service.stop(new StopContext() {
-            @Override
-            public void complete() {
+        // every stop in progress is abandoned at shutdown deadline
+        final ShutdownDeadline deadline = ShutdownDeadline.get(transaction);
+        final StopContextImpl stopContext = new StopContextImpl(context, deadline);
+        LifecycleWatchdog.watch(stopContext, transaction);
+        service.stop(stopContext);
+        if (deadline == null) return;
+        if (serviceController.expendable) {
+            // stop of expendable service is never waited for at shutdown with deadline
+            stopContext.kill();
+        } else {
+            // stop is abandoned right away if deadline has passed already
+            deadline.stopStarted(stopContext);
+        }
+    }
+
+    private final class StopContextImpl extends LifecycleWatchdog.Entry implements StopContext, Runnable {
+
+        private final ExecuteContext<Void> context;
+        private final ShutdownDeadline deadline;
+        // stop may complete in another thread, tasks it creates belong to the grouped update of this task
+        private final ProblemReport slice = GroupCommit.currentSlice();
+
+        private StopContextImpl(final ExecuteContext<Void> context, final ShutdownDeadline deadline) {
+            this.context = context;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public void complete() {
+            // stop may have been abandoned or completed by watchdog meanwhile
+            if (!markDone()) return;
+            if (deadline != null) deadline.stopCompleted(this);
+            stopped();
+        }
+
+        /**
+         * Abandons the stop at shutdown deadline.
+         */
+        @Override
+        public void run() {
+            if (!markTerminated()) return;
+            deadline.stopCompleted(this);
+            deadline.stopAbandoned(serviceController.getServiceName());
+            stopped();
+        }
+
+        /**
+         * Stops waiting for stop of expendable service still in progress.
+         */
+        private void kill() {
+            if (!markTerminated()) return;
+            stopped();
+        }
+
+        private void stopped() {
+            final ProblemReport previousSlice = GroupCommit.setCurrentSlice(slice);
+            try {
                 serviceController.setServiceDown(transaction);
                 serviceController.notifyServiceDown(transaction);
-                context.complete();
+            } finally {
+                GroupCommit.setCurrentSlice(previousSlice);
             }
+            context.complete();
+        }
 
-            @Override
-            public void addProblem(Problem reason) {
-                if (reason == null) {
-                    throw MSCLogger.SERVICE.methodParameterIsNull("reason");
-                }
-                context.addProblem(reason);
+        @Override
+        void overdue(final long timeoutNanos, final boolean failAfterTimeout) {
+            final String message = MSCLogger.SERVICE.serviceStopOverdue(serviceController.getServiceName(), TimeUnit.NANOSECONDS.toMillis(timeoutNanos));
+            getAbstractTransaction(transaction).getReport().addProblem(new Problem(Severity.WARNING, message));
+            if (failAfterTimeout && markTerminated()) {
+                if (deadline != null) deadline.stopCompleted(this);
+                stopped();
             }
+        }
 
-            @Override
-            public void addProblem(Severity severity, String message) {
-                if (severity == null) {
-                    throw MSCLogger.SERVICE.methodParameterIsNull("severity");
-                }
-                if (message == null) {
-                    throw MSCLogger.SERVICE.methodParameterIsNull("message");
-                }
-                context.addProblem(severity, message);
+        @Override
+        public void addProblem(Problem reason) {
+            if (reason == null) {
+                throw MSCLogger.SERVICE.methodParameterIsNull("reason");
             }
+            context.addProblem(reason);
+        }
 
-            @Override
-            public void addProblem(Severity severity, String message, Throwable cause) {
-                if (severity == null) {
-                    throw MSCLogger.SERVICE.methodParameterIsNull("severity");
-                }
-                if (message == null) {
-                    throw MSCLogger.SERVICE.methodParameterIsNull("message");
-                }
-                if (cause == null) {
-                    throw MSCLogger.SERVICE.methodParameterIsNull("cause");
-                }
-                context.addProblem(severity, message, cause);
+        @Override
+        public void addProblem(Severity severity, String message) {
+            if (severity == null) {
+                throw MSCLogger.SERVICE.methodParameterIsNull("severity");
             }
-
-            @Override
-            public void addProblem(String message, Throwable cause) {
-                if (message == null) {
-                    throw MSCLogger.SERVICE.methodParameterIsNull("message");
-                }
-                if (cause == null) {
-                    throw MSCLogger.SERVICE.methodParameterIsNull("cause");
-                }
-                context.addProblem(message, cause);
+            if (message == null) {
+                throw MSCLogger.SERVICE.methodParameterIsNull("message");
             }
+            context.addProblem(severity, message);
+        }
 
-            @Override
-            public void addProblem(String message) {
-                if (message == null) {
-                    throw MSCLogger.SERVICE.methodParameterIsNull("message");
-                }
-                context.addProblem(message);
+        @Override
+        public void addProblem(Severity severity, String message, Throwable cause) {
+            if (severity == null) {
+                throw MSCLogger.SERVICE.methodParameterIsNull("severity");
             }
-
-            @Override
-            public void addProblem(Throwable cause) {
-                if (cause == null) {
-                    throw MSCLogger.SERVICE.methodParameterIsNull("cause");
-                }
-                context.addProblem(cause);
+            if (message == null) {
+                throw MSCLogger.SERVICE.methodParameterIsNull("message");
             }
+            if (cause == null) {
+                throw MSCLogger.SERVICE.methodParameterIsNull("cause");
+            }
+            context.addProblem(severity, message, cause);
+        }
 
-            public long getElapsedTime() {
-                return System.nanoTime() - serviceController.lifecycleTime;
+        @Override
+        public void addProblem(String message, Throwable cause) {
+            if (message == null) {
+                throw MSCLogger.SERVICE.methodParameterIsNull("message");
             }
+            if (cause == null) {
+                throw MSCLogger.SERVICE.methodParameterIsNull("cause");
+            }
+            context.addProblem(message, cause);
+        }
 
-            public ServiceController<?> getController() {
-                return serviceController;
+        @Override
+        public void addProblem(String message) {
+            if (message == null) {
+                throw MSCLogger.SERVICE.methodParameterIsNull("message");
             }
+            context.addProblem(message);
+        }
 
-            public void execute(final Runnable command) {
-                final ClassLoader contextClassLoader = setTCCL(command.getClass().getClassLoader());
-                try {
-                    command.run();
-                } finally {
-                    setTCCL(contextClassLoader);
-                }
+        @Override
+        public void addProblem(Throwable cause) {
+            if (cause == null) {
+                throw MSCLogger.SERVICE.methodParameterIsNull("cause");
             }
+            context.addProblem(cause);
+        }
+
+        public long getElapsedTime() {
+            return System.nanoTime() - serviceController.lifecycleTime;
+        }
+
+        public ServiceController<?> getController() {
+            return serviceController;
+        }
 
-        });
+        public void execute(final Runnable command) {
+            final ClassLoader contextClassLoader = setTCCL(command.getClass().getClassLoader());
+            try {
+                command.run();
+            } finally {
+                setTCCL(contextClassLoader);
+            }
+        }
     }
 
 }
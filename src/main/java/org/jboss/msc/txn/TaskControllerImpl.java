@@ -40,10 +40,17 @@ import static java.lang.Thread.holdsLock;
 final class TaskControllerImpl<T> implements TaskController<T> {
 
     private static final Object NO_RESULT = new Object();
+    // transaction of the task being executed by current thread
+    private static final ThreadLocal<AbstractTransaction> currentTransaction = new ThreadLocal<>();
 
     private final AbstractTransaction txn;
     private final Executable<T> executable;
+    // problem report slice of grouped update that created this task
+    private final ProblemReport slice;
     private byte state;
+    private volatile Object flightRecorderEvent;
+    // set only if transaction tracks outstanding tasks
+    private OutstandingTasks.OutstandingTask outstandingTask;
 
     @SuppressWarnings("unchecked")
     private volatile T result = (T) NO_RESULT;
@@ -59,6 +66,7 @@ final class TaskControllerImpl<T> implements TaskController<T> {
     TaskControllerImpl(final AbstractTransaction txn, final Executable<T> executable) {
         this.txn = txn;
         this.executable = executable;
+        this.slice = GroupCommit.currentSlice();
     }
 
     @Override
@@ -90,7 +98,7 @@ final class TaskControllerImpl<T> implements TaskController<T> {
 
     private void executeTasks(final int state) {
         if (Bits.allAreSet(state, FLAG_DO_EXECUTE)) {
-            txn.safeExecute(new Runnable() { public void run() { execute(); }});
+            BootProfile.execute(txn, executable, new Runnable() { public void run() { execute(); }});
         }
         if (Bits.allAreSet(state, FLAG_SEND_TASK_EXECUTED)) {
             ThreadLocalExecutor.addTask(new Runnable() { public void run() { txn.taskExecuted(); }});
@@ -119,12 +127,21 @@ final class TaskControllerImpl<T> implements TaskController<T> {
             state = transition(state);
             this.state = (byte) (state & STATE_MASK);
         }
+        FlightRecorderEvents.taskCompleted(flightRecorderEvent);
+        if (outstandingTask != null) outstandingTask.completed();
         executeTasks(state);
     }
 
     void execute() {
         final ProblemReport problemReport = getTransaction().getReport();
         final Executable<T> exec = executable;
+        final Object event = FlightRecorderEvents.taskStarted(txn, exec);
+        if (event != null) flightRecorderEvent = event;
+        if (outstandingTask != null) outstandingTask.executionStarted();
+        // tasks created by this task belong to the same grouped update
+        final ProblemReport previousSlice = GroupCommit.setCurrentSlice(slice);
+        final AbstractTransaction previousTxn = currentTransaction.get();
+        currentTransaction.set(txn);
         if (exec != null) try {
             exec.execute(new ExecuteContext<T>() {
                 @Override
@@ -140,6 +157,7 @@ final class TaskControllerImpl<T> implements TaskController<T> {
                 @Override
                 public void addProblem(final Problem reason) {
                     problemReport.addProblem(reason);
+                    if (slice != null) slice.addProblem(reason);
                 }
 
                 @Override
@@ -169,13 +187,28 @@ final class TaskControllerImpl<T> implements TaskController<T> {
             });
         } catch (Throwable t) {
             MSCLogger.TASK.taskExecutionFailed(t, exec);
-            problemReport.addProblem(new Problem(Problem.Severity.CRITICAL, t));
+            final Problem problem = new Problem(Problem.Severity.CRITICAL, t);
+            problemReport.addProblem(problem);
+            if (slice != null) slice.addProblem(problem);
+        } finally {
+            currentTransaction.set(previousTxn);
+            GroupCommit.setCurrentSlice(previousSlice);
         }
     }
 
+    /**
+     * Returns the transaction of the task being executed by current thread.
+     *
+     * @return the transaction, or {@code null} if current thread is not executing a task
+     */
+    static AbstractTransaction currentTransaction() {
+        return currentTransaction.get();
+    }
+
     void install() {
         assert ! holdsLock(this);
         txn.taskAdded();
+        outstandingTask = OutstandingTasks.taskAdded(txn, executable);
         int state;
         synchronized (this) {
             state = transition(this.state);
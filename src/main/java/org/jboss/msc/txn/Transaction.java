@@ -32,11 +32,12 @@ import org.jboss.msc.util.Attachable;
  * </UL>
  *
  * Every <B>Transaction</B> is associated with <B>TransactionController</B> that created it.
- * At every point of time either single <B>UpdateTransaction</B> is running
- * or multiple <B>ReadTransaction</B>s are executing concurrently. This restriction
+ * At every point of time at most single <B>UpdateTransaction</B> modifying given <B>ServiceRegistry</B> is running,
+ * possibly concurrently with multiple <B>ReadTransaction</B>s. This restriction
  * applies only to transactions created by the same <B>TransactionController</B>.
  * In other words it is possible to have multiple <B>UpdateTransaction</B>s running at the same time,
- * but in that case they have been created by distinct <B>TransactionController</B>s.
+ * but in that case they either modify disjoint sets of registries or have been created by distinct
+ * <B>TransactionController</B>s.
  *
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
  * @author <a href="mailto:ropalka@redhat.com">Richard Opalka</a>
@@ -20,19 +20,29 @@ package org.jboss.msc.txn;
 
 import org.jboss.msc._private.MSCLogger;
 import org.jboss.msc._private.Version;
+import org.jboss.msc.problem.ProblemReport;
 import org.jboss.msc.service.ServiceContainer;
 import org.jboss.msc.service.ServiceContext;
+import org.jboss.msc.service.ServiceRegistry;
 import org.jboss.msc.util.Listener;
 
 import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Deque;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
 
 import static org.jboss.msc._private.MSCLogger.TXN;
 import static org.jboss.msc.txn.Helper.getAbstractTransaction;
 import static org.jboss.msc.txn.Helper.setModified;
 import static org.jboss.msc.txn.Helper.validateReadTransaction;
+import static org.jboss.msc.txn.Helper.validateRegistry;
 import static org.jboss.msc.txn.Helper.validateUpdateTransaction;
 
 /**
@@ -50,12 +60,20 @@ public final class TransactionController {
 
     // TXN administration lock
     private final Object lock = new Object();
-    // whether currently running TXNs are read-only or updating. There can be only single updating TXN at a time.
-    private boolean updateTxnRunning;
-    // count of running TXNs in this round
-    private int runningTxns;
-    // TXNs that are pending execution, each item is either single updating TXN or set of reading TXNs
+    // running updating TXNs. Updating TXNs can run concurrently only if their scopes are disjoint.
+    private final List<BasicReadTransaction> runningUpdateTxns = new ArrayList<>();
+    // updating TXNs that are pending execution, read-only TXNs never wait
     private final Deque<PendingTxnEntry> pendingTxns = new ArrayDeque<>();
+    // serializes publishing of committed versions
+    private final Object publishLock = new Object();
+    // merges grouped updates into shared updating TXNs
+    private final GroupCommit groupCommit = new GroupCommit(this);
+    // the version committed by the last updating TXN
+    private long committedVersion;
+    // versions read by running read-only TXNs, mapped to the count of TXNs reading them
+    private final TreeMap<Long, Integer> readVersions = new TreeMap<>();
+    // orphaned registrations waiting for read-only TXNs that may see their controllers, ordered by version
+    private final Deque<Registration> orphanedRegistrations = new ArrayDeque<>();
 
     static {
         MSCLogger.ROOT.greeting(Version.getVersionString());
@@ -112,6 +130,120 @@ public final class TransactionController {
         registerUpdateTransaction(new BasicUpdateTransaction(new BasicReadTransaction(this, executor)), listener);
     }
 
+    /**
+     * Creates a new updating transaction asynchronously, that is allowed to modify only services of given
+     * <B>registries</B>. Updating transactions with disjoint scopes run concurrently. The scope is widened implicitly
+     * by registries that have dependencies between their services, they are always updated together.
+     * Registries created by the transaction are added to its scope.
+     * The completion <B>listener</B> is called when updating transaction is created.
+     *
+     * @param executor the executor to use to run tasks
+     * @param registries registries the transaction is going to modify
+     * @param listener transaction creation completion listener
+     * @throws IllegalArgumentException if any parameter is {@code null} or if <B>registries</B> were not created by
+     * this controller
+     */
+    public void newUpdateTransaction(final Executor executor, final Collection<? extends ServiceRegistry> registries, final Listener<? super UpdateTransaction> listener) throws IllegalArgumentException {
+        if (executor == null) {
+            throw TXN.methodParameterIsNull("executor");
+        }
+        if (registries == null) {
+            throw TXN.methodParameterIsNull("registries");
+        }
+        if (listener == null) {
+            throw TXN.methodParameterIsNull("listener");
+        }
+        final Set<ServiceRegistryImpl> declaredScope = new IdentityHashSet<>();
+        for (final ServiceRegistry registry : registries) {
+            validateRegistry(registry);
+            if (((ServiceRegistryImpl) registry).getTransactionController() != this) {
+                throw TXN.methodParameterIsInvalid("registries");
+            }
+            declaredScope.add((ServiceRegistryImpl) registry);
+        }
+        final BasicReadTransaction delegate = new BasicReadTransaction(this, executor);
+        delegate.declaredScope = declaredScope;
+        registerUpdateTransaction(new BasicUpdateTransaction(delegate), listener);
+    }
+
+    /**
+     * Creates a new optimistic updating transaction asynchronously. Optimistic transactions run alongside each other,
+     * they record services they read and modify instead. Modifying a service claims it and the services the
+     * modification cascades to, attempt to modify service claimed by another running optimistic transaction fails with
+     * {@link IllegalStateException} before anything is modified. When transaction is prepared, modifications
+     * of services it read or modified committed by other transactions since it started are reported as errors.
+     * Such transaction cannot be committed, it must be restarted via {@link #restart(UpdateTransaction, Listener)}
+     * and the work either retried or abandoned in restarted transaction.
+     * The completion <B>listener</B> is called when updating transaction is created.
+     *
+     * @param executor the executor to use to run tasks
+     * @param listener transaction creation completion listener
+     * @throws IllegalArgumentException if any parameter is {@code null}
+     */
+    public void newOptimisticUpdateTransaction(final Executor executor, final Listener<? super UpdateTransaction> listener) throws IllegalArgumentException {
+        if (executor == null) {
+            throw TXN.methodParameterIsNull("executor");
+        }
+        if (listener == null) {
+            throw TXN.methodParameterIsNull("listener");
+        }
+        final BasicReadTransaction delegate = new BasicReadTransaction(this, executor);
+        delegate.optimistic = true;
+        registerUpdateTransaction(new BasicUpdateTransaction(delegate), listener);
+    }
+
+    /**
+     * Creates a new dry run updating transaction asynchronously. Dry run transaction performs every service state
+     * transition its modifications cause, but it neither starts nor stops services, the transitions are recorded
+     * in its {@link DryRunPlan} instead. Transitions are simulated on states seen only by the dry run transaction,
+     * the running system keeps the states and values of its services. Removing or replacing services is refused.
+     * Dry run transaction cannot be committed, once prepared it must be rolled back via
+     * {@link #rollback(UpdateTransaction, Listener)}.
+     * The completion <B>listener</B> is called when updating transaction is created.
+     *
+     * @param executor the executor to use to run tasks
+     * @param listener transaction creation completion listener
+     * @throws IllegalArgumentException if any parameter is {@code null}
+     */
+    public void newDryRunUpdateTransaction(final Executor executor, final Listener<? super UpdateTransaction> listener) throws IllegalArgumentException {
+        if (executor == null) {
+            throw TXN.methodParameterIsNull("executor");
+        }
+        if (listener == null) {
+            throw TXN.methodParameterIsNull("listener");
+        }
+        final BasicReadTransaction delegate = new BasicReadTransaction(this, executor);
+        DryRunPlan.track(delegate);
+        registerUpdateTransaction(new BasicUpdateTransaction(delegate), listener);
+    }
+
+    /**
+     * Runs <B>work</B> in an updating transaction asynchronously. Work submitted with the same <B>executor</B> while
+     * the previous updating transaction is still waiting for admission is merged into it, so bursts of small updates
+     * share single prepare and commit. The <B>work</B> listener must modify the transaction synchronously and must
+     * neither prepare nor commit it, transaction is prepared and committed once all merged work is done.
+     * The completion <B>listener</B> is called with problems related to the <B>work</B> once its changes were
+     * committed. If the merged transaction cannot be committed, it is rolled back: work reporting problems that
+     * prevent the commit completes without committing its changes and the other work is run again.
+     *
+     * @param executor the executor to use to run tasks
+     * @param work the work modifying the transaction
+     * @param listener work completion listener
+     * @throws IllegalArgumentException if any parameter is {@code null}
+     */
+    public void submitUpdate(final Executor executor, final Listener<? super UpdateTransaction> work, final Listener<? super ProblemReport> listener) throws IllegalArgumentException {
+        if (executor == null) {
+            throw TXN.methodParameterIsNull("executor");
+        }
+        if (work == null) {
+            throw TXN.methodParameterIsNull("work");
+        }
+        if (listener == null) {
+            throw TXN.methodParameterIsNull("listener");
+        }
+        groupCommit.submit(executor, work, listener);
+    }
+
     /**
      * Downgrades updating <B>updateTxn</B> transaction to read-only transaction.
      * This operation succeeds iff <B>updateTxn</B> didn't modify anything in MSC runtime.
@@ -164,23 +296,16 @@ public final class TransactionController {
             basicUpdateTxn.invalidate();
             basicReadTxn.setWrappingTransaction(basicReadTxn);
         }
-        Deque<PendingTxnEntry> notifications = null;
+        final List<PendingTxnEntry> notifications;
         synchronized (lock) {
-            assert runningTxns == 1;
-            updateTxnRunning = false;
-            if (pendingTxns.size() > 0) {
-                pendingTxns.addFirst(new PendingTxnEntry(basicReadTxn, (Listener<Object>)listener));
-                runningTxns--;
-                notifications = getNotifications();
-            }
-        }
-        if (notifications != null) {
-            for (final PendingTxnEntry notification : notifications) {
-                safeCallListener(notification.listener, notification.txn);
-            }
-        } else {
-            safeCallListener((Listener<Object>)listener, basicReadTxn);
+            assert basicReadTxn.updating;
+            OptimisticFootprint.release(basicReadTxn);
+            release(basicReadTxn);
+            pinReadVersion(basicReadTxn);
+            notifications = admitPendingTxns();
         }
+        safeCallListener((Listener<Object>)listener, basicReadTxn);
+        notifyAdmitted(notifications);
         return true;
     }
 
@@ -227,24 +352,19 @@ public final class TransactionController {
             safeCallListener((Listener<Object>)listener, txn);
             return true;
         }
+        final BasicUpdateTransaction upgradedTxn;
         synchronized (lock) {
-            assert runningTxns > 0;
             if (!pendingTxns.isEmpty()) {
                 // cannot be upgraded because there are some pending updating txns registered already
                 return false;
             }
-            if (runningTxns == 1) {
-                updateTxnRunning = true;
-            } else {
-                final BasicUpdateTransaction upgradedTxn = new BasicUpdateTransaction(basicReadTxn);
-                basicReadTxn.setWrappingTransaction(upgradedTxn);
+            upgradedTxn = new BasicUpdateTransaction(basicReadTxn);
+            basicReadTxn.setWrappingTransaction(upgradedTxn);
+            if (!admit(basicReadTxn, Collections.<BasicReadTransaction>emptyList())) {
                 pendingTxns.add(new PendingTxnEntry(upgradedTxn, (Listener<Object>)listener));
-                runningTxns--;
                 return true;
             }
         }
-        final BasicUpdateTransaction upgradedTxn = new BasicUpdateTransaction(basicReadTxn);
-        basicReadTxn.setWrappingTransaction(upgradedTxn);
         safeCallListener((Listener<Object>)listener, upgradedTxn);
         return true;
     }
@@ -252,20 +372,19 @@ public final class TransactionController {
     private static final class PendingTxnEntry {
         private final Transaction txn;
         private final Listener<Object> listener;
+        private final Object admissionEvent;
 
         private PendingTxnEntry(final Transaction txn, final Listener<Object> listener) {
             this.txn = txn;
             this.listener = listener;
+            this.admissionEvent = FlightRecorderEvents.admissionQueued(txn);
         }
     }
 
     @SuppressWarnings("unchecked")
-    private void registerUpdateTransaction(final UpdateTransaction txn, final Listener<? super UpdateTransaction> listener) {
+    private void registerUpdateTransaction(final BasicUpdateTransaction txn, final Listener<? super UpdateTransaction> listener) {
         synchronized (lock) {
-            if (runningTxns == 0) {
-                updateTxnRunning = true;
-                runningTxns++;
-            } else {
+            if (!pendingTxns.isEmpty() || !admit(txn.getDelegate(), Collections.<BasicReadTransaction>emptyList())) {
                 pendingTxns.add(new PendingTxnEntry(txn, (Listener<Object>)listener));
                 return;
             }
@@ -274,59 +393,202 @@ public final class TransactionController {
     }
 
     @SuppressWarnings("unchecked")
-    private void registerReadTransaction(final ReadTransaction txn, final Listener<? super ReadTransaction> listener) {
+    private void registerReadTransaction(final BasicReadTransaction txn, final Listener<? super ReadTransaction> listener) {
+        synchronized (lock) {
+            pinReadVersion(txn);
+        }
+        safeCallListener((Listener<Object>)listener, txn);
+    }
+
+    void unregister(final BasicReadTransaction txn) {
+        final List<PendingTxnEntry> notifications;
+        final List<Registration> reclaimableRegistrations;
         synchronized (lock) {
-            if (runningTxns == 0) {
-                runningTxns++;
-            } else if (!updateTxnRunning && pendingTxns.isEmpty()) {
-                runningTxns++;
+            unpinReadVersion(txn);
+            reclaimableRegistrations = pollReclaimableRegistrations();
+            if (txn.updating) {
+                OptimisticFootprint.release(txn);
+                ShutdownDeadline.release(txn);
+                release(txn);
+                notifications = admitPendingTxns();
             } else {
-                pendingTxns.add(new PendingTxnEntry(txn, (Listener<Object>)listener));
-                return;
+                notifications = Collections.emptyList();
             }
         }
-        safeCallListener((Listener<Object>)listener, txn);
+        reclaim(reclaimableRegistrations);
+        notifyAdmitted(notifications);
+    }
+
+    /**
+     * Admits updating transaction if its scope doesn't overlap with the scope of any running updating transaction
+     * or updating transaction waiting <B>ahead</B> of it. Optimistic transactions don't exclude each other.
+     */
+    private boolean admit(final BasicReadTransaction txn, final Collection<BasicReadTransaction> ahead) {
+        assert Thread.holdsLock(lock);
+        final Set<ServiceRegistryImpl> scope = scopeOf(txn.declaredScope);
+        for (final BasicReadTransaction runningTxn : runningUpdateTxns) {
+            if (!(txn.optimistic && runningTxn.optimistic) && overlap(scope, runningTxn.scope)) return false;
+        }
+        for (final BasicReadTransaction pendingTxn : ahead) {
+            if (!(txn.optimistic && pendingTxn.optimistic) && overlap(scope, scopeOf(pendingTxn.declaredScope))) return false;
+        }
+        txn.scope = scope;
+        txn.updating = true;
+        runningUpdateTxns.add(txn);
+        if (txn.optimistic) {
+            OptimisticFootprint.track(txn, committedVersion);
+        }
+        return true;
     }
 
-    void unregister() {
-        Deque<PendingTxnEntry> notifications = null;
+    private void release(final BasicReadTransaction txn) {
+        assert Thread.holdsLock(lock);
+        txn.updating = false;
+        txn.holder = null;
+        runningUpdateTxns.remove(txn);
+    }
+
+    /**
+     * Indicates if current thread was the last one to modify or prepare a running updating transaction that is not
+     * being committed. Updating transaction created while current thread waits would never be admitted.
+     *
+     * @return {@code true} if current thread holds running updating transaction
+     */
+    boolean holdsUpdateTransaction() {
+        final Thread currentThread = Thread.currentThread();
         synchronized (lock) {
-            assert runningTxns > 0;
-            runningTxns--;
-            if (runningTxns == 0) {
-                updateTxnRunning = false;
-                if (pendingTxns.isEmpty()) return;
-                notifications = getNotifications();
+            for (final BasicReadTransaction runningTxn : runningUpdateTxns) {
+                if (runningTxn.holder == currentThread) return true;
             }
         }
+        return false;
+    }
+
+    private List<PendingTxnEntry> admitPendingTxns() {
+        assert Thread.holdsLock(lock);
+        if (pendingTxns.isEmpty()) return Collections.emptyList();
+        final List<PendingTxnEntry> admitted = new ArrayList<>();
+        final List<BasicReadTransaction> ahead = new ArrayList<>();
+        final Iterator<PendingTxnEntry> i = pendingTxns.iterator();
+        while (i.hasNext()) {
+            final PendingTxnEntry entry = i.next();
+            final BasicReadTransaction txn = (BasicReadTransaction) getAbstractTransaction(entry.txn);
+            if (admit(txn, ahead)) {
+                i.remove();
+                admitted.add(entry);
+            } else {
+                ahead.add(txn);
+            }
+        }
+        return admitted;
+    }
+
+    private void notifyAdmitted(final List<PendingTxnEntry> notifications) {
         for (final PendingTxnEntry notification : notifications) {
+            FlightRecorderEvents.admissionGranted(notification.admissionEvent, notification.txn);
             safeCallListener(notification.listener, notification.txn);
         }
     }
 
-    private Deque<PendingTxnEntry> getNotifications() {
+    /**
+     * Computes the registries updating transaction may modify, {@code null} means all of them.
+     * Registries having dependencies between their services are inseparable.
+     */
+    private static Set<ServiceRegistryImpl> scopeOf(final Set<ServiceRegistryImpl> declaredScope) {
+        if (declaredScope == null) return null;
+        final Set<ServiceRegistryImpl> scope = Collections.newSetFromMap(new ConcurrentHashMap<ServiceRegistryImpl, Boolean>());
+        final Deque<ServiceRegistryImpl> workList = new ArrayDeque<>(declaredScope);
+        ServiceRegistryImpl registry;
+        while ((registry = workList.poll()) != null) {
+            if (scope.add(registry)) {
+                workList.addAll(registry.getLinkedRegistries());
+            }
+        }
+        return scope;
+    }
+
+    private static boolean overlap(final Set<ServiceRegistryImpl> scope1, final Set<ServiceRegistryImpl> scope2) {
+        if (scope1 == null || scope2 == null) return true;
+        return !Collections.disjoint(scope1, scope2);
+    }
+
+    /**
+     * Makes read-only transaction read the last committed version.
+     */
+    private void pinReadVersion(final BasicReadTransaction txn) {
         assert Thread.holdsLock(lock);
-        final Deque<PendingTxnEntry> notifications = new ArrayDeque<>();
-        PendingTxnEntry entry = pendingTxns.removeFirst();
-        notifications.add(entry);
-        runningTxns++;
-        if (entry.txn instanceof UpdateTransaction) {
-            // process single updating transaction at the head
-            updateTxnRunning = true;
+        txn.readVersion = committedVersion;
+        final Integer readers = readVersions.get(committedVersion);
+        readVersions.put(committedVersion, readers == null ? 1 : readers + 1);
+    }
+
+    private void unpinReadVersion(final BasicReadTransaction txn) {
+        assert Thread.holdsLock(lock);
+        final long readVersion = txn.readVersion;
+        if (readVersion < 0) return;
+        txn.readVersion = -1;
+        final int readers = readVersions.get(readVersion);
+        if (readers == 1) {
+            readVersions.remove(readVersion);
         } else {
-            // process remaining read-only transactions at the head
-            final Iterator<PendingTxnEntry> i = pendingTxns.iterator();
-            while (i.hasNext()) {
-                entry = i.next();
-                if (entry.txn instanceof UpdateTransaction) break;
-                i.remove();
-                notifications.add(entry);
-                runningTxns++;
+            readVersions.put(readVersion, readers - 1);
+        }
+    }
+
+    /**
+     * Publishes the registrations modified by committing updating transaction as a new version.
+     * Versions no running read-only transaction can see are reclaimed meanwhile.
+     *
+     * @param txn the committing transaction
+     */
+    void publish(final AbstractTransaction txn) {
+        final Set<Registration> modifiedRegistrations = Registration.getModifiedRegistrations(txn);
+        if (modifiedRegistrations == null) return;
+        synchronized (publishLock) {
+            final long version, oldestReadVersion;
+            synchronized (lock) {
+                version = committedVersion + 1;
+                oldestReadVersion = readVersions.isEmpty() ? committedVersion : Math.min(readVersions.firstKey(), committedVersion);
+            }
+            // read-only transactions admitted meanwhile read committedVersion
+            for (final Registration registration : modifiedRegistrations) {
+                registration.publish(version, oldestReadVersion);
+            }
+            final List<Registration> reclaimableRegistrations;
+            synchronized (lock) {
+                committedVersion = version;
+                for (final Registration registration : modifiedRegistrations) {
+                    if (registration.isOrphaned()) orphanedRegistrations.add(registration);
+                }
+                reclaimableRegistrations = pollReclaimableRegistrations();
             }
+            reclaim(reclaimableRegistrations);
         }
-        return notifications;
     }
 
+    /**
+     * Polls orphaned registrations whose last committed version is visible to all read-only transactions, so that
+     * no read-only transaction can see their previous controllers.
+     */
+    private List<Registration> pollReclaimableRegistrations() {
+        assert Thread.holdsLock(lock);
+        if (orphanedRegistrations.isEmpty()) return Collections.emptyList();
+        final long oldestReadVersion = readVersions.isEmpty() ? committedVersion : readVersions.firstKey();
+        final List<Registration> reclaimableRegistrations = new ArrayList<>();
+        Registration registration;
+        while ((registration = orphanedRegistrations.peek()) != null && registration.getCommittedVersion() <= oldestReadVersion) {
+            reclaimableRegistrations.add(orphanedRegistrations.poll());
+        }
+        return reclaimableRegistrations;
+    }
+
+    private static void reclaim(final List<Registration> registrations) {
+        for (final Registration registration : registrations) {
+            registration.reclaim();
+        }
+    }
+
+
     @SuppressWarnings("unchecked")
     private void safeCallListener(final Listener<Object> completionListener, final Transaction txn) {
         try {
@@ -404,6 +666,28 @@ public final class TransactionController {
      * @throws InvalidTransactionStateException if transaction is not in prepared state
      */
     public void restart(final UpdateTransaction txn, final Listener<? super UpdateTransaction> completionListener) throws IllegalArgumentException, SecurityException, InvalidTransactionStateException {
+        restart(txn, completionListener, false);
+    }
+
+    /**
+     * Restarts <B>PREPARED</B> updating transaction like {@link #restart(UpdateTransaction, Listener)} does, but
+     * the new updating transaction reverts services the restarted transaction installed, removed, replaced, enabled
+     * or disabled: installed services are removed, removed services are installed again, replaced services are
+     * swapped back and enabled or disabled services are toggled back. Only services the restarted transaction
+     * modified are touched. Services are reverted once the new transaction is prepared and committed. Problems
+     * reverting services are reported by the new transaction.
+     *
+     * @param txn the update transaction to be rolled back
+     * @param completionListener the listener to call when the new transaction is created
+     * @throws IllegalArgumentException if any parameter is null
+     * @throws SecurityException if there's a <B>TransactionController</B> mismatch
+     * @throws InvalidTransactionStateException if transaction is not in prepared state
+     */
+    public void rollback(final UpdateTransaction txn, final Listener<? super UpdateTransaction> completionListener) throws IllegalArgumentException, SecurityException, InvalidTransactionStateException {
+        restart(txn, completionListener, true);
+    }
+
+    private void restart(final UpdateTransaction txn, final Listener<? super UpdateTransaction> completionListener, final boolean revert) throws IllegalArgumentException, SecurityException, InvalidTransactionStateException {
         validateUpdateTransaction(txn, this);
         final BasicUpdateTransaction transactionImpl = validateUpdateTransaction(txn, this);
         final Listener<UpdateTransaction> restartObserver = new Listener<UpdateTransaction>() {
@@ -412,6 +696,26 @@ public final class TransactionController {
                 final BasicUpdateTransaction retVal;
                 synchronized (lock) {
                     retVal = new BasicUpdateTransaction(new BasicReadTransaction(TransactionController.this, transactionImpl.getExecutor()));
+                    // restarted transaction keeps running as updating transaction with the same scope
+                    final BasicReadTransaction oldTxn = transactionImpl.getDelegate(), newTxn = retVal.getDelegate();
+                    newTxn.declaredScope = oldTxn.declaredScope;
+                    newTxn.scope = oldTxn.scope;
+                    newTxn.optimistic = oldTxn.optimistic;
+                    release(oldTxn);
+                    newTxn.updating = true;
+                    runningUpdateTxns.add(newTxn);
+                    // services modified by restarted transaction remain claimed by its successor
+                    OptimisticFootprint.transfer(oldTxn, newTxn, committedVersion);
+                }
+                // deadline of shutdown running in restarted transaction no longer applies
+                ShutdownDeadline.release(transactionImpl.getDelegate());
+                // successor of dry run transaction keeps simulating transitions
+                DryRunPlan.transfer(transactionImpl.getDelegate(), retVal.getDelegate(), revert);
+                // changes made by restarted transaction get published once its successor commits
+                Registration.transferModifiedRegistrations(transactionImpl.getDelegate(), retVal.getDelegate());
+                if (revert) {
+                    // services modified by restarted transaction are reverted by its successor
+                    UndoJournal.revert(transactionImpl.getDelegate(), retVal);
                 }
                 completionListener.handleEvent(retVal);
             }
@@ -432,6 +736,8 @@ public final class TransactionController {
         validateTransaction(txn);
         if (txn instanceof BasicUpdateTransaction) {
             setModified((BasicUpdateTransaction)txn);
+            // committed transaction terminates without any further work of current thread
+            ((BasicUpdateTransaction) txn).getDelegate().holder = null;
         }
         getAbstractTransaction(txn).commit(completionListener);
     }
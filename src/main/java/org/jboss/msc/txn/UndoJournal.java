@@ -0,0 +1,220 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2014 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.msc.txn;
+
+import org.jboss.msc.problem.Problem;
+import org.jboss.msc.service.Service;
+import org.jboss.msc.service.ServiceController;
+import org.jboss.msc.service.ServiceName;
+import org.jboss.msc.util.AttachmentKey;
+import org.jboss.msc.util.Listener;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.jboss.msc.txn.Helper.getAbstractTransaction;
+
+/**
+ * Journal of service controllers modified by updating transaction. For every controller the journal keeps what
+ * it looked like before transaction modified it for the first time, so that rollback can revert exactly the
+ * controllers transaction changed: installed controllers are removed, removed controllers are reattached,
+ * replaced services are swapped back and enabled or disabled controllers are toggled back.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opalka</a>
+ */
+final class UndoJournal {
+
+    private static final AttachmentKey<UndoJournal> UNDO_JOURNAL = AttachmentKey.create();
+
+    private final Map<ServiceControllerImpl<?>, Entry> entries = new IdentityHashMap<>();
+    private final List<Entry> order = new ArrayList<>();
+
+    private static UndoJournal of(final Transaction transaction) {
+        UndoJournal journal = transaction.getAttachment(UNDO_JOURNAL);
+        if (journal == null) {
+            journal = new UndoJournal();
+            final UndoJournal appearing = transaction.putAttachmentIfAbsent(UNDO_JOURNAL, journal);
+            if (appearing != null) {
+                journal = appearing;
+            }
+        }
+        return journal;
+    }
+
+    /**
+     * Records the controller has been installed by {@code transaction}.
+     *
+     * @param transaction the active transaction
+     * @param controller the installed controller
+     */
+    static void installed(final Transaction transaction, final ServiceControllerImpl<?> controller) {
+        of(transaction).record(transaction, controller, true);
+    }
+
+    /**
+     * Records the controller is about to be modified by {@code transaction}.
+     *
+     * @param transaction the active transaction
+     * @param controller the controller to be modified
+     */
+    static void modifying(final Transaction transaction, final ServiceControllerImpl<?> controller) {
+        of(transaction).record(transaction, controller, false);
+    }
+
+    private synchronized void record(final Transaction transaction, final ServiceControllerImpl<?> controller, final boolean installed) {
+        if (entries.containsKey(controller)) return;
+        final Entry entry = new Entry(transaction, controller, installed);
+        entries.put(controller, entry);
+        order.add(entry);
+    }
+
+    /**
+     * Reverts the controllers modified by restarted transaction in its successor. Controllers sharing a service name
+     * are reverted one after another in the reverse order they were modified in, so that removal of a service
+     * installed under a name completes before the service removed from that name is reattached. Other controllers
+     * are reverted in parallel on successor executor. Successor cannot be prepared until all of them are reverted.
+     *
+     * @param restartedTxn the restarted transaction
+     * @param successorTxn the successor transaction
+     */
+    static void revert(final Transaction restartedTxn, final UpdateTransaction successorTxn) {
+        final UndoJournal journal = restartedTxn.removeAttachment(UNDO_JOURNAL);
+        if (journal == null) return;
+        final List<Entry> order;
+        synchronized (journal) {
+            order = journal.order;
+        }
+        final Map<ServiceName, Entry> lastReverted = new HashMap<>();
+        final List<Entry> ready = new ArrayList<>();
+        for (int i = order.size() - 1; i >= 0; i--) {
+            final Entry entry = order.get(i);
+            for (final ServiceName name : entry.names) {
+                final Entry previous = lastReverted.put(name, entry);
+                if (previous != null && !previous.next.contains(entry)) {
+                    previous.next.add(entry);
+                    entry.pending++;
+                }
+            }
+            entry.hold(successorTxn);
+            if (entry.pending == 0) ready.add(entry);
+        }
+        for (final Entry entry : ready) {
+            entry.schedule();
+        }
+    }
+
+    private static final class Entry implements Runnable, Listener<ServiceController<?>> {
+        private final ServiceControllerImpl<?> controller;
+        private final ServiceName[] names;
+        private final boolean installed;
+        private final boolean enabled;
+        private final Service<?> service;
+        /** Entries reverted once this one is, guarded by journal until scheduled */
+        private final List<Entry> next = new ArrayList<>();
+        /** The count of entries to be reverted before this one, guarded by {@code this} */
+        private int pending;
+        private UpdateTransaction txn;
+        private TransactionHoldHandle holdHandle;
+
+        private Entry(final Transaction transaction, final ServiceControllerImpl<?> controller, final boolean installed) {
+            this.controller = controller;
+            final Registration[] aliasRegistrations = controller.getAliasRegistrations();
+            this.names = new ServiceName[aliasRegistrations.length + 1];
+            names[0] = controller.getServiceName();
+            for (int i = 0; i < aliasRegistrations.length; i++) {
+                names[i + 1] = aliasRegistrations[i].getServiceName();
+            }
+            this.installed = installed;
+            this.enabled = controller.isEnabled(transaction);
+            this.service = controller.getService();
+        }
+
+        private void hold(final UpdateTransaction txn) {
+            this.txn = txn;
+            this.holdHandle = txn.acquireHoldHandle();
+        }
+
+        private void schedule() {
+            try {
+                getAbstractTransaction(txn).getExecutor().execute(this);
+            } catch (final RejectedExecutionException e) {
+                run();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (revert()) return;
+            } catch (final RuntimeException e) {
+                txn.getReport().addProblem(new Problem(Problem.Severity.ERROR, e));
+            }
+            reverted();
+        }
+
+        @Override
+        public void handleEvent(final ServiceController<?> result) {
+            reverted();
+        }
+
+        private void reverted() {
+            for (final Entry entry : next) {
+                final boolean ready;
+                synchronized (entry) {
+                    ready = --entry.pending == 0;
+                }
+                if (ready) entry.schedule();
+            }
+            holdHandle.release();
+        }
+
+        /**
+         * Reverts the controller.
+         *
+         * @return {@code true} if {@link #handleEvent(ServiceController)} is called once controller is removed
+         */
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private boolean revert() {
+            final ServiceControllerImpl rawController = controller;
+            if (controller.isRemoved(txn)) {
+                if (!installed) rawController.reattach(txn, service, enabled);
+                return false;
+            }
+            if (installed) {
+                rawController.uninstall(txn, this);
+                return true;
+            }
+            if (controller.getService() != service) {
+                rawController.replace(txn, service);
+            }
+            if (controller.isEnabled(txn) != enabled) {
+                if (enabled) {
+                    controller.enable(txn);
+                } else {
+                    controller.disable(txn);
+                }
+            }
+            return false;
+        }
+    }
+}
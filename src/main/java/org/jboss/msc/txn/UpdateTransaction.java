@@ -20,11 +20,12 @@ package org.jboss.msc.txn;
 
 /**
  * <B>UpdateTransaction</B>s modify MSC internal states.
- * There can be only single <B>UpdateTransaction</B> running at the same time.
+ * There can be only single <B>UpdateTransaction</B> modifying given <B>ServiceRegistry</B> running at the same time.
+ * <B>UpdateTransaction</B>s created without scope may modify all registries.
  * This restriction applies only to transactions created by the same <B>TransactionController</B>.
- * When <B>UpdateTransaction</B> is running there never will be
- * <B>ReadTransaction</B> associated with the same <B>TransactionController</B>
- * running concurrently.
+ * <B>ReadTransaction</B>s associated with the same <B>TransactionController</B> may be
+ * running concurrently, changes made by <B>UpdateTransaction</B> become visible to
+ * them once it is committed.
  *
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
  * @author <a href="mailto:ropalka@redhat.com">Richard Opalka</a>
@@ -0,0 +1,219 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2014 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.msc.test;
+
+import org.jboss.msc.service.ServiceBuilder;
+import org.jboss.msc.service.ServiceName;
+import org.jboss.msc.service.ServiceRegistry;
+import org.jboss.msc.service.StartContext;
+import org.jboss.msc.txn.AbstractServiceTest;
+import org.jboss.msc.txn.BootProfile;
+import org.jboss.msc.txn.TestService;
+import org.jboss.msc.txn.UpdateTransaction;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests boot ordering guided by start timings of previous boot.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opalka</a>
+ */
+public class BootProfileTestCase extends AbstractServiceTest {
+
+    private static final int FAST_SERVICES = 10;
+    private static final long SLOW_START_MILLIS = 50;
+    private static final ServiceName prerequisiteSN = ServiceName.of("prerequisite");
+    private static final ServiceName slowSN = ServiceName.of("slow");
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI>first boot starts fast services, <B>prerequisite service</B> and <B>slow service</B> depending on it,
+     * the profile is written at commit</LI>
+     * <LI>second boot into new registry runs on single thread that is busy while services are installed,
+     * <B>prerequisite service</B> and <B>slow service</B> start before all fast services</LI>
+     * </UL>
+     */
+    @Test
+    public void slowServicesStartFirst() throws Exception {
+        final File file = File.createTempFile("msc-boot", ".profile");
+        assertTrue(file.delete());
+        try {
+            final List<ServiceName> firstBoot = Collections.synchronizedList(new ArrayList<ServiceName>());
+            UpdateTransaction txn = newUpdateTransaction();
+            final BootProfile firstProfile = BootProfile.attach(txn, file);
+            installServices(txn, serviceRegistry, firstBoot);
+            prepare(txn);
+            commit(txn);
+            final long recordedSlowDuration = firstProfile.getRecordedDuration(slowSN, TimeUnit.MILLISECONDS);
+            final boolean written = file.exists();
+
+            final ServiceRegistry secondRegistry = newRegistry(serviceContainer);
+            final List<ServiceName> secondBoot = Collections.synchronizedList(new ArrayList<ServiceName>());
+            final ThreadPoolExecutor executor = newExecutor(1, true);
+            final CountDownLatch busy = new CountDownLatch(1);
+            try {
+                txn = newUpdateTransaction(executor);
+                final BootProfile secondProfile = BootProfile.attach(txn, file);
+                // queue all start tasks before the only thread picks any of them
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            busy.await();
+                        } catch (final InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                });
+                installServices(txn, secondRegistry, secondBoot);
+                busy.countDown();
+                prepare(txn);
+                commit(txn);
+                final long previousSlowDuration = secondProfile.getPreviousDuration(slowSN, TimeUnit.MILLISECONDS);
+                final long prerequisiteChainDuration = secondProfile.getPreviousChainDuration(prerequisiteSN, TimeUnit.MILLISECONDS);
+
+                assertTrue(written);
+                assertTrue(recordedSlowDuration >= SLOW_START_MILLIS);
+                assertEquals(recordedSlowDuration, previousSlowDuration);
+                assertTrue(prerequisiteChainDuration >= previousSlowDuration);
+                assertEquals(FAST_SERVICES + 2, firstBoot.size());
+                assertEquals(FAST_SERVICES + 2, secondBoot.size());
+                assertEquals(prerequisiteSN, secondBoot.get(0));
+                assertEquals(slowSN, secondBoot.get(1));
+            } finally {
+                executor.shutdown();
+                executor.awaitTermination(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI>profile file contains garbage, it is ignored when attached</LI>
+     * <LI><B>slow service</B> starts, the profile is replaced at commit</LI>
+     * <LI>profile read back contains timing of <B>slow service</B></LI>
+     * </UL>
+     */
+    @Test
+    public void unreadableProfileIgnored() throws Exception {
+        final File file = File.createTempFile("msc-boot", ".profile");
+        try {
+            try (final FileOutputStream out = new FileOutputStream(file)) {
+                out.write(new byte[] { 0x4d, 0x53, 0x42 });
+            }
+            UpdateTransaction txn = newUpdateTransaction();
+            final BootProfile firstProfile = BootProfile.attach(txn, file);
+            final long ignoredDuration = firstProfile.getPreviousDuration(slowSN, TimeUnit.MILLISECONDS);
+            final ServiceBuilder<Void> sb = txnController.newServiceContext(txn).addService(serviceRegistry, slowSN);
+            final TestService slowService = new TestService(slowSN, sb, false);
+            slowService.setStartDelay(SLOW_START_MILLIS);
+            sb.setService(slowService);
+            sb.install();
+            prepare(txn);
+            commit(txn);
+
+            txn = newUpdateTransaction();
+            final BootProfile secondProfile = BootProfile.attach(txn, file);
+            final long previousDuration = secondProfile.getPreviousDuration(slowSN, TimeUnit.MILLISECONDS);
+            prepare(txn);
+            commit(txn);
+
+            assertEquals(-1L, ignoredDuration);
+            assertTrue(previousDuration >= SLOW_START_MILLIS);
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI><B>slow service</B> fails to start</LI>
+     * <LI>no start duration is recorded for <B>slow service</B></LI>
+     * </UL>
+     */
+    @Test
+    public void failedStartNotRecorded() throws Exception {
+        final File file = File.createTempFile("msc-boot", ".profile");
+        assertTrue(file.delete());
+        try {
+            final UpdateTransaction txn = newUpdateTransaction();
+            final BootProfile profile = BootProfile.attach(txn, file);
+            final ServiceBuilder<Void> sb = txnController.newServiceContext(txn).addService(serviceRegistry, slowSN);
+            final TestService slowService = new TestService(slowSN, sb, true);
+            slowService.setStartDelay(SLOW_START_MILLIS);
+            sb.setService(slowService);
+            sb.install();
+            prepare(txn);
+            commit(txn);
+
+            assertTrue(slowService.isFailed());
+            assertEquals(-1L, profile.getRecordedDuration(slowSN, TimeUnit.MILLISECONDS));
+        } finally {
+            file.delete();
+        }
+    }
+
+    private void installServices(final UpdateTransaction txn, final ServiceRegistry registry, final List<ServiceName> startOrder) {
+        for (int i = 0; i < FAST_SERVICES; i++) {
+            final ServiceName fastSN = ServiceName.of("fast", String.valueOf(i));
+            final ServiceBuilder<Void> sb = txnController.newServiceContext(txn).addService(registry, fastSN);
+            sb.setService(new RecordingService(fastSN, sb, startOrder));
+            sb.install();
+        }
+        final ServiceBuilder<Void> prerequisiteBuilder = txnController.newServiceContext(txn).addService(registry, prerequisiteSN);
+        prerequisiteBuilder.setService(new RecordingService(prerequisiteSN, prerequisiteBuilder, startOrder));
+        prerequisiteBuilder.install();
+        final ServiceBuilder<Void> slowBuilder = txnController.newServiceContext(txn).addService(registry, slowSN);
+        final RecordingService slowService = new RecordingService(slowSN, slowBuilder, startOrder);
+        slowService.setStartDelay(SLOW_START_MILLIS);
+        slowBuilder.setService(slowService).addDependency(prerequisiteSN);
+        slowBuilder.install();
+    }
+
+    private static final class RecordingService extends TestService {
+        private final ServiceName serviceName;
+        private final List<ServiceName> startOrder;
+
+        private RecordingService(final ServiceName serviceName, final ServiceBuilder<Void> serviceBuilder, final List<ServiceName> startOrder) {
+            super(serviceName, serviceBuilder, false);
+            this.serviceName = serviceName;
+            this.startOrder = startOrder;
+        }
+
+        @Override
+        protected void starting(final StartContext<Void> context) {
+            startOrder.add(serviceName);
+        }
+    }
+}
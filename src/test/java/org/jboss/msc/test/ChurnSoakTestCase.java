@@ -0,0 +1,186 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2014 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.msc.test;
+
+import org.jboss.msc.service.ServiceBuilder;
+import org.jboss.msc.service.ServiceController;
+import org.jboss.msc.service.ServiceController.State;
+import org.jboss.msc.service.ServiceName;
+import org.jboss.msc.txn.AbstractServiceTest;
+import org.jboss.msc.txn.TestService;
+import org.jboss.msc.txn.UpdateTransaction;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Soak test repeatedly installing, starting, disabling, replacing and removing randomized service sets. It fails
+ * if throughput degrades, retained heap grows or threads leak over the run.
+ * <p>
+ * It is excluded from default build, run it with {@code mvn test -Psoak}. The run is tuned with system properties:
+ * <UL>
+ * <LI>{@code msc.soak.iterations}, the count of iterations</LI>
+ * <LI>{@code msc.soak.seed}, the seed of randomized service sets</LI>
+ * <LI>{@code msc.soak.maxHeapGrowth}, the maximum growth of heap retained after GC, in megabytes</LI>
+ * <LI>{@code msc.soak.minThroughputRatio}, the minimum ratio of final to initial throughput</LI>
+ * </UL>
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opalka</a>
+ */
+public class ChurnSoakTestCase extends AbstractServiceTest {
+
+    private static final int ITERATIONS = Integer.getInteger("msc.soak.iterations", 200);
+    private static final long SEED = Long.getLong("msc.soak.seed", System.nanoTime());
+    private static final long MAX_HEAP_GROWTH = Long.getLong("msc.soak.maxHeapGrowth", 32) * 1024 * 1024;
+    private static final double MIN_THROUGHPUT_RATIO = Double.parseDouble(System.getProperty("msc.soak.minThroughputRatio", "0.5"));
+    private static final int MIN_SERVICES_COUNT = 50;
+    private static final int MAX_SERVICES_COUNT = 150;
+    private static final ServiceName serviceSN = ServiceName.of("service");
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI>randomized set of <B>services</B> with unique names, each may depend on services installed before it</LI>
+     * <LI>every iteration installs the set, disables part of it, enables and replaces part of it, then removes it,
+     * each step in its own transaction</LI>
+     * </UL>
+     */
+    @Test
+    public void churn() throws Exception {
+        final Random random = new Random(SEED);
+        final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        final int window = Math.max(1, ITERATIONS / 10);
+        final double[] throughput = new double[ITERATIONS];
+        long baselineHeap = 0;
+        int baselineThreads = 0;
+        for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+            final long startTime = System.nanoTime();
+            final int servicesCount = iterate(random, iteration);
+            throughput[iteration] = servicesCount / ((System.nanoTime() - startTime) / (double) TimeUnit.SECONDS.toNanos(1));
+            assertEquals("Seed " + SEED, 0, getRegistrationCount(serviceRegistry));
+            if (iteration == window - 1) {
+                baselineHeap = usedHeapAfterGC(memory);
+                baselineThreads = threads.getThreadCount();
+            }
+        }
+        final long finalHeap = usedHeapAfterGC(memory);
+        final int finalThreads = threads.getThreadCount();
+        // the first window warms up, the second one is the baseline
+        final double initialThroughput = average(throughput, Math.min(window, ITERATIONS - window), Math.min(2 * window, ITERATIONS));
+        final double finalThroughput = average(throughput, ITERATIONS - window, ITERATIONS);
+        assertTrue("Seed " + SEED + ", throughput degraded from " + (long) initialThroughput + " to " + (long) finalThroughput + " services/s",
+                finalThroughput >= initialThroughput * MIN_THROUGHPUT_RATIO);
+        assertTrue("Seed " + SEED + ", retained heap grew from " + baselineHeap / 1024 + " KB to " + finalHeap / 1024 + " KB",
+                finalHeap - baselineHeap <= MAX_HEAP_GROWTH);
+        // JVM may start its own threads lazily
+        assertTrue("Seed " + SEED + ", thread count grew from " + baselineThreads + " to " + finalThreads, finalThreads <= baselineThreads + 2);
+    }
+
+    private int iterate(final Random random, final int iteration) {
+        final int servicesCount = MIN_SERVICES_COUNT + random.nextInt(MAX_SERVICES_COUNT - MIN_SERVICES_COUNT + 1);
+        final ServiceName iterationSN = serviceSN.append(String.valueOf(iteration));
+        final ServiceController<?>[] controllers = new ServiceController<?>[servicesCount];
+        UpdateTransaction txn = newUpdateTransaction();
+        for (int i = 0; i < servicesCount; i++) {
+            final ServiceName serviceName = iterationSN.append(String.valueOf(i));
+            final ServiceBuilder<Void> sb = txnController.newServiceContext(txn).addService(serviceRegistry, serviceName);
+            if (i > 0) {
+                final int dependenciesCount = random.nextInt(Math.min(i, 3) + 1);
+                for (int j = 0; j < dependenciesCount; j++) {
+                    sb.addDependency(iterationSN.append(String.valueOf(random.nextInt(i))));
+                }
+            }
+            controllers[i] = sb.setService(new TestService(serviceName, sb, false)).install();
+        }
+        prepare(txn);
+        commit(txn);
+
+        final boolean[] disabled = new boolean[servicesCount];
+        txn = newUpdateTransaction();
+        // disabling services stops their dependents, check state first
+        int notUp = countNotUp(txn, controllers);
+        for (int i = 0; i < servicesCount; i++) {
+            if (random.nextInt(4) == 0) {
+                disabled[i] = true;
+                controllers[i].disable(txn);
+            }
+        }
+        prepare(txn);
+        commit(txn);
+        // assert once transaction completes, so that failure doesn't block other transactions
+        assertEquals("Seed " + SEED, 0, notUp);
+
+        txn = newUpdateTransaction();
+        for (int i = 0; i < servicesCount; i++) {
+            if (disabled[i]) {
+                controllers[i].enable(txn);
+            }
+            if (random.nextInt(4) == 0) {
+                replace(txn, controllers[i], iterationSN.append(String.valueOf(i)));
+            }
+        }
+        prepare(txn);
+        commit(txn);
+
+        txn = newUpdateTransaction();
+        notUp = countNotUp(txn, controllers);
+        for (final ServiceController<?> controller : controllers) {
+            controller.remove(txn);
+        }
+        prepare(txn);
+        commit(txn);
+        assertEquals("Seed " + SEED, 0, notUp);
+        return servicesCount;
+    }
+
+    private static int countNotUp(final UpdateTransaction txn, final ServiceController<?>[] controllers) {
+        int count = 0;
+        for (final ServiceController<?> controller : controllers) {
+            if (controller.getState(txn) != State.UP) count++;
+        }
+        return count;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void replace(final UpdateTransaction txn, final ServiceController<?> controller, final ServiceName serviceName) {
+        ((ServiceController<Void>) controller).replace(txn, new TestService(serviceName, null, false));
+    }
+
+    private static long usedHeapAfterGC(final MemoryMXBean memory) {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    private static double average(final double[] values, final int from, final int to) {
+        double sum = 0;
+        for (int i = from; i < to; i++) {
+            sum += values[i];
+        }
+        return sum / (to - from);
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2014 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.msc.test;
+
+import org.jboss.msc.service.CircularDependencyException;
+import org.jboss.msc.service.DependencyFlag;
+import org.jboss.msc.service.DuplicateServiceException;
+import org.jboss.msc.service.ServiceBuilder;
+import org.jboss.msc.service.ServiceController;
+import org.jboss.msc.service.ServiceController.State;
+import org.jboss.msc.service.ServiceDefinition;
+import org.jboss.msc.service.ServiceMode;
+import org.jboss.msc.service.ServiceName;
+import org.jboss.msc.txn.AbstractServiceTest;
+import org.jboss.msc.txn.CompiledServiceGraph;
+import org.jboss.msc.txn.TestService;
+import org.jboss.msc.txn.UpdateTransaction;
+import org.junit.Test;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests compiling, storing and installing precompiled service graphs.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opalka</a>
+ */
+public class CompiledServiceGraphTestCase extends AbstractServiceTest {
+
+    private static final ServiceName firstSN = ServiceName.of("first");
+    private static final ServiceName secondSN = ServiceName.of("second");
+    private static final ServiceName secondAliasSN = ServiceName.of("second", "alias");
+    private static final ServiceName thirdSN = ServiceName.of("third");
+    private static final ServiceName externalSN = ServiceName.of("external");
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI><B>third service</B> depends on alias of <B>second service</B> and optionally on <B>first service</B>,
+     * <B>second service</B> depends on <B>first service</B></LI>
+     * <LI>graph is compiled, written to a file and read back</LI>
+     * <LI>graph read back installs the services, all of them go up</LI>
+     * </UL>
+     */
+    @Test
+    public void compileStoreAndInstall() throws Exception {
+        final List<ServiceDefinition<?>> definitions = Arrays.<ServiceDefinition<?>>asList(
+                ServiceDefinition.of(thirdSN, new TestService(thirdSN, null, false)).addDependency(secondAliasSN).addDependency(firstSN, DependencyFlag.UNREQUIRED),
+                ServiceDefinition.of(secondSN, new TestService(secondSN, null, false)).addAliases(secondAliasSN).addDependency(firstSN),
+                ServiceDefinition.of(firstSN, new TestService(firstSN, null, false)).setMode(ServiceMode.ACTIVE));
+        final CompiledServiceGraph compiled = CompiledServiceGraph.compile(definitions);
+        final File file = File.createTempFile("msc-graph", ".bin");
+        final CompiledServiceGraph graph;
+        try {
+            compiled.writeTo(file);
+            graph = CompiledServiceGraph.readFrom(file);
+        } finally {
+            file.delete();
+        }
+        final boolean matches = graph.matches(definitions);
+        final boolean matchesOther = graph.matches(Arrays.<ServiceDefinition<?>>asList(
+                ServiceDefinition.of(thirdSN, new TestService(thirdSN, null, false)).addDependency(secondAliasSN),
+                ServiceDefinition.of(secondSN, new TestService(secondSN, null, false)).addAliases(secondAliasSN).addDependency(firstSN),
+                ServiceDefinition.of(firstSN, new TestService(firstSN, null, false))));
+
+        UpdateTransaction txn = newUpdateTransaction();
+        final List<ServiceController<?>> controllers = graph.install(txn, serviceRegistry, definitions);
+        prepare(txn);
+        commit(txn);
+
+        txn = newUpdateTransaction();
+        final State thirdState = serviceRegistry.getService(thirdSN).getState(txn);
+        final State secondState = serviceRegistry.getService(secondAliasSN).getState(txn);
+        final State firstState = serviceRegistry.getService(firstSN).getState(txn);
+        prepare(txn);
+        commit(txn);
+
+        assertEquals(Arrays.asList(firstSN, secondSN, thirdSN), compiled.getTopologicalOrder());
+        assertEquals(compiled.getTopologicalOrder(), graph.getTopologicalOrder());
+        assertTrue(matches);
+        assertFalse(matchesOther);
+        assertEquals(3, controllers.size());
+        assertEquals(State.UP, thirdState);
+        assertEquals(State.UP, secondState);
+        assertEquals(State.UP, firstState);
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI><B>external service</B> installed before depends on <B>first service</B></LI>
+     * <LI>compiled graph installs <B>first service</B>, <B>external service</B> goes up</LI>
+     * </UL>
+     */
+    @Test
+    public void installWithExistingDependents() throws Exception {
+        UpdateTransaction txn = newUpdateTransaction();
+        final ServiceBuilder<Void> sb = txnController.newServiceContext(txn).addService(serviceRegistry, externalSN);
+        sb.setService(new TestService(externalSN, sb, false)).addDependency(firstSN);
+        sb.install();
+        prepare(txn);
+        commit(txn);
+
+        final List<ServiceDefinition<?>> definitions = Arrays.<ServiceDefinition<?>>asList(ServiceDefinition.of(firstSN, new TestService(firstSN, null, false)));
+        txn = newUpdateTransaction();
+        CompiledServiceGraph.compile(definitions).install(txn, serviceRegistry, definitions);
+        prepare(txn);
+        commit(txn);
+
+        txn = newUpdateTransaction();
+        final State externalState = serviceRegistry.getService(externalSN).getState(txn);
+        prepare(txn);
+        commit(txn);
+
+        assertEquals(State.UP, externalState);
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI><B>first service</B> depends on <B>second service</B> and vice versa</LI>
+     * </UL>
+     */
+    @Test(expected = CircularDependencyException.class)
+    public void cycle() {
+        CompiledServiceGraph.compile(Arrays.<ServiceDefinition<?>>asList(
+                ServiceDefinition.of(firstSN, new TestService(firstSN, null, false)).addDependency(secondAliasSN),
+                ServiceDefinition.of(secondSN, new TestService(secondSN, null, false)).addAliases(secondAliasSN).addDependency(firstSN),
+                ServiceDefinition.of(thirdSN, new TestService(thirdSN, null, false))));
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI>graph is installed with definitions it was not compiled from</LI>
+     * </UL>
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void mismatchedDefinitions() throws Exception {
+        final CompiledServiceGraph graph = CompiledServiceGraph.compile(Arrays.<ServiceDefinition<?>>asList(ServiceDefinition.of(firstSN, new TestService(firstSN, null, false))));
+        final UpdateTransaction txn = newUpdateTransaction();
+        try {
+            graph.install(txn, serviceRegistry, Arrays.<ServiceDefinition<?>>asList(ServiceDefinition.of(secondSN, new TestService(secondSN, null, false))));
+        } finally {
+            prepare(txn);
+            commit(txn);
+        }
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI>expendable <B>first service</B> compiled, written to a file and read back</LI>
+     * <LI>graph read back matches only expendable <B>first service</B></LI>
+     * </UL>
+     */
+    @Test
+    public void expendableRecorded() throws Exception {
+        final TestService first = new TestService(firstSN, null, false);
+        final File file = File.createTempFile("msc-graph", ".bin");
+        final CompiledServiceGraph graph;
+        try {
+            CompiledServiceGraph.compile(Arrays.<ServiceDefinition<?>>asList(ServiceDefinition.of(firstSN, first).setExpendable(true))).writeTo(file);
+            graph = CompiledServiceGraph.readFrom(file);
+        } finally {
+            file.delete();
+        }
+
+        assertTrue(graph.matches(Arrays.<ServiceDefinition<?>>asList(ServiceDefinition.of(firstSN, first).setExpendable(true))));
+        assertFalse(graph.matches(Arrays.<ServiceDefinition<?>>asList(ServiceDefinition.of(firstSN, first))));
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI>file contains graph where <B>first service</B> depends on itself</LI>
+     * </UL>
+     */
+    @Test(expected = IOException.class)
+    public void corruptedFileRejected() throws Exception {
+        final File file = File.createTempFile("msc-graph", ".bin");
+        try {
+            try (final DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+                out.writeInt(0x4d534347);
+                out.writeInt(2);
+                // single name, single service in ACTIVE mode
+                out.writeInt(1);
+                out.writeInt(1);
+                out.writeUTF("first");
+                out.writeInt(1);
+                out.writeByte(ServiceMode.ACTIVE.ordinal());
+                out.writeBoolean(false);
+                // no aliases
+                out.writeInt(0);
+                out.writeInt(0);
+                out.writeInt(0);
+                // dependency on itself
+                out.writeInt(0);
+                out.writeInt(1);
+                out.writeInt(1);
+                out.writeInt(0);
+                out.writeByte(0);
+            }
+            CompiledServiceGraph.readFrom(file);
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI><B>second service</B> installed before</LI>
+     * <LI>compiled graph of <B>first service</B> and <B>second service</B> fails to install, <B>first service</B>
+     * is not installed either</LI>
+     * </UL>
+     */
+    @Test
+    public void failedInstallLeavesNothing() throws Exception {
+        UpdateTransaction txn = newUpdateTransaction();
+        final ServiceBuilder<Void> sb = txnController.newServiceContext(txn).addService(serviceRegistry, secondSN);
+        sb.setService(new TestService(secondSN, sb, false));
+        sb.install();
+        prepare(txn);
+        commit(txn);
+
+        final List<ServiceDefinition<?>> definitions = Arrays.<ServiceDefinition<?>>asList(
+                ServiceDefinition.of(firstSN, new TestService(firstSN, null, false)),
+                ServiceDefinition.of(secondSN, new TestService(secondSN, null, false)).addDependency(firstSN));
+        txn = newUpdateTransaction();
+        try {
+            CompiledServiceGraph.compile(definitions).install(txn, serviceRegistry, definitions);
+            fail("DuplicateServiceException expected");
+        } catch (final DuplicateServiceException expected) {
+        }
+        prepare(txn);
+        commit(txn);
+
+        assertNull(serviceRegistry.getService(firstSN));
+    }
+}
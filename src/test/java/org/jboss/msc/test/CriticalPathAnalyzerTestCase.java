@@ -0,0 +1,99 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2014 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.msc.test;
+
+import org.jboss.msc.service.ServiceBuilder;
+import org.jboss.msc.service.ServiceName;
+import org.jboss.msc.txn.AbstractServiceTest;
+import org.jboss.msc.txn.CriticalPathAnalyzer;
+import org.jboss.msc.txn.CriticalPathAnalyzer.ServiceTiming;
+import org.jboss.msc.txn.TestService;
+import org.jboss.msc.txn.UpdateTransaction;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opalka</a>
+ */
+public class CriticalPathAnalyzerTestCase extends AbstractServiceTest {
+
+    private static final ServiceName firstSN = ServiceName.of("first");
+    private static final ServiceName secondSN = ServiceName.of("second");
+    private static final ServiceName thirdSN = ServiceName.of("third");
+    private static final ServiceName independentSN = ServiceName.of("independent");
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI><B>first service</B>, no dependencies</LI>
+     * <LI><B>second service</B>, slow, depends on <B>first service</B></LI>
+     * <LI><B>third service</B>, depends on <B>second service</B></LI>
+     * <LI><B>independent service</B>, no dependencies</LI>
+     * <LI>all services installed in single transaction</LI>
+     * </UL>
+     */
+    @Test
+    public void criticalPathFollowsDependencies() throws Exception {
+        final UpdateTransaction txn = newUpdateTransaction();
+        final CriticalPathAnalyzer analyzer = CriticalPathAnalyzer.attach(txn);
+        install(txn, firstSN, 0);
+        install(txn, secondSN, 50, firstSN);
+        install(txn, thirdSN, 10, secondSN);
+        install(txn, independentSN, 0);
+        prepare(txn);
+        commit(txn);
+
+        final List<ServiceTiming> path = analyzer.getCriticalPath();
+        assertEquals(3, path.size());
+        assertEquals(firstSN, path.get(0).getServiceName());
+        assertEquals(secondSN, path.get(1).getServiceName());
+        assertEquals(thirdSN, path.get(2).getServiceName());
+        final List<ServiceTiming> timings = analyzer.getTimings();
+        assertEquals(4, timings.size());
+        assertEquals(secondSN, timings.get(0).getServiceName());
+        assertTrue(analyzer.getReport().contains(secondSN.toString()));
+
+        final File trace = File.createTempFile("msc-trace", ".json");
+        try {
+            analyzer.writeTrace(trace);
+            final String json = new String(Files.readAllBytes(trace.toPath()), StandardCharsets.UTF_8);
+            assertTrue(json.startsWith("{\"traceEvents\":["));
+            assertTrue(json.contains("\"cat\":\"critical\""));
+            assertTrue(json.contains(independentSN.getCanonicalName()));
+        } finally {
+            trace.delete();
+        }
+    }
+
+    private void install(final UpdateTransaction txn, final ServiceName name, final long sleepMillis, final ServiceName... dependencies) {
+        final ServiceBuilder<Void> sb = txnController.newServiceContext(txn).addService(serviceRegistry, name);
+        for (final ServiceName dependency : dependencies) {
+            sb.addDependency(dependency);
+        }
+        final TestService service = new TestService(name, sb, false);
+        service.setStartDelay(sleepMillis);
+        sb.setService(service).install();
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2014 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.msc.test;
+
+import org.jboss.msc.service.ServiceBuilder;
+import org.jboss.msc.service.ServiceController;
+import org.jboss.msc.service.ServiceMode;
+import org.jboss.msc.service.ServiceName;
+import org.jboss.msc.txn.AbstractServiceTest;
+import org.jboss.msc.txn.TestService;
+import org.jboss.msc.txn.UpdateTransaction;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Demand propagation through deep and wide {@code ON_DEMAND} dependency graphs.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opalka</a>
+ */
+public class DemandPropagationTestCase extends AbstractServiceTest {
+
+    private static final ServiceName rootSN = ServiceName.of("root");
+    private static final ServiceName chainSN = ServiceName.of("chain");
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI><B>chain services</B>, 20000 ON_DEMAND services, each one depending on the next one</LI>
+     * <LI><B>root service</B>, ACTIVE, depends on first <B>chain service</B></LI>
+     * <LI><B>root service</B> installed and then removed in separate transactions</LI>
+     * </UL>
+     */
+    @Test
+    public void deepOnDemandChain() {
+        final int chainLength = 20000;
+        final TestService[] chain = new TestService[chainLength];
+        UpdateTransaction txn = newUpdateTransaction();
+        for (int i = 0; i < chainLength; i++) {
+            final ServiceName serviceName = chainSN.append(String.valueOf(i));
+            final ServiceBuilder<Void> sb = txnController.newServiceContext(txn).addService(serviceRegistry, serviceName);
+            if (i + 1 < chainLength) {
+                sb.addDependency(chainSN.append(String.valueOf(i + 1)));
+            }
+            sb.setMode(ServiceMode.ON_DEMAND);
+            chain[i] = new TestService(serviceName, sb, false);
+            sb.setService(chain[i]).install();
+        }
+        prepare(txn);
+        commit(txn);
+        assertEquals(0, startCount(chain));
+
+        txn = newUpdateTransaction();
+        final ServiceBuilder<Void> sb = txnController.newServiceContext(txn).addService(serviceRegistry, rootSN);
+        sb.addDependency(chainSN.append("0"));
+        final TestService root = new TestService(rootSN, sb, false);
+        final ServiceController<Void> rootController = sb.setService(root).install();
+        prepare(txn);
+        commit(txn);
+        assertEquals(1, root.getStartCount());
+        assertEquals(chainLength, startCount(chain));
+
+        txn = newUpdateTransaction();
+        rootController.remove(txn);
+        prepare(txn);
+        commit(txn);
+        assertEquals(1, root.getStopCount());
+        assertEquals(chainLength, stopCount(chain));
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI><B>chain services</B>, 2000 ON_DEMAND services with no dependencies</LI>
+     * <LI><B>root service</B>, ACTIVE, depends on all <B>chain services</B></LI>
+     * <LI><B>root service</B> installed and then removed in separate transactions</LI>
+     * </UL>
+     */
+    @Test
+    public void wideOnDemandFanOut() {
+        final int width = 2000;
+        final TestService[] chain = new TestService[width];
+        UpdateTransaction txn = newUpdateTransaction();
+        for (int i = 0; i < width; i++) {
+            final ServiceName serviceName = chainSN.append(String.valueOf(i));
+            final ServiceBuilder<Void> sb = txnController.newServiceContext(txn).addService(serviceRegistry, serviceName);
+            sb.setMode(ServiceMode.ON_DEMAND);
+            chain[i] = new TestService(serviceName, sb, false);
+            sb.setService(chain[i]).install();
+        }
+        prepare(txn);
+        commit(txn);
+        assertEquals(0, startCount(chain));
+
+        txn = newUpdateTransaction();
+        final ServiceBuilder<Void> sb = txnController.newServiceContext(txn).addService(serviceRegistry, rootSN);
+        for (int i = 0; i < width; i++) {
+            sb.addDependency(chainSN.append(String.valueOf(i)));
+        }
+        final TestService root = new TestService(rootSN, sb, false);
+        final ServiceController<Void> rootController = sb.setService(root).install();
+        prepare(txn);
+        commit(txn);
+        assertEquals(1, root.getStartCount());
+        assertEquals(width, startCount(chain));
+
+        txn = newUpdateTransaction();
+        rootController.remove(txn);
+        prepare(txn);
+        commit(txn);
+        assertEquals(width, stopCount(chain));
+    }
+
+    private static int startCount(final TestService[] services) {
+        int count = 0;
+        for (final TestService service : services) {
+            count += service.getStartCount();
+        }
+        return count;
+    }
+
+    private static int stopCount(final TestService[] services) {
+        int count = 0;
+        for (final TestService service : services) {
+            count += service.getStopCount();
+        }
+        return count;
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2014 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.msc.test;
+
+import org.jboss.msc.service.DependencyFlag;
+import org.jboss.msc.service.ServiceBuilder;
+import org.jboss.msc.service.ServiceController;
+import org.jboss.msc.service.ServiceName;
+import org.jboss.msc.txn.AbstractServiceTest;
+import org.jboss.msc.txn.DependencyGraph;
+import org.jboss.msc.txn.ReadTransaction;
+import org.jboss.msc.txn.TestService;
+import org.jboss.msc.txn.UpdateTransaction;
+import org.jboss.msc.util.CompletionListener;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests transitive dependents and dependencies queries.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opalka</a>
+ */
+public class DependencyGraphTestCase extends AbstractServiceTest {
+
+    private static final ServiceName firstSN = ServiceName.of("first");
+    private static final ServiceName aliasSN = ServiceName.of("alias");
+    private static final ServiceName secondSN = ServiceName.of("second");
+    private static final ServiceName thirdSN = ServiceName.of("third");
+    private static final ServiceName fourthSN = ServiceName.of("fourth");
+    private static final ServiceName fifthSN = ServiceName.of("fifth");
+    private static final int TREE_SIZE = 20000;
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI><B>first service</B> with alias</LI>
+     * <LI><B>second service</B> depends on <B>first service</B></LI>
+     * <LI><B>third service</B> depends on <B>first service</B> alias</LI>
+     * <LI><B>fourth service</B> depends on <B>second service</B> and <B>third service</B></LI>
+     * <LI><B>fifth service</B> without dependencies</LI>
+     * </UL>
+     */
+    @Test
+    public void diamond() throws Exception {
+        UpdateTransaction txn = newUpdateTransaction();
+        final ServiceController<?> first = install(txn, firstSN, aliasSN);
+        final ServiceController<?> second = install(txn, secondSN, null, firstSN);
+        final ServiceController<?> third = install(txn, thirdSN, null, aliasSN);
+        final ServiceController<?> fourth = install(txn, fourthSN, null, secondSN, thirdSN);
+        final ServiceController<?> fifth = install(txn, fifthSN, null);
+        prepare(txn);
+        commit(txn);
+
+        txn = newUpdateTransaction();
+        final List<ServiceController<?>> firstDependents = DependencyGraph.getTransitiveDependents(txn, first);
+        final List<ServiceController<?>> fourthDependencies = DependencyGraph.getTransitiveDependencies(txn, fourth);
+        final List<ServiceController<?>> fifthDependents = DependencyGraph.getTransitiveDependents(txn, fifth);
+        fourth.remove(txn);
+        prepare(txn);
+        commit(txn);
+
+        txn = newUpdateTransaction();
+        final List<ServiceController<?>> firstDependentsAfterRemoval = DependencyGraph.getTransitiveDependents(txn, first);
+        prepare(txn);
+        commit(txn);
+
+        assertEquals(3, firstDependents.size());
+        assertEquals(set(second, third, fourth), new HashSet<>(firstDependents));
+        // breadth first, direct dependents go first
+        assertEquals(fourth, firstDependents.get(2));
+        assertEquals(set(first, second, third), new HashSet<>(fourthDependencies));
+        assertTrue(fifthDependents.isEmpty());
+        assertEquals(set(second, third), new HashSet<>(firstDependentsAfterRemoval));
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI>binary tree of <B>services</B>, each service depends on its parent</LI>
+     * </UL>
+     */
+    @Test
+    public void largeTree() throws Exception {
+        final ServiceController<?>[] tree = new ServiceController<?>[TREE_SIZE];
+        UpdateTransaction txn = newUpdateTransaction();
+        for (int i = 0; i < TREE_SIZE; i++) {
+            final ServiceName parent = i > 0 ? ServiceName.of("tree", String.valueOf((i - 1) / 2)) : null;
+            tree[i] = parent != null ? install(txn, ServiceName.of("tree", String.valueOf(i)), null, parent) : install(txn, ServiceName.of("tree", "0"), null);
+        }
+        prepare(txn);
+        commit(txn);
+
+        txn = newUpdateTransaction();
+        final int leafDependents = DependencyGraph.getTransitiveDependents(txn, tree[TREE_SIZE - 1]).size();
+        final int leafDependencies = DependencyGraph.getTransitiveDependencies(txn, tree[TREE_SIZE - 1]).size();
+        final int rootDependents = DependencyGraph.getTransitiveDependents(txn, tree[0]).size();
+        final int subtreeDependents = DependencyGraph.getTransitiveDependents(txn, tree[1]).size();
+        prepare(txn);
+        commit(txn);
+
+        assertEquals(0, leafDependents);
+        assertEquals(14, leafDependencies);
+        assertEquals(TREE_SIZE - 1, rootDependents);
+        assertEquals(countDescendants(1), subtreeDependents);
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI><B>first service</B></LI>
+     * <LI><B>second service</B> depends on <B>first service</B> on access</LI>
+     * <LI><B>third service</B> depends on <B>first service</B></LI>
+     * </UL>
+     */
+    @Test
+    public void onAccessEdgesSkipped() throws Exception {
+        UpdateTransaction txn = newUpdateTransaction();
+        final ServiceController<?> first = install(txn, firstSN, null);
+        final ServiceBuilder<Void> sb = txnController.newServiceContext(txn).addService(serviceRegistry, secondSN);
+        sb.addDependency(firstSN, DependencyFlag.ON_ACCESS);
+        final ServiceController<?> second = sb.setService(new TestService(secondSN, sb, false)).install();
+        final ServiceController<?> third = install(txn, thirdSN, null, firstSN);
+        prepare(txn);
+        commit(txn);
+
+        txn = newUpdateTransaction();
+        final List<ServiceController<?>> firstDependents = DependencyGraph.getTransitiveDependents(txn, first);
+        final int secondDependencyCount = DependencyGraph.getTransitiveDependencyCount(txn, second);
+        prepare(txn);
+        commit(txn);
+
+        assertEquals(Arrays.<ServiceController<?>>asList(third), firstDependents);
+        assertEquals(0, secondDependencyCount);
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI><B>first service</B>, <B>second service</B> depends on it</LI>
+     * <LI>read-only transaction admitted</LI>
+     * <LI><B>third service</B> depending on <B>second service</B> installed</LI>
+     * </UL>
+     */
+    @Test
+    public void readVersionAndIndexUpdates() throws Exception {
+        UpdateTransaction txn = newUpdateTransaction();
+        final ServiceController<?> first = install(txn, firstSN, null);
+        install(txn, secondSN, null, firstSN);
+        prepare(txn);
+        commit(txn);
+        final ReadTransaction readTxn = newReadTransaction();
+
+        txn = newUpdateTransaction();
+        final int countBefore = DependencyGraph.getTransitiveDependentCount(txn, first);
+        // answered from reachability index
+        final int repeatedCount = DependencyGraph.getTransitiveDependentCount(txn, first);
+        final ServiceController<?> third = install(txn, thirdSN, null, secondSN);
+        final int countAfter = DependencyGraph.getTransitiveDependentCount(txn, first);
+        prepare(txn);
+        commit(txn);
+
+        final int readCount = DependencyGraph.getTransitiveDependentCount(readTxn, first);
+        final List<ServiceController<?>> thirdDependencies = DependencyGraph.getTransitiveDependencies(readTxn, third);
+        commit(readTxn);
+
+        assertEquals(1, countBefore);
+        assertEquals(1, repeatedCount);
+        assertEquals(2, countAfter);
+        // read-only transaction doesn't see third service
+        assertEquals(1, readCount);
+        assertTrue(thirdDependencies.isEmpty());
+    }
+
+    private ReadTransaction newReadTransaction() throws Exception {
+        final CompletionListener<ReadTransaction> createListener = new CompletionListener<>();
+        txnController.newReadTransaction(defaultExecutor, createListener);
+        return createListener.awaitCompletion(10, TimeUnit.SECONDS);
+    }
+
+    private ServiceController<?> install(final UpdateTransaction txn, final ServiceName name, final ServiceName alias, final ServiceName... dependencies) {
+        final ServiceBuilder<Void> sb = txnController.newServiceContext(txn).addService(serviceRegistry, name);
+        if (alias != null) sb.addAliases(alias);
+        for (final ServiceName dependency : dependencies) {
+            sb.addDependency(dependency);
+        }
+        return sb.setService(new TestService(name, sb, false)).install();
+    }
+
+    private static int countDescendants(final int node) {
+        int count = 0;
+        for (int i = node + 1; i < TREE_SIZE; i++) {
+            int ancestor = i;
+            while (ancestor > node) ancestor = (ancestor - 1) / 2;
+            if (ancestor == node) count++;
+        }
+        return count;
+    }
+
+    private static Set<ServiceController<?>> set(final ServiceController<?>... controllers) {
+        return new HashSet<>(Arrays.asList(controllers));
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2014 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.msc.test;
+
+import org.jboss.msc.service.ServiceBuilder;
+import org.jboss.msc.service.ServiceController;
+import org.jboss.msc.service.ServiceController.State;
+import org.jboss.msc.service.ServiceName;
+import org.jboss.msc.txn.AbstractServiceTest;
+import org.jboss.msc.txn.TestService;
+import org.jboss.msc.txn.UpdateTransaction;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests dependencies added while their dependency is transitioning get notified exactly once.
+ * <p>
+ * Controller publishes its new state before it notifies incoming dependencies, so a dependency added in between
+ * must not be notified based on the published state.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opalka</a>
+ */
+public class DependencyNotificationTestCase extends AbstractServiceTest {
+
+    private static final int ROUNDS = 100;
+    private static final int DEPENDENTS_COUNT = 50;
+    private static final ServiceName dependencySN = ServiceName.of("dependency");
+    private static final ServiceName dependentSN = ServiceName.of("dependent");
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI><B>dependency service</B> installed, <B>dependent services</B> depending on it installed while it starts,
+     * all <B>dependent services</B> go UP</LI>
+     * <LI><B>dependency service</B> disabled, more <B>dependent services</B> installed while it stops, all
+     * <B>dependent services</B> go DOWN</LI>
+     * <LI><B>dependency service</B> enabled, all <B>dependent services</B> go UP</LI>
+     * </UL>
+     */
+    @Test
+    public void dependenciesAddedWhileTransitioning() throws Exception {
+        for (int round = 0; round < ROUNDS; round++) {
+            final ServiceName roundDependencySN = dependencySN.append(String.valueOf(round));
+            final ServiceName roundDependentSN = dependentSN.append(String.valueOf(round));
+            final List<ServiceController<?>> dependents = new ArrayList<>();
+
+            UpdateTransaction txn = newUpdateTransaction();
+            final ServiceBuilder<Void> sb = txnController.newServiceContext(txn).addService(serviceRegistry, roundDependencySN);
+            final ServiceController<?> dependency = sb.setService(new TestService(roundDependencySN, sb, false)).install();
+            installDependents(txn, roundDependentSN.append("started"), roundDependencySN, dependents);
+            prepare(txn);
+            commit(txn);
+            assertStates(State.UP, dependents);
+
+            txn = newUpdateTransaction();
+            dependency.disable(txn);
+            installDependents(txn, roundDependentSN.append("stopped"), roundDependencySN, dependents);
+            prepare(txn);
+            commit(txn);
+            assertStates(State.DOWN, dependents);
+
+            txn = newUpdateTransaction();
+            dependency.enable(txn);
+            prepare(txn);
+            commit(txn);
+            assertStates(State.UP, dependents);
+        }
+    }
+
+    private void installDependents(final UpdateTransaction txn, final ServiceName namePrefix, final ServiceName dependency, final List<ServiceController<?>> dependents) {
+        for (int i = 0; i < DEPENDENTS_COUNT; i++) {
+            final ServiceName serviceName = namePrefix.append(String.valueOf(i));
+            final ServiceBuilder<Void> sb = txnController.newServiceContext(txn).addService(serviceRegistry, serviceName);
+            sb.addDependency(dependency);
+            dependents.add(sb.setService(new TestService(serviceName, sb, false)).install());
+        }
+    }
+
+    private void assertStates(final State expected, final List<ServiceController<?>> controllers) throws Exception {
+        final UpdateTransaction txn = newUpdateTransaction();
+        final List<State> states = new ArrayList<>();
+        for (final ServiceController<?> controller : controllers) {
+            states.add(controller.getState(txn));
+        }
+        prepare(txn);
+        commit(txn);
+        for (int i = 0; i < states.size(); i++) {
+            assertEquals(controllers.get(i).toString(), expected, states.get(i));
+        }
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2014 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.msc.test;
+
+import org.jboss.msc.service.Dependency;
+import org.jboss.msc.service.ServiceBuilder;
+import org.jboss.msc.service.ServiceController;
+import org.jboss.msc.service.ServiceController.State;
+import org.jboss.msc.service.ServiceName;
+import org.jboss.msc.txn.AbstractServiceTest;
+import org.jboss.msc.txn.DryRunPlan;
+import org.jboss.msc.txn.DryRunPlan.Action;
+import org.jboss.msc.txn.DryRunPlan.Step;
+import org.jboss.msc.txn.TestValueService;
+import org.jboss.msc.txn.UpdateTransaction;
+import org.jboss.msc.util.CompletionListener;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests dry run updating transactions.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opalka</a>
+ */
+public class DryRunTestCase extends AbstractServiceTest {
+
+    private static final ServiceName firstSN = ServiceName.of("first");
+    private static final ServiceName secondSN = ServiceName.of("second");
+    private static final ServiceName thirdSN = ServiceName.of("third");
+    private static final ServiceName fourthSN = ServiceName.of("fourth");
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI><B>first service</B>, <B>second service</B> depends on it, <B>third service</B> depends on <B>second service</B></LI>
+     * <LI>dry run transaction disables <B>first service</B> and installs <B>fourth service</B></LI>
+     * <LI>dry run transaction is rolled back</LI>
+     * </UL>
+     */
+    @Test
+    public void planRecordedWithoutLifecycle() throws Exception {
+        final TestValueService<String> first = new TestValueService<>("first"), second = new TestValueService<>("second"), third = new TestValueService<>("third"), fourth = new TestValueService<>("fourth");
+        UpdateTransaction txn = newUpdateTransaction();
+        final ServiceController<String> firstController = install(txn, firstSN, first);
+        final ServiceController<String> secondController = install(txn, secondSN, second, firstSN);
+        final ServiceController<String> thirdController = install(txn, thirdSN, third, secondSN);
+        prepare(txn);
+        commit(txn);
+
+        txn = newDryRunUpdateTransaction();
+        firstController.disable(txn);
+        install(txn, fourthSN, fourth);
+        prepare(txn);
+        final boolean canCommit = txnController.canCommit(txn);
+        final State firstState = firstController.getState(txn);
+        final State thirdState = thirdController.getState(txn);
+        final DryRunPlan plan = DryRunPlan.of(txn);
+        final List<Step> steps = plan.getSteps();
+        txn = rollback(txn);
+        prepare(txn);
+        final boolean rollbackCanCommit = txnController.canCommit(txn);
+        commit(txn);
+
+        txn = newUpdateTransaction();
+        final State firstStateAfterRollback = firstController.getState(txn);
+        final State secondStateAfterRollback = secondController.getState(txn);
+        final String firstValue = firstController.getValue(txn);
+        final String thirdValue = thirdController.getValue(txn);
+        final ServiceController<?> fourthController = serviceRegistry.getService(fourthSN);
+        prepare(txn);
+        commit(txn);
+
+        assertFalse(canCommit);
+        assertTrue(rollbackCanCommit);
+        assertEquals(State.DOWN, firstState);
+        assertEquals(State.DOWN, thirdState);
+        assertEquals(4, steps.size());
+        assertEquals(3, plan.getCount(Action.STOP));
+        assertEquals(1, plan.getCount(Action.START));
+        assertTrue(indexOf(steps, firstSN, Action.STOP) >= 0);
+        assertTrue(indexOf(steps, secondSN, Action.STOP) >= 0);
+        assertTrue(indexOf(steps, thirdSN, Action.STOP) >= 0);
+        assertTrue(indexOf(steps, fourthSN, Action.START) >= 0);
+        // services were neither started nor stopped by dry run and its rollback
+        for (final TestValueService<?> service : Arrays.asList(first, second, third)) {
+            assertEquals(1, service.getStartCount());
+            assertEquals(0, service.getStopCount());
+        }
+        assertEquals(0, fourth.getStartCount());
+        assertEquals(State.UP, firstStateAfterRollback);
+        assertEquals(State.UP, secondStateAfterRollback);
+        assertEquals("first", firstValue);
+        assertEquals("third", thirdValue);
+        assertNull(fourthController);
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI><B>first service</B>, <B>second service</B> depends on it</LI>
+     * <LI>dry run transaction disables <B>first service</B></LI>
+     * <LI>running <B>second service</B> reads its dependency before dry run transaction is rolled back</LI>
+     * </UL>
+     */
+    @Test
+    public void runningSystemUntouched() throws Exception {
+        final TestValueService<String> first = new TestValueService<>("first"), second = new TestValueService<>("second");
+        UpdateTransaction txn = newUpdateTransaction();
+        final ServiceController<String> firstController = install(txn, firstSN, first);
+        final ServiceBuilder<String> sb = txnController.newServiceContext(txn).addService(serviceRegistry, secondSN);
+        final Dependency<String> firstDependency = sb.addDependency(firstSN);
+        sb.setService(second).install();
+        prepare(txn);
+        commit(txn);
+
+        txn = newDryRunUpdateTransaction();
+        firstController.disable(txn);
+        prepare(txn);
+        final State dryRunState = firstController.getState(txn);
+        final String dryRunValue = firstController.getValue(txn);
+        // running system keeps the value of simulated stopped service
+        final String runningValue = firstDependency.get();
+        txn = rollback(txn);
+        prepare(txn);
+        commit(txn);
+
+        assertEquals(State.DOWN, dryRunState);
+        assertNull(dryRunValue);
+        assertEquals("first", runningValue);
+        assertEquals(0, first.getStopCount());
+        assertEquals(0, second.getStopCount());
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI><B>first service</B> installed and started</LI>
+     * <LI>dry run transaction attempts to remove <B>first service</B> and is refused</LI>
+     * <LI>dry run transaction is rolled back</LI>
+     * </UL>
+     */
+    @Test
+    public void removeRefused() throws Exception {
+        final TestValueService<String> first = new TestValueService<>("first");
+        UpdateTransaction txn = newUpdateTransaction();
+        final ServiceController<String> firstController = install(txn, firstSN, first);
+        prepare(txn);
+        commit(txn);
+
+        txn = newDryRunUpdateTransaction();
+        try {
+            firstController.remove(txn);
+            fail("IllegalStateException expected");
+        } catch (final IllegalStateException expected) {
+        }
+        prepare(txn);
+        final int stepCount = DryRunPlan.of(txn).getSteps().size();
+        txn = rollback(txn);
+        prepare(txn);
+        commit(txn);
+
+        assertEquals(0, stepCount);
+        assertSame(firstController, serviceRegistry.getService(firstSN));
+        assertEquals(State.UP, firstController.getState(txn));
+        assertEquals("first", firstController.getValue(txn));
+        assertEquals(1, first.getStartCount());
+        assertEquals(0, first.getStopCount());
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI>plan of regular updating transaction is requested</LI>
+     * </UL>
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void regularTransactionHasNoPlan() throws Exception {
+        final UpdateTransaction txn = newUpdateTransaction();
+        try {
+            DryRunPlan.of(txn);
+        } finally {
+            prepare(txn);
+            commit(txn);
+        }
+    }
+
+    private static int indexOf(final List<Step> steps, final ServiceName serviceName, final Action action) {
+        for (int i = 0; i < steps.size(); i++) {
+            if (steps.get(i).getServiceName().equals(serviceName) && steps.get(i).getAction() == action) return i;
+        }
+        return -1;
+    }
+
+    private UpdateTransaction newDryRunUpdateTransaction() throws Exception {
+        final CompletionListener<UpdateTransaction> createListener = new CompletionListener<>();
+        txnController.newDryRunUpdateTransaction(defaultExecutor, createListener);
+        return createListener.awaitCompletion(10, TimeUnit.SECONDS);
+    }
+
+    private static UpdateTransaction rollback(final UpdateTransaction txn) throws Exception {
+        final CompletionListener<UpdateTransaction> rollbackListener = new CompletionListener<>();
+        txnController.rollback(txn, rollbackListener);
+        return rollbackListener.awaitCompletion(10, TimeUnit.SECONDS);
+    }
+
+    private ServiceController<String> install(final UpdateTransaction txn, final ServiceName name, final TestValueService<String> service, final ServiceName... dependencies) {
+        final ServiceBuilder<String> sb = txnController.newServiceContext(txn).addService(serviceRegistry, name);
+        for (final ServiceName dependency : dependencies) {
+            sb.addDependency(dependency);
+        }
+        return sb.setService(service).install();
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.msc.test;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.jboss.msc.service.ServiceName;
+import org.jboss.msc.txn.AbstractServiceTest;
+import org.jboss.msc.txn.TestService;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opalka</a>
+ */
+public class FlightRecorderEventsTestCase extends AbstractServiceTest {
+
+    private static final ServiceName firstSN = ServiceName.of("first");
+    private static final ServiceName secondSN = ServiceName.of("second");
+
+    @Test
+    public void eventsAreRecorded() throws Exception {
+        assumeTrue(isFlightRecorderAvailable());
+        final File dump = File.createTempFile("msc", ".jfr");
+        try {
+            try (final Recording recording = new Recording()) {
+                recording.enable("org.jboss.msc.TransactionPhase");
+                recording.enable("org.jboss.msc.Task");
+                recording.enable("org.jboss.msc.ServiceState");
+                recording.enable("org.jboss.msc.AdmissionWait");
+                recording.start();
+                final TestService firstService = addService(firstSN);
+                assertTrue(firstService.isUp());
+                final TestService secondService = addService(secondSN);
+                assertTrue(secondService.isUp());
+                recording.stop();
+                recording.dump(dump.toPath());
+            }
+            final Set<String> recordedTypes = new HashSet<>();
+            final Set<Long> transactionIds = new HashSet<>();
+            boolean serviceUp = false;
+            for (final RecordedEvent event : RecordingFile.readAllEvents(dump.toPath())) {
+                final String type = event.getEventType().getName();
+                recordedTypes.add(type);
+                if ("org.jboss.msc.TransactionPhase".equals(type)) {
+                    transactionIds.add(event.getLong("transactionId"));
+                }
+                if ("org.jboss.msc.ServiceState".equals(type) && firstSN.getCanonicalName().equals(event.getString("service"))
+                        && "UP".equals(event.getString("to"))) {
+                    serviceUp = true;
+                }
+            }
+            assertTrue(recordedTypes.toString(), recordedTypes.contains("org.jboss.msc.TransactionPhase"));
+            assertTrue(recordedTypes.toString(), recordedTypes.contains("org.jboss.msc.Task"));
+            assertTrue(serviceUp);
+            // each transaction has its own id
+            assertTrue(transactionIds.toString(), transactionIds.size() >= 2);
+        } finally {
+            dump.delete();
+        }
+    }
+
+    private static boolean isFlightRecorderAvailable() {
+        try {
+            Class.forName("jdk.jfr.FlightRecorder");
+            return jdk.jfr.FlightRecorder.isAvailable();
+        } catch (Throwable t) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2014 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.msc.test;
+
+import org.jboss.msc.problem.Problem;
+import org.jboss.msc.problem.ProblemReport;
+import org.jboss.msc.service.ServiceBuilder;
+import org.jboss.msc.service.ServiceName;
+import org.jboss.msc.service.StartContext;
+import org.jboss.msc.txn.AbstractServiceTest;
+import org.jboss.msc.txn.TestService;
+import org.jboss.msc.txn.UpdateTransaction;
+import org.jboss.msc.util.Listener;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests bursts of small updates are merged into group commits.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opalka</a>
+ */
+public class GroupCommitTestCase extends AbstractServiceTest {
+
+    private static final int UPDATES = 500;
+    private static final ServiceName asyncSN = ServiceName.of("async");
+    private static final ServiceName dependentSN = ServiceName.of("dependent");
+    private static final ServiceName otherSN = ServiceName.of("other");
+    private static final String OTHER_THREAD_NAME = "other executor thread";
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI>burst of small updates, each installing one service, submitted concurrently</LI>
+     * </UL>
+     */
+    @Test
+    public void burstOfUpdates() throws Exception {
+        final CountDownLatch completionLatch = new CountDownLatch(UPDATES);
+        final ProblemReport[] reports = new ProblemReport[UPDATES];
+        final Set<UpdateTransaction> transactions = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<UpdateTransaction, Boolean>()));
+        for (int i = 0; i < UPDATES; i++) {
+            final ServiceName name = ServiceName.of("service", String.valueOf(i));
+            final int index = i;
+            txnController.submitUpdate(defaultExecutor, new Listener<UpdateTransaction>() {
+                @Override
+                public void handleEvent(final UpdateTransaction txn) {
+                    transactions.add(txn);
+                    final ServiceBuilder<Void> sb = txnController.newServiceContext(txn).addService(serviceRegistry, name);
+                    sb.setService(new TestService(name, sb, false)).install();
+                }
+            }, new Listener<ProblemReport>() {
+                @Override
+                public void handleEvent(final ProblemReport report) {
+                    reports[index] = report;
+                    completionLatch.countDown();
+                }
+            });
+        }
+        assertTrue(completionLatch.await(30, TimeUnit.SECONDS));
+        for (int i = 0; i < UPDATES; i++) {
+            assertNotNull(reports[i]);
+            assertTrue(reports[i].getProblems().isEmpty());
+            assertNotNull(serviceRegistry.getService(ServiceName.of("service", String.valueOf(i))));
+        }
+        // updates were merged
+        assertTrue(transactions.size() + " transactions", transactions.size() < UPDATES);
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI>two updates submitted, the first one installs service failing on start</LI>
+     * <LI>the failure is reported only to the first update</LI>
+     * </UL>
+     */
+    @Test
+    public void problemAttribution() throws Exception {
+        final CountDownLatch completionLatch = new CountDownLatch(2);
+        final ProblemReport[] reports = new ProblemReport[2];
+        for (int i = 0; i < 2; i++) {
+            final int index = i;
+            txnController.submitUpdate(defaultExecutor, new Listener<UpdateTransaction>() {
+                @Override
+                public void handleEvent(final UpdateTransaction txn) {
+                    final ServiceName name = ServiceName.of("service", String.valueOf(index));
+                    final ServiceBuilder<Void> sb = txnController.newServiceContext(txn).addService(serviceRegistry, name);
+                    sb.setService(index == 0 ? newFailingService(name, sb) : new TestService(name, sb, false)).install();
+                }
+            }, new Listener<ProblemReport>() {
+                @Override
+                public void handleEvent(final ProblemReport report) {
+                    reports[index] = report;
+                    completionLatch.countDown();
+                }
+            });
+        }
+        assertTrue(completionLatch.await(10, TimeUnit.SECONDS));
+        assertEquals(Problem.Severity.ERROR, reports[0].getMaxSeverity());
+        assertTrue(reports[1].getProblems().isEmpty());
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI>two updates merged into single transaction, the first one installs service failing on start</LI>
+     * <LI>the merged transaction is rolled back, the second update is retried and committed</LI>
+     * </UL>
+     */
+    @Test
+    public void failedUpdateReverted() throws Exception {
+        final CountDownLatch completionLatch = new CountDownLatch(2);
+        final ProblemReport[] reports = new ProblemReport[2];
+        final Set<UpdateTransaction> transactions = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<UpdateTransaction, Boolean>()));
+        // running transaction holds the updates back, so that they are merged
+        final UpdateTransaction blockingTxn = newUpdateTransaction();
+        for (int i = 0; i < 2; i++) {
+            final int index = i;
+            txnController.submitUpdate(defaultExecutor, new Listener<UpdateTransaction>() {
+                @Override
+                public void handleEvent(final UpdateTransaction txn) {
+                    transactions.add(txn);
+                    final ServiceName name = ServiceName.of("service", String.valueOf(index));
+                    final ServiceBuilder<Void> sb = txnController.newServiceContext(txn).addService(serviceRegistry, name);
+                    sb.setService(index == 0 ? newFailingService(name, sb) : new TestService(name, sb, false)).install();
+                }
+            }, new Listener<ProblemReport>() {
+                @Override
+                public void handleEvent(final ProblemReport report) {
+                    reports[index] = report;
+                    completionLatch.countDown();
+                }
+            });
+        }
+        prepare(blockingTxn);
+        commit(blockingTxn);
+        assertTrue(completionLatch.await(10, TimeUnit.SECONDS));
+        assertEquals(Problem.Severity.ERROR, reports[0].getMaxSeverity());
+        assertTrue(reports[1].getProblems().toString(), reports[1].getProblems().isEmpty());
+        // merged transaction and the retry of the second update
+        assertEquals(2, transactions.size());
+        assertNull(serviceRegistry.getService(ServiceName.of("service", "0")));
+        assertNotNull(serviceRegistry.getService(ServiceName.of("service", "1")));
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI>two updates merged into single transaction</LI>
+     * <LI>the first one installs <B>async service</B> completing its start in another thread and
+     * <B>dependent service</B> depending on it and failing on start</LI>
+     * <LI>the second one installs <B>other service</B></LI>
+     * <LI>the failure is reported only to the first update</LI>
+     * </UL>
+     */
+    @Test
+    public void problemAttributionAfterAsyncStart() throws Exception {
+        final CountDownLatch completionLatch = new CountDownLatch(2);
+        final ProblemReport[] reports = new ProblemReport[2];
+        // running transaction holds the updates back, so that they are merged
+        final UpdateTransaction blockingTxn = newUpdateTransaction();
+        final TestService async = new TestService(asyncSN, null, false);
+        async.setCompleteStart(false);
+        txnController.submitUpdate(defaultExecutor, new Listener<UpdateTransaction>() {
+            @Override
+            public void handleEvent(final UpdateTransaction txn) {
+                ServiceBuilder<Void> sb = txnController.newServiceContext(txn).addService(serviceRegistry, asyncSN);
+                sb.setService(async).install();
+                sb = txnController.newServiceContext(txn).addService(serviceRegistry, dependentSN);
+                sb.addDependency(asyncSN);
+                sb.setService(newFailingService(dependentSN, sb)).install();
+            }
+        }, new Listener<ProblemReport>() {
+            @Override
+            public void handleEvent(final ProblemReport report) {
+                reports[0] = report;
+                completionLatch.countDown();
+            }
+        });
+        txnController.submitUpdate(defaultExecutor, new Listener<UpdateTransaction>() {
+            @Override
+            public void handleEvent(final UpdateTransaction txn) {
+                final ServiceBuilder<Void> sb = txnController.newServiceContext(txn).addService(serviceRegistry, otherSN);
+                sb.setService(new TestService(otherSN, sb, false)).install();
+            }
+        }, new Listener<ProblemReport>() {
+            @Override
+            public void handleEvent(final ProblemReport report) {
+                reports[1] = report;
+                completionLatch.countDown();
+            }
+        });
+        prepare(blockingTxn);
+        commit(blockingTxn);
+        final Thread completingThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                async.completeStart();
+            }
+        });
+        completingThread.start();
+        completingThread.join(10000);
+        assertTrue(completionLatch.await(10, TimeUnit.SECONDS));
+        assertEquals(Problem.Severity.ERROR, reports[0].getMaxSeverity());
+        assertTrue(reports[1].getProblems().toString(), reports[1].getProblems().isEmpty());
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI>two updates submitted with different executors while the updating transaction holds them back</LI>
+     * <LI>each update runs its tasks with its own executor</LI>
+     * </UL>
+     */
+    @Test
+    public void updatesWithDifferentExecutors() throws Exception {
+        final ThreadPoolExecutor otherExecutor = new ThreadPoolExecutor(2, 2, 0L, TimeUnit.DAYS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                return new Thread(r, OTHER_THREAD_NAME);
+            }
+        });
+        try {
+            final CountDownLatch completionLatch = new CountDownLatch(2);
+            final Thread[] startThreads = new Thread[2];
+            final UpdateTransaction blockingTxn = newUpdateTransaction();
+            for (int i = 0; i < 2; i++) {
+                final int index = i;
+                txnController.submitUpdate(index == 0 ? defaultExecutor : otherExecutor, new Listener<UpdateTransaction>() {
+                    @Override
+                    public void handleEvent(final UpdateTransaction txn) {
+                        final ServiceName name = ServiceName.of("service", String.valueOf(index));
+                        final ServiceBuilder<Void> sb = txnController.newServiceContext(txn).addService(serviceRegistry, name);
+                        sb.setService(new TestService(name, sb, false) {
+                            @Override
+                            protected void starting(final StartContext<Void> context) {
+                                startThreads[index] = Thread.currentThread();
+                            }
+                        }).install();
+                    }
+                }, new Listener<ProblemReport>() {
+                    @Override
+                    public void handleEvent(final ProblemReport report) {
+                        completionLatch.countDown();
+                    }
+                });
+            }
+            prepare(blockingTxn);
+            commit(blockingTxn);
+            assertTrue(completionLatch.await(10, TimeUnit.SECONDS));
+            assertEquals(OTHER_THREAD_NAME, startThreads[1].getName());
+            assertNotEquals(OTHER_THREAD_NAME, startThreads[0].getName());
+        } finally {
+            otherExecutor.shutdown();
+            otherExecutor.awaitTermination(60, TimeUnit.SECONDS);
+        }
+    }
+
+    private static TestService newFailingService(final ServiceName name, final ServiceBuilder<Void> sb) {
+        return new TestService(name, sb, true) {
+            @Override
+            protected void starting(final StartContext<Void> context) {
+                context.addProblem(new UnsupportedOperationException());
+            }
+        };
+    }
+}
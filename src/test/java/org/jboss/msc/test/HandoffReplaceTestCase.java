@@ -0,0 +1,250 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2014 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.msc.test;
+
+import org.jboss.msc.problem.Problem;
+import org.jboss.msc.service.Service;
+import org.jboss.msc.service.ServiceBuilder;
+import org.jboss.msc.service.ServiceController;
+import org.jboss.msc.service.ServiceController.State;
+import org.jboss.msc.service.ServiceName;
+import org.jboss.msc.service.StartContext;
+import org.jboss.msc.service.StopContext;
+import org.jboss.msc.txn.AbstractServiceTest;
+import org.jboss.msc.txn.CriticalPathAnalyzer;
+import org.jboss.msc.txn.LifecycleWatchdog;
+import org.jboss.msc.txn.TestValueService;
+import org.jboss.msc.txn.UpdateTransaction;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests in place replacement of services.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opalka</a>
+ */
+public class HandoffReplaceTestCase extends AbstractServiceTest {
+
+    private static final ServiceName firstSN = ServiceName.of("first");
+    private static final ServiceName secondSN = ServiceName.of("second");
+
+    private final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI><B>first service</B> running, <B>second service</B> depends on it</LI>
+     * <LI><B>first service</B> replaced in place</LI>
+     * </UL>
+     */
+    @Test
+    public void dependentsKeepRunning() throws Exception {
+        UpdateTransaction txn = newUpdateTransaction();
+        final ServiceController<String> first = install(txn, firstSN, new RecordingService("old", false));
+        install(txn, secondSN, new RecordingService("dependent", false), firstSN);
+        prepare(txn);
+        commit(txn);
+        events.clear();
+
+        final RecordingService replacement = new RecordingService("new", false);
+        txn = newUpdateTransaction();
+        first.replaceInPlace(txn, replacement);
+        prepare(txn);
+        commit(txn);
+
+        txn = newUpdateTransaction();
+        final State state = first.getState(txn);
+        final String value = first.getValue(txn);
+        prepare(txn);
+        commit(txn);
+
+        assertEquals(Arrays.asList("start new", "stop old"), events);
+        assertEquals(State.UP, state);
+        assertEquals("new", value);
+        assertSame(replacement, first.getService());
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI><B>first service</B> running, <B>second service</B> depends on it</LI>
+     * <LI><B>first service</B> replaced in place by service failing to start</LI>
+     * </UL>
+     */
+    @Test
+    public void failedHandoffKeepsRunningService() throws Exception {
+        final RecordingService original = new RecordingService("old", false);
+        UpdateTransaction txn = newUpdateTransaction();
+        final ServiceController<String> first = install(txn, firstSN, original);
+        install(txn, secondSN, new RecordingService("dependent", false), firstSN);
+        prepare(txn);
+        commit(txn);
+        events.clear();
+
+        txn = newUpdateTransaction();
+        first.replaceInPlace(txn, new RecordingService("new", true));
+        prepare(txn);
+        final List<Problem> problems = txn.getReport().getProblems();
+        commit(txn);
+
+        txn = newUpdateTransaction();
+        final State state = first.getState(txn);
+        final String value = first.getValue(txn);
+        prepare(txn);
+        commit(txn);
+
+        assertEquals(Arrays.asList("start new"), events);
+        assertEquals(1, problems.size());
+        assertEquals(Problem.Severity.WARNING, problems.get(0).getSeverity());
+        assertEquals(State.UP, state);
+        assertEquals("old", value);
+        assertSame(original, first.getService());
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI><B>first service</B> disabled</LI>
+     * <LI><B>first service</B> replaced in place</LI>
+     * </UL>
+     */
+    @Test
+    public void downServiceReplaced() throws Exception {
+        UpdateTransaction txn = newUpdateTransaction();
+        final ServiceController<String> first = install(txn, firstSN, new RecordingService("old", false));
+        first.disable(txn);
+        prepare(txn);
+        commit(txn);
+        events.clear();
+
+        final RecordingService replacement = new RecordingService("new", false);
+        txn = newUpdateTransaction();
+        first.replaceInPlace(txn, replacement);
+        prepare(txn);
+        commit(txn);
+
+        assertEquals(Collections.<String>emptyList(), events);
+        assertSame(replacement, first.getService());
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI><B>first service</B> running</LI>
+     * <LI><B>first service</B> replaced in place by service never completing its start</LI>
+     * <LI>watchdog fails overdue starts</LI>
+     * </UL>
+     */
+    @Test
+    public void hungHandoffFailedAfterTimeout() throws Exception {
+        final RecordingService original = new RecordingService("old", false);
+        UpdateTransaction txn = newUpdateTransaction();
+        final ServiceController<String> first = install(txn, firstSN, original);
+        prepare(txn);
+        commit(txn);
+
+        final AtomicReference<StartContext<String>> startContext = new AtomicReference<>();
+        txn = newUpdateTransaction();
+        LifecycleWatchdog.attach(txn, 100, TimeUnit.MILLISECONDS, true);
+        first.replaceInPlace(txn, new Service<String>() {
+            @Override
+            public void start(final StartContext<String> context) {
+                startContext.set(context);
+            }
+
+            @Override
+            public void stop(final StopContext context) {
+                context.complete();
+            }
+        });
+        prepare(txn);
+        final List<Problem> problems = txn.getReport().getProblems();
+        commit(txn);
+        // late completion is ignored
+        startContext.get().complete("new");
+
+        txn = newUpdateTransaction();
+        final String value = first.getValue(txn);
+        prepare(txn);
+        commit(txn);
+
+        // overdue start and failed handoff
+        assertEquals(2, problems.size());
+        assertEquals("old", value);
+        assertSame(original, first.getService());
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI><B>first service</B> running</LI>
+     * <LI><B>first service</B> replaced in place, transaction analyzes critical path</LI>
+     * </UL>
+     */
+    @Test
+    public void handoffStartAnalyzed() throws Exception {
+        UpdateTransaction txn = newUpdateTransaction();
+        final ServiceController<String> first = install(txn, firstSN, new RecordingService("old", false));
+        prepare(txn);
+        commit(txn);
+
+        txn = newUpdateTransaction();
+        final CriticalPathAnalyzer analyzer = CriticalPathAnalyzer.attach(txn);
+        first.replaceInPlace(txn, new RecordingService("new", false));
+        prepare(txn);
+        commit(txn);
+
+        final List<CriticalPathAnalyzer.ServiceTiming> timings = analyzer.getTimings();
+        assertEquals(1, timings.size());
+        assertEquals(firstSN, timings.get(0).getServiceName());
+    }
+
+    private ServiceController<String> install(final UpdateTransaction txn, final ServiceName name, final RecordingService service, final ServiceName... dependencies) {
+        final ServiceBuilder<String> sb = txnController.newServiceContext(txn).addService(serviceRegistry, name);
+        for (final ServiceName dependency : dependencies) {
+            sb.addDependency(dependency);
+        }
+        return sb.setService(service).install();
+    }
+
+    private final class RecordingService extends TestValueService<String> {
+
+        private RecordingService(final String value, final boolean failToStart) {
+            super(value, failToStart);
+        }
+
+        @Override
+        protected void starting(final StartContext<String> context) {
+            events.add("start " + getValue());
+        }
+
+        @Override
+        protected void stopping(final StopContext context) {
+            events.add("stop " + getValue());
+        }
+    }
+}
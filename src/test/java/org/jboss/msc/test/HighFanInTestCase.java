@@ -0,0 +1,118 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2014 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.msc.test;
+
+import org.jboss.msc.service.ServiceBuilder;
+import org.jboss.msc.service.ServiceController;
+import org.jboss.msc.service.ServiceController.State;
+import org.jboss.msc.service.ServiceName;
+import org.jboss.msc.txn.AbstractServiceTest;
+import org.jboss.msc.txn.TestService;
+import org.jboss.msc.txn.UpdateTransaction;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests controllers with many dependencies coming up concurrently.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opalka</a>
+ */
+public class HighFanInTestCase extends AbstractServiceTest {
+
+    private static final int DEPENDENTS_COUNT = 4;
+    private static final int DEPENDENCIES_COUNT = 5000;
+    private static final ServiceName dependentSN = ServiceName.of("dependent");
+    private static final ServiceName dependencySN = ServiceName.of("dependency");
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI><B>dependent services</B>, each depends on all <B>dependency services</B></LI>
+     * <LI><B>dependency services</B>, no dependencies</LI>
+     * <LI>all services installed in single transaction, then all <B>dependency services</B> disabled and enabled</LI>
+     * <LI>each <B>dependent service</B> starts once per bounce and ends up UP, no notification is lost</LI>
+     * </UL>
+     */
+    @Test
+    public void highFanIn() throws Exception {
+        final TestService[] dependents = new TestService[DEPENDENTS_COUNT];
+        final TestService[] dependencies = new TestService[DEPENDENCIES_COUNT];
+        final ServiceController<?>[] dependentControllers = new ServiceController<?>[DEPENDENTS_COUNT];
+        final ServiceController<?>[] dependencyControllers = new ServiceController<?>[DEPENDENCIES_COUNT];
+        UpdateTransaction txn = newUpdateTransaction();
+        for (int i = 0; i < DEPENDENTS_COUNT; i++) {
+            final ServiceName serviceName = dependentSN.append(String.valueOf(i));
+            final ServiceBuilder<Void> sb = txnController.newServiceContext(txn).addService(serviceRegistry, serviceName);
+            for (int j = 0; j < DEPENDENCIES_COUNT; j++) {
+                sb.addDependency(dependencySN.append(String.valueOf(j)));
+            }
+            dependents[i] = new TestService(serviceName, sb, false);
+            dependentControllers[i] = sb.setService(dependents[i]).install();
+        }
+        for (int i = 0; i < DEPENDENCIES_COUNT; i++) {
+            final ServiceName serviceName = dependencySN.append(String.valueOf(i));
+            final ServiceBuilder<Void> sb = txnController.newServiceContext(txn).addService(serviceRegistry, serviceName);
+            dependencies[i] = new TestService(serviceName, sb, false);
+            dependencyControllers[i] = sb.setService(dependencies[i]).install();
+        }
+        prepare(txn);
+        commit(txn);
+        final int[] installStarts = startCounts(dependents);
+
+        txn = newUpdateTransaction();
+        for (final ServiceController<?> controller : dependencyControllers) {
+            controller.disable(txn);
+        }
+        prepare(txn);
+        commit(txn);
+        txn = newUpdateTransaction();
+        for (final ServiceController<?> controller : dependencyControllers) {
+            controller.enable(txn);
+        }
+        prepare(txn);
+        commit(txn);
+
+        txn = newUpdateTransaction();
+        final State[] dependentStates = new State[DEPENDENTS_COUNT];
+        for (int i = 0; i < DEPENDENTS_COUNT; i++) {
+            dependentStates[i] = dependentControllers[i].getState(txn);
+        }
+        prepare(txn);
+        commit(txn);
+
+        for (int i = 0; i < DEPENDENTS_COUNT; i++) {
+            assertEquals(1, installStarts[i]);
+            assertEquals(State.UP, dependentStates[i]);
+            assertEquals(2, dependents[i].getStartCount());
+            assertEquals(1, dependents[i].getStopCount());
+        }
+        for (final TestService dependency : dependencies) {
+            assertEquals(2, dependency.getStartCount());
+            assertEquals(1, dependency.getStopCount());
+        }
+    }
+
+    private static int[] startCounts(final TestService[] services) {
+        final int[] startCounts = new int[services.length];
+        for (int i = 0; i < services.length; i++) {
+            startCounts[i] = services[i].getStartCount();
+        }
+        return startCounts;
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2014 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.msc.test;
+
+import org.jboss.msc.problem.Problem;
+import org.jboss.msc.problem.Problem.Severity;
+import org.jboss.msc.service.ServiceBuilder;
+import org.jboss.msc.service.ServiceController;
+import org.jboss.msc.service.ServiceController.State;
+import org.jboss.msc.service.ServiceName;
+import org.jboss.msc.txn.AbstractServiceTest;
+import org.jboss.msc.txn.LifecycleWatchdog;
+import org.jboss.msc.txn.TestService;
+import org.jboss.msc.txn.UpdateTransaction;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests service start and stop watchdog.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opalka</a>
+ */
+public class LifecycleWatchdogTestCase extends AbstractServiceTest {
+
+    private static final ServiceName serviceSN = ServiceName.of("service");
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI><B>service</B> never completes its start</LI>
+     * <LI>watchdog fails overdue starts</LI>
+     * </UL>
+     */
+    @Test
+    public void hungStartFailedAfterTimeout() throws Exception {
+        final TestService service = new TestService(serviceSN, null, false);
+        service.setCompleteStart(false);
+        final UpdateTransaction txn = newUpdateTransaction();
+        LifecycleWatchdog.attach(txn, 100, TimeUnit.MILLISECONDS, true);
+        final ServiceController<Void> controller = install(txn, service);
+        prepare(txn);
+        final State state = controller.getState(txn);
+        final int warnings = countWarnings(txn);
+        commit(txn);
+        // late completion is ignored
+        service.getStartContext().complete();
+
+        assertEquals(State.FAILED, state);
+        assertEquals(1, warnings);
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI><B>service</B> completes its start after the timeout</LI>
+     * <LI>watchdog only reports overdue starts</LI>
+     * </UL>
+     */
+    @Test
+    public void slowStartReported() throws Exception {
+        final TestService service = new TestService(serviceSN, null, false);
+        service.setCompleteStart(false);
+        final UpdateTransaction txn = newUpdateTransaction();
+        LifecycleWatchdog.attach(txn, 50, TimeUnit.MILLISECONDS, false);
+        final ServiceController<Void> controller = install(txn, service);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(300);
+                    service.completeStart();
+                } catch (final InterruptedException ignored) {
+                }
+            }
+        }).start();
+        prepare(txn);
+        final State state = controller.getState(txn);
+        final int warnings = countWarnings(txn);
+        commit(txn);
+
+        assertEquals(State.UP, state);
+        assertEquals(1, warnings);
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI><B>service</B> never completes its stop</LI>
+     * <LI><B>service</B> removed, watchdog completes overdue stops</LI>
+     * </UL>
+     */
+    @Test
+    public void hungStopCompletedAfterTimeout() throws Exception {
+        final TestService service = new TestService(serviceSN, null, false);
+        service.setCompleteStop(false);
+        UpdateTransaction txn = newUpdateTransaction();
+        final ServiceController<Void> controller = install(txn, service);
+        prepare(txn);
+        commit(txn);
+
+        txn = newUpdateTransaction();
+        LifecycleWatchdog.attach(txn, 100, TimeUnit.MILLISECONDS, true);
+        controller.remove(txn);
+        prepare(txn);
+        final int warnings = countWarnings(txn);
+        commit(txn);
+
+        assertEquals(1, warnings);
+        assertEquals(0, getRegistrationCount(serviceRegistry));
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI><B>service</B> completes its start within the timeout</LI>
+     * <LI>second completion of the start is rejected</LI>
+     * </UL>
+     */
+    @Test
+    public void repeatedStartCompletionRejected() throws Exception {
+        final TestService service = new TestService(serviceSN, null, false);
+        service.setCompleteStart(false);
+        final UpdateTransaction txn = newUpdateTransaction();
+        LifecycleWatchdog.attach(txn, 60, TimeUnit.SECONDS, true);
+        final ServiceController<Void> controller = install(txn, service);
+        service.completeStart();
+        prepare(txn);
+        final State state = controller.getState(txn);
+        final int warnings = countWarnings(txn);
+        commit(txn);
+        try {
+            service.getStartContext().complete();
+            fail("IllegalStateException expected");
+        } catch (final IllegalStateException expected) {
+        }
+
+        assertEquals(State.UP, state);
+        assertEquals(0, warnings);
+    }
+
+    private ServiceController<Void> install(final UpdateTransaction txn, final TestService service) {
+        final ServiceBuilder<Void> sb = txnController.newServiceContext(txn).addService(serviceRegistry, serviceSN);
+        return sb.setService(service).install();
+    }
+
+    private static int countWarnings(final UpdateTransaction txn) {
+        int count = 0;
+        for (final Problem problem : txn.getReport().getProblems()) {
+            if (problem.getSeverity() == Severity.WARNING) count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2014 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.msc.test;
+
+import org.jboss.msc.service.DependencyFlag;
+import org.jboss.msc.service.ServiceBuilder;
+import org.jboss.msc.service.ServiceName;
+import org.jboss.msc.txn.AbstractServiceTest;
+import org.jboss.msc.txn.ReadTransaction;
+import org.jboss.msc.txn.UpdateTransaction;
+import org.jboss.msc.util.CompletionListener;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests registry keeps index of missing services.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opalka</a>
+ */
+public class MissingServicesTestCase extends AbstractServiceTest {
+
+    private static final ServiceName firstSN = ServiceName.of("first");
+    private static final ServiceName secondSN = ServiceName.of("second");
+    private static final ServiceName thirdSN = ServiceName.of("third");
+    private static final ServiceName missingSN = ServiceName.of("missing");
+    private static final ServiceName otherSN = ServiceName.of("other");
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI><B>first service</B> and <B>second service</B> require <B>missing service</B></LI>
+     * <LI><B>third service</B> has unrequired dependency on <B>other service</B></LI>
+     * <LI><B>missing service</B> gets installed, later removed together with services requiring it</LI>
+     * </UL>
+     */
+    @Test
+    public void missingServicesIndex() throws Exception {
+        UpdateTransaction txn = newUpdateTransaction();
+        install(txn, firstSN, missingSN);
+        install(txn, secondSN, missingSN);
+        install(txn, thirdSN, otherSN, DependencyFlag.UNREQUIRED);
+        assertEquals(Collections.singleton(missingSN), serviceRegistry.getMissingServices(txn));
+        assertEquals(new HashSet<>(Arrays.asList(firstSN, secondSN)), serviceRegistry.getBlockedServices(txn, missingSN));
+        assertTrue(serviceRegistry.getBlockedServices(txn, otherSN).isEmpty());
+        txnController.newServiceContext(txn).addService(serviceRegistry, missingSN).install();
+        assertTrue(serviceRegistry.getMissingServices(txn).isEmpty());
+        prepare(txn);
+        commit(txn);
+
+        txn = newUpdateTransaction();
+        serviceRegistry.getRequiredService(missingSN).remove(txn);
+        prepare(txn);
+        assertEquals(Collections.singleton(missingSN), serviceRegistry.getMissingServices(txn));
+        commit(txn);
+
+        txn = newUpdateTransaction();
+        serviceRegistry.getRequiredService(firstSN).remove(txn);
+        prepare(txn);
+        assertEquals(Collections.singleton(secondSN), serviceRegistry.getBlockedServices(txn, missingSN));
+        commit(txn);
+
+        txn = newUpdateTransaction();
+        serviceRegistry.getRequiredService(secondSN).remove(txn);
+        prepare(txn);
+        assertTrue(serviceRegistry.getMissingServices(txn).isEmpty());
+        commit(txn);
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI><B>first service</B> requires <B>missing service</B></LI>
+     * <LI>read-only transaction admitted</LI>
+     * <LI><B>missing service</B> gets installed, <B>second service</B> requiring <B>other service</B> too</LI>
+     * </UL>
+     */
+    @Test
+    public void missingServicesAtReadVersion() throws Exception {
+        UpdateTransaction txn = newUpdateTransaction();
+        install(txn, firstSN, missingSN);
+        prepare(txn);
+        commit(txn);
+        final ReadTransaction readTxn = newReadTransaction();
+
+        txn = newUpdateTransaction();
+        txnController.newServiceContext(txn).addService(serviceRegistry, missingSN).install();
+        install(txn, secondSN, otherSN);
+        assertEquals(Collections.singleton(otherSN), serviceRegistry.getMissingServices(txn));
+        prepare(txn);
+        commit(txn);
+
+        // read-only transaction sees registry as it was committed before it was created
+        assertEquals(Collections.singleton(missingSN), serviceRegistry.getMissingServices(readTxn));
+        assertEquals(Collections.singleton(firstSN), serviceRegistry.getBlockedServices(readTxn, missingSN));
+        assertTrue(serviceRegistry.getBlockedServices(readTxn, otherSN).isEmpty());
+        commit(readTxn);
+    }
+
+    private ReadTransaction newReadTransaction() throws Exception {
+        final CompletionListener<ReadTransaction> createListener = new CompletionListener<>();
+        txnController.newReadTransaction(defaultExecutor, createListener);
+        return createListener.awaitCompletion(10, TimeUnit.SECONDS);
+    }
+
+    private void install(final UpdateTransaction txn, final ServiceName name, final ServiceName dependency, final DependencyFlag... flags) {
+        final ServiceBuilder<Void> sb = txnController.newServiceContext(txn).addService(serviceRegistry, name);
+        sb.addDependency(dependency, flags);
+        sb.install();
+    }
+}
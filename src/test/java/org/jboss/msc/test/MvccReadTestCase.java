@@ -0,0 +1,147 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2014 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.msc.test;
+
+import org.jboss.msc.service.ServiceBuilder;
+import org.jboss.msc.service.ServiceController;
+import org.jboss.msc.service.ServiceController.State;
+import org.jboss.msc.service.ServiceName;
+import org.jboss.msc.service.StartContext;
+import org.jboss.msc.txn.AbstractServiceTest;
+import org.jboss.msc.txn.ReadTransaction;
+import org.jboss.msc.txn.TestValueService;
+import org.jboss.msc.txn.UpdateTransaction;
+import org.jboss.msc.util.CompletionListener;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests read-only transactions read committed registry versions.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opalka</a>
+ */
+public class MvccReadTestCase extends AbstractServiceTest {
+
+    private static final ServiceName firstSN = ServiceName.of("first");
+    private static final ServiceName secondSN = ServiceName.of("second");
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI><B>first service</B>, installed and committed</LI>
+     * <LI>updating transaction disables <B>first service</B> and installs <B>second service</B>, which blocks on start</LI>
+     * <LI>read-only transactions created while and after updating transaction runs</LI>
+     * </UL>
+     */
+    @Test
+    public void readCommittedVersion() throws Exception {
+        UpdateTransaction txn = newUpdateTransaction();
+        final ServiceController<String> first = install(txn, firstSN, new TestValueService<>("first"));
+        prepare(txn);
+        commit(txn);
+
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        txn = newUpdateTransaction();
+        first.disable(txn);
+        install(txn, secondSN, new TestValueService<String>("second") {
+            @Override
+            protected void starting(final StartContext<String> context) {
+                try {
+                    startLatch.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        final CompletionListener<UpdateTransaction> prepareListener = new CompletionListener<>();
+        txnController.prepare(txn, prepareListener);
+
+        // read-only transaction is admitted even if updating transaction is running
+        final ReadTransaction readTxn1 = newReadTransaction();
+        assertSame(first, serviceRegistry.getService(readTxn1, firstSN));
+        assertEquals(State.UP, first.getState(readTxn1));
+        assertEquals("first", first.getValue(readTxn1));
+        assertNull(serviceRegistry.getService(readTxn1, secondSN));
+
+        startLatch.countDown();
+        prepareListener.awaitCompletion(10, TimeUnit.SECONDS);
+        commit(txn);
+
+        // read-only transaction keeps seeing the version it was admitted with
+        assertEquals(State.UP, first.getState(readTxn1));
+        assertNull(serviceRegistry.getService(readTxn1, secondSN));
+
+        final ReadTransaction readTxn2 = newReadTransaction();
+        assertEquals(State.DOWN, first.getState(readTxn2));
+        assertNull(first.getValue(readTxn2));
+        final ServiceController<String> second = serviceRegistry.getService(readTxn2, secondSN);
+        assertNotNull(second);
+        assertEquals(State.UP, second.getState(readTxn2));
+        assertEquals("second", second.getValue(readTxn2));
+        commit(readTxn1);
+        commit(readTxn2);
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI><B>first service</B>, installed and committed</LI>
+     * <LI>updating transaction removes <B>first service</B></LI>
+     * </UL>
+     */
+    @Test
+    public void readRemovedService() throws Exception {
+        UpdateTransaction txn = newUpdateTransaction();
+        final ServiceController<String> first = install(txn, firstSN, new TestValueService<>("first"));
+        prepare(txn);
+        commit(txn);
+        final ReadTransaction readTxn1 = newReadTransaction();
+
+        txn = newUpdateTransaction();
+        first.remove(txn);
+        prepare(txn);
+        // updating transaction reads current state
+        assertNull(serviceRegistry.getService(txn, firstSN));
+        commit(txn);
+
+        final ReadTransaction readTxn2 = newReadTransaction();
+        assertEquals(State.UP, first.getState(readTxn1));
+        assertEquals(State.REMOVED, first.getState(readTxn2));
+        assertNull(serviceRegistry.getService(readTxn2, firstSN));
+        commit(readTxn1);
+        commit(readTxn2);
+    }
+
+    private ReadTransaction newReadTransaction() throws Exception {
+        final CompletionListener<ReadTransaction> createListener = new CompletionListener<>();
+        txnController.newReadTransaction(defaultExecutor, createListener);
+        return createListener.awaitCompletion(10, TimeUnit.SECONDS);
+    }
+
+    private ServiceController<String> install(final UpdateTransaction txn, final ServiceName name, final TestValueService<String> service) {
+        final ServiceBuilder<String> sb = txnController.newServiceContext(txn).addService(serviceRegistry, name);
+        return sb.setService(service).install();
+    }
+}
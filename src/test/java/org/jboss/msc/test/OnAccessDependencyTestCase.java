@@ -0,0 +1,314 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2014 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.msc.test;
+
+import org.jboss.msc.service.DependencyFlag;
+import org.jboss.msc.service.ServiceBuilder;
+import org.jboss.msc.service.ServiceController;
+import org.jboss.msc.service.ServiceMode;
+import org.jboss.msc.service.ServiceName;
+import org.jboss.msc.service.StartContext;
+import org.jboss.msc.txn.AbstractServiceTest;
+import org.jboss.msc.txn.DependencyInfo;
+import org.jboss.msc.txn.TestService;
+import org.jboss.msc.txn.TestValueService;
+import org.jboss.msc.txn.UpdateTransaction;
+import org.junit.Test;
+
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests {@link DependencyFlag#ON_ACCESS} dependencies.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opalka</a>
+ */
+public class OnAccessDependencyTestCase extends AbstractServiceTest {
+
+    private static final ServiceName dependentSN = ServiceName.of("dependent");
+    private static final ServiceName dependencySN = ServiceName.of("dependency");
+    private static final ServiceName accessorSN = ServiceName.of("accessor");
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI><B>dependency service</B>, ON_DEMAND mode, no dependencies</LI>
+     * <LI><B>dependent service</B>, on access dependency on <B>dependency service</B></LI>
+     * <LI>dependency value accessed after both services were installed</LI>
+     * </UL>
+     */
+    @Test
+    public void startOnFirstAccess() throws Exception {
+        final TestValueService<String> dependency = new TestValueService<>("value");
+        final UpdateTransaction txn = newUpdateTransaction();
+        installDependency(txn, dependency);
+        final TestService dependent = installDependent(txn, null);
+        prepare(txn);
+        commit(txn);
+        assertEquals(1, dependent.getStartCount());
+        assertEquals(0, dependency.getStartCount());
+
+        assertEquals("value", dependent.getDependency(0).get(10, TimeUnit.SECONDS));
+        assertEquals(1, dependency.getStartCount());
+        assertEquals("value", dependent.getDependency(0).get());
+        assertEquals(1, dependency.getStartCount());
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI><B>dependency service</B>, ON_DEMAND mode, no dependencies</LI>
+     * <LI><B>dependent service</B>, on access dependency on <B>dependency service</B></LI>
+     * <LI>dependency value accessed without waiting, <B>dependency service</B> is demanded and starts
+     * asynchronously</LI>
+     * </UL>
+     */
+    @Test
+    public void getDoesNotWait() throws Exception {
+        final TestValueService<String> dependency = new TestValueService<>("value");
+        final UpdateTransaction txn = newUpdateTransaction();
+        installDependency(txn, dependency);
+        final TestService dependent = installDependent(txn, null);
+        prepare(txn);
+        commit(txn);
+
+        final Object value = dependent.getDependency(0).get();
+        assertEquals("value", dependent.getDependency(0).get(10, TimeUnit.SECONDS));
+        assertNull(value);
+        assertEquals(1, dependency.getStartCount());
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI><B>dependency service</B>, ON_DEMAND mode, no dependencies</LI>
+     * <LI><B>dependent service</B>, on access dependency on <B>dependency service</B>, accessing it on start</LI>
+     * <LI>both services installed in single transaction</LI>
+     * </UL>
+     */
+    @Test
+    public void startOnAccessFromStart() throws Exception {
+        final TestValueService<String> dependency = new TestValueService<>("value");
+        final Object[] value = new Object[1];
+        final UpdateTransaction txn = newUpdateTransaction();
+        installDependency(txn, dependency);
+        final TestService dependent = installDependent(txn, value);
+        prepare(txn);
+        commit(txn);
+        assertEquals(1, dependent.getStartCount());
+        assertEquals(1, dependency.getStartCount());
+        assertNull(value[0]);
+        assertEquals("value", dependent.getDependency(0).get());
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI><B>dependency service</B>, ON_DEMAND mode, no dependencies</LI>
+     * <LI><B>dependent service</B>, on access dependency on <B>dependency service</B>, waiting for it on start</LI>
+     * <LI>waiting in transaction executor thread is refused</LI>
+     * </UL>
+     */
+    @Test
+    public void waitingAccessFromStartRefused() throws Exception {
+        final TestValueService<String> dependency = new TestValueService<>("value");
+        UpdateTransaction txn = newUpdateTransaction();
+        installDependency(txn, dependency);
+        final TestService dependent = installDependent(txn, null);
+        prepare(txn);
+        commit(txn);
+
+        final Throwable[] failure = new Throwable[1];
+        txn = newUpdateTransaction();
+        final ServiceBuilder<Void> sb = txnController.newServiceContext(txn).addService(serviceRegistry, accessorSN);
+        sb.setService(new TestService(accessorSN, sb, false) {
+            @Override
+            protected void starting(final StartContext<Void> context) {
+                try {
+                    dependent.getDependency(0).get(10, TimeUnit.SECONDS);
+                } catch (final Throwable t) {
+                    failure[0] = t;
+                }
+            }
+        }).install();
+        prepare(txn);
+        commit(txn);
+        assertTrue(failure[0] instanceof IllegalStateException);
+        assertEquals(0, dependency.getStartCount());
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI><B>dependency service</B>, ON_DEMAND mode, no dependencies</LI>
+     * <LI><B>dependent service</B>, on access dependency on <B>dependency service</B></LI>
+     * <LI>dependency value waited for by thread holding running updating transaction is refused</LI>
+     * </UL>
+     */
+    @Test
+    public void waitingAccessHoldingTransactionRefused() throws Exception {
+        final TestValueService<String> dependency = new TestValueService<>("value");
+        UpdateTransaction txn = newUpdateTransaction();
+        installDependency(txn, dependency);
+        final TestService dependent = installDependent(txn, null);
+        prepare(txn);
+        commit(txn);
+
+        txn = newUpdateTransaction();
+        txnController.newServiceContext(txn);
+        try {
+            dependent.getDependency(0).get(10, TimeUnit.SECONDS);
+            fail("IllegalStateException expected");
+        } catch (final IllegalStateException expected) {
+            // expected
+        } finally {
+            prepare(txn);
+            commit(txn);
+        }
+        assertEquals(0, dependency.getStartCount());
+        assertEquals("value", dependent.getDependency(0).get(10, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI><B>dependency service</B>, ON_DEMAND mode, no dependencies</LI>
+     * <LI><B>dependent service</B>, on access dependency on <B>dependency service</B></LI>
+     * <LI><B>accessor service</B> installed later accesses the dependency on start, the demand joins the running
+     * transaction instead of waiting for a new one</LI>
+     * </UL>
+     */
+    @Test
+    public void accessFromRunningTransaction() throws Exception {
+        final TestValueService<String> dependency = new TestValueService<>("value");
+        UpdateTransaction txn = newUpdateTransaction();
+        installDependency(txn, dependency);
+        final TestService dependent = installDependent(txn, null);
+        prepare(txn);
+        commit(txn);
+
+        final Object[] value = new Object[1];
+        txn = newUpdateTransaction();
+        final ServiceBuilder<Void> sb = txnController.newServiceContext(txn).addService(serviceRegistry, accessorSN);
+        sb.setService(new TestService(accessorSN, sb, false) {
+            @Override
+            protected void starting(final StartContext<Void> context) {
+                value[0] = access(dependent);
+            }
+        }).install();
+        prepare(txn);
+        commit(txn);
+        assertEquals(1, dependency.getStartCount());
+        assertNull(value[0]);
+        assertEquals("value", dependent.getDependency(0).get());
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI><B>dependency service</B>, ON_DEMAND mode, disabled</LI>
+     * <LI><B>dependent service</B>, on access dependency on <B>dependency service</B></LI>
+     * <LI>dependency value accessed after both services were installed</LI>
+     * </UL>
+     */
+    @Test
+    public void accessTimesOut() throws Exception {
+        final TestValueService<String> dependency = new TestValueService<>("value");
+        UpdateTransaction txn = newUpdateTransaction();
+        final ServiceController<String> dependencyController = installDependency(txn, dependency);
+        final TestService dependent = installDependent(txn, null);
+        prepare(txn);
+        commit(txn);
+        txn = newUpdateTransaction();
+        dependencyController.disable(txn);
+        prepare(txn);
+        commit(txn);
+
+        try {
+            dependent.getDependency(0).get(100, TimeUnit.MILLISECONDS);
+            fail("TimeoutException expected");
+        } catch (final TimeoutException expected) {
+            // expected
+        }
+        assertEquals(0, dependency.getStartCount());
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI><B>dependency service</B>, ON_DEMAND mode, no dependencies</LI>
+     * <LI><B>dependent service</B>, on access dependency on <B>dependency service</B>, installed by transaction
+     * whose executor is shut down afterwards</LI>
+     * <LI>dependency value access fails right away</LI>
+     * </UL>
+     */
+    @Test
+    public void accessWithShutdownExecutor() throws Exception {
+        final TestValueService<String> dependency = new TestValueService<>("value");
+        final ThreadPoolExecutor executor = newExecutor(2, true);
+        final UpdateTransaction txn = newUpdateTransaction(executor);
+        installDependency(txn, dependency);
+        final TestService dependent = installDependent(txn, null);
+        prepare(txn);
+        commit(txn);
+        executor.shutdown();
+        executor.awaitTermination(60, TimeUnit.SECONDS);
+
+        try {
+            dependent.getDependency(0).get(10, TimeUnit.SECONDS);
+            fail("IllegalStateException expected");
+        } catch (final IllegalStateException expected) {
+            // expected
+        }
+        assertEquals(0, dependency.getStartCount());
+    }
+
+    private ServiceController<String> installDependency(final UpdateTransaction txn, final TestValueService<String> service) {
+        final ServiceBuilder<String> sb = txnController.newServiceContext(txn).addService(serviceRegistry, dependencySN);
+        sb.setMode(ServiceMode.ON_DEMAND);
+        return sb.setService(service).install();
+    }
+
+    /**
+     * Installs dependent service, accessing its dependency on start if {@code valueOnStart} is not {@code null}.
+     */
+    private TestService installDependent(final UpdateTransaction txn, final Object[] valueOnStart) {
+        final ServiceBuilder<Void> sb = txnController.newServiceContext(txn).addService(serviceRegistry, dependentSN);
+        final TestService service = new TestService(dependentSN, sb, false, new DependencyInfo<String>(dependencySN, DependencyFlag.ON_ACCESS)) {
+            @Override
+            protected void starting(final StartContext<Void> context) {
+                if (valueOnStart != null) {
+                    valueOnStart[0] = access(this);
+                }
+            }
+        };
+        sb.setService(service).install();
+        return service;
+    }
+
+    private static Object access(final TestService dependent) {
+        // start must not wait for the dependency, demand joins the running transaction
+        return dependent.getDependency(0).get();
+    }
+}
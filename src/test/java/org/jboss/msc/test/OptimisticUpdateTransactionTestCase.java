@@ -0,0 +1,252 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2014 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.msc.test;
+
+import org.jboss.msc.service.ServiceController;
+import org.jboss.msc.service.ServiceController.State;
+import org.jboss.msc.service.ServiceName;
+import org.jboss.msc.txn.AbstractServiceTest;
+import org.jboss.msc.txn.TestService;
+import org.jboss.msc.txn.UpdateTransaction;
+import org.jboss.msc.util.CompletionListener;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests optimistic updating transactions run alongside each other and conflicts are detected.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opalka</a>
+ */
+public class OptimisticUpdateTransactionTestCase extends AbstractServiceTest {
+
+    private static final ServiceName firstSN = ServiceName.of("first");
+    private static final ServiceName secondSN = ServiceName.of("second");
+    private static final ServiceName thirdSN = ServiceName.of("third");
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI><B>first service</B> and <B>second service</B> installed and committed</LI>
+     * <LI>two optimistic transactions run concurrently, each disabling different service</LI>
+     * </UL>
+     */
+    @Test
+    public void disjointUpdates() throws Exception {
+        addService(firstSN);
+        addService(secondSN);
+        final UpdateTransaction txn1 = newOptimisticUpdateTransaction().awaitCompletion(10, TimeUnit.SECONDS);
+        final UpdateTransaction txn2 = newOptimisticUpdateTransaction().awaitCompletion(10, TimeUnit.SECONDS);
+        serviceRegistry.getRequiredService(firstSN).disable(txn1);
+        serviceRegistry.getRequiredService(secondSN).disable(txn2);
+        prepare(txn1);
+        prepare(txn2);
+        assertTrue(txnController.canCommit(txn1));
+        assertTrue(txnController.canCommit(txn2));
+        commit(txn1);
+        commit(txn2);
+        assertEquals(State.DOWN, serviceRegistry.getRequiredService(firstSN).getState(txn2));
+        assertEquals(State.DOWN, serviceRegistry.getRequiredService(secondSN).getState(txn2));
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI><B>first service</B> installed and committed</LI>
+     * <LI>two optimistic transactions attempt to disable <B>first service</B></LI>
+     * <LI>the second one fails, it is restarted and retried once the first one commits</LI>
+     * </UL>
+     */
+    @Test
+    public void writeConflict() throws Exception {
+        addService(firstSN);
+        final ServiceController<?> first = serviceRegistry.getRequiredService(firstSN);
+        final UpdateTransaction txn1 = newOptimisticUpdateTransaction().awaitCompletion(10, TimeUnit.SECONDS);
+        final UpdateTransaction txn2 = newOptimisticUpdateTransaction().awaitCompletion(10, TimeUnit.SECONDS);
+        first.disable(txn1);
+        try {
+            first.disable(txn2);
+            fail("IllegalStateException expected");
+        } catch (final IllegalStateException expected) {
+        }
+        prepare(txn1);
+        assertTrue(txnController.canCommit(txn1));
+        commit(txn1);
+        prepare(txn2);
+        assertFalse(txnController.canCommit(txn2));
+        final UpdateTransaction retryTxn = restart(txn2);
+        first.enable(retryTxn);
+        prepare(retryTxn);
+        assertTrue(txnController.canCommit(retryTxn));
+        commit(retryTxn);
+        assertEquals(State.UP, first.getState(retryTxn));
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI><B>third service</B> depends on <B>first service</B> and <B>second service</B>, all installed and committed</LI>
+     * <LI>optimistic transaction disables <B>first service</B>, <B>third service</B> stops</LI>
+     * <LI>concurrent optimistic transaction attempting to disable <B>second service</B> fails without touching any of them</LI>
+     * <LI>the second transaction is restarted and retried once the first one commits</LI>
+     * </UL>
+     */
+    @Test
+    public void conflictThroughSharedDependent() throws Exception {
+        final TestService firstService = addService(firstSN);
+        final TestService secondService = addService(secondSN);
+        final TestService thirdService = addService(thirdSN, firstSN, secondSN);
+        final ServiceController<?> second = serviceRegistry.getRequiredService(secondSN);
+        final UpdateTransaction txn1 = newOptimisticUpdateTransaction().awaitCompletion(10, TimeUnit.SECONDS);
+        final UpdateTransaction txn2 = newOptimisticUpdateTransaction().awaitCompletion(10, TimeUnit.SECONDS);
+        serviceRegistry.getRequiredService(firstSN).disable(txn1);
+        try {
+            second.disable(txn2);
+            fail("IllegalStateException expected");
+        } catch (final IllegalStateException expected) {
+        }
+        prepare(txn1);
+        assertTrue(txnController.canCommit(txn1));
+        commit(txn1);
+        prepare(txn2);
+        assertFalse(txnController.canCommit(txn2));
+        final UpdateTransaction retryTxn = restart(txn2);
+        final State secondState = second.getState(retryTxn);
+        second.disable(retryTxn);
+        prepare(retryTxn);
+        assertTrue(txnController.canCommit(retryTxn));
+        commit(retryTxn);
+
+        assertEquals(State.UP, secondState);
+        assertEquals(State.DOWN, second.getState(retryTxn));
+        assertEquals(1, firstService.getStopCount());
+        assertEquals(1, secondService.getStopCount());
+        assertEquals(1, thirdService.getStopCount());
+        assertFalse(thirdService.isUp());
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI><B>second service</B> and <B>third service</B> depend on <B>first service</B>, all installed and
+     * committed</LI>
+     * <LI>two optimistic transactions run concurrently, one disabling <B>second service</B> and the other one
+     * disabling <B>third service</B></LI>
+     * <LI>both transactions commit, <B>first service</B> keeps running</LI>
+     * </UL>
+     */
+    @Test
+    public void siblingsSharingDependency() throws Exception {
+        final TestService firstService = addService(firstSN);
+        final TestService secondService = addService(secondSN, firstSN);
+        final TestService thirdService = addService(thirdSN, firstSN);
+        final UpdateTransaction txn1 = newOptimisticUpdateTransaction().awaitCompletion(10, TimeUnit.SECONDS);
+        final UpdateTransaction txn2 = newOptimisticUpdateTransaction().awaitCompletion(10, TimeUnit.SECONDS);
+        serviceRegistry.getRequiredService(secondSN).disable(txn1);
+        serviceRegistry.getRequiredService(thirdSN).disable(txn2);
+        prepare(txn1);
+        prepare(txn2);
+        assertTrue(txnController.canCommit(txn1));
+        assertTrue(txnController.canCommit(txn2));
+        commit(txn1);
+        commit(txn2);
+
+        assertEquals(1, secondService.getStopCount());
+        assertEquals(1, thirdService.getStopCount());
+        assertEquals(0, firstService.getStopCount());
+        assertTrue(firstService.isUp());
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI><B>first service</B> installed and committed</LI>
+     * <LI>optimistic transaction reads <B>first service</B> state and installs <B>second service</B></LI>
+     * <LI>concurrent optimistic transaction disables <B>first service</B> and commits meanwhile</LI>
+     * </UL>
+     */
+    @Test
+    public void readConflict() throws Exception {
+        addService(firstSN);
+        final ServiceController<?> first = serviceRegistry.getRequiredService(firstSN);
+        final UpdateTransaction txn1 = newOptimisticUpdateTransaction().awaitCompletion(10, TimeUnit.SECONDS);
+        assertEquals(State.UP, first.getState(txn1));
+        txnController.newServiceContext(txn1).addService(serviceRegistry, secondSN).install();
+
+        final UpdateTransaction txn2 = newOptimisticUpdateTransaction().awaitCompletion(10, TimeUnit.SECONDS);
+        first.disable(txn2);
+        prepare(txn2);
+        assertTrue(txnController.canCommit(txn2));
+        commit(txn2);
+
+        prepare(txn1);
+        assertFalse(txnController.canCommit(txn1));
+        final UpdateTransaction retryTxn = restart(txn1);
+        prepare(retryTxn);
+        assertTrue(txnController.canCommit(retryTxn));
+        commit(retryTxn);
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI>optimistic transaction is running</LI>
+     * <LI>regular updating transaction is admitted once the optimistic one commits</LI>
+     * <LI>optimistic transaction is admitted once the regular one commits</LI>
+     * </UL>
+     */
+    @Test
+    public void exclusiveWithRegularUpdates() throws Exception {
+        final UpdateTransaction txn1 = newOptimisticUpdateTransaction().awaitCompletion(10, TimeUnit.SECONDS);
+        final CompletionListener<UpdateTransaction> regularListener = new CompletionListener<>();
+        txnController.newUpdateTransaction(defaultExecutor, regularListener);
+        final CompletionListener<UpdateTransaction> optimisticListener = newOptimisticUpdateTransaction();
+        assertNotAdmitted(regularListener);
+        assertNotAdmitted(optimisticListener);
+        txnController.newServiceContext(txn1).addService(serviceRegistry, thirdSN).install();
+        prepare(txn1);
+        commit(txn1);
+        final UpdateTransaction txn2 = regularListener.awaitCompletion(10, TimeUnit.SECONDS);
+        assertNotAdmitted(optimisticListener);
+        prepare(txn2);
+        commit(txn2);
+        final UpdateTransaction txn3 = optimisticListener.awaitCompletion(10, TimeUnit.SECONDS);
+        prepare(txn3);
+        commit(txn3);
+    }
+
+    private CompletionListener<UpdateTransaction> newOptimisticUpdateTransaction() {
+        final CompletionListener<UpdateTransaction> createListener = new CompletionListener<>();
+        txnController.newOptimisticUpdateTransaction(defaultExecutor, createListener);
+        return createListener;
+    }
+
+    private static void assertNotAdmitted(final CompletionListener<UpdateTransaction> createListener) throws InterruptedException {
+        try {
+            createListener.awaitCompletion(100, TimeUnit.MILLISECONDS);
+            fail("Transaction admitted while conflicting transaction runs");
+        } catch (TimeoutException expected) {
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2014 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.msc.test;
+
+import org.jboss.msc.service.ServiceBuilder;
+import org.jboss.msc.service.ServiceName;
+import org.jboss.msc.txn.AbstractServiceTest;
+import org.jboss.msc.txn.OutstandingTasks;
+import org.jboss.msc.txn.OutstandingTasks.OutstandingTask;
+import org.jboss.msc.txn.TestService;
+import org.jboss.msc.txn.UpdateTransaction;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests tracking of outstanding transaction tasks.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opalka</a>
+ */
+public class OutstandingTasksTestCase extends AbstractServiceTest {
+
+    private static final ServiceName firstSN = ServiceName.of("first");
+    private static final ServiceName secondSN = ServiceName.of("second");
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI><B>first service</B> doesn't complete its start until released</LI>
+     * <LI><B>second service</B> starts right away</LI>
+     * </UL>
+     */
+    @Test
+    public void stalledStartReported() throws Exception {
+        final TestService first = new TestService(firstSN, null, false);
+        first.setCompleteStart(false);
+        final UpdateTransaction txn = newUpdateTransaction();
+        final OutstandingTasks outstandingTasks = OutstandingTasks.attach(txn);
+        install(txn, firstSN, first);
+        install(txn, secondSN, new TestService(secondSN, null, false));
+        first.waitStart();
+        // second service start may be still completing
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (outstandingTasks.getCount() > 1 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        final List<OutstandingTask> stalled = outstandingTasks.getOutstandingTasks();
+        final String report = outstandingTasks.getReport();
+        first.completeStart();
+        prepare(txn);
+        commit(txn);
+
+        assertEquals(1, stalled.size());
+        assertEquals(firstSN, stalled.get(0).getServiceName());
+        assertTrue(stalled.get(0).isExecuting());
+        assertTrue(report.contains(firstSN.toString()));
+        assertEquals(0, outstandingTasks.getCount());
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI>many <B>services</B> installed, tasks tracked by sampling</LI>
+     * </UL>
+     */
+    @Test
+    public void sampledTasksCompleted() throws Exception {
+        final UpdateTransaction txn = newUpdateTransaction();
+        final OutstandingTasks outstandingTasks = OutstandingTasks.attach(txn, 4);
+        for (int i = 0; i < 100; i++) {
+            final ServiceName serviceSN = ServiceName.of("service", String.valueOf(i));
+            install(txn, serviceSN, new TestService(serviceSN, null, false));
+        }
+        prepare(txn);
+        commit(txn);
+
+        assertEquals(0, outstandingTasks.getCount());
+    }
+
+    private void install(final UpdateTransaction txn, final ServiceName name, final TestService service) {
+        final ServiceBuilder<Void> sb = txnController.newServiceContext(txn).addService(serviceRegistry, name);
+        sb.setService(service).install();
+    }
+}
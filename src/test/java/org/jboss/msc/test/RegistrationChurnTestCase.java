@@ -0,0 +1,125 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2014 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.msc.test;
+
+import org.jboss.msc.service.ServiceBuilder;
+import org.jboss.msc.service.ServiceController;
+import org.jboss.msc.service.ServiceController.State;
+import org.jboss.msc.service.ServiceName;
+import org.jboss.msc.txn.AbstractServiceTest;
+import org.jboss.msc.txn.ReadTransaction;
+import org.jboss.msc.txn.TestService;
+import org.jboss.msc.txn.UpdateTransaction;
+import org.jboss.msc.util.CompletionListener;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests registrations are reclaimed when services with unique names are installed and removed repeatedly.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opalka</a>
+ */
+public class RegistrationChurnTestCase extends AbstractServiceTest {
+
+    private static final int ROUNDS = 200;
+    private static final int SERVICES_COUNT = 100;
+    private static final ServiceName serviceSN = ServiceName.of("service");
+    private static final ServiceName dependencySN = ServiceName.of("dependency");
+    private static final ServiceName missingSN = ServiceName.of("missing");
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI><B>services</B> with unique names, each depends on <B>dependency service</B> and on missing service with
+     * unique name</LI>
+     * <LI>all services installed in single transaction, then removed in single transaction, many times</LI>
+     * </UL>
+     */
+    @Test
+    public void churn() throws Exception {
+        for (int round = 0; round < ROUNDS; round++) {
+            UpdateTransaction txn = newUpdateTransaction();
+            final ServiceController<?>[] controllers = new ServiceController<?>[2 * SERVICES_COUNT];
+            for (int i = 0; i < SERVICES_COUNT; i++) {
+                final String id = round + "." + i;
+                controllers[i] = install(txn, dependencySN.append(id), null);
+                controllers[SERVICES_COUNT + i] = install(txn, serviceSN.append(id), dependencySN.append(id), missingSN.append(id));
+            }
+            prepare(txn);
+            assertEquals(State.UP, controllers[0].getState(txn));
+            commit(txn);
+            assertEquals(3 * SERVICES_COUNT, getRegistrationCount(serviceRegistry));
+
+            txn = newUpdateTransaction();
+            for (final ServiceController<?> controller : controllers) {
+                controller.remove(txn);
+            }
+            prepare(txn);
+            commit(txn);
+            assertEquals(0, getRegistrationCount(serviceRegistry));
+        }
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI><B>dependency service</B> installed and committed</LI>
+     * <LI>read-only transaction admitted, then <B>dependency service</B> removed</LI>
+     * <LI>registration is kept until the read-only transaction completes</LI>
+     * </UL>
+     */
+    @Test
+    public void reclaimAfterReaders() throws Exception {
+        UpdateTransaction txn = newUpdateTransaction();
+        final ServiceController<?> controller = install(txn, dependencySN, null);
+        prepare(txn);
+        commit(txn);
+        final CompletionListener<ReadTransaction> createListener = new CompletionListener<>();
+        txnController.newReadTransaction(defaultExecutor, createListener);
+        final ReadTransaction readTxn = createListener.awaitCompletion(10, TimeUnit.SECONDS);
+
+        txn = newUpdateTransaction();
+        controller.remove(txn);
+        prepare(txn);
+        commit(txn);
+        // read-only transaction still sees removed service
+        assertEquals(1, getRegistrationCount(serviceRegistry));
+        assertSame(controller, serviceRegistry.getService(readTxn, dependencySN));
+        assertEquals(State.UP, controller.getState(readTxn));
+        commit(readTxn);
+        assertEquals(0, getRegistrationCount(serviceRegistry));
+        assertNull(serviceRegistry.getService(dependencySN));
+    }
+
+    private ServiceController<?> install(final UpdateTransaction txn, final ServiceName name, final ServiceName dependency, final ServiceName... optionalDependencies) {
+        final ServiceBuilder<Void> sb = txnController.newServiceContext(txn).addService(serviceRegistry, name);
+        if (dependency != null) {
+            sb.addDependency(dependency);
+        }
+        for (final ServiceName optionalDependency : optionalDependencies) {
+            sb.addDependency(optionalDependency, unrequiredFlag);
+        }
+        return sb.setService(new TestService(name, sb, false)).install();
+    }
+}
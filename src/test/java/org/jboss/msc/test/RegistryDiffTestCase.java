@@ -0,0 +1,280 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2014 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.msc.test;
+
+import org.jboss.msc.service.DependencyFlag;
+import org.jboss.msc.service.ServiceController;
+import org.jboss.msc.service.ServiceController.State;
+import org.jboss.msc.service.ServiceDefinition;
+import org.jboss.msc.service.ServiceMode;
+import org.jboss.msc.service.ServiceName;
+import org.jboss.msc.txn.AbstractServiceTest;
+import org.jboss.msc.txn.ReadTransaction;
+import org.jboss.msc.txn.RegistryDiff;
+import org.jboss.msc.txn.TestService;
+import org.jboss.msc.txn.UpdateTransaction;
+import org.jboss.msc.util.CompletionListener;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests applying difference between service definitions and installed services.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opalka</a>
+ */
+public class RegistryDiffTestCase extends AbstractServiceTest {
+
+    private static final ServiceName firstSN = ServiceName.of("first");
+    private static final ServiceName secondSN = ServiceName.of("second");
+    private static final ServiceName thirdSN = ServiceName.of("third");
+    private static final ServiceName fourthSN = ServiceName.of("fourth");
+    private static final ServiceName fifthSN = ServiceName.of("fifth");
+    private static final ServiceName childSN = ServiceName.of("child");
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI>deployment of <B>first service</B>, <B>second service</B> depending on it, <B>third service</B> depending
+     * on <B>second service</B> and <B>fourth service</B></LI>
+     * <LI>redeployment keeping <B>first service</B>, replacing <B>second service</B>, adding dependency of
+     * <B>third service</B>, dropping <B>fourth service</B> and adding <B>fifth service</B></LI>
+     * </UL>
+     */
+    @Test
+    public void redeploy() throws Exception {
+        final TestService first = new TestService(firstSN, null, false), second = new TestService(secondSN, null, false), third = new TestService(thirdSN, null, false), fourth = new TestService(fourthSN, null, false);
+        UpdateTransaction txn = newUpdateTransaction();
+        final RegistryDiff deployDiff = RegistryDiff.compute(txn, serviceRegistry, Arrays.asList(
+                ServiceDefinition.of(firstSN, first),
+                ServiceDefinition.of(secondSN, second).addDependency(firstSN),
+                ServiceDefinition.of(thirdSN, third).addDependency(secondSN),
+                ServiceDefinition.of(fourthSN, fourth)));
+        deployDiff.apply(txn);
+        prepare(txn);
+        commit(txn);
+        final ServiceController<?> thirdController = serviceRegistry.getService(thirdSN);
+
+        final TestService newSecond = new TestService(secondSN, null, false), newThird = new TestService(thirdSN, null, false), fifth = new TestService(fifthSN, null, false);
+        txn = newUpdateTransaction();
+        final RegistryDiff redeployDiff = RegistryDiff.compute(txn, serviceRegistry, Arrays.asList(
+                ServiceDefinition.of(firstSN, first),
+                ServiceDefinition.of(secondSN, newSecond).addDependency(firstSN),
+                ServiceDefinition.of(thirdSN, newThird).addDependency(secondSN).addDependency(firstSN, DependencyFlag.UNREQUIRED),
+                ServiceDefinition.of(fifthSN, fifth)));
+        redeployDiff.apply(txn);
+        prepare(txn);
+        final boolean canCommit = txnController.canCommit(txn);
+        commit(txn);
+
+        txn = newUpdateTransaction();
+        final ServiceController<?> newThirdController = serviceRegistry.getService(thirdSN);
+        final State thirdState = newThirdController.getState(txn);
+        final State fifthState = serviceRegistry.getService(fifthSN).getState(txn);
+        final ServiceController<?> fourthController = serviceRegistry.getService(fourthSN);
+        final ServiceController<?> secondController = serviceRegistry.getService(secondSN);
+        final RegistryDiff emptyDiff = RegistryDiff.compute(txn, serviceRegistry, Arrays.asList(
+                ServiceDefinition.of(firstSN, first),
+                ServiceDefinition.of(secondSN, newSecond).addDependency(firstSN),
+                ServiceDefinition.of(thirdSN, newThird).addDependency(firstSN, DependencyFlag.UNREQUIRED).addDependency(secondSN),
+                ServiceDefinition.of(fifthSN, fifth)));
+        prepare(txn);
+        commit(txn);
+
+        assertEquals(4, deployDiff.getInstalls().size());
+        assertTrue(canCommit);
+        assertEquals(1, redeployDiff.getUnchangedCount());
+        assertEquals(Collections.singletonList(secondSN), redeployDiff.getReplacements());
+        assertEquals(Collections.singleton(thirdSN), redeployDiff.getReinstalls());
+        assertEquals(new HashSet<>(Arrays.asList(thirdSN, fourthSN)), new HashSet<>(redeployDiff.getRemovals()));
+        assertEquals(new HashSet<>(Arrays.asList(thirdSN, fifthSN)), new HashSet<>(redeployDiff.getInstalls()));
+        // unchanged service kept running
+        assertCounts(first, 1, 0);
+        // replaced service handed off
+        assertCounts(second, 1, 1);
+        assertCounts(newSecond, 1, 0);
+        assertSame(newSecond, secondController.getService());
+        // reinstalled service
+        assertCounts(third, 1, 1);
+        assertCounts(newThird, 1, 0);
+        assertTrue(thirdController != newThirdController);
+        assertEquals(State.UP, thirdState);
+        // removed and installed services
+        assertCounts(fourth, 1, 1);
+        assertNull(fourthController);
+        assertEquals(State.UP, fifthState);
+        assertTrue(emptyDiff.isEmpty());
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI>two definitions with the same name</LI>
+     * </UL>
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void duplicateDefinitions() throws Exception {
+        final UpdateTransaction txn = newUpdateTransaction();
+        try {
+            final List<ServiceDefinition<Void>> definitions = Arrays.asList(ServiceDefinition.of(firstSN, new TestService(firstSN, null, false)), ServiceDefinition.of(firstSN, new TestService(firstSN, null, false)));
+            RegistryDiff.compute(txn, serviceRegistry, definitions);
+        } finally {
+            prepare(txn);
+            commit(txn);
+        }
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI>definition with alias equal to the name of another definition</LI>
+     * </UL>
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void aliasClashesWithName() throws Exception {
+        final UpdateTransaction txn = newUpdateTransaction();
+        try {
+            RegistryDiff.compute(txn, serviceRegistry, Arrays.asList(
+                    ServiceDefinition.of(firstSN, new TestService(firstSN, null, false)).addAliases(secondSN),
+                    ServiceDefinition.of(secondSN, new TestService(secondSN, null, false))));
+        } finally {
+            prepare(txn);
+            commit(txn);
+        }
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI>deployment of <B>first service</B> creating <B>child service</B> on start</LI>
+     * <LI>redeployment dropping <B>first service</B> and defining <B>child service</B> as regular service, stop of
+     * <B>child service</B> completes after the difference is applied</LI>
+     * </UL>
+     */
+    @Test
+    public void childNameTakenOver() throws Exception {
+        final TestService first = new TestService(firstSN, null, false);
+        final Future<TestService> child = first.addChild(childSN, ServiceMode.ACTIVE, serviceRegistry);
+        UpdateTransaction txn = newUpdateTransaction();
+        RegistryDiff.compute(txn, serviceRegistry, Collections.singletonList(ServiceDefinition.of(firstSN, first))).apply(txn);
+        prepare(txn);
+        commit(txn);
+
+        final TestService oldChild = child.get();
+        // child service name stays taken while its stop is pending
+        oldChild.setCompleteStop(false);
+        final TestService newChild = new TestService(childSN, null, false);
+        txn = newUpdateTransaction();
+        final RegistryDiff diff = RegistryDiff.compute(txn, serviceRegistry, Collections.singletonList(ServiceDefinition.of(childSN, newChild)));
+        diff.apply(txn);
+        oldChild.completeStop();
+        prepare(txn);
+        final boolean canCommit = txnController.canCommit(txn);
+        commit(txn);
+
+        assertEquals(Collections.singletonList(firstSN), diff.getRemovals());
+        assertEquals(Collections.singletonList(childSN), diff.getInstalls());
+        assertTrue(canCommit);
+        assertCounts(oldChild, 1, 1);
+        assertCounts(newChild, 1, 0);
+        assertSame(newChild, serviceRegistry.getService(childSN).getService());
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI>deployment of <B>first service</B> creating <B>child service</B> on start</LI>
+     * <LI>redeployment keeping <B>first service</B> and defining <B>child service</B> as regular service</LI>
+     * </UL>
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void childOfKeptServiceClashes() throws Exception {
+        final TestService first = new TestService(firstSN, null, false);
+        first.addChild(childSN, ServiceMode.ACTIVE, serviceRegistry);
+        UpdateTransaction txn = newUpdateTransaction();
+        RegistryDiff.compute(txn, serviceRegistry, Collections.singletonList(ServiceDefinition.of(firstSN, first))).apply(txn);
+        prepare(txn);
+        commit(txn);
+
+        txn = newUpdateTransaction();
+        try {
+            RegistryDiff.compute(txn, serviceRegistry, Arrays.asList(ServiceDefinition.of(firstSN, first), ServiceDefinition.of(childSN, new TestService(childSN, null, false))));
+        } finally {
+            prepare(txn);
+            commit(txn);
+        }
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI>deployment of <B>first service</B>, read-only transaction created</LI>
+     * <LI><B>first service</B> removed</LI>
+     * <LI>difference computed by the read-only transaction still sees <B>first service</B></LI>
+     * </UL>
+     */
+    @Test
+    public void computedFromReadVersion() throws Exception {
+        final TestService first = new TestService(firstSN, null, false);
+        final List<ServiceDefinition<Void>> definitions = Collections.singletonList(ServiceDefinition.of(firstSN, first));
+        UpdateTransaction txn = newUpdateTransaction();
+        RegistryDiff.compute(txn, serviceRegistry, definitions).apply(txn);
+        prepare(txn);
+        commit(txn);
+        final ReadTransaction readTxn = newReadTransaction();
+
+        txn = newUpdateTransaction();
+        serviceRegistry.getService(firstSN).remove(txn);
+        prepare(txn);
+        commit(txn);
+
+        final RegistryDiff readDiff = RegistryDiff.compute(readTxn, serviceRegistry, definitions);
+        commit(readTxn);
+        txn = newUpdateTransaction();
+        final RegistryDiff currentDiff = RegistryDiff.compute(txn, serviceRegistry, definitions);
+        prepare(txn);
+        commit(txn);
+
+        assertTrue(readDiff.isEmpty());
+        assertEquals(1, readDiff.getUnchangedCount());
+        assertFalse(currentDiff.isEmpty());
+        assertEquals(Collections.singletonList(firstSN), currentDiff.getInstalls());
+    }
+
+    private ReadTransaction newReadTransaction() throws Exception {
+        final CompletionListener<ReadTransaction> createListener = new CompletionListener<>();
+        txnController.newReadTransaction(defaultExecutor, createListener);
+        return createListener.awaitCompletion(10, TimeUnit.SECONDS);
+    }
+
+    private static void assertCounts(final TestService service, final int starts, final int stops) {
+        assertEquals(starts, service.getStartCount());
+        assertEquals(stops, service.getStopCount());
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2014 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.msc.test;
+
+import org.jboss.msc.service.ServiceBuilder;
+import org.jboss.msc.service.ServiceContainer;
+import org.jboss.msc.service.ServiceName;
+import org.jboss.msc.service.ServiceRegistry;
+import org.jboss.msc.service.StopContext;
+import org.jboss.msc.txn.AbstractServiceTest;
+import org.jboss.msc.txn.TestService;
+import org.jboss.msc.txn.UpdateTransaction;
+import org.jboss.msc.util.CompletionListener;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests registry removal and container shutdown remove dependents before their dependencies.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opalka</a>
+ */
+public class RegistryRemovalTestCase extends AbstractServiceTest {
+
+    private static final int CHAINS_COUNT = 200;
+    private static final int CHAIN_LENGTH = 50;
+    private static final ServiceName chainSN = ServiceName.of("chain");
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI>many independent chains of <B>services</B>, each service depends on the previous one in its chain</LI>
+     * <LI><B>service registry</B> removed</LI>
+     * </UL>
+     */
+    @Test
+    public void removeRegistryInReverseOrder() throws Exception {
+        final AtomicInteger stopCounter = new AtomicInteger();
+        final OrderService[][] services = installChains(serviceRegistry, stopCounter);
+
+        final UpdateTransaction txn = newUpdateTransaction();
+        final CompletionListener<ServiceRegistry> removeListener = new CompletionListener<>();
+        serviceRegistry.remove(txn, removeListener);
+        prepare(txn);
+        commit(txn);
+        removeListener.awaitCompletion(10, TimeUnit.SECONDS);
+
+        assertStoppedInReverseOrder(services);
+        assertEquals(0, getRegistrationCount(serviceRegistry));
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI>independent chains of <B>services</B> installed into two registries</LI>
+     * <LI><B>service container</B> shut down</LI>
+     * </UL>
+     */
+    @Test
+    public void shutdownContainerInReverseOrder() throws Exception {
+        UpdateTransaction txn = newUpdateTransaction();
+        final ServiceRegistry otherRegistry = serviceContainer.newRegistry(txn);
+        prepare(txn);
+        commit(txn);
+        final AtomicInteger stopCounter = new AtomicInteger();
+        final OrderService[][] services = installChains(serviceRegistry, stopCounter);
+        final OrderService[][] otherServices = installChains(otherRegistry, stopCounter);
+
+        txn = newUpdateTransaction();
+        final CompletionListener<ServiceContainer> shutdownListener = new CompletionListener<>();
+        serviceContainer.shutdown(txn, shutdownListener);
+        prepare(txn);
+        commit(txn);
+        shutdownListener.awaitCompletion(10, TimeUnit.SECONDS);
+
+        assertStoppedInReverseOrder(services);
+        assertStoppedInReverseOrder(otherServices);
+    }
+
+    private OrderService[][] installChains(final ServiceRegistry registry, final AtomicInteger stopCounter) {
+        final OrderService[][] services = new OrderService[CHAINS_COUNT][CHAIN_LENGTH];
+        final UpdateTransaction txn = newUpdateTransaction();
+        for (int i = 0; i < CHAINS_COUNT; i++) {
+            for (int j = 0; j < CHAIN_LENGTH; j++) {
+                final ServiceName serviceName = chainSN.append(String.valueOf(i), String.valueOf(j));
+                final ServiceBuilder<Void> sb = txnController.newServiceContext(txn).addService(registry, serviceName);
+                if (j > 0) {
+                    sb.addDependency(chainSN.append(String.valueOf(i), String.valueOf(j - 1)));
+                }
+                services[i][j] = new OrderService(serviceName, sb, stopCounter);
+                sb.setService(services[i][j]).install();
+            }
+        }
+        prepare(txn);
+        commit(txn);
+        return services;
+    }
+
+    private static void assertStoppedInReverseOrder(final OrderService[][] services) {
+        for (final OrderService[] chain : services) {
+            assertTrue("Service not stopped", chain[chain.length - 1].stopOrder > 0);
+            for (int j = 1; j < chain.length; j++) {
+                assertTrue("Dependency stopped before its dependent", chain[j].stopOrder < chain[j - 1].stopOrder);
+            }
+        }
+    }
+
+    private static final class OrderService extends TestService {
+        private final AtomicInteger stopCounter;
+        private volatile int stopOrder = -1;
+
+        private OrderService(final ServiceName serviceName, final ServiceBuilder<Void> serviceBuilder, final AtomicInteger stopCounter) {
+            super(serviceName, serviceBuilder, false);
+            this.stopCounter = stopCounter;
+        }
+
+        @Override
+        protected void stopping(final StopContext context) {
+            stopOrder = stopCounter.incrementAndGet();
+        }
+    }
+}
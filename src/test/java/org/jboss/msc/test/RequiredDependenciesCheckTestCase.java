@@ -0,0 +1,93 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2014 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.msc.test;
+
+import org.jboss.msc.problem.Problem;
+import org.jboss.msc.service.DependencyFlag;
+import org.jboss.msc.service.ServiceBuilder;
+import org.jboss.msc.service.ServiceName;
+import org.jboss.msc.txn.AbstractServiceTest;
+import org.jboss.msc.txn.UpdateTransaction;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests required dependencies of large deployments are validated at prepare.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opalka</a>
+ */
+public class RequiredDependenciesCheckTestCase extends AbstractServiceTest {
+
+    private static final int SERVICES = 1000;
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI>transaction installs many services, every other one depends on missing service</LI>
+     * <LI>the rest depends on installed service or has unrequired dependency on missing service</LI>
+     * </UL>
+     */
+    @Test
+    public void missingDependencies() throws Exception {
+        final UpdateTransaction txn = newUpdateTransaction();
+        txnController.newServiceContext(txn).addService(serviceRegistry, ServiceName.of("installed")).install();
+        for (int i = 0; i < SERVICES; i++) {
+            final ServiceBuilder<Void> sb = txnController.newServiceContext(txn).addService(serviceRegistry, ServiceName.of("service", String.valueOf(i)));
+            if (i % 2 == 0) {
+                sb.addDependency(ServiceName.of("missing", String.valueOf(i)));
+            } else if (i % 4 == 1) {
+                sb.addDependency(ServiceName.of("installed"));
+            } else {
+                sb.addDependency(ServiceName.of("missing", String.valueOf(i)), DependencyFlag.UNREQUIRED);
+            }
+            sb.install();
+        }
+        prepare(txn);
+        assertFalse(txnController.canCommit(txn));
+        assertEquals(SERVICES / 2, txn.getReport().getProblems().size());
+        for (final Problem problem : txn.getReport()) {
+            assertEquals(Problem.Severity.ERROR, problem.getSeverity());
+        }
+        commit(txn);
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI>transaction installs many services depending on services installed by the same transaction</LI>
+     * </UL>
+     */
+    @Test
+    public void satisfiedDependencies() throws Exception {
+        final UpdateTransaction txn = newUpdateTransaction();
+        for (int i = 0; i < SERVICES; i++) {
+            final ServiceBuilder<Void> sb = txnController.newServiceContext(txn).addService(serviceRegistry, ServiceName.of("service", String.valueOf(i)));
+            if (i > 0) {
+                sb.addDependency(ServiceName.of("service", String.valueOf(i - 1)));
+            }
+            sb.install();
+        }
+        prepare(txn);
+        assertTrue(txnController.canCommit(txn));
+        assertTrue(txn.getReport().getProblems().isEmpty());
+        commit(txn);
+    }
+}
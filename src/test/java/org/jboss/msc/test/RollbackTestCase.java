@@ -0,0 +1,177 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2014 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.msc.test;
+
+import org.jboss.msc.service.ServiceBuilder;
+import org.jboss.msc.service.ServiceController;
+import org.jboss.msc.service.ServiceController.State;
+import org.jboss.msc.service.ServiceName;
+import org.jboss.msc.txn.AbstractServiceTest;
+import org.jboss.msc.txn.TestService;
+import org.jboss.msc.txn.UpdateTransaction;
+import org.jboss.msc.util.CompletionListener;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests rolled back transaction changes are reverted by its successor.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opalka</a>
+ */
+public class RollbackTestCase extends AbstractServiceTest {
+
+    private static final ServiceName firstSN = ServiceName.of("first");
+    private static final ServiceName secondSN = ServiceName.of("second");
+    private static final ServiceName thirdSN = ServiceName.of("third");
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI><B>first service</B> and <B>second service</B> depending on it installed and committed</LI>
+     * <LI>transaction disables <B>first service</B>, removes <B>second service</B> and installs <B>third service</B></LI>
+     * <LI>transaction is rolled back, its successor is prepared and committed</LI>
+     * </UL>
+     */
+    @Test
+    public void revertChanges() throws Exception {
+        UpdateTransaction txn = newUpdateTransaction();
+        final TestService firstService = new TestService(firstSN, null, false);
+        final ServiceController<Void> first = install(txn, firstSN, firstService);
+        final TestService secondService = new TestService(secondSN, null, false);
+        final ServiceBuilder<Void> sb = txnController.newServiceContext(txn).addService(serviceRegistry, secondSN);
+        sb.addDependency(firstSN);
+        final ServiceController<Void> second = sb.setService(secondService).install();
+        prepare(txn);
+        commit(txn);
+
+        txn = newUpdateTransaction();
+        first.disable(txn);
+        second.remove(txn);
+        final TestService thirdService = new TestService(thirdSN, null, false);
+        install(txn, thirdSN, thirdService);
+        prepare(txn);
+        assertEquals(State.DOWN, first.getState(txn));
+        assertNull(serviceRegistry.getService(secondSN));
+        assertNotNull(serviceRegistry.getService(thirdSN));
+
+        txn = rollback(txn);
+        prepare(txn);
+        assertTrue(txnController.canCommit(txn));
+        commit(txn);
+        assertEquals(State.UP, first.getState(txn));
+        assertNull(serviceRegistry.getService(thirdSN));
+        assertSame(second, serviceRegistry.getService(secondSN));
+        assertSame(secondService, second.getService());
+        assertEquals(State.UP, second.getState(txn));
+        assertEquals(2, firstService.getStartCount());
+        assertEquals(2, secondService.getStartCount());
+        assertEquals(1, secondService.getStopCount());
+        assertEquals(1, thirdService.getStopCount());
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI><B>first service</B> installed and committed</LI>
+     * <LI>transaction replaces <B>first service</B> and is rolled back</LI>
+     * </UL>
+     */
+    @Test
+    public void revertReplace() throws Exception {
+        UpdateTransaction txn = newUpdateTransaction();
+        final TestService service = new TestService(firstSN, null, false);
+        final ServiceController<Void> first = install(txn, firstSN, service);
+        prepare(txn);
+        commit(txn);
+
+        txn = newUpdateTransaction();
+        first.replace(txn, new TestService(firstSN, null, false));
+        prepare(txn);
+        assertNotSame(service, first.getService());
+
+        txn = rollback(txn);
+        prepare(txn);
+        commit(txn);
+        assertSame(service, first.getService());
+        assertEquals(State.UP, first.getState(txn));
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI><B>first service</B> with <B>second service</B> alias and <B>third service</B> depending on the alias
+     * installed and committed</LI>
+     * <LI>transaction removes <B>third service</B> and <B>first service</B>, then installs new service with
+     * <B>second service</B> name</LI>
+     * <LI>transaction is rolled back, new service is removed before the removed ones are reattached</LI>
+     * </UL>
+     */
+    @Test
+    public void revertSharedName() throws Exception {
+        UpdateTransaction txn = newUpdateTransaction();
+        final TestService firstService = new TestService(firstSN, null, false);
+        final ServiceBuilder<Void> firstBuilder = txnController.newServiceContext(txn).addService(serviceRegistry, firstSN);
+        final ServiceController<Void> first = firstBuilder.addAliases(secondSN).setService(firstService).install();
+        final TestService thirdService = new TestService(thirdSN, null, false);
+        final ServiceBuilder<Void> thirdBuilder = txnController.newServiceContext(txn).addService(serviceRegistry, thirdSN);
+        thirdBuilder.addDependency(secondSN);
+        final ServiceController<Void> third = thirdBuilder.setService(thirdService).install();
+        prepare(txn);
+        commit(txn);
+
+        txn = newUpdateTransaction();
+        final CompletionListener<ServiceController<Void>> removeListener = new CompletionListener<>();
+        third.remove(txn);
+        first.remove(txn, removeListener);
+        removeListener.awaitCompletion(10, TimeUnit.SECONDS);
+        final TestService secondService = new TestService(secondSN, null, false);
+        install(txn, secondSN, secondService);
+        prepare(txn);
+
+        txn = rollback(txn);
+        prepare(txn);
+        assertTrue(txnController.canCommit(txn));
+        commit(txn);
+        assertSame(first, serviceRegistry.getService(firstSN));
+        assertSame(first, serviceRegistry.getService(secondSN));
+        assertSame(third, serviceRegistry.getService(thirdSN));
+        assertEquals(State.UP, first.getState(txn));
+        assertEquals(State.UP, third.getState(txn));
+        assertEquals(1, secondService.getStopCount());
+        assertEquals(2, firstService.getStartCount());
+    }
+
+    private static UpdateTransaction rollback(final UpdateTransaction txn) throws Exception {
+        final CompletionListener<UpdateTransaction> rollbackListener = new CompletionListener<>();
+        txnController.rollback(txn, rollbackListener);
+        return rollbackListener.awaitCompletion(10, TimeUnit.SECONDS);
+    }
+
+    private ServiceController<Void> install(final UpdateTransaction txn, final ServiceName name, final TestService service) {
+        final ServiceBuilder<Void> sb = txnController.newServiceContext(txn).addService(serviceRegistry, name);
+        return sb.setService(service).install();
+    }
+}
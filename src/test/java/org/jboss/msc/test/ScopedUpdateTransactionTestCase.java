@@ -0,0 +1,217 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2014 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.msc.test;
+
+import org.jboss.msc.service.ServiceBuilder;
+import org.jboss.msc.service.ServiceName;
+import org.jboss.msc.service.ServiceRegistry;
+import org.jboss.msc.service.StartContext;
+import org.jboss.msc.txn.AbstractServiceTest;
+import org.jboss.msc.txn.TestService;
+import org.jboss.msc.txn.UpdateTransaction;
+import org.jboss.msc.util.CompletionListener;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.fail;
+
+/**
+ * Tests updating transactions with disjoint scopes run concurrently.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opalka</a>
+ */
+public class ScopedUpdateTransactionTestCase extends AbstractServiceTest {
+
+    private static final ServiceName firstSN = ServiceName.of("first");
+    private static final ServiceName secondSN = ServiceName.of("second");
+
+    private ServiceRegistry otherRegistry;
+
+    @Before
+    @Override
+    public void setUp() {
+        super.setUp();
+        final UpdateTransaction txn = newUpdateTransaction();
+        otherRegistry = serviceContainer.newRegistry(txn);
+        prepare(txn);
+        commit(txn);
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI>updating transaction scoped to <B>service registry</B> installs <B>first service</B>, which blocks on start</LI>
+     * <LI>updating transaction scoped to <B>other registry</B> installs <B>second service</B> meanwhile</LI>
+     * </UL>
+     */
+    @Test
+    public void disjointScopes() throws Exception {
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final UpdateTransaction txn1 = newScopedUpdateTransaction(serviceRegistry).awaitCompletion(10, TimeUnit.SECONDS);
+        install(txn1, serviceRegistry, firstSN, startLatch);
+        final CompletionListener<UpdateTransaction> prepareListener = new CompletionListener<>();
+        txnController.prepare(txn1, prepareListener);
+
+        final UpdateTransaction txn2 = newScopedUpdateTransaction(otherRegistry).awaitCompletion(10, TimeUnit.SECONDS);
+        install(txn2, otherRegistry, secondSN, null);
+        prepare(txn2);
+        commit(txn2);
+
+        startLatch.countDown();
+        prepareListener.awaitCompletion(10, TimeUnit.SECONDS);
+        commit(txn1);
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI>two updating transactions scoped to <B>service registry</B></LI>
+     * <LI>the second one is admitted once the first one commits</LI>
+     * </UL>
+     */
+    @Test
+    public void overlappingScopes() throws Exception {
+        final UpdateTransaction txn1 = newScopedUpdateTransaction(serviceRegistry).awaitCompletion(10, TimeUnit.SECONDS);
+        final CompletionListener<UpdateTransaction> createListener = newScopedUpdateTransaction(serviceRegistry);
+        assertNotAdmitted(createListener);
+        prepare(txn1);
+        commit(txn1);
+        final UpdateTransaction txn2 = createListener.awaitCompletion(10, TimeUnit.SECONDS);
+        prepare(txn2);
+        commit(txn2);
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI><B>first service</B> in <B>service registry</B> depends on <B>second service</B> in <B>other registry</B></LI>
+     * <LI>updating transactions scoped to each registry never run concurrently</LI>
+     * </UL>
+     */
+    @Test
+    public void linkedScopes() throws Exception {
+        UpdateTransaction txn = newUpdateTransaction();
+        final ServiceBuilder<Void> sb = txnController.newServiceContext(txn).addService(serviceRegistry, firstSN);
+        sb.addDependency(otherRegistry, secondSN);
+        sb.setService(new TestService(firstSN, sb, false)).install();
+        install(txn, otherRegistry, secondSN, null);
+        prepare(txn);
+        commit(txn);
+
+        final UpdateTransaction txn1 = newScopedUpdateTransaction(serviceRegistry).awaitCompletion(10, TimeUnit.SECONDS);
+        final CompletionListener<UpdateTransaction> createListener = newScopedUpdateTransaction(otherRegistry);
+        assertNotAdmitted(createListener);
+        // linked registry is part of transaction scope
+        serviceRegistry.getService(firstSN).disable(txn1);
+        otherRegistry.getService(secondSN).disable(txn1);
+        prepare(txn1);
+        commit(txn1);
+        txn = createListener.awaitCompletion(10, TimeUnit.SECONDS);
+        prepare(txn);
+        commit(txn);
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI><B>first service</B> in <B>service registry</B> depends on <B>second service</B> in <B>other registry</B></LI>
+     * <LI><B>first service</B> gets removed</LI>
+     * <LI>updating transactions scoped to each registry run concurrently again</LI>
+     * </UL>
+     */
+    @Test
+    public void unlinkedScopes() throws Exception {
+        UpdateTransaction txn = newUpdateTransaction();
+        final ServiceBuilder<Void> sb = txnController.newServiceContext(txn).addService(serviceRegistry, firstSN);
+        sb.addDependency(otherRegistry, secondSN);
+        sb.setService(new TestService(firstSN, sb, false)).install();
+        install(txn, otherRegistry, secondSN, null);
+        prepare(txn);
+        commit(txn);
+
+        txn = newUpdateTransaction();
+        serviceRegistry.getService(firstSN).remove(txn);
+        prepare(txn);
+        commit(txn);
+
+        // registries are unlinked once the last dependency between them is removed
+        final UpdateTransaction txn1 = newScopedUpdateTransaction(serviceRegistry).awaitCompletion(10, TimeUnit.SECONDS);
+        final UpdateTransaction txn2 = newScopedUpdateTransaction(otherRegistry).awaitCompletion(10, TimeUnit.SECONDS);
+        prepare(txn2);
+        commit(txn2);
+        prepare(txn1);
+        commit(txn1);
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI>updating transaction scoped to <B>service registry</B> attempts to install service to <B>other registry</B></LI>
+     * </UL>
+     */
+    @Test
+    public void outOfScope() throws Exception {
+        final UpdateTransaction txn = newScopedUpdateTransaction(serviceRegistry).awaitCompletion(10, TimeUnit.SECONDS);
+        try {
+            install(txn, otherRegistry, secondSN, null);
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            otherRegistry.disable(txn);
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException expected) {
+        }
+        prepare(txn);
+        commit(txn);
+    }
+
+    private CompletionListener<UpdateTransaction> newScopedUpdateTransaction(final ServiceRegistry registry) {
+        final CompletionListener<UpdateTransaction> createListener = new CompletionListener<>();
+        txnController.newUpdateTransaction(defaultExecutor, Collections.singleton(registry), createListener);
+        return createListener;
+    }
+
+    private static void assertNotAdmitted(final CompletionListener<UpdateTransaction> createListener) throws InterruptedException {
+        try {
+            createListener.awaitCompletion(100, TimeUnit.MILLISECONDS);
+            fail("Transaction with overlapping scope admitted");
+        } catch (TimeoutException expected) {
+        }
+    }
+
+    private void install(final UpdateTransaction txn, final ServiceRegistry registry, final ServiceName name, final CountDownLatch startLatch) {
+        final ServiceBuilder<Void> sb = txnController.newServiceContext(txn).addService(registry, name);
+        sb.setService(new TestService(name, sb, false) {
+            @Override
+            protected void starting(final StartContext<Void> context) {
+                if (startLatch == null) return;
+                try {
+                    startLatch.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }).install();
+    }
+}
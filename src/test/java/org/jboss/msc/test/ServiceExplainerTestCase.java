@@ -0,0 +1,149 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2014 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.msc.test;
+
+import org.jboss.msc.service.ServiceBuilder;
+import org.jboss.msc.service.ServiceController;
+import org.jboss.msc.service.ServiceMode;
+import org.jboss.msc.service.ServiceName;
+import org.jboss.msc.txn.AbstractServiceTest;
+import org.jboss.msc.txn.ReadTransaction;
+import org.jboss.msc.txn.ServiceExplainer;
+import org.jboss.msc.txn.ServiceExplainer.Blocker;
+import org.jboss.msc.txn.ServiceExplainer.Reason;
+import org.jboss.msc.txn.TestService;
+import org.jboss.msc.txn.UpdateTransaction;
+import org.jboss.msc.util.CompletionListener;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests explaining why services are not up.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opalka</a>
+ */
+public class ServiceExplainerTestCase extends AbstractServiceTest {
+
+    private static final ServiceName missingSN = ServiceName.of("missing");
+    private static final ServiceName failingSN = ServiceName.of("failing");
+    private static final ServiceName disabledSN = ServiceName.of("disabled");
+    private static final ServiceName onDemandSN = ServiceName.of("onDemand");
+    private static final ServiceName upSN = ServiceName.of("up");
+    private static final int CHAIN_LENGTH = 20000;
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI><B>failing service</B> fails to start</LI>
+     * <LI><B>disabled service</B> disabled</LI>
+     * <LI><B>on demand service</B> not demanded by anybody</LI>
+     * <LI><B>up service</B> started</LI>
+     * <LI><B>first service</B> depends on <B>up service</B> and on missing service</LI>
+     * <LI><B>second service</B> depends on <B>first service</B>, <B>failing service</B> and <B>disabled service</B></LI>
+     * </UL>
+     */
+    @Test
+    public void blockingFrontier() throws Exception {
+        final UpdateTransaction txn = newUpdateTransaction();
+        install(txn, failingSN, true);
+        final ServiceController<Void> disabled = install(txn, disabledSN, false);
+        final ServiceController<Void> onDemand = install(txn, onDemandSN, false, ServiceMode.ON_DEMAND);
+        final ServiceController<Void> up = install(txn, upSN, false);
+        final ServiceController<Void> first = install(txn, ServiceName.of("first"), false, null, upSN, missingSN);
+        final ServiceController<Void> second = install(txn, ServiceName.of("second"), false, null, ServiceName.of("first"), failingSN, disabledSN);
+        disabled.disable(txn);
+        prepare(txn);
+        commit(txn);
+
+        final ReadTransaction readTxn = newReadTransaction();
+        final List<Blocker> secondBlockers = ServiceExplainer.explain(readTxn, second);
+        final List<Blocker> firstBlockers = ServiceExplainer.explain(readTxn, first);
+        final List<Blocker> onDemandBlockers = ServiceExplainer.explain(readTxn, onDemand);
+        final List<Blocker> upBlockers = ServiceExplainer.explain(readTxn, up);
+        commit(readTxn);
+
+        final Map<ServiceName, Reason> reasons = new HashMap<>();
+        for (final Blocker blocker : secondBlockers) {
+            reasons.put(blocker.getServiceName(), blocker.getReason());
+        }
+        assertEquals(3, reasons.size());
+        assertEquals(Reason.MISSING, reasons.get(missingSN));
+        assertEquals(Reason.FAILED, reasons.get(failingSN));
+        assertEquals(Reason.DISABLED, reasons.get(disabledSN));
+        assertEquals(1, firstBlockers.size());
+        assertEquals(missingSN, firstBlockers.get(0).getServiceName());
+        assertEquals(1, onDemandBlockers.size());
+        assertEquals(Reason.NOT_DEMANDED, onDemandBlockers.get(0).getReason());
+        assertTrue(upBlockers.isEmpty());
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI>long chain of <B>services</B>, each one depending on the next one, the last one depends on missing service</LI>
+     * <LI>every service of the chain explained in the same transaction</LI>
+     * </UL>
+     */
+    @Test
+    public void longChainExplainedOnce() throws Exception {
+        final ServiceController<?>[] chain = new ServiceController<?>[CHAIN_LENGTH];
+        final UpdateTransaction txn = newUpdateTransaction();
+        for (int i = 0; i < CHAIN_LENGTH; i++) {
+            final ServiceName dependency = i + 1 < CHAIN_LENGTH ? ServiceName.of("chain", String.valueOf(i + 1)) : missingSN;
+            chain[i] = install(txn, ServiceName.of("chain", String.valueOf(i)), false, null, dependency);
+        }
+        prepare(txn);
+        commit(txn);
+
+        final ReadTransaction readTxn = newReadTransaction();
+        int blockedByMissing = 0;
+        for (final ServiceController<?> controller : chain) {
+            final List<Blocker> blockers = ServiceExplainer.explain(readTxn, controller);
+            if (blockers.size() == 1 && blockers.get(0).getServiceName().equals(missingSN)) blockedByMissing++;
+        }
+        commit(readTxn);
+
+        assertEquals(CHAIN_LENGTH, blockedByMissing);
+    }
+
+    private ServiceController<Void> install(final UpdateTransaction txn, final ServiceName name, final boolean failToStart) {
+        return install(txn, name, failToStart, null);
+    }
+
+    private ServiceController<Void> install(final UpdateTransaction txn, final ServiceName name, final boolean failToStart, final ServiceMode mode, final ServiceName... dependencies) {
+        final ServiceBuilder<Void> sb = txnController.newServiceContext(txn).addService(serviceRegistry, name);
+        for (final ServiceName dependency : dependencies) {
+            sb.addDependency(dependency, unrequiredFlag);
+        }
+        if (mode != null) sb.setMode(mode);
+        return sb.setService(new TestService(name, sb, failToStart)).install();
+    }
+
+    private ReadTransaction newReadTransaction() throws Exception {
+        final CompletionListener<ReadTransaction> createListener = new CompletionListener<>();
+        txnController.newReadTransaction(defaultExecutor, createListener);
+        return createListener.awaitCompletion(10, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2014 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.msc.test;
+
+import org.jboss.msc.problem.Problem;
+import org.jboss.msc.problem.Problem.Severity;
+import org.jboss.msc.service.ServiceBuilder;
+import org.jboss.msc.service.ServiceContainer;
+import org.jboss.msc.service.ServiceName;
+import org.jboss.msc.txn.AbstractServiceTest;
+import org.jboss.msc.txn.TestService;
+import org.jboss.msc.txn.UpdateTransaction;
+import org.jboss.msc.util.CompletionListener;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests container shutdown bounded by deadline.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opalka</a>
+ */
+public class ShutdownDeadlineTestCase extends AbstractServiceTest {
+
+    private static final ServiceName firstSN = ServiceName.of("first");
+    private static final ServiceName secondSN = ServiceName.of("second");
+    
+    /**
+     * Usecase:
+     * <UL>
+     * <LI><B>first service</B> completes its stop</LI>
+     * <LI><B>second service</B> depends on <B>first service</B>, never completes its stop</LI>
+     * <LI><B>service container</B> shut down with short deadline</LI>
+     * </UL>
+     */
+    @Test
+    public void hungStopAbandonedAtDeadline() throws Exception {
+        final TestService first = install(firstSN, false);
+        final TestService second = install(secondSN, false, firstSN);
+        second.setCompleteStop(false);
+
+        final long startTime = System.nanoTime();
+        final UpdateTransaction txn = newUpdateTransaction();
+        final CompletionListener<ServiceContainer> shutdownListener = new CompletionListener<>();
+        serviceContainer.shutdown(txn, 200, TimeUnit.MILLISECONDS, shutdownListener);
+        prepare(txn);
+        final List<Problem> warnings = getWarnings(txn);
+        commit(txn);
+        shutdownListener.awaitCompletion(10, TimeUnit.SECONDS);
+        final long shutdownTime = System.nanoTime() - startTime;
+
+        assertTrue(shutdownTime >= TimeUnit.MILLISECONDS.toNanos(200));
+        assertEquals(1, second.getStopCount());
+        // dependency was dispatched once deadline expired, it is still stopped
+        assertEquals(1, first.getStopCount());
+        assertEquals(1, warnings.size());
+        assertEquals(0, getRegistrationCount(serviceRegistry));
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI><B>first service</B> completes its stop</LI>
+     * <LI>expendable <B>second service</B> depends on <B>first service</B>, never completes its stop</LI>
+     * <LI><B>service container</B> shut down with long deadline</LI>
+     * </UL>
+     */
+    @Test
+    public void expendableStopNotWaited() throws Exception {
+        final TestService first = install(firstSN, false);
+        final TestService second = install(secondSN, true, firstSN);
+        second.setCompleteStop(false);
+
+        final UpdateTransaction txn = newUpdateTransaction();
+        final CompletionListener<ServiceContainer> shutdownListener = new CompletionListener<>();
+        serviceContainer.shutdown(txn, 1, TimeUnit.HOURS, shutdownListener);
+        prepare(txn);
+        final List<Problem> warnings = getWarnings(txn);
+        commit(txn);
+        shutdownListener.awaitCompletion(10, TimeUnit.SECONDS);
+
+        assertEquals(1, second.getStopCount());
+        assertEquals(1, first.getStopCount());
+        assertTrue(warnings.isEmpty());
+        assertEquals(0, getRegistrationCount(serviceRegistry));
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI><B>first service</B> completes its stop long after deadline</LI>
+     * <LI><B>service container</B> shut down with short deadline</LI>
+     * </UL>
+     */
+    @Test
+    public void stopAbandonedAtDeadline() throws Exception {
+        final TestService first = install(firstSN, false);
+        first.setCompleteStop(false);
+        final Thread completer = completeStop(first, 300);
+
+        final UpdateTransaction txn = newUpdateTransaction();
+        final CompletionListener<ServiceContainer> shutdownListener = new CompletionListener<>();
+        serviceContainer.shutdown(txn, 50, TimeUnit.MILLISECONDS, shutdownListener);
+        prepare(txn);
+        final List<Problem> warnings = getWarnings(txn);
+        commit(txn);
+        shutdownListener.awaitCompletion(10, TimeUnit.SECONDS);
+        // late completion of abandoned stop is ignored
+        completer.join();
+
+        assertEquals(1, first.getStopCount());
+        assertEquals(1, warnings.size());
+        assertEquals(0, getRegistrationCount(serviceRegistry));
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     * <LI><B>first service</B> completes its stop shortly</LI>
+     * <LI><B>service container</B> shut down with long deadline</LI>
+     * </UL>
+     */
+    @Test
+    public void stopWaitedBeforeDeadline() throws Exception {
+        final TestService first = install(firstSN, false);
+        first.setCompleteStop(false);
+        final Thread completer = completeStop(first, 100);
+
+        final long startTime = System.nanoTime();
+        final UpdateTransaction txn = newUpdateTransaction();
+        final CompletionListener<ServiceContainer> shutdownListener = new CompletionListener<>();
+        serviceContainer.shutdown(txn, 1, TimeUnit.HOURS, shutdownListener);
+        prepare(txn);
+        final List<Problem> warnings = getWarnings(txn);
+        commit(txn);
+        shutdownListener.awaitCompletion(10, TimeUnit.SECONDS);
+        final long shutdownTime = System.nanoTime() - startTime;
+        completer.join();
+
+        assertTrue(shutdownTime >= TimeUnit.MILLISECONDS.toNanos(100));
+        assertEquals(1, first.getStopCount());
+        assertFalse(first.isUp());
+        assertTrue(warnings.isEmpty());
+        assertEquals(0, getRegistrationCount(serviceRegistry));
+    }
+
+    private TestService install(final ServiceName name, final boolean expendable, final ServiceName... dependencies) {
+        final UpdateTransaction txn = newUpdateTransaction();
+        final ServiceBuilder<Void> sb = txnController.newServiceContext(txn).addService(serviceRegistry, name);
+        for (final ServiceName dependency : dependencies) {
+            sb.addDependency(dependency);
+        }
+        final TestService service = new TestService(name, sb, false);
+        sb.setService(service).setExpendable(expendable).install();
+        prepare(txn);
+        commit(txn);
+        return service;
+    }
+
+    private static Thread completeStop(final TestService service, final long delayMillis) {
+        final Thread completer = new Thread() {
+            @Override
+            public void run() {
+                service.waitStop();
+                try {
+                    Thread.sleep(delayMillis);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                service.completeStop();
+            }
+        };
+        completer.start();
+        return completer;
+    }
+
+    private static List<Problem> getWarnings(final UpdateTransaction txn) {
+        final List<Problem> warnings = new ArrayList<>();
+        for (final Problem problem : txn.getReport().getProblems()) {
+            if (problem.getSeverity() == Severity.WARNING) warnings.add(problem);
+        }
+        return warnings;
+    }
+}
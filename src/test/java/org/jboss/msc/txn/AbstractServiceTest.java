@@ -72,6 +72,10 @@ public class AbstractServiceTest extends AbstractTransactionTest {
         super.tearDown();
     }
 
+    protected static int getRegistrationCount(final ServiceRegistry registry) {
+        return ((ServiceRegistryImpl) registry).getRegistrationCount();
+    }
+
     protected final void removeRegistry() {
         removeRegistry(serviceRegistry);
     }
@@ -35,17 +35,19 @@ import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 /**
- * Basic service for tests.
+ * Basic service for tests. Tests needing extra behavior override {@link #starting(StartContext)} or
+ * {@link #stopping(StopContext)}.
  * 
  * @author <a href="mailto:frainone@redhat.com">Flavia Rainone</a>
  * @author <a href="mailto:ropalka@redhat.com">Richard Opalka</a>
  */
-public final class TestService implements Service<Void> {
+public class TestService implements Service<Void> {
     private CountDownLatch startLatch = new CountDownLatch(1);
     private CountDownLatch stopLatch = new CountDownLatch(1);
 
@@ -54,6 +56,13 @@ public final class TestService implements Service<Void> {
     private final boolean failToStart;
     private AtomicBoolean up = new AtomicBoolean();
     private AtomicBoolean failed = new AtomicBoolean();
+    private final AtomicInteger startCount = new AtomicInteger();
+    private final AtomicInteger stopCount = new AtomicInteger();
+    private volatile long startDelay;
+    private volatile boolean completeStart = true;
+    private volatile boolean completeStop = true;
+    private volatile StartContext<Void> startContext;
+    private volatile StopContext stopContext;
     private Collection<ChildServiceFactory> childServiceFactories = Collections.emptyList();
 
     public TestService(ServiceName serviceName, ServiceBuilder<Void> serviceBuilder, final boolean failToStart, final DependencyInfo<?>... dependencyInfos) {
@@ -66,8 +75,22 @@ public final class TestService implements Service<Void> {
     }
 
     @Override
-    public void start(final StartContext<Void> context) {
+    public final void start(final StartContext<Void> context) {
         assertFalse(up.get() || failed.get());
+        startCount.incrementAndGet();
+        if (startDelay > 0) {
+            try {
+                Thread.sleep(startDelay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        starting(context);
+        if (!completeStart) {
+            startContext = context;
+            startLatch.countDown();
+            return;
+        }
         if (failToStart) {
             failed.set(true);
             // context.addProblem(new UnsupportedOperationException());
@@ -119,6 +142,64 @@ public final class TestService implements Service<Void> {
         return up.get();
     }
 
+    /**
+     * Makes start of this service take at least the given time.
+     *
+     * @param startDelay the delay in milliseconds
+     */
+    public void setStartDelay(final long startDelay) {
+        this.startDelay = startDelay;
+    }
+
+    /**
+     * Leaves start of this service to be completed by the test, see {@link #completeStart()}.
+     *
+     * @param completeStart {@code false} if start is completed by the test
+     */
+    public void setCompleteStart(final boolean completeStart) {
+        this.completeStart = completeStart;
+    }
+
+    /**
+     * Leaves stop of this service to be completed by the test, see {@link #completeStop()}.
+     *
+     * @param completeStop {@code false} if stop is completed by the test
+     */
+    public void setCompleteStop(final boolean completeStop) {
+        this.completeStop = completeStop;
+    }
+
+    /**
+     * Completes start left to the test, waiting for the start to be called first.
+     */
+    public void completeStart() {
+        waitStart();
+        up.set(true);
+        startContext.complete();
+    }
+
+    /**
+     * Completes stop left to the test, waiting for the stop to be called first.
+     */
+    public void completeStop() {
+        waitStop();
+        up.set(false);
+        failed.set(false);
+        stopContext.complete();
+    }
+
+    public StartContext<Void> getStartContext() {
+        return startContext;
+    }
+
+    public int getStartCount() {
+        return startCount.get();
+    }
+
+    public int getStopCount() {
+        return stopCount.get();
+    }
+
     public Dependency<?> getDependency(int index) {
         return dependencies[index];
     }
@@ -127,9 +208,32 @@ public final class TestService implements Service<Void> {
         return serviceName.toString();
     }
 
+    /**
+     * Invoked on start before the start is completed.
+     *
+     * @param context the start context
+     */
+    protected void starting(final StartContext<Void> context) {
+    }
+
+    /**
+     * Invoked on stop before the stop is completed.
+     *
+     * @param context the stop context
+     */
+    protected void stopping(final StopContext context) {
+    }
+
     @Override
-    public void stop(StopContext stopContext) {
+    public final void stop(StopContext stopContext) {
         assertTrue(up.get() || failed.get());
+        stopCount.incrementAndGet();
+        stopping(stopContext);
+        if (!completeStop) {
+            this.stopContext = stopContext;
+            stopLatch.countDown();
+            return;
+        }
         up.set(false);
         failed.set(false);
         stopContext.complete();
@@ -17,10 +17,13 @@
  */
 package org.jboss.msc.txn;
 
+import org.jboss.msc.problem.ProblemReport;
 import org.jboss.msc.service.ServiceContainer;
 import org.jboss.msc.service.ServiceContext;
+import org.jboss.msc.service.ServiceRegistry;
 import org.jboss.msc.util.Listener;
 
+import java.util.Collection;
 import java.util.concurrent.Executor;
 
 /**
@@ -54,6 +57,22 @@ public final class TestTransactionController {
         delegate.newUpdateTransaction(executor, listener);
     }
 
+    public void newUpdateTransaction(final Executor executor, final Collection<? extends ServiceRegistry> registries, final Listener<UpdateTransaction> listener) {
+        delegate.newUpdateTransaction(executor, registries, listener);
+    }
+
+    public void newOptimisticUpdateTransaction(final Executor executor, final Listener<UpdateTransaction> listener) {
+        delegate.newOptimisticUpdateTransaction(executor, listener);
+    }
+
+    public void newDryRunUpdateTransaction(final Executor executor, final Listener<UpdateTransaction> listener) {
+        delegate.newDryRunUpdateTransaction(executor, listener);
+    }
+
+    public void submitUpdate(final Executor executor, final Listener<? super UpdateTransaction> work, final Listener<? super ProblemReport> listener) {
+        delegate.submitUpdate(executor, work, listener);
+    }
+
     public void newReadTransaction(final Executor executor, final Listener<ReadTransaction> listener) {
         delegate.newReadTransaction(executor, listener);
     }
@@ -70,6 +89,10 @@ public final class TestTransactionController {
         delegate.restart(updateTxn, completionListener);
     }
 
+    public void rollback(final UpdateTransaction updateTxn, final Listener<? super UpdateTransaction> completionListener) {
+        delegate.rollback(updateTxn, completionListener);
+    }
+
     public ServiceContext newServiceContext(final UpdateTransaction updateTxn) {
         return delegate.newServiceContext(updateTxn);
     }
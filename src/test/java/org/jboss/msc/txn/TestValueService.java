@@ -0,0 +1,93 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2014 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.msc.txn;
+
+import org.jboss.msc.service.Service;
+import org.jboss.msc.service.StartContext;
+import org.jboss.msc.service.StopContext;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Service providing a value for tests, the counterpart of {@link TestService} for tests checking injected values.
+ * Tests needing extra behavior override {@link #starting(StartContext)} or {@link #stopping(StopContext)}.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opalka</a>
+ */
+public class TestValueService<T> implements Service<T> {
+    private final T value;
+    private final boolean failToStart;
+    private final AtomicInteger startCount = new AtomicInteger();
+    private final AtomicInteger stopCount = new AtomicInteger();
+
+    public TestValueService(final T value) {
+        this(value, false);
+    }
+
+    public TestValueService(final T value, final boolean failToStart) {
+        this.value = value;
+        this.failToStart = failToStart;
+    }
+
+    @Override
+    public final void start(final StartContext<T> context) {
+        startCount.incrementAndGet();
+        starting(context);
+        if (failToStart) context.fail();
+        else context.complete(value);
+    }
+
+    @Override
+    public final void stop(final StopContext context) {
+        stopCount.incrementAndGet();
+        stopping(context);
+        context.complete();
+    }
+
+    /**
+     * Invoked on start before the start is completed.
+     *
+     * @param context the start context
+     */
+    protected void starting(final StartContext<T> context) {
+    }
+
+    /**
+     * Invoked on stop before the stop is completed.
+     *
+     * @param context the stop context
+     */
+    protected void stopping(final StopContext context) {
+    }
+
+    public T getValue() {
+        return value;
+    }
+
+    public int getStartCount() {
+        return startCount.get();
+    }
+
+    public int getStopCount() {
+        return stopCount.get();
+    }
+
+    public String toString() {
+        return String.valueOf(value);
+    }
+}